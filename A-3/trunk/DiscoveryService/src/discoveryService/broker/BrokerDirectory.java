@@ -0,0 +1,509 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.NodeDescriptor;
+import discoveryService.core.DSMessage;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.FilterIndexes;
+import discoveryService.core.store.OffHeapStore;
+import discoveryService.core.store.RecordCodec;
+import discoveryService.core.store.RecordCodecs;
+import discoveryService.core.watch.PublicationEvent;
+
+/**
+ * Replicas of the publications of the nodes connected to a broker, kept up to date
+ * with the {@link PublicationEvent}s the nodes publish.
+ * <p>
+ * Each replica keeps the item, the template and the version of a publication. Events 
+ * carrying an older version than the replica are ignored, and leased replicas expire
+ * when their publisher does not renew them within the time to live. The replicas of a 
+ * node are dropped when it disconnects.
+ * </p>
+ * <p>
+ * A search is not matched against every replica. The templates with a {@link FilterIndex}
+ * (see {@link FilterIndexes}) are matched through the index of their type, and only the
+ * other templates are matched one by one.
+ * </p>
+ * <p>
+ * When an off-heap capacity is given, the replicas of the items having a {@link RecordCodec}
+ * (e.g. the service descriptors) are kept as records of an {@link OffHeapStore} for each
+ * codec and matched in place; the other replicas are kept on the heap. The records are
+ * grouped by the index key of their template (see {@link Indexable}), so that a search with
+ * an index key only reads the records with the same key or without a key.
+ * </p>
+ * <p>
+ * The expired replicas are removed by <code>expire()</code>, which the broker calls every
+ * <code>EXPIRY_INTERVAL</code> milliseconds; until then the searches skip them. Searches
+ * are looked up concurrently, while the updates take the directory exclusively.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class BrokerDirectory {
+	/**
+	 * Time in milliseconds between two removals of the expired replicas.
+	 */
+	public final static int EXPIRY_INTERVAL = 1000;
+	// Long fields added by the directory after the ones of the codec
+	private final static int VERSION = 0;
+	private final static int EXPIRATION = 1;
+	private final static int OWNER = 2;
+	// String field added by the directory after the ones of the codec
+	private final static int INDEX_KEY = 0;
+	
+	private HashMap<String, Replica> replicas;
+	// Indexes of the templates by type, null for the types without index
+	private HashMap<Class<?>, FilterIndex> indexes;
+	private IdentityHashMap<Filter, Replica> indexed;
+	private HashMap<String, Replica> unindexed;
+	private int storeCapacity;
+	private HashMap<RecordCodec, Records> stores;
+	private HashMap<NodeDescriptor, Integer> ownerIDs;
+	private ArrayList<NodeDescriptor> owners;
+	private PriorityQueue<Deadline> deadlines;
+	private ReentrantReadWriteLock lock;
+	private AtomicLong lookups;
+	private AtomicLong hits;
+	
+	/**
+	 * Create a directory keeping all the replicas on the heap.
+	 */
+	public BrokerDirectory() {
+		this(0);
+	}
+	
+	/**
+	 * @param storeCapacity Initial number of records of the off-heap stores; 0 to keep
+	 * all the replicas on the heap.
+	 */
+	public BrokerDirectory(int storeCapacity) {
+		replicas = new HashMap<String, Replica>();
+		indexes = new HashMap<Class<?>, FilterIndex>();
+		indexed = new IdentityHashMap<Filter, Replica>();
+		unindexed = new HashMap<String, Replica>();
+		this.storeCapacity = storeCapacity;
+		stores = new HashMap<RecordCodec, Records>();
+		ownerIDs = new HashMap<NodeDescriptor, Integer>();
+		owners = new ArrayList<NodeDescriptor>();
+		deadlines = new PriorityQueue<Deadline>();
+		lock = new ReentrantReadWriteLock();
+		lookups = new AtomicLong();
+		hits = new AtomicLong();
+	}
+	
+	/**
+	 * Apply an event published by a node connected to the broker.
+	 * 
+	 * @param event The event.
+	 * @param owner The node that published it.
+	 * @param now The current time in milliseconds.
+	 */
+	public void update(PublicationEvent event, NodeDescriptor owner, long now) {
+		lock.writeLock().lock();
+		try {
+			String id = event.getPublicationID();
+			if (getVersion(id) > event.getVersion())
+				return;
+			if (event.getType() == PublicationEvent.REMOVED) {
+				remove(id);
+				return;
+			}
+			// Without the template the searches cannot be matched
+			if ((event.getTemplate() == null) || (event.getItem() == null))
+				return;
+			long expiration = (event.getTTL() > 0) ? now + event.getTTL() : Long.MAX_VALUE;
+			if (expiration < Long.MAX_VALUE)
+				deadlines.add(new Deadline(id, expiration));
+			
+			RecordCodec codec = (storeCapacity > 0) ? RecordCodecs.get(event.getItem().getClass()) : null;
+			if ((codec != null) && codec.accepts(event.getItem(), event.getTemplate())) {
+				Records records = stores.get(codec);
+				if (records == null) {
+					records = new Records(new OffHeapStore(codec.getStringFields() + 1, codec.getLongFields() + 3, storeCapacity));
+					stores.put(codec, records);
+				}
+				String[] strings = new String[codec.getStringFields() + 1];
+				long[] longs = new long[codec.getLongFields() + 3];
+				codec.encode(event.getItem(), strings, longs);
+				strings[codec.getStringFields() + INDEX_KEY] = getIndexKey(event.getTemplate());
+				longs[codec.getLongFields() + VERSION] = event.getVersion();
+				longs[codec.getLongFields() + EXPIRATION] = expiration;
+				longs[codec.getLongFields() + OWNER] = getOwnerID(owner);
+				remove(id);
+				records.put(id, strings, longs, codec);
+				return;
+			}
+			remove(id);
+			Replica replica = new Replica(id, owner, event.getTemplate());
+			replica.item = event.getItem();
+			replica.version = event.getVersion();
+			replica.expiration = expiration;
+			replicas.put(id, replica);
+			FilterIndex index = getIndex(replica.template.getClass());
+			if ((index != null) && !indexed.containsKey(replica.template) && index.add(replica.template)) {
+				replica.index = index;
+				indexed.put(replica.template, replica);
+			}
+			else
+				unindexed.put(id, replica);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Find the replicas whose template matches a search, skipping the expired ones.
+	 * 
+	 * @param query The search.
+	 * @param now The current time in milliseconds.
+	 * @return The matching items grouped by the node that published them, empty if none.
+	 */
+	public Map<NodeDescriptor, List<DSMessage>> lookup(Message query, long now) {
+		lookups.incrementAndGet();
+		HashMap<NodeDescriptor, List<DSMessage>> result = new HashMap<NodeDescriptor, List<DSMessage>>();
+		String key = getIndexKey(query);
+		lock.readLock().lock();
+		try {
+			for (FilterIndex index : indexes.values()) {
+				if (index == null)
+					continue;
+				for (Filter template : index.matches(query)) {
+					Replica replica = indexed.get(template);
+					if (replica.expiration > now)
+						add(result, replica.owner, replica.item);
+				}
+			}
+			for (Replica replica : unindexed.values())
+				if ((replica.expiration > now) && replica.template.matches(query))
+					add(result, replica.owner, replica.item);
+			for (Map.Entry<RecordCodec, Records> entry : stores.entrySet()) {
+				RecordCodec codec = entry.getKey();
+				RecordCodec.Matcher matcher = codec.compile(query);
+				if (matcher == null)
+					continue;
+				Records records = entry.getValue();
+				if (key == null) {
+					OffHeapStore.Cursor record = records.store.cursor();
+					while (record.next())
+						match(codec, matcher, record, now, result);
+					continue;
+				}
+				// Only the records with the same key or without a key can match
+				HashSet<String> ids = records.byKey.get(key);
+				if (ids != null)
+					match(codec, matcher, records, ids, now, result);
+				match(codec, matcher, records, records.anyKey, now, result);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (!result.isEmpty())
+			hits.incrementAndGet();
+		return result;
+	}
+	
+	/**
+	 * Remove the replicas expired at the given time.
+	 * 
+	 * @param now The current time in milliseconds.
+	 */
+	public void expire(long now) {
+		lock.writeLock().lock();
+		try {
+			while (!deadlines.isEmpty() && (deadlines.peek().expiration <= now)) {
+				// The replicas renewed since the deadline have a later expiration
+				String id = deadlines.poll().id;
+				if (getExpiration(id) <= now)
+					remove(id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Drop the replicas of a node that disconnected from the broker.
+	 */
+	public void removeNode(NodeDescriptor owner) {
+		lock.writeLock().lock();
+		try {
+			ArrayList<String> ids = new ArrayList<String>();
+			for (Replica replica : replicas.values())
+				if (replica.owner.equals(owner))
+					ids.add(replica.id);
+			Integer ownerID = ownerIDs.remove(owner);
+			if (ownerID != null) {
+				for (Map.Entry<RecordCodec, Records> entry : stores.entrySet()) {
+					int meta = entry.getKey().getLongFields();
+					OffHeapStore.Cursor record = entry.getValue().store.cursor();
+					while (record.next())
+						if (record.getLong(meta + OWNER) == ownerID.intValue())
+							ids.add(record.getKey());
+				}
+				owners.set(ownerID.intValue(), null);
+			}
+			for (String id : ids)
+				remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Return the number of replicas, including the expired ones not yet removed.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			int size = replicas.size();
+			for (Records records : stores.values())
+				size += records.store.size();
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Return the bytes used by the replicas kept off the heap.
+	 */
+	public long getOffHeapBytes() {
+		lock.readLock().lock();
+		try {
+			long bytes = 0;
+			for (Records records : stores.values())
+				bytes += records.store.getOffHeapBytes();
+			return bytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Return the number of searches looked up in the directory.
+	 */
+	public long getLookupCount() {
+		return lookups.get();
+	}
+	
+	/**
+	 * Return the number of searches answered by the directory.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	/**
+	 * Remove a replica, from the heap or from a store.
+	 */
+	private void remove(String id) {
+		Replica replica = replicas.remove(id);
+		if (replica != null) {
+			if (replica.index != null) {
+				replica.index.remove(replica.template);
+				indexed.remove(replica.template);
+			}
+			else
+				unindexed.remove(id);
+			return;
+		}
+		for (Map.Entry<RecordCodec, Records> entry : stores.entrySet())
+			if (entry.getValue().remove(id, entry.getKey()))
+				return;
+	}
+	
+	private long getVersion(String id) {
+		Replica replica = replicas.get(id);
+		if (replica != null)
+			return replica.version;
+		for (Map.Entry<RecordCodec, Records> entry : stores.entrySet()) {
+			OffHeapStore.Cursor record = entry.getValue().store.find(id);
+			if (record != null)
+				return record.getLong(entry.getKey().getLongFields() + VERSION);
+		}
+		return -1;
+	}
+	
+	private long getExpiration(String id) {
+		Replica replica = replicas.get(id);
+		if (replica != null)
+			return replica.expiration;
+		for (Map.Entry<RecordCodec, Records> entry : stores.entrySet()) {
+			OffHeapStore.Cursor record = entry.getValue().store.find(id);
+			if (record != null)
+				return record.getLong(entry.getKey().getLongFields() + EXPIRATION);
+		}
+		return Long.MAX_VALUE;
+	}
+	
+	private FilterIndex getIndex(Class<?> type) {
+		if (indexes.containsKey(type))
+			return indexes.get(type);
+		FilterIndex index = FilterIndexes.create(type);
+		indexes.put(type, index);
+		return index;
+	}
+	
+	private int getOwnerID(NodeDescriptor owner) {
+		Integer id = ownerIDs.get(owner);
+		if (id != null)
+			return id.intValue();
+		int free = owners.indexOf(null);
+		if (free < 0) {
+			free = owners.size();
+			owners.add(owner);
+		}
+		else
+			owners.set(free, owner);
+		ownerIDs.put(owner, free);
+		return free;
+	}
+	
+	private void match(RecordCodec codec, RecordCodec.Matcher matcher, Records records, Collection<String> ids, 
+						long now, Map<NodeDescriptor, List<DSMessage>> result) {
+		for (String id : ids)
+			match(codec, matcher, records.store.find(id), now, result);
+	}
+	
+	private void match(RecordCodec codec, RecordCodec.Matcher matcher, OffHeapStore.Cursor record, long now, 
+						Map<NodeDescriptor, List<DSMessage>> result) {
+		int meta = codec.getLongFields();
+		// Only the matching records are decoded
+		if ((record.getLong(meta + EXPIRATION) > now) && matcher.matches(record))
+			add(result, owners.get((int)record.getLong(meta + OWNER)), codec.decode(record));
+	}
+	
+	/**
+	 * Return the index key of a template or of a search, qualified by its kind.
+	 * 
+	 * @return The key or <code>null</code> if it has none.
+	 */
+	private static String getIndexKey(Object o) {
+		if (!(o instanceof Indexable) || (((Indexable)o).getIndexKey() == null))
+			return null;
+		return ((Indexable)o).getIndexKind() + ":" + ((Indexable)o).getIndexKey();
+	}
+	
+	private static void add(Map<NodeDescriptor, List<DSMessage>> result, NodeDescriptor owner, DSMessage item) {
+		List<DSMessage> items = result.get(owner);
+		if (items == null) {
+			items = new ArrayList<DSMessage>();
+			result.put(owner, items);
+		}
+		items.add(item);
+	}
+	
+	private static class Replica {
+		private String id;
+		private NodeDescriptor owner;
+		private Filter template;
+		private DSMessage item;
+		private long version;
+		private long expiration;
+		// Index of the template, null if it is matched by itself
+		private FilterIndex index;
+		
+		public Replica(String id, NodeDescriptor owner, Filter template) {
+			this.id = id;
+			this.owner = owner;
+			this.template = template;
+		}
+	}
+	
+	/**
+	 * The records of a codec, grouped by the index key of their templates.
+	 */
+	private static class Records {
+		private OffHeapStore store;
+		private HashMap<String, HashSet<String>> byKey;
+		// Records whose template has no key, matching the searches with any key
+		private HashSet<String> anyKey;
+		
+		public Records(OffHeapStore store) {
+			this.store = store;
+			byKey = new HashMap<String, HashSet<String>>();
+			anyKey = new HashSet<String>();
+		}
+		
+		public void put(String id, String[] strings, long[] longs, RecordCodec codec) {
+			store.put(id, strings, longs);
+			String key = strings[codec.getStringFields() + INDEX_KEY];
+			if (key == null) {
+				anyKey.add(id);
+				return;
+			}
+			HashSet<String> ids = byKey.get(key);
+			if (ids == null) {
+				ids = new HashSet<String>();
+				byKey.put(key, ids);
+			}
+			ids.add(id);
+		}
+		
+		public boolean remove(String id, RecordCodec codec) {
+			OffHeapStore.Cursor record = store.find(id);
+			if (record == null)
+				return false;
+			String key = record.getString(codec.getStringFields() + INDEX_KEY);
+			if (key == null)
+				anyKey.remove(id);
+			else {
+				HashSet<String> ids = byKey.get(key);
+				ids.remove(id);
+				if (ids.isEmpty())
+					byKey.remove(key);
+			}
+			record.remove();
+			return true;
+		}
+	}
+	
+	/**
+	 * Expiration of a replica at the time of an update.
+	 */
+	private static class Deadline implements Comparable<Deadline> {
+		private String id;
+		private long expiration;
+		
+		public Deadline(String id, long expiration) {
+			this.id = id;
+			this.expiration = expiration;
+		}
+		
+		public int compareTo(Deadline other) {
+			return (expiration < other.expiration) ? -1 : (expiration == other.expiration) ? 0 : 1;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing ring assigning routing keys to the brokers of a cluster.
+ * <p>
+ * Each broker is placed on the ring in <code>virtualNodes</code> points, obtained hashing its
+ * URL with MD5; a key is owned by the broker of the first point following the hash of the key.
+ * Adding or removing a broker only moves the keys of its own points.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ConsistentHashRing {
+	/**
+	 * Default number of points of each broker.
+	 */
+	public final static int DEFAULT_VIRTUAL_NODES = 64;
+	
+	private TreeMap<Long, String> ring;
+	private ArrayList<String> members;
+	private int virtualNodes;
+	
+	/**
+	 * Create the ring.
+	 * 
+	 * @param members The URLs of the brokers.
+	 * @param virtualNodes Number of points of each broker.
+	 */
+	public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+		ring = new TreeMap<Long, String>();
+		this.members = new ArrayList<String>();
+		this.virtualNodes = Math.max(1, virtualNodes);
+		for (String m : members)
+			add(m);
+	}
+	
+	public synchronized void add(String member) {
+		if (members.contains(member))
+			return;
+		members.add(member);
+		for (int i = 0; i < virtualNodes; i++)
+			ring.put(hash(member + "#" + i), member);
+	}
+	
+	public synchronized void remove(String member) {
+		if (!members.remove(member))
+			return;
+		for (int i = 0; i < virtualNodes; i++) {
+			long h = hash(member + "#" + i);
+			if (member.equals(ring.get(h)))
+				ring.remove(h);
+		}
+	}
+	
+	/**
+	 * Return the broker owning the given key.
+	 * 
+	 * @return The URL of the broker or <code>null</code> if the ring is empty.
+	 */
+	public synchronized String getOwner(String key) {
+		if (ring.isEmpty())
+			return null;
+		SortedMap<Long, String> tail = ring.tailMap(hash(key));
+		if (tail.isEmpty())
+			return ring.get(ring.firstKey());
+		return tail.get(tail.firstKey());
+	}
+	
+	public synchronized List<String> getMembers() {
+		return new ArrayList<String>(members);
+	}
+	
+	/**
+	 * Return the fraction of the keys owned by each broker, e.g. to check the balance of the ring.
+	 */
+	public synchronized Map<String, Double> getShares() {
+		TreeMap<String, Double> shares = new TreeMap<String, Double>();
+		if (ring.isEmpty())
+			return shares;
+		long previous = ring.lastKey();
+		for (Map.Entry<Long, String> e : ring.entrySet()) {
+			// Unsigned length of the arc ending in the point, as a fraction of 2^64
+			double arc = (double)(e.getKey() - previous) / 18446744073709551616.0;
+			if (arc <= 0)
+				arc += 1.0;
+			Double share = shares.get(e.getValue());
+			shares.put(e.getValue(), (share == null ? 0.0 : share) + arc);
+			previous = e.getKey();
+		}
+		return shares;
+	}
+	
+	private static long hash(String s) {
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			byte[] digest = md5.digest(s.getBytes("UTF-8"));
+			long h = 0;
+			for (int i = 0; i < 8; i++)
+				h = (h << 8) | (digest[i] & 0xff);
+			return h;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
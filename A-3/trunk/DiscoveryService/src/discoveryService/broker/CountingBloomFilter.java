@@ -0,0 +1,131 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.util.BitSet;
+
+/**
+ * Counting Bloom filter of strings.
+ * <p>
+ * Each key sets <code>hashes</code> counters chosen with double hashing; a key might be
+ * contained if all its counters are positive. Keys can be removed by decrementing their 
+ * counters. The bits of the positive counters form the summary exchanged between the brokers.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class CountingBloomFilter {
+	private int[] counters;
+	private BitSet bits;
+	private int hashes;
+	private int size;
+	
+	/**
+	 * Create an empty filter.
+	 * 
+	 * @param bits Number of counters.
+	 * @param hashes Number of counters set by each key.
+	 */
+	public CountingBloomFilter(int bits, int hashes) {
+		if ((bits <= 0) || (hashes <= 0))
+			throw new IllegalArgumentException("Invalid Bloom filter size: " + bits + " bits, " + hashes + " hashes");
+		counters = new int[bits];
+		this.bits = new BitSet(bits);
+		this.hashes = hashes;
+		size = 0;
+	}
+	
+	public void add(String key) {
+		for (int i = 0; i < hashes; i++) {
+			int pos = position(key, i, counters.length);
+			if (counters[pos]++ == 0)
+				bits.set(pos);
+		}
+		size++;
+	}
+	
+	/**
+	 * Remove a key previously added.
+	 */
+	public void remove(String key) {
+		for (int i = 0; i < hashes; i++) {
+			int pos = position(key, i, counters.length);
+			if ((counters[pos] > 0) && (--counters[pos] == 0))
+				bits.clear(pos);
+		}
+		size--;
+	}
+	
+	public boolean mightContain(String key) {
+		return mightContain(bits, counters.length, key, hashes);
+	}
+	
+	/**
+	 * Return the bits of the positive counters. The returned set must not be modified.
+	 */
+	public BitSet getBits() {
+		return bits;
+	}
+	
+	public int getBitCount() {
+		return counters.length;
+	}
+	
+	public int getHashes() {
+		return hashes;
+	}
+	
+	/**
+	 * Return the number of keys in the filter.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Check whether a key might be contained in a summary built with the same parameters.
+	 * 
+	 * @param bits The summary.
+	 * @param length Number of bits of the summary.
+	 * @param key The key.
+	 * @param hashes Number of bits set by each key.
+	 */
+	public static boolean mightContain(BitSet bits, int length, String key, int hashes) {
+		for (int i = 0; i < hashes; i++) {
+			if (!bits.get(position(key, i, length)))
+				return false;
+		}
+		return true;
+	}
+	
+	private static int position(String key, int i, int length) {
+		int h1 = key.hashCode();
+		// Second hash: finalizer of MurmurHash3 applied to the first one
+		int h2 = h1;
+		h2 ^= h2 >>> 16;
+		h2 *= 0x85ebca6b;
+		h2 ^= h2 >>> 13;
+		h2 *= 0xc2b2ae35;
+		h2 ^= h2 >>> 16;
+		int h = h1 + i * (h2 | 1);
+		return (h & Integer.MAX_VALUE) % length;
+	}
+}
@@ -0,0 +1,334 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.Filter;
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.overlay.NotConnectedException;
+import polimi.reds.broker.routing.Router;
+import polimi.reds.broker.routing.SubscriptionTable;
+import discoveryService.core.CoveringFilter;
+import discoveryService.core.lease.LeasedFilter;
+
+/**
+ * Subscription forwarding routing strategy that forwards to the other brokers only the
+ * subscriptions that are not covered by the ones already forwarded.
+ * <p>
+ * Each subscription is forwarded in its general form: the template of a {@link LeasedFilter}, 
+ * generalized when it is a {@link CoveringFilter} (e.g. a service published by many nodes is
+ * forwarded once, without the node name). A subscription covered by a filter already forwarded 
+ * to a broker is only stored locally, and a forwarded filter covered by a new, more general one 
+ * is unsubscribed. The subscriptions received from each neighbor are reference counted, so that 
+ * the renewal of a lease or the same filter subscribed twice do not generate traffic. When the 
+ * last subscription requiring a forwarded filter is removed the filter is unsubscribed and the 
+ * remaining subscriptions it covered are forwarded.
+ * </p>
+ * <p>
+ * Forwarded filters are not leased: the broker keeps the expiration of the leased subscriptions
+ * it received and unsubscribes the forwarded filters that are no longer needed by itself.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class CoveringRoutingStrategy extends ReplyDeadlineRoutingStrategy {
+	/**
+	 * Minimum time in milliseconds between two sweeps of the expired subscriptions.
+	 */
+	public final static int SWEEP_INTERVAL = 1000;
+	private static Logger logger = Logger.getLogger(CoveringRoutingStrategy.class);
+	private HashMap<NodeDescriptor, HashMap<Filter, Subscription>> received;
+	private HashMap<NodeDescriptor, ArrayList<Filter>> forwarded;
+	private SubscriptionTable lastTable;
+	private long lastSweep;
+	private long coveredCount;
+	
+	public CoveringRoutingStrategy(ExpiringReplyTable replyTable) {
+		super(replyTable);
+		received = new HashMap<NodeDescriptor, HashMap<Filter, Subscription>>();
+		forwarded = new HashMap<NodeDescriptor, ArrayList<Filter>>();
+		lastSweep = 0;
+		coveredCount = 0;
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> subscribe(NodeDescriptor neighbor, Filter filter, SubscriptionTable subTable) {
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		maintain(subTable, recipients);
+		HashMap<Filter, Subscription> subs = received.get(neighbor);
+		if (subs == null) {
+			subs = new HashMap<Filter, Subscription>();
+			received.put(neighbor, subs);
+		}
+		Subscription sub = subs.get(filter);
+		if (sub != null) {
+			sub.count++;
+			sub.renew();
+			return recipients;
+		}
+		sub = new Subscription(filter);
+		subs.put(filter, sub);
+		subTable.addSubscription(neighbor, filter);
+		for (NodeDescriptor n : forwarded.keySet()) {
+			if (!n.equals(neighbor))
+				forwardTo(n, sub.form, recipients);
+		}
+		return recipients;
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> unsubscribe(NodeDescriptor neighbor, Filter filter, SubscriptionTable subTable) {
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		maintain(subTable, recipients);
+		HashMap<Filter, Subscription> subs = received.get(neighbor);
+		Subscription sub = (subs == null) ? null : subs.get(filter);
+		if (sub == null)
+			return recipients;
+		if (--sub.count > 0)
+			return recipients;
+		subs.remove(filter);
+		if (subs.isEmpty())
+			received.remove(neighbor);
+		subTable.removeSubscription(neighbor, filter);
+		prune(recipients);
+		return recipients;
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> unsubscribeAll(NodeDescriptor neighbor, SubscriptionTable subTable) {
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		neighborRemoved(neighbor);
+		subTable.removeAllSubscriptions(neighbor);
+		received.remove(neighbor);
+		forwarded.remove(neighbor);
+		maintain(subTable, recipients);
+		prune(recipients);
+		return recipients;
+	}
+	
+	/**
+	 * Return the number of distinct subscriptions received from the neighbors.
+	 * 
+	 * @return Number of subscriptions.
+	 */
+	public synchronized int getReceivedCount() {
+		int count = 0;
+		for (HashMap<Filter, Subscription> subs : received.values())
+			count += subs.size();
+		return count;
+	}
+	
+	/**
+	 * Return the number of filters currently forwarded to the neighbor brokers.
+	 * 
+	 * @return Number of forwarded filters, summed over the neighbors.
+	 */
+	public synchronized int getForwardedCount() {
+		int count = 0;
+		for (ArrayList<Filter> filters : forwarded.values())
+			count += filters.size();
+		return count;
+	}
+	
+	/**
+	 * Return the number of times a subscription was not forwarded to a broker because it
+	 * was covered by a filter already forwarded.
+	 * 
+	 * @return Number of covered subscriptions.
+	 */
+	public synchronized long getCoveredCount() {
+		return coveredCount;
+	}
+	
+	/**
+	 * Check whether a filter forwarded to a broker makes the forwarding of another one useless.
+	 */
+	protected static boolean covers(Filter general, Filter specific) {
+		if (general.equals(specific))
+			return true;
+		return (general instanceof CoveringFilter) && ((CoveringFilter)general).covers(specific);
+	}
+	
+	/**
+	 * Send to the new broker neighbors the subscriptions received so far and sweep the
+	 * expired subscriptions.
+	 */
+	private void maintain(SubscriptionTable subTable, Collection<NodeDescriptor> recipients) {
+		lastTable = subTable;
+		for (NodeDescriptor n : overlay.getNeighbors()) {
+			if (n.isBroker() && !forwarded.containsKey(n)) {
+				forwarded.put(n, new ArrayList<Filter>());
+				for (Filter form : getRequired(n))
+					forwardTo(n, form, recipients);
+			}
+		}
+		Iterator<NodeDescriptor> it = forwarded.keySet().iterator();
+		while (it.hasNext()) {
+			if (!overlay.getNeighbors().contains(it.next()))
+				it.remove();
+		}
+		long now = System.currentTimeMillis();
+		if (now - lastSweep >= SWEEP_INTERVAL) {
+			lastSweep = now;
+			sweep(now, recipients);
+		}
+	}
+	
+	/**
+	 * Remove the leased subscriptions that were not renewed in time.
+	 */
+	private void sweep(long now, Collection<NodeDescriptor> recipients) {
+		boolean expired = false;
+		Iterator<Map.Entry<NodeDescriptor, HashMap<Filter, Subscription>>> it = received.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<NodeDescriptor, HashMap<Filter, Subscription>> entry = it.next();
+			Iterator<Subscription> subs = entry.getValue().values().iterator();
+			while (subs.hasNext()) {
+				Subscription sub = subs.next();
+				if (sub.expiration < now) {
+					logger.debug("Subscription expired: " + sub.filter);
+					subs.remove();
+					if (lastTable != null)
+						lastTable.removeSubscription(entry.getKey(), sub.filter);
+					expired = true;
+				}
+			}
+			if (entry.getValue().isEmpty())
+				it.remove();
+		}
+		if (expired)
+			prune(recipients);
+	}
+	
+	/**
+	 * Forward a filter to a broker unless it is covered by the filters already forwarded.
+	 */
+	private void forwardTo(NodeDescriptor broker, Filter form, Collection<NodeDescriptor> recipients) {
+		ArrayList<Filter> filters = forwarded.get(broker);
+		for (Filter f : filters) {
+			if (covers(f, form)) {
+				coveredCount++;
+				return;
+			}
+		}
+		send(Router.SUBSCRIBE, form, broker, recipients);
+		Iterator<Filter> it = filters.iterator();
+		while (it.hasNext()) {
+			Filter f = it.next();
+			if (covers(form, f)) {
+				it.remove();
+				send(Router.UNSUBSCRIBE, f, broker, recipients);
+			}
+		}
+		filters.add(form);
+	}
+	
+	/**
+	 * Unsubscribe the forwarded filters no longer required by any subscription, forwarding
+	 * the subscriptions they covered.
+	 */
+	private void prune(Collection<NodeDescriptor> recipients) {
+		for (Map.Entry<NodeDescriptor, ArrayList<Filter>> entry : forwarded.entrySet()) {
+			NodeDescriptor broker = entry.getKey();
+			ArrayList<Filter> required = getRequired(broker);
+			ArrayList<Filter> unneeded = new ArrayList<Filter>();
+			for (Filter f : entry.getValue()) {
+				if (!required.contains(f))
+					unneeded.add(f);
+			}
+			if (unneeded.isEmpty())
+				continue;
+			entry.getValue().removeAll(unneeded);
+			// Forward the replacements before removing the general filters
+			for (Filter form : required) {
+				for (Filter f : unneeded) {
+					if (covers(f, form)) {
+						forwardTo(broker, form, recipients);
+						break;
+					}
+				}
+			}
+			for (Filter f : unneeded)
+				send(Router.UNSUBSCRIBE, f, broker, recipients);
+		}
+	}
+	
+	/**
+	 * Return the distinct forms of the subscriptions received from the neighbors other than
+	 * the given broker.
+	 */
+	private ArrayList<Filter> getRequired(NodeDescriptor broker) {
+		ArrayList<Filter> required = new ArrayList<Filter>();
+		for (Map.Entry<NodeDescriptor, HashMap<Filter, Subscription>> entry : received.entrySet()) {
+			if (entry.getKey().equals(broker))
+				continue;
+			for (Subscription sub : entry.getValue().values()) {
+				if (!required.contains(sub.form))
+					required.add(sub.form);
+			}
+		}
+		return required;
+	}
+	
+	private void send(String subject, Serializable payload, NodeDescriptor recipient, Collection<NodeDescriptor> recipients) {
+		try {
+			overlay.send(subject, payload, recipient);
+			if (!recipients.contains(recipient))
+				recipients.add(recipient);
+		} catch (NotConnectedException e) {
+			logger.warn("Unable to send " + subject + " to " + recipient + ": not connected");
+		}
+	}
+	
+	private static class Subscription {
+		private Filter filter;
+		private Filter form;
+		private int count;
+		private long expiration;
+		
+		public Subscription(Filter filter) {
+			this.filter = filter;
+			count = 1;
+			Filter template = filter;
+			if (template instanceof LeasedFilter)
+				template = ((LeasedFilter)template).getTemplate();
+			if (template instanceof CoveringFilter)
+				template = ((CoveringFilter)template).generalize();
+			form = template;
+			renew();
+		}
+		
+		public void renew() {
+			if (filter instanceof LeasedFilter)
+				expiration = System.currentTimeMillis() + ((LeasedFilter)filter).getTTL();
+			else
+				expiration = Long.MAX_VALUE;
+		}
+	}
+}
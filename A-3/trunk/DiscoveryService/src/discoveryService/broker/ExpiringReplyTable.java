@@ -0,0 +1,259 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import polimi.reds.MessageID;
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.routing.ReplyTable;
+
+/**
+ * Reply table with bounded memory used by {@link TCPReplyCapableBroker} to route replies back
+ * to the sender of a repliable message.
+ * <p>
+ * Every entry has a deadline after which replies are no longer expected: it is taken from the
+ * reply timeout carried by the request (see <code>DSMessage.setReplyTimeout()</code>) or, if 
+ * the request does not specify it, from the default timeout of the table. Expired entries are
+ * removed through a hashed timer wheel: entries are placed in the slot of the tick of their 
+ * deadline and the wheel is advanced lazily by the operations on the table, so the cost of the
+ * expiration is proportional to the number of expired entries and no thread is needed.
+ * </p>
+ * <p>
+ * The number of entries is bounded by a capacity: when it is reached the oldest entry is 
+ * evicted. The table keeps counters of the expired and evicted entries and of the replies
+ * that could not be routed because their entry was missing.
+ * </p>
+ *  
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ExpiringReplyTable implements ReplyTable {
+	/**
+	 * Number of slots of the timer wheel.
+	 */
+	public final static int WHEEL_SIZE = 512;
+	/**
+	 * Default duration of a tick of the timer wheel in milliseconds.
+	 */
+	public final static long DEFAULT_TICK = 100;
+	
+	private LinkedHashMap<MessageID, Entry> entries;
+	private ArrayList<HashSet<Entry>> wheel;
+	private long tickDuration;
+	private long currentTick;
+	private long defaultTimeout;
+	private int capacity;
+	
+	private long recordedCount;
+	private long expiredCount;
+	private long evictedCount;
+	private long missedCount;
+	
+	/**
+	 * Create the reply table.
+	 * 
+	 * @param defaultTimeout Time in milliseconds during which replies are expected for requests
+	 * that do not carry their own reply timeout.
+	 * @param capacity Maximum number of entries in the table; it must be positive.
+	 * @throws IllegalArgumentException If the capacity is not positive.
+	 */
+	public ExpiringReplyTable(long defaultTimeout, int capacity) {
+		this(defaultTimeout, capacity, DEFAULT_TICK);
+	}
+	
+	public ExpiringReplyTable(long defaultTimeout, int capacity, long tickDuration) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Invalid reply table capacity: " + capacity);
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("Invalid reply table tick: " + tickDuration + " ms");
+		this.defaultTimeout = defaultTimeout;
+		this.capacity = capacity;
+		this.tickDuration = tickDuration;
+		entries = new LinkedHashMap<MessageID, Entry>();
+		wheel = new ArrayList<HashSet<Entry>>(WHEEL_SIZE);
+		for (int i = 0; i < WHEEL_SIZE; i++)
+			wheel.add(new HashSet<Entry>());
+		currentTick = System.currentTimeMillis() / tickDuration;
+	}
+	
+	@Override
+	public synchronized void recordRepliableMessage(MessageID id, NodeDescriptor sender) {
+		long now = System.currentTimeMillis();
+		advance(now);
+		Entry e = entries.get(id);
+		if (e == null)
+			e = insert(id, now + defaultTimeout);
+		e.sender = sender;
+		recordedCount++;
+	}
+	
+	/**
+	 * Set the deadline of the entry of a repliable message. If the message has not been 
+	 * recorded yet the entry is created and its sender will be set when recorded.
+	 * 
+	 * @param id The ID of the repliable message.
+	 * @param deadline Absolute time in milliseconds after which replies are no longer routed.
+	 */
+	public synchronized void setDeadline(MessageID id, long deadline) {
+		advance(System.currentTimeMillis());
+		Entry e = entries.get(id);
+		if (e == null)
+			insert(id, deadline);
+		else {
+			unschedule(e);
+			e.deadline = deadline;
+			schedule(e);
+		}
+	}
+	
+	@Override
+	public synchronized NodeDescriptor getSender(MessageID id) {
+		advance(System.currentTimeMillis());
+		Entry e = entries.get(id);
+		if ((e == null) || (e.sender == null)) {
+			missedCount++;
+			return null;
+		}
+		return e.sender;
+	}
+	
+	@Override
+	public synchronized void removeRepliableMessage(MessageID id) {
+		Entry e = entries.remove(id);
+		if (e != null)
+			unschedule(e);
+	}
+	
+	@Override
+	public synchronized void removeNeighbor(NodeDescriptor neighbor) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (neighbor.equals(e.sender)) {
+				it.remove();
+				unschedule(e);
+			}
+		}
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public synchronized long getRecordedCount() {
+		return recordedCount;
+	}
+	
+	/**
+	 * Return the number of entries removed because their deadline elapsed.
+	 */
+	public synchronized long getExpiredCount() {
+		return expiredCount;
+	}
+	
+	/**
+	 * Return the number of entries evicted because the table reached its capacity.
+	 */
+	public synchronized long getEvictedCount() {
+		return evictedCount;
+	}
+	
+	/**
+	 * Return the number of replies that could not be routed because the entry of the
+	 * repliable message was missing (expired, evicted or never recorded).
+	 */
+	public synchronized long getMissedCount() {
+		return missedCount;
+	}
+	
+	public synchronized String toString() {
+		return "ExpiringReplyTable[size: " + entries.size() + "; recorded: " + recordedCount + 
+					"; expired: " + expiredCount + "; evicted: " + evictedCount + 
+					"; missed: " + missedCount + "]";
+	}
+	
+	private Entry insert(MessageID id, long deadline) {
+		while (entries.size() >= capacity) {
+			Iterator<Entry> it = entries.values().iterator();
+			Entry oldest = it.next();
+			it.remove();
+			unschedule(oldest);
+			evictedCount++;
+		}
+		Entry e = new Entry(id, deadline);
+		entries.put(id, e);
+		schedule(e);
+		return e;
+	}
+	
+	private void schedule(Entry e) {
+		// The slot is the first tick not earlier than the deadline, so that when the slot
+		// is processed the entry is already expired (unless it is due in a later round).
+		long tick = (e.deadline + tickDuration - 1) / tickDuration;
+		if (tick <= currentTick)
+			tick = currentTick + 1;
+		e.slot = (int)(tick % WHEEL_SIZE);
+		wheel.get(e.slot).add(e);
+	}
+	
+	private void unschedule(Entry e) {
+		wheel.get(e.slot).remove(e);
+	}
+	
+	/**
+	 * Advance the wheel up to the tick of the given time, removing the expired entries
+	 * found in the slots traversed.
+	 */
+	private void advance(long now) {
+		long target = now / tickDuration;
+		long steps = Math.min(target - currentTick, WHEEL_SIZE);
+		for (long i = 1; i <= steps; i++) {
+			HashSet<Entry> slot = wheel.get((int)((currentTick + i) % WHEEL_SIZE));
+			Iterator<Entry> it = slot.iterator();
+			while (it.hasNext()) {
+				Entry e = it.next();
+				if (e.deadline <= now) {
+					it.remove();
+					entries.remove(e.id);
+					expiredCount++;
+				}
+			}
+		}
+		if (target > currentTick)
+			currentTick = target;
+	}
+	
+	private static class Entry {
+		private MessageID id;
+		private NodeDescriptor sender;
+		private long deadline;
+		private int slot;
+		
+		public Entry(MessageID id, long deadline) {
+			this.id = id;
+			this.deadline = deadline;
+			sender = null;
+		}
+	}
+}
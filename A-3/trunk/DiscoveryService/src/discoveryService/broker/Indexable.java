@@ -0,0 +1,50 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+/**
+ * A message or a filter that can be routed by the {@link SummaryRoutingStrategy}.
+ * <p>
+ * The index key is the attribute that a subscription requires to be equal in the matching
+ * messages (e.g. the service ID of a service descriptor, or the destination node of a task).
+ * Keys of different kinds of filters are kept apart by the index kind.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface Indexable {
+	/**
+	 * Return the kind of the index key, shared by a filter and the messages it matches
+	 * (e.g. "service").
+	 * 
+	 * @return The kind of the key.
+	 */
+	public String getIndexKind();
+	
+	/**
+	 * Return the index key of the message or of the filter.
+	 * 
+	 * @return The key or <code>null</code> if it cannot be determined: a filter without a key
+	 * matches the messages with any key, and a message without a key is sent to all the
+	 * brokers with a subscription of the same kind.
+	 */
+	public String getIndexKey();
+}
@@ -0,0 +1,308 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.routing.GenericTable;
+import discoveryService.core.lease.LeasedFilter;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.FilterIndexes;
+
+/**
+ * Subscription table that expires the subscriptions made through a {@link LeasedFilter}.
+ * <p>
+ * When a leased subscription is added the table records its expiration time computed
+ * from the local clock and the time to live of the filter. Expired subscriptions are
+ * removed by a sweep performed during matching, at most once every <code>SWEEP_INTERVAL</code>
+ * milliseconds, so that no additional thread is needed. Every broker of the overlay
+ * expires its own copy of a forwarded subscription.
+ * </p>
+ * Subscriptions made with filters other than <code>LeasedFilter</code> never expire.
+ * <p>
+ * The subscriptions made with filters whose type has a {@link FilterIndex} registered in
+ * {@link FilterIndexes} are kept in the index of their type, so that a message is matched 
+ * against all of them at once instead of one by one. A leased subscription is indexed by
+ * the type of its template.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class LeaseSubscriptionTable extends GenericTable {
+	/**
+	 * Minimum time in milliseconds between two sweeps of the expired subscriptions.
+	 */
+	public final static int SWEEP_INTERVAL = 1000;
+	private static Logger logger = Logger.getLogger(LeaseSubscriptionTable.class);
+	
+	private HashMap<Lease, Long> leases;
+	private long lastSweep;
+	private long expiredCount;
+	// Index of each type of filters, null if the type has no index
+	private HashMap<Class<?>, FilterIndex> indexes;
+	private HashMap<Filter, Indexed> indexed;
+	// The entries of the indexed filters, by the instance added to the index
+	private IdentityHashMap<Filter, Indexed> entries;
+	
+	public LeaseSubscriptionTable() {
+		super();
+		leases = new HashMap<Lease, Long>();
+		lastSweep = System.currentTimeMillis();
+		expiredCount = 0;
+		indexes = new HashMap<Class<?>, FilterIndex>();
+		indexed = new HashMap<Filter, Indexed>();
+		entries = new IdentityHashMap<Filter, Indexed>();
+	}
+	
+	@Override
+	public void addSubscription(NodeDescriptor neighbor, Filter filter) {
+		Filter target = (filter instanceof LeasedFilter) ? ((LeasedFilter)filter).getTemplate() : filter;
+		if ((target == null) || !addIndexed(neighbor, filter, target))
+			super.addSubscription(neighbor, filter);
+		if (filter instanceof LeasedFilter) {
+			long expiration = System.currentTimeMillis() + ((LeasedFilter)filter).getTTL();
+			synchronized(leases) {
+				leases.put(new Lease(neighbor, (LeasedFilter)filter), expiration);
+			}
+		}
+	}
+	
+	@Override
+	public void removeSubscription(NodeDescriptor neighbor, Filter filter) {
+		remove(neighbor, filter);
+		if (filter instanceof LeasedFilter) {
+			synchronized(leases) {
+				leases.remove(new Lease(neighbor, (LeasedFilter)filter));
+			}
+		}
+	}
+	
+	@Override
+	public void removeAllSubscriptions(NodeDescriptor neighbor) {
+		super.removeAllSubscriptions(neighbor);
+		synchronized(indexed) {
+			Iterator<Indexed> it = indexed.values().iterator();
+			while (it.hasNext()) {
+				Indexed entry = it.next();
+				if (entry.neighbors.remove(neighbor) && entry.neighbors.isEmpty()) {
+					it.remove();
+					entries.remove(entry.filter);
+					entry.index.remove(entry.filter);
+				}
+			}
+		}
+		synchronized(leases) {
+			Iterator<Lease> it = leases.keySet().iterator();
+			while (it.hasNext())
+				if (it.next().neighbor.equals(neighbor))
+					it.remove();
+		}
+	}
+	
+	@Override
+	public Collection<NodeDescriptor> matches(Message msg, NodeDescriptor sender) {
+		long now = System.currentTimeMillis();
+		if (now - lastSweep >= SWEEP_INTERVAL)
+			sweep(now);
+		Collection<NodeDescriptor> matching = super.matches(msg, sender);
+		synchronized(indexed) {
+			if (indexed.isEmpty())
+				return matching;
+			LinkedHashSet<NodeDescriptor> result = new LinkedHashSet<NodeDescriptor>();
+			if (matching != null)
+				result.addAll(matching);
+			for (FilterIndex index : indexes.values()) {
+				if (index == null)
+					continue;
+				for (Filter filter : index.matches(msg))
+					for (NodeDescriptor neighbor : entries.get(filter).neighbors)
+						if (!neighbor.equals(sender))
+							result.add(neighbor);
+			}
+			return new ArrayList<NodeDescriptor>(result);
+		}
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		synchronized(indexed) {
+			return indexed.isEmpty() && super.isEmpty();
+		}
+	}
+	
+	@Override
+	public void clear() {
+		super.clear();
+		synchronized(indexed) {
+			indexed.clear();
+			entries.clear();
+			indexes.clear();
+		}
+	}
+	
+	/**
+	 * Return the number of distinct filters kept in the indexes.
+	 * 
+	 * @return Number of indexed filters.
+	 */
+	public int getIndexedCount() {
+		synchronized(indexed) {
+			return indexed.size();
+		}
+	}
+	
+	/**
+	 * Add the subscription to the index of the type of the filter.
+	 * 
+	 * @param filter The filter of the subscription.
+	 * @param target The filter added to the index: the filter itself or the template of a leased one.
+	 * @return <code>false</code> if the type has no index or the filter cannot be indexed.
+	 */
+	private boolean addIndexed(NodeDescriptor neighbor, Filter filter, Filter target) {
+		synchronized(indexed) {
+			Indexed entry = indexed.get(filter);
+			if (entry == null) {
+				Class<?> type = target.getClass();
+				if (!indexes.containsKey(type))
+					indexes.put(type, FilterIndexes.create(type));
+				FilterIndex index = indexes.get(type);
+				if ((index == null) || !index.add(target))
+					return false;
+				entry = new Indexed(target, index);
+				indexed.put(filter, entry);
+				entries.put(target, entry);
+			}
+			entry.neighbors.add(neighbor);
+			return true;
+		}
+	}
+	
+	/**
+	 * Remove a subscription from the index or from the table.
+	 */
+	private void remove(NodeDescriptor neighbor, Filter filter) {
+		synchronized(indexed) {
+			Indexed entry = indexed.get(filter);
+			if (entry != null) {
+				if (entry.neighbors.remove(neighbor) && entry.neighbors.isEmpty()) {
+					indexed.remove(filter);
+					entries.remove(entry.filter);
+					entry.index.remove(entry.filter);
+				}
+				return;
+			}
+		}
+		super.removeSubscription(neighbor, filter);
+	}
+	
+	/**
+	 * Remove all the subscriptions whose lease is expired.
+	 * 
+	 * @param now Current time in milliseconds.
+	 */
+	public void sweep(long now) {
+		ArrayList<Lease> expired = new ArrayList<Lease>();
+		synchronized(leases) {
+			lastSweep = now;
+			Iterator<Map.Entry<Lease, Long>> it = leases.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Lease, Long> entry = it.next();
+				if (entry.getValue().longValue() <= now) {
+					expired.add(entry.getKey());
+					it.remove();
+				}
+			}
+			expiredCount += expired.size();
+		}
+		for (Lease lease : expired) {
+			logger.info("Lease expired: " + lease.filter);
+			remove(lease.neighbor, lease.filter);
+		}
+	}
+	
+	/**
+	 * Return the number of subscriptions removed because their lease expired.
+	 * 
+	 * @return Number of expired subscriptions.
+	 */
+	public long getExpiredCount() {
+		synchronized(leases) {
+			return expiredCount;
+		}
+	}
+	
+	/**
+	 * Return the number of leased subscriptions currently in the table.
+	 * 
+	 * @return Number of active leases.
+	 */
+	public int getLeaseCount() {
+		synchronized(leases) {
+			return leases.size();
+		}
+	}
+	
+	private static class Indexed {
+		// The instance added to the index, to be removed from it
+		private Filter filter;
+		private FilterIndex index;
+		private HashSet<NodeDescriptor> neighbors;
+		
+		public Indexed(Filter filter, FilterIndex index) {
+			this.filter = filter;
+			this.index = index;
+			neighbors = new HashSet<NodeDescriptor>();
+		}
+	}
+	
+	private static class Lease {
+		private NodeDescriptor neighbor;
+		private LeasedFilter filter;
+		
+		public Lease(NodeDescriptor neighbor, LeasedFilter filter) {
+			this.neighbor = neighbor;
+			this.filter = filter;
+		}
+		
+		public int hashCode() {
+			return neighbor.hashCode() * 31 + filter.hashCode();
+		}
+		
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Lease))
+				return false;
+			Lease l = (Lease)obj;
+			return neighbor.equals(l.neighbor) && filter.equals(l.filter);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.Message;
+import polimi.reds.NodeDescriptor;
+import polimi.reds.Repliable;
+import polimi.reds.Reply;
+import polimi.reds.broker.overlay.NotConnectedException;
+import polimi.reds.broker.routing.Router;
+import polimi.reds.broker.routing.SubscriptionForwardingRoutingStrategy;
+import polimi.reds.broker.routing.SubscriptionTable;
+import discoveryService.core.DSMessage;
+import discoveryService.core.DirectoryReply;
+import discoveryService.core.RankedQuery;
+import discoveryService.core.Ranking;
+import discoveryService.core.Envelope;
+import discoveryService.core.watch.PublicationEvent;
+import discoveryService.core.watch.WatchRequest;
+
+/**
+ * Subscription forwarding routing strategy that passes the reply timeout carried by the 
+ * repliable {@link DSMessage}s to the {@link ExpiringReplyTable} of the broker, so that 
+ * the entry of each request expires when its sender stops waiting for replies.
+ * <p>
+ * A {@link WatchRequest} is matched against the subscriptions as the query it wraps, so
+ * that it reaches the same nodes the query would reach.
+ * </p>
+ * <p>
+ * In directory mode the strategy keeps a {@link BrokerDirectory} with the replicas of the
+ * publications of the nodes connected to the broker: a search matching some of them is 
+ * answered by the broker with a single {@link DirectoryReply} and it is not delivered to 
+ * the nodes whose publications have been answered.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ReplyDeadlineRoutingStrategy extends SubscriptionForwardingRoutingStrategy {
+	private static Logger logger = Logger.getLogger(ReplyDeadlineRoutingStrategy.class);
+	private ExpiringReplyTable replyTable;
+	private BrokerDirectory directory;
+	
+	public ReplyDeadlineRoutingStrategy(ExpiringReplyTable replyTable) {
+		super();
+		this.replyTable = replyTable;
+		directory = null;
+	}
+	
+	/**
+	 * Answer the searches with the replicas kept in a directory.
+	 * 
+	 * @param directory The directory or <code>null</code> to disable the directory mode.
+	 */
+	public void setDirectory(BrokerDirectory directory) {
+		this.directory = directory;
+	}
+	
+	public BrokerDirectory getDirectory() {
+		return directory;
+	}
+	
+	@Override
+	public Collection<NodeDescriptor> publish(Message msg, NodeDescriptor sender, SubscriptionTable subTable) {
+		recordDeadline(msg);
+		Collection<NodeDescriptor> recipients = matchSubscriptions(msg, sender, subTable);
+		for (NodeDescriptor n : recipients) {
+			try {
+				overlay.send(Router.PUBLISH, msg, n);
+			} catch (NotConnectedException e) {
+				logger.warn("Unable to send " + msg + " to " + n + ": not connected");
+			}
+		}
+		return recipients;
+	}
+	
+	@Override
+	public Collection<NodeDescriptor> unsubscribeAll(NodeDescriptor neighbor, SubscriptionTable subTable) {
+		neighborRemoved(neighbor);
+		return super.unsubscribeAll(neighbor, subTable);
+	}
+	
+	/**
+	 * Return the neighbors whose subscriptions match a message, that is the query of a 
+	 * {@link WatchRequest} or the message itself. In directory mode the publication events
+	 * of the connected nodes update the directory, while the searches answered by the
+	 * directory are not delivered to the nodes whose publications have been answered.
+	 * 
+	 * @return The matching neighbors, never <code>null</code>.
+	 */
+	protected Collection<NodeDescriptor> matchSubscriptions(Message msg, NodeDescriptor sender, SubscriptionTable subTable) {
+		Collection<NodeDescriptor> matching = subTable.matches(getMatchingMessage(msg), sender);
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		if (matching != null)
+			recipients.addAll(matching);
+		if (directory == null)
+			return recipients;
+		
+		long now = System.currentTimeMillis();
+		if ((msg instanceof PublicationEvent) && (sender != null) && !sender.isBroker())
+			directory.update((PublicationEvent)msg, sender, now);
+		else if ((msg instanceof Repliable) && !(msg instanceof WatchRequest) && !(msg instanceof Envelope)
+				&& (sender != null) && !recipients.isEmpty()) {
+			Map<NodeDescriptor, List<DSMessage>> answers = directory.lookup(msg, now);
+			if (!answers.isEmpty()) {
+				ArrayList<DSMessage> items = new ArrayList<DSMessage>();
+				for (List<DSMessage> l : answers.values())
+					items.addAll(l);
+				// Only the best items of a ranked search are sent
+				if (msg instanceof RankedQuery)
+					Ranking.rank(items, (RankedQuery)msg);
+				recipients.removeAll(answers.keySet());
+				try {
+					overlay.send(Router.REPLY, new Reply(new DirectoryReply(msg.getID(), items), msg.getID()), sender);
+				} catch (NotConnectedException e) {
+					logger.warn("Unable to reply to " + msg + ": " + sender + " not connected");
+				}
+			}
+		}
+		return recipients;
+	}
+	
+	/**
+	 * Called when a neighbor disconnects: its replicas are removed from the directory.
+	 */
+	protected void neighborRemoved(NodeDescriptor neighbor) {
+		if (directory != null)
+			directory.removeNode(neighbor);
+	}
+	
+	/**
+	 * Return the message matched against the subscriptions in place of the one published:
+	 * the query of a {@link WatchRequest}, the message itself otherwise.
+	 */
+	protected static Message getMatchingMessage(Message msg) {
+		if (msg instanceof WatchRequest)
+			return ((WatchRequest)msg).getQuery();
+		return msg;
+	}
+	
+	/**
+	 * Pass the reply timeout of a repliable message, if any, to the reply table.
+	 */
+	protected void recordDeadline(Message msg) {
+		if ((msg instanceof Repliable) && (msg instanceof DSMessage)) {
+			long timeout = ((DSMessage)msg).getReplyTimeout();
+			if (timeout > 0)
+				replyTable.setDeadline(msg.getID(), System.currentTimeMillis() + timeout);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+/**
+ * A message or a filter that can be routed by the {@link ShardedRoutingStrategy}.
+ * <p>
+ * The routing key decides which broker of the cluster owns the subscriptions and
+ * answers the searches for it (e.g. the service ID of a service descriptor).
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface Shardable {
+	/**
+	 * Return the key used to place the message or the filter on the ring of the brokers.
+	 * 
+	 * @return The key or <code>null</code> if it cannot be determined (e.g. a search
+	 * using a wildcard), in which case the message is flooded to all the brokers.
+	 */
+	public String getRoutingKey();
+}
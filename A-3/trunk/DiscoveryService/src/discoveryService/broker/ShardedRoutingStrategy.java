@@ -0,0 +1,332 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.overlay.LinkListener;
+import polimi.reds.broker.overlay.NotConnectedException;
+import polimi.reds.broker.routing.Router;
+import polimi.reds.broker.routing.SubscriptionTable;
+import discoveryService.core.lease.LeasedFilter;
+
+/**
+ * Routing strategy partitioning the subscriptions with a routing key among the brokers 
+ * of a cluster.
+ * <p>
+ * Every {@link Shardable} subscription (e.g. the one made by a node for each service it 
+ * publishes) is stored by the broker of the subscriber and by the broker owning its routing
+ * key on a {@link ConsistentHashRing}, instead of being forwarded to all the brokers. A 
+ * {@link Shardable} message with a routing key (e.g. a search for a given service ID) is 
+ * delivered to the matching local subscribers and sent only to the owner of the key, that 
+ * forwards it to the brokers of the matching subscribers. A message without a routing key
+ * (e.g. a search using a wildcard) is flooded to all the brokers, each of them delivering it 
+ * to its local subscribers. Other subscriptions and messages are routed with subscription 
+ * forwarding, using the covering relation of {@link CoveringRoutingStrategy}.
+ * </p>
+ * <p>
+ * The brokers of the cluster must be directly connected with each other. When the owner of 
+ * a key is not a neighbor the strategy falls back to flooding.
+ * </p>
+ * <p>
+ * The broker keeps the keyed subscriptions of its own nodes: when a link with another broker
+ * of the cluster is added (e.g. the owner of some keys has restarted, or was not reachable
+ * when the subscriptions were made) the subscriptions whose key it owns are sent to it again,
+ * together with the unsubscriptions that could not be sent. The strategy must be registered 
+ * as {@link LinkListener} of the transport of the broker.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ShardedRoutingStrategy extends CoveringRoutingStrategy implements LinkListener {
+	private static Logger logger = Logger.getLogger(ShardedRoutingStrategy.class);
+	private ConsistentHashRing ring;
+	private String myURL;
+	// Keyed subscriptions of the local nodes, by lease ID (or filter, if not leased)
+	private HashMap<NodeDescriptor, LinkedHashMap<Object, Keyed>> local;
+	// Unsubscriptions not sent, by URL of the owner
+	private HashMap<String, HashSet<Filter>> pendingUnsubscriptions;
+	
+	/**
+	 * Create the strategy.
+	 * 
+	 * @param replyTable The reply table of the broker.
+	 * @param ring The ring of the brokers of the cluster.
+	 * @param myURL The URL of this broker on the ring.
+	 */
+	public ShardedRoutingStrategy(ExpiringReplyTable replyTable, ConsistentHashRing ring, String myURL) {
+		super(replyTable);
+		this.ring = ring;
+		this.myURL = myURL;
+		local = new HashMap<NodeDescriptor, LinkedHashMap<Object, Keyed>>();
+		pendingUnsubscriptions = new HashMap<String, HashSet<Filter>>();
+	}
+	
+	public ConsistentHashRing getRing() {
+		return ring;
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> subscribe(NodeDescriptor neighbor, Filter filter, SubscriptionTable subTable) {
+		String key = getRoutingKey(filter);
+		if (key == null)
+			return super.subscribe(neighbor, filter, subTable);
+		subTable.addSubscription(neighbor, filter);
+		// Subscriptions received from other brokers are only stored
+		if (neighbor.isBroker())
+			return new ArrayList<NodeDescriptor>();
+		LinkedHashMap<Object, Keyed> subs = local.get(neighbor);
+		if (subs == null) {
+			subs = new LinkedHashMap<Object, Keyed>();
+			local.put(neighbor, subs);
+		}
+		// A renewal replaces the previous generation of the lease
+		subs.put(getLocalKey(filter), new Keyed(filter, key));
+		HashSet<Filter> pending = pendingUnsubscriptions.get(ring.getOwner(key));
+		if (pending != null)
+			pending.remove(filter);
+		return sendToOwner(Router.SUBSCRIBE, filter, key);
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> unsubscribe(NodeDescriptor neighbor, Filter filter, SubscriptionTable subTable) {
+		String key = getRoutingKey(filter);
+		if (key == null)
+			return super.unsubscribe(neighbor, filter, subTable);
+		subTable.removeSubscription(neighbor, filter);
+		if (neighbor.isBroker())
+			return new ArrayList<NodeDescriptor>();
+		LinkedHashMap<Object, Keyed> subs = local.get(neighbor);
+		if (subs != null) {
+			subs.remove(getLocalKey(filter));
+			if (subs.isEmpty())
+				local.remove(neighbor);
+		}
+		return sendToOwner(Router.UNSUBSCRIBE, filter, key);
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> unsubscribeAll(NodeDescriptor neighbor, SubscriptionTable subTable) {
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		LinkedHashMap<Object, Keyed> subs = local.remove(neighbor);
+		if (subs != null) {
+			// The owners drop the subscriptions of the node
+			for (Keyed k : subs.values())
+				for (NodeDescriptor n : sendToOwner(Router.UNSUBSCRIBE, k.filter, k.key))
+					if (!recipients.contains(n))
+						recipients.add(n);
+		}
+		for (NodeDescriptor n : super.unsubscribeAll(neighbor, subTable))
+			if (!recipients.contains(n))
+				recipients.add(n);
+		return recipients;
+	}
+	
+	/**
+	 * A link with a broker of the cluster has been added: send it the keyed subscriptions
+	 * of the local nodes whose key it owns, and the unsubscriptions it missed.
+	 */
+	public synchronized void notifyLinkAdded(NodeDescriptor node) {
+		if (!node.isBroker() || (node.getUrls() == null))
+			return;
+		String ownerURL = null;
+		for (String url : node.getUrls())
+			if (ring.getMembers().contains(url))
+				ownerURL = url;
+		if ((ownerURL == null) || ownerURL.equals(myURL))
+			return;
+		int count = 0;
+		HashSet<Filter> pending = pendingUnsubscriptions.remove(ownerURL);
+		if (pending != null) {
+			for (Filter filter : pending)
+				if (send(Router.UNSUBSCRIBE, filter, node))
+					count++;
+		}
+		long now = System.currentTimeMillis();
+		for (LinkedHashMap<Object, Keyed> subs : local.values()) {
+			Iterator<Keyed> it = subs.values().iterator();
+			while (it.hasNext()) {
+				Keyed k = it.next();
+				if (k.isExpired(now)) {
+					it.remove();
+					continue;
+				}
+				if (ownerURL.equals(ring.getOwner(k.key)) && send(Router.SUBSCRIBE, k.filter, node))
+					count++;
+			}
+		}
+		logger.info("Link with " + ownerURL + " added: " + count + " keyed (un)subscriptions sent");
+	}
+	
+	public void notifyLinkRemoved(NodeDescriptor node) {
+		// The subscriptions are sent again when the link is added
+	}
+	
+	/**
+	 * Return the number of unsubscriptions waiting for their owner to be reachable.
+	 */
+	public synchronized int getPendingCount() {
+		int count = 0;
+		for (HashSet<Filter> pending : pendingUnsubscriptions.values())
+			count += pending.size();
+		return count;
+	}
+	
+	@Override
+	public Collection<NodeDescriptor> publish(Message msg, NodeDescriptor sender, SubscriptionTable subTable) {
+		if (!(msg instanceof Shardable))
+			return super.publish(msg, sender, subTable);
+		recordDeadline(msg);
+		
+		String key = ((Shardable)msg).getRoutingKey();
+		boolean owner = (key != null) && myURL.equals(ring.getOwner(key));
+		boolean fromBroker = (sender != null) && sender.isBroker();
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		
+		Collection<NodeDescriptor> matching = matchSubscriptions(msg, sender, subTable);
+		if (matching != null) {
+			for (NodeDescriptor n : matching) {
+				// Only the owner of the key forwards the message to other brokers
+				if (owner || !n.isBroker())
+					recipients.add(n);
+			}
+		}
+		if (!fromBroker && !owner) {
+			NodeDescriptor ownerNode = (key == null) ? null : getBroker(ring.getOwner(key));
+			if (ownerNode != null)
+				recipients.add(ownerNode);
+			else {
+				if (key != null)
+					logger.warn("Owner " + ring.getOwner(key) + " of " + key + " is not a neighbor: flooding");
+				for (NodeDescriptor n : overlay.getNeighbors())
+					if (n.isBroker() && !recipients.contains(n))
+						recipients.add(n);
+			}
+		}
+		
+		for (NodeDescriptor n : recipients)
+			send(Router.PUBLISH, msg, n);
+		return recipients;
+	}
+	
+	/**
+	 * Return the routing key of a filter, looking into leased filters.
+	 */
+	private String getRoutingKey(Filter filter) {
+		if (filter instanceof LeasedFilter)
+			filter = ((LeasedFilter)filter).getTemplate();
+		if (filter instanceof Shardable)
+			return ((Shardable)filter).getRoutingKey();
+		return null;
+	}
+	
+	/**
+	 * Return the key identifying a local subscription: the lease ID of a leased filter, so 
+	 * that its renewals replace each other.
+	 */
+	private static Object getLocalKey(Filter filter) {
+		if (filter instanceof LeasedFilter)
+			return ((LeasedFilter)filter).getLeaseID();
+		return filter;
+	}
+	
+	/**
+	 * Send a keyed (un)subscription to the owner of its key. A subscription that cannot be
+	 * sent is kept with the local ones and sent when the link with the owner is added; an
+	 * unsubscription is queued.
+	 */
+	private Collection<NodeDescriptor> sendToOwner(String subject, Filter filter, String key) {
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		String ownerURL = ring.getOwner(key);
+		if ((ownerURL == null) || ownerURL.equals(myURL))
+			return recipients;
+		NodeDescriptor ownerNode = getBroker(ownerURL);
+		if ((ownerNode != null) && send(subject, filter, ownerNode)) {
+			recipients.add(ownerNode);
+			return recipients;
+		}
+		logger.warn("Owner " + ownerURL + " of " + key + " is not reachable: " + subject + " deferred");
+		if (Router.UNSUBSCRIBE.equals(subject)) {
+			HashSet<Filter> pending = pendingUnsubscriptions.get(ownerURL);
+			if (pending == null) {
+				pending = new HashSet<Filter>();
+				pendingUnsubscriptions.put(ownerURL, pending);
+			}
+			pending.add(filter);
+		}
+		return recipients;
+	}
+	
+	/**
+	 * Return the neighbor broker with the given URL, if any.
+	 */
+	private NodeDescriptor getBroker(String url) {
+		for (NodeDescriptor n : overlay.getNeighbors()) {
+			if (n.isBroker() && (n.getUrls() != null) && Arrays.asList(n.getUrls()).contains(url))
+				return n;
+		}
+		return null;
+	}
+	
+	private boolean send(String subject, Serializable payload, NodeDescriptor recipient) {
+		try {
+			overlay.send(subject, payload, recipient);
+			return true;
+		} catch (NotConnectedException e) {
+			logger.warn("Unable to send " + subject + " to " + recipient + ": not connected");
+			return false;
+		}
+	}
+	
+	/**
+	 * A keyed subscription of a local node.
+	 */
+	private static class Keyed {
+		private Filter filter;
+		private String key;
+		private long expiration;
+		
+		public Keyed(Filter filter, String key) {
+			this.filter = filter;
+			this.key = key;
+			if ((filter instanceof LeasedFilter) && (((LeasedFilter)filter).getTTL() > 0))
+				expiration = System.currentTimeMillis() + ((LeasedFilter)filter).getTTL();
+			else
+				expiration = Long.MAX_VALUE;
+		}
+		
+		public boolean isExpired(long now) {
+			return expiration < now;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * Change of the subscription summary sent by a broker to a neighbor: the positions of the
+ * bits that flipped since the previous summary. The first delta sent to a neighbor resets
+ * its copy of the summary.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class SummaryDelta implements Serializable {
+	private static final long serialVersionUID = 3148866502186320157L;
+	private int bits;
+	private int hashes;
+	private boolean reset;
+	private int[] flipped;
+	
+	/**
+	 * Create a delta.
+	 * 
+	 * @param bits Number of bits of the summary.
+	 * @param hashes Number of bits set by each key.
+	 * @param reset <code>true</code> if the delta applies to an empty summary.
+	 * @param changes The bits that flipped.
+	 */
+	public SummaryDelta(int bits, int hashes, boolean reset, BitSet changes) {
+		this.bits = bits;
+		this.hashes = hashes;
+		this.reset = reset;
+		flipped = new int[changes.cardinality()];
+		int n = 0;
+		for (int i = changes.nextSetBit(0); i >= 0; i = changes.nextSetBit(i + 1))
+			flipped[n++] = i;
+	}
+	
+	public int getBits() {
+		return bits;
+	}
+	
+	public int getHashes() {
+		return hashes;
+	}
+	
+	public boolean isReset() {
+		return reset;
+	}
+	
+	/**
+	 * Apply the delta to the copy of the summary of the sender.
+	 */
+	public void applyTo(BitSet summary) {
+		if (reset)
+			summary.clear();
+		for (int i : flipped)
+			summary.flip(i);
+	}
+	
+	public String toString() {
+		return "SummaryDelta[" + (reset ? "reset, " : "") + flipped.length + " bits]";
+	}
+}
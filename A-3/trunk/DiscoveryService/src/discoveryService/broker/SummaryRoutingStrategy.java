@@ -0,0 +1,363 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.broker;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.overlay.NotConnectedException;
+import polimi.reds.broker.overlay.Overlay;
+import polimi.reds.broker.overlay.PacketListener;
+import polimi.reds.broker.routing.Router;
+import polimi.reds.broker.routing.SubscriptionTable;
+import discoveryService.core.lease.LeasedFilter;
+
+/**
+ * Routing strategy that summarizes the {@link Indexable} subscriptions with Bloom filters
+ * instead of forwarding them.
+ * <p>
+ * The keys of the indexable subscriptions of the local nodes (service IDs, destination
+ * nodes of the tasks, engaged nodes, ...) are kept in a {@link CountingBloomFilter}. Each
+ * broker sends to every neighbor broker the summary of the keys reachable through itself: 
+ * its own keys and the summaries received from its other neighbors. Summaries are sent as
+ * {@link SummaryDelta}s when they change, so the routing state kept for a neighbor has a
+ * fixed size however many services are published behind it. An indexable message is
+ * delivered to the matching local subscribers and sent to the neighbor brokers whose summary 
+ * might contain its key; a message without a key is sent to the brokers with subscriptions 
+ * of its kind. Other subscriptions are routed by the {@link CoveringRoutingStrategy}.
+ * </p>
+ * <p>
+ * The brokers must form a tree, as with subscription forwarding, and use the same summary 
+ * size. False positives of the summaries only cause useless forwarding.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class SummaryRoutingStrategy extends CoveringRoutingStrategy implements PacketListener {
+	/**
+	 * Subject of the packets carrying the summary deltas.
+	 */
+	public final static String SUMMARY = "__DS_SUMMARY";
+	/**
+	 * Default number of bits of the summaries.
+	 */
+	public final static int DEFAULT_BITS = 65536;
+	/**
+	 * Default number of bits set by each key.
+	 */
+	public final static int DEFAULT_HASHES = 4;
+	private static Logger logger = Logger.getLogger(SummaryRoutingStrategy.class);
+	private CountingBloomFilter local;
+	private HashMap<NodeDescriptor, HashMap<Filter, Entry>> localSubscriptions;
+	private HashMap<NodeDescriptor, BitSet> remote;
+	private HashMap<NodeDescriptor, BitSet> sent;
+	private int bits;
+	private int hashes;
+	private SubscriptionTable lastTable;
+	private long lastSweep;
+	private long deltaCount;
+	
+	/**
+	 * Create the strategy.
+	 * 
+	 * @param replyTable The reply table of the broker.
+	 * @param bits Number of bits of the summaries.
+	 * @param hashes Number of bits set by each key.
+	 */
+	public SummaryRoutingStrategy(ExpiringReplyTable replyTable, int bits, int hashes) {
+		super(replyTable);
+		this.bits = bits;
+		this.hashes = hashes;
+		local = new CountingBloomFilter(bits, hashes);
+		localSubscriptions = new HashMap<NodeDescriptor, HashMap<Filter, Entry>>();
+		remote = new HashMap<NodeDescriptor, BitSet>();
+		sent = new HashMap<NodeDescriptor, BitSet>();
+		lastSweep = 0;
+		deltaCount = 0;
+	}
+	
+	@Override
+	public void setOverlay(Overlay overlay) {
+		super.setOverlay(overlay);
+		overlay.addPacketListener(this, SUMMARY);
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> subscribe(NodeDescriptor neighbor, Filter filter, SubscriptionTable subTable) {
+		Indexable index = getIndexable(filter);
+		// Subscriptions forwarded by brokers not using summaries are routed as usual
+		if ((index == null) || neighbor.isBroker())
+			return super.subscribe(neighbor, filter, subTable);
+		lastTable = subTable;
+		sweep();
+		HashMap<Filter, Entry> subs = localSubscriptions.get(neighbor);
+		if (subs == null) {
+			subs = new HashMap<Filter, Entry>();
+			localSubscriptions.put(neighbor, subs);
+		}
+		Entry entry = subs.get(filter);
+		if (entry != null) {
+			entry.count++;
+			entry.renew();
+			return new ArrayList<NodeDescriptor>();
+		}
+		entry = new Entry(filter, index);
+		subs.put(filter, entry);
+		subTable.addSubscription(neighbor, filter);
+		for (String key : entry.keys)
+			local.add(key);
+		return update();
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> unsubscribe(NodeDescriptor neighbor, Filter filter, SubscriptionTable subTable) {
+		HashMap<Filter, Entry> subs = localSubscriptions.get(neighbor);
+		Entry entry = (subs == null) ? null : subs.get(filter);
+		if (entry == null)
+			return super.unsubscribe(neighbor, filter, subTable);
+		lastTable = subTable;
+		if (--entry.count > 0)
+			return new ArrayList<NodeDescriptor>();
+		subs.remove(filter);
+		if (subs.isEmpty())
+			localSubscriptions.remove(neighbor);
+		subTable.removeSubscription(neighbor, filter);
+		for (String key : entry.keys)
+			local.remove(key);
+		sweep();
+		return update();
+	}
+	
+	@Override
+	public synchronized Collection<NodeDescriptor> unsubscribeAll(NodeDescriptor neighbor, SubscriptionTable subTable) {
+		lastTable = subTable;
+		HashMap<Filter, Entry> subs = localSubscriptions.remove(neighbor);
+		if (subs != null) {
+			for (Entry entry : subs.values())
+				for (String key : entry.keys)
+					local.remove(key);
+		}
+		remote.remove(neighbor);
+		sent.remove(neighbor);
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>(super.unsubscribeAll(neighbor, subTable));
+		for (NodeDescriptor n : update())
+			if (!recipients.contains(n))
+				recipients.add(n);
+		return recipients;
+	}
+	
+	@Override
+	public Collection<NodeDescriptor> publish(Message msg, NodeDescriptor sender, SubscriptionTable subTable) {
+		if (!(msg instanceof Indexable) || (((Indexable)msg).getIndexKind() == null))
+			return super.publish(msg, sender, subTable);
+		recordDeadline(msg);
+		Indexable index = (Indexable)msg;
+		String kind = index.getIndexKind();
+		String key = index.getIndexKey();
+		
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		Collection<NodeDescriptor> matching = matchSubscriptions(msg, sender, subTable);
+		if (matching != null)
+			recipients.addAll(matching);
+		synchronized(this) {
+			if (hasNewBrokers())
+				update();
+			for (Map.Entry<NodeDescriptor, BitSet> entry : remote.entrySet()) {
+				NodeDescriptor n = entry.getKey();
+				if (n.equals(sender) || recipients.contains(n))
+					continue;
+				BitSet summary = entry.getValue();
+				boolean hit;
+				if (key == null)
+					hit = CountingBloomFilter.mightContain(summary, bits, kind + ":", hashes);
+				else
+					hit = CountingBloomFilter.mightContain(summary, bits, kind + ":" + key, hashes) ||
+							CountingBloomFilter.mightContain(summary, bits, kind + ":*", hashes);
+				if (hit)
+					recipients.add(n);
+			}
+		}
+		for (NodeDescriptor n : recipients)
+			send(Router.PUBLISH, msg, n);
+		return recipients;
+	}
+	
+	/**
+	 * Apply the summary deltas received from the neighbor brokers.
+	 */
+	public synchronized void notifyPacketArrived(String subject, NodeDescriptor source, Serializable packet) {
+		if (!SUMMARY.equals(subject) || !(packet instanceof SummaryDelta))
+			return;
+		SummaryDelta delta = (SummaryDelta)packet;
+		if ((delta.getBits() != bits) || (delta.getHashes() != hashes)) {
+			logger.error("Summary of " + source + " ignored: " + delta.getBits() + " bits, " + delta.getHashes() + 
+					" hashes instead of " + bits + ", " + hashes);
+			return;
+		}
+		BitSet summary = remote.get(source);
+		if (summary == null) {
+			if (!delta.isReset()) {
+				logger.warn("Delta received before the summary of " + source);
+				return;
+			}
+			summary = new BitSet(bits);
+			remote.put(source, summary);
+		}
+		delta.applyTo(summary);
+		update();
+	}
+	
+	/**
+	 * Return the number of keys of the local subscriptions.
+	 */
+	public synchronized int getLocalKeyCount() {
+		return local.size();
+	}
+	
+	/**
+	 * Return the number of summary deltas sent to the neighbor brokers.
+	 */
+	public synchronized long getDeltaCount() {
+		return deltaCount;
+	}
+	
+	/**
+	 * Send to each neighbor broker the changes of the summary of the keys reachable through
+	 * this broker.
+	 */
+	private Collection<NodeDescriptor> update() {
+		ArrayList<NodeDescriptor> recipients = new ArrayList<NodeDescriptor>();
+		Set<NodeDescriptor> neighbors = overlay.getNeighbors();
+		remote.keySet().retainAll(neighbors);
+		sent.keySet().retainAll(neighbors);
+		for (NodeDescriptor n : neighbors) {
+			if (!n.isBroker())
+				continue;
+			BitSet summary = (BitSet)local.getBits().clone();
+			for (Map.Entry<NodeDescriptor, BitSet> entry : remote.entrySet())
+				if (!entry.getKey().equals(n))
+					summary.or(entry.getValue());
+			BitSet previous = sent.get(n);
+			BitSet changes = (BitSet)summary.clone();
+			if (previous != null) {
+				changes.xor(previous);
+				if (changes.isEmpty())
+					continue;
+			}
+			sent.put(n, summary);
+			if (send(SUMMARY, new SummaryDelta(bits, hashes, previous == null, changes), n)) {
+				recipients.add(n);
+				deltaCount++;
+			}
+			else
+				sent.remove(n);
+		}
+		return recipients;
+	}
+	
+	private boolean hasNewBrokers() {
+		for (NodeDescriptor n : overlay.getNeighbors())
+			if (n.isBroker() && !sent.containsKey(n))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Remove the leased subscriptions that were not renewed in time.
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		if (now - lastSweep < SWEEP_INTERVAL)
+			return;
+		lastSweep = now;
+		Iterator<Map.Entry<NodeDescriptor, HashMap<Filter, Entry>>> it = localSubscriptions.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<NodeDescriptor, HashMap<Filter, Entry>> subs = it.next();
+			Iterator<Entry> entries = subs.getValue().values().iterator();
+			while (entries.hasNext()) {
+				Entry entry = entries.next();
+				if (entry.expiration < now) {
+					logger.debug("Subscription expired: " + entry.filter);
+					entries.remove();
+					for (String key : entry.keys)
+						local.remove(key);
+					if (lastTable != null)
+						lastTable.removeSubscription(subs.getKey(), entry.filter);
+				}
+			}
+			if (subs.getValue().isEmpty())
+				it.remove();
+		}
+	}
+	
+	private static Indexable getIndexable(Filter filter) {
+		if (filter instanceof LeasedFilter)
+			filter = ((LeasedFilter)filter).getTemplate();
+		if (filter instanceof Indexable)
+			return (Indexable)filter;
+		return null;
+	}
+	
+	private boolean send(String subject, Serializable payload, NodeDescriptor recipient) {
+		try {
+			overlay.send(subject, payload, recipient);
+			return true;
+		} catch (NotConnectedException e) {
+			logger.warn("Unable to send " + subject + " to " + recipient + ": not connected");
+			return false;
+		}
+	}
+	
+	private static class Entry {
+		private Filter filter;
+		private String[] keys;
+		private int count;
+		private long expiration;
+		
+		public Entry(Filter filter, Indexable index) {
+			this.filter = filter;
+			String kind = index.getIndexKind();
+			String key = index.getIndexKey();
+			// The kind alone marks the brokers to which messages without a key are sent
+			keys = new String[] { kind + ":", kind + ":" + ((key == null) ? "*" : key) };
+			count = 1;
+			renew();
+		}
+		
+		public void renew() {
+			if (filter instanceof LeasedFilter)
+				expiration = System.currentTimeMillis() + ((LeasedFilter)filter).getTTL();
+			else
+				expiration = Long.MAX_VALUE;
+		}
+	}
+}
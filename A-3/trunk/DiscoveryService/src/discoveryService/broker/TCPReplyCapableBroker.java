@@ -22,8 +22,13 @@ package discoveryService.broker;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.MalformedURLException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -37,14 +42,9 @@ import polimi.reds.broker.overlay.TopologyManager;
 import polimi.reds.broker.overlay.Transport;
 import polimi.reds.broker.routing.DeferredUnsubscriptionReconfigurator;
 import polimi.reds.broker.routing.GenericRouter;
-import polimi.reds.broker.routing.GenericTable;
-import polimi.reds.broker.routing.HashReplyTable;
 import polimi.reds.broker.routing.ImmediateForwardReplyManager;
 import polimi.reds.broker.routing.Reconfigurator;
 import polimi.reds.broker.routing.ReplyManager;
-import polimi.reds.broker.routing.ReplyTable;
-import polimi.reds.broker.routing.RoutingStrategy;
-import polimi.reds.broker.routing.SubscriptionForwardingRoutingStrategy;
 import polimi.reds.broker.routing.SubscriptionTable;
 import polimi.util.Locator;
 
@@ -59,6 +59,19 @@ import polimi.util.Locator;
  * - broker 1 deliver the message to node A
  * - node A send a reply to the message
  * - the message traverse the overlay network back until node B
+ * 
+ * Subscriptions are stored in a {@link LeaseSubscriptionTable}, so the leased publications
+ * of nodes that stop renewing them are expired by the broker. Replies are routed through an
+ * {@link ExpiringReplyTable} whose entries expire with the reply timeout of the requests.
+ * In directory mode the broker answers the searches with the replicas of the publications 
+ * of its nodes kept in a {@link BrokerDirectory}, whose expired replicas are removed by a
+ * timer of the broker.
+ * 
+ * The routing of the subscriptions can be changed before starting the broker: subscription
+ * covering, summaries and sharding. Summaries and sharding already apply covering to the 
+ * subscriptions they do not handle, so covering can be combined with either of them; summaries
+ * and sharding are alternatives, and the second one enabled is rejected. The directory mode
+ * can be combined with any of them.
  *  
  * @author leleplx@gmail.com (emanuele)
  * 
@@ -69,17 +82,27 @@ public class TCPReplyCapableBroker implements Broker {
 	 * Time in milliseconds during which the Locator waits for detecting other brokers.
 	 */
 	public final static int LOCATOR_SEARCH_TIME = 1000;
+	/**
+	 * Default time in milliseconds during which replies to a request are routed back.
+	 */
+	public final static int DEFAULT_REPLY_TIMEOUT = 30000;
+	/**
+	 * Default maximum number of entries of the reply table.
+	 */
+	public final static int DEFAULT_REPLY_TABLE_CAPACITY = 100000;
 	private static Logger logger = Logger.getLogger(TCPReplyCapableBroker.class);
 	
 	private Transport transport;
 	private TopologyManager topManager;
 	private Overlay overlay;
-	private RoutingStrategy routStrategy;
+	private ReplyDeadlineRoutingStrategy routStrategy;
 	private Reconfigurator reconf;
 	private GenericRouter router;
 	private SubscriptionTable subTable;
 	private ReplyManager replyManager;
-	private ReplyTable replyTable;
+	private ExpiringReplyTable replyTable;
+	private BrokerDirectory directory;
+	private ScheduledExecutorService expiry;
 	private Locator locator;
 	private String myURL;
 	
@@ -91,20 +114,47 @@ public class TCPReplyCapableBroker implements Broker {
 	 * @param brokerPort broker port number e.g.: 1911
 	 */
 	public TCPReplyCapableBroker(String address, int brokerPort) {
-		transport = new TCPTransport(brokerPort);
+		this(address, brokerPort, DEFAULT_REPLY_TIMEOUT, DEFAULT_REPLY_TABLE_CAPACITY);
+	}
+	
+	/**
+	 * Instantiates a broker relying on TCP protocol stack with a bounded reply table.
+	 *  
+	 * @param url broker URL (must be specified without port number e.g.: 127.0.0.1)
+	 * @param brokerPort broker port number e.g.: 1911
+	 * @param replyTimeout Time in milliseconds during which replies are routed back for requests
+	 * that do not carry their own reply timeout.
+	 * @param replyTableCapacity Maximum number of entries of the reply table.
+	 */
+	public TCPReplyCapableBroker(String address, int brokerPort, int replyTimeout, int replyTableCapacity) {
+		this(address, new TCPTransport(brokerPort), replyTimeout, replyTableCapacity);
+	}
+	
+	/**
+	 * Instantiates a broker on top of the given transport (e.g. a 
+	 * {@link discoveryService.transport.NIOTransport}).
+	 *  
+	 * @param url broker URL (must be specified without port number e.g.: 127.0.0.1)
+	 * @param transport The transport used to communicate with the neighbors.
+	 * @param replyTimeout Time in milliseconds during which replies are routed back for requests
+	 * that do not carry their own reply timeout.
+	 * @param replyTableCapacity Maximum number of entries of the reply table.
+	 */
+	public TCPReplyCapableBroker(String address, Transport transport, int replyTimeout, int replyTableCapacity) {
+		this.transport = transport;
 		topManager = new SimpleTopologyManager();
 //		topManager = new LSTreeTopologyManager();
 		Set<Transport> transports = new HashSet<Transport>();
 		transports.add(transport);
 		overlay = new GenericOverlay(topManager,transports);
-		routStrategy = new SubscriptionForwardingRoutingStrategy();
+		replyTable = new ExpiringReplyTable(replyTimeout, replyTableCapacity);
+		routStrategy = new ReplyDeadlineRoutingStrategy(replyTable);
 		reconf = new DeferredUnsubscriptionReconfigurator();
 		router = new GenericRouter(overlay);
-		subTable = new GenericTable();
+		subTable = new LeaseSubscriptionTable();
 		routStrategy.setOverlay(overlay);
 		reconf.setOverlay(overlay);
 		replyManager = new ImmediateForwardReplyManager();
-		replyTable = new HashReplyTable();
 		replyManager.setOverlay(overlay);
 		router.setOverlay(overlay);
 		router.setSubscriptionTable(subTable);
@@ -113,7 +163,10 @@ public class TCPReplyCapableBroker implements Broker {
 		router.setReplyTable(replyTable);
 		reconf.setRouter(router);
 		replyManager.setReplyTable(replyTable);
-		myURL = "reds-tcp:" + address + ":" + brokerPort;
+		// Keep the transport scheme and port but advertise the given address
+		String transportURL = transport.getURL();
+		myURL = transportURL.substring(0, transportURL.indexOf(':')) + ":" + address 
+				+ transportURL.substring(transportURL.lastIndexOf(':'));
 		
 		try {
 			locator = new Locator(myURL);
@@ -176,11 +229,33 @@ public class TCPReplyCapableBroker implements Broker {
 	public void start() {
 		overlay.start();
 		locator.startServer();
+		if (directory != null) {
+			expiry = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BrokerDirectory-expiry");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			expiry.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						directory.expire(System.currentTimeMillis());
+					} catch (RuntimeException e) {
+						logger.error("Expiry of the directory failed", e);
+					}
+				}
+			}, BrokerDirectory.EXPIRY_INTERVAL, BrokerDirectory.EXPIRY_INTERVAL, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	@Override
 	public void stop() {
 		locator.stopServer();
+		if (expiry != null) {
+			expiry.shutdownNow();
+			expiry = null;
+		}
 		Set<?> neighbors = topManager.getNeighbors();
 		for (Object node : neighbors) {
 			//topManager.removeNeighbor((NodeDescriptor)node);
@@ -191,6 +266,102 @@ public class TCPReplyCapableBroker implements Broker {
 		transport.stop();
 	}
 	
+	/**
+	 * Forward to the other brokers only the subscriptions not covered by the ones already
+	 * forwarded, using a {@link CoveringRoutingStrategy}. To be called before <code>start()</code>.
+	 */
+	public void enableSubscriptionCovering() {
+		if (routStrategy instanceof CoveringRoutingStrategy) {
+			logger.info("Subscription covering already applied by " + routStrategy.getClass().getSimpleName());
+			return;
+		}
+		setRoutingStrategy(new CoveringRoutingStrategy(replyTable));
+	}
+	
+	/**
+	 * Exchange Bloom filter summaries of the subscriptions with the other brokers instead of
+	 * forwarding them, using a {@link SummaryRoutingStrategy}. To be called before <code>start()</code>.
+	 * 
+	 * @param bits Number of bits of the summaries, the same for all the brokers.
+	 * @param hashes Number of bits set by each key.
+	 */
+	public void enableSubscriptionSummaries(int bits, int hashes) {
+		setRoutingStrategy(new SummaryRoutingStrategy(replyTable, bits, hashes));
+	}
+	
+	/**
+	 * Partition the subscriptions with a routing key among the brokers of a cluster using
+	 * a {@link ShardedRoutingStrategy}, that also applies subscription covering. To be called
+	 * before <code>start()</code>.
+	 * 
+	 * @param brokers The URLs of the brokers of the cluster, this one included. The brokers
+	 * must be connected with each other.
+	 * @param virtualNodes Number of points of each broker on the ring.
+	 */
+	public void enableSharding(String[] brokers, int virtualNodes) {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(brokers), virtualNodes);
+		if (!ring.getMembers().contains(myURL)) {
+			logger.warn(myURL + " is not one of the brokers of the cluster: sharding disabled");
+			return;
+		}
+		ShardedRoutingStrategy strategy = new ShardedRoutingStrategy(replyTable, ring, myURL);
+		if (!setRoutingStrategy(strategy))
+			return;
+		// The keyed subscriptions are sent again to the owners when their links are added
+		transport.addLinkListener(strategy);
+		logger.info("Sharding among " + ring.getMembers().size() + " brokers, shares: " + ring.getShares());
+	}
+	
+	/**
+	 * Keep the replicas of the publications of the nodes connected to the broker and answer
+	 * the searches matching them with a single reply, instead of delivering the searches
+	 * to the publishers. To be called before <code>start()</code>.
+	 * 
+	 * @param storeCapacity Initial number of replicas kept off the heap (see {@link BrokerDirectory});
+	 * 0 to keep all the replicas on the heap.
+	 */
+	public void enableDirectory(int storeCapacity) {
+		directory = new BrokerDirectory(storeCapacity);
+		routStrategy.setDirectory(directory);
+	}
+	
+	/**
+	 * Get the directory of the broker, e.g. to read its metrics.
+	 * 
+	 * @return The directory or <code>null</code> if the directory mode is disabled.
+	 */
+	public BrokerDirectory getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Replace the routing strategy, unless the current one is summaries or sharding, which
+	 * cannot be combined.
+	 * 
+	 * @return <code>false</code> if the strategy has been rejected.
+	 */
+	private boolean setRoutingStrategy(ReplyDeadlineRoutingStrategy strategy) {
+		if ((routStrategy instanceof SummaryRoutingStrategy) || (routStrategy instanceof ShardedRoutingStrategy)) {
+			logger.error(strategy.getClass().getSimpleName() + " rejected: " + 
+					routStrategy.getClass().getSimpleName() + " already enabled");
+			return false;
+		}
+		strategy.setOverlay(overlay);
+		strategy.setDirectory(directory);
+		routStrategy = strategy;
+		router.setRoutingStrategy(routStrategy);
+		return true;
+	}
+	
+	/**
+	 * Get the reply table of the broker, e.g. to read its metrics.
+	 * 
+	 * @return The reply table.
+	 */
+	public ExpiringReplyTable getReplyTable() {
+		return replyTable;
+	}
+	
 	@Override
 	public String getURL() {
 		return transport.getURL();
@@ -0,0 +1,37 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+/**
+ * A search that can share its replies with the equivalent searches made concurrently
+ * by the same node (see <code>DSCore.searchAll()</code>).
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface Coalescable {
+	/**
+	 * Return the canonical form of the search: two searches with the same key must
+	 * receive the same replies.
+	 * 
+	 * @return The key or <code>null</code> if the search cannot be coalesced.
+	 */
+	public String getCoalescingKey();
+}
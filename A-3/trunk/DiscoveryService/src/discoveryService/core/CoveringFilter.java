@@ -0,0 +1,52 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import polimi.reds.Filter;
+
+/**
+ * A {@link Filter} that can tell whether it covers another filter.
+ * <p>
+ * A filter covers another one when it matches at least all the messages matched by
+ * the other filter. Brokers use the relation to avoid forwarding subscriptions that
+ * are covered by the ones they already forwarded.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface CoveringFilter extends Filter {
+	/**
+	 * Check whether this filter covers the given one.
+	 * 
+	 * @param filter The other filter.
+	 * @return <code>true</code> if every message matched by <code>filter</code> is also
+	 * matched by this filter. When in doubt the method returns <code>false</code>.
+	 */
+	public boolean covers(Filter filter);
+	
+	/**
+	 * Return a filter covering this one that can stand for many similar subscriptions when
+	 * it is forwarded to other brokers (e.g. the same filter without the name of the node).
+	 * 
+	 * @return The generalized filter, or this filter if it should not be generalized.
+	 */
+	public CoveringFilter generalize();
+}
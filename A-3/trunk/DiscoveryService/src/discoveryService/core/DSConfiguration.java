@@ -33,9 +33,15 @@ import java.util.Arrays;
 public class DSConfiguration {
 	public static final String TCP = "tcp";
 	public static final String UDP = "udp";
+	public static final String TCP_NIO = "tcp-nio";
+	public static final String PUBSUB = "pubsub";
+	public static final String GOSSIP = "gossip";
 
 	private String nodeName;						// node name
-	private String protocol;						// tcp|udp|tcpl
+	private String protocol;						// tcp|tcp-nio|udp|tcpl
+	private int ioThreads = 2;						// I/O threads of the tcp-nio broker transport
+	private String[] unreliableMessages = {			// message classes sent without acknowledgment over udp
+			"discoveryService.core.status.Status" };
 	private boolean createBroker = true;			// yes|no	
 	private int brokerPort;							// TCP port number
 	private String brokerAddress;					// IP address
@@ -48,6 +54,36 @@ public class DSConfiguration {
 	 */
 	private int maxNumOfNeighbors;		
 	
+	private String statusDissemination = PUBSUB;	// pubsub|gossip
+	private int gossipInterval = 1000;				// milliseconds between two gossip rounds
+	private int gossipFanout = 3;					// peers contacted in a gossip round
+	private String[] gossipSeeds;					// node names of the initial gossip peers
+	private int gossipExpiryRounds = 20;			// gossip rounds without heartbeats before a node is forgotten
+	private int heartbeatInterval = 0;				// milliseconds between two heartbeats (0: disabled)
+	private double phiThreshold = 8.0;				// suspicion level above which a node is suspected
+	private int failureDetectorWindow = 100;		// inter-arrival times kept by the failure detector
+	private int acceptableHeartbeatPause = 0;		// milliseconds of pause tolerated by the failure detector
+	private int statusHistorySize = 32;				// values kept for each numeric status attribute of the engaged nodes
+	private int leaseTTL = 0;						// milliseconds of validity of a publication (0: no lease)
+	private int watchSnapshotTimeout = 3000;		// milliseconds waited for the snapshot of a watch
+	private boolean adaptiveReplyTimeouts = false;	// yes|no
+	private int minReplyTimeout = 200;				// lower bound of the adaptive reply timeouts in milliseconds
+	private int replyTableTimeout = 30000;			// milliseconds during which a broker routes replies
+	private int replyTableCapacity = 100000;		// max number of entries of the broker reply table
+	private boolean subscriptionCovering = false;	// yes|no
+	private int summaryBits = 0;					// bits of the Bloom subscription summaries (0: disabled)
+	private int summaryHashes = 4;					// bits set by each key in the summaries
+	private String[] shardBrokers;					// URLs of the brokers of a sharded cluster
+	private int shardVirtualNodes = 64;				// points of each broker on the consistent hashing ring
+	private boolean directoryMode = false;			// yes|no
+	private int directoryStoreCapacity = 0;			// initial replicas kept off the heap (0: heap only)
+	private boolean headerRouting = false;			// yes|no
+	private int outboundRingSize = 0;				// pending outbound operations (0: no pipeline)
+	private int outboundBatchSize = 64;				// max operations written with a single flush
+	private int outboundFlushLatency = 0;			// microseconds waited for a batch to fill
+	private int[] priorityWeights;					// weights of the CONTROL, NORMAL and BULK lanes (null: FIFO)
+	private int inboundQueueSize = 1024;			// received messages waiting for the listeners
+	
 	/**
 	 * Create a dummy instance of <code>DSConfiguration</code>.
 	 * Use respective methods to set the values of the attributes.
@@ -100,6 +136,14 @@ public class DSConfiguration {
 		else if (declaration.equalsIgnoreCase("protocol")) {
 			setProtocol(value);
 		}
+		else if (declaration.equalsIgnoreCase("unreliableMessages")) {
+			String[] classes = value.split("[\\p{Space}]+");
+			setUnreliableMessages(classes);
+		}
+		else if (declaration.equalsIgnoreCase("ioThreads")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setIOThreads(intValue);
+		}
 		else if (declaration.equalsIgnoreCase("brokerPort")) {
 			int intValue = Integer.valueOf(value).intValue();
 			setBrokerPort(intValue);
@@ -119,6 +163,120 @@ public class DSConfiguration {
 			if (value.equalsIgnoreCase("no"))
 				createBroker = false;
 		}
+		else if (declaration.equalsIgnoreCase("statusDissemination")) {
+			setStatusDissemination(value);
+		}
+		else if (declaration.equalsIgnoreCase("gossipInterval")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setGossipInterval(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("gossipFanout")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setGossipFanout(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("gossipExpiryRounds")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setGossipExpiryRounds(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("gossipSeeds")) {
+			String[] seeds = value.split("[\\p{Space}]+");
+			setGossipSeeds(seeds);
+		}
+		else if (declaration.equalsIgnoreCase("heartbeatInterval")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setHeartbeatInterval(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("phiThreshold")) {
+			double doubleValue = Double.valueOf(value).doubleValue();
+			setPhiThreshold(doubleValue);
+		}
+		else if (declaration.equalsIgnoreCase("failureDetectorWindow")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setFailureDetectorWindow(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("statusHistorySize")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setStatusHistorySize(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("acceptableHeartbeatPause")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setAcceptableHeartbeatPause(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("subscriptionCovering")) {
+			setSubscriptionCovering(!value.equalsIgnoreCase("no"));
+		}
+		else if (declaration.equalsIgnoreCase("summaryBits")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setSummaryBits(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("summaryHashes")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setSummaryHashes(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("shardBrokers")) {
+			String[] urls = value.split("[\\p{Space}]+");
+			setShardBrokers(urls);
+		}
+		else if (declaration.equalsIgnoreCase("shardVirtualNodes")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setShardVirtualNodes(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("directoryMode")) {
+			setDirectoryMode(!value.equalsIgnoreCase("no"));
+		}
+		else if (declaration.equalsIgnoreCase("directoryStoreCapacity")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setDirectoryStoreCapacity(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("headerRouting")) {
+			setHeaderRouting(!value.equalsIgnoreCase("no"));
+		}
+		else if (declaration.equalsIgnoreCase("outboundRingSize")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setOutboundRingSize(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("outboundBatchSize")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setOutboundBatchSize(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("outboundFlushLatency")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setOutboundFlushLatency(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("priorityWeights")) {
+			String[] values = value.split("[\\p{Space}]+");
+			int[] weights = new int[values.length];
+			for (int i = 0; i < values.length; i++)
+				weights[i] = Integer.valueOf(values[i]).intValue();
+			setPriorityWeights(weights);
+		}
+		else if (declaration.equalsIgnoreCase("inboundQueueSize")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setInboundQueueSize(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("leaseTTL")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setLeaseTTL(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("watchSnapshotTimeout")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setWatchSnapshotTimeout(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("adaptiveReplyTimeouts")) {
+			setAdaptiveReplyTimeouts(!value.equalsIgnoreCase("no"));
+		}
+		else if (declaration.equalsIgnoreCase("minReplyTimeout")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setMinReplyTimeout(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("replyTableTimeout")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setReplyTableTimeout(intValue);
+		}
+		else if (declaration.equalsIgnoreCase("replyTableCapacity")) {
+			int intValue = Integer.valueOf(value).intValue();
+			setReplyTableCapacity(intValue);
+		}
 	}
 	
 	/**
@@ -137,7 +295,7 @@ public class DSConfiguration {
 	/**
 	 * Set the protocol used by the Discovery Service node.
 	 * 
-	 * @param protocol Protocol values: tcp|udp
+	 * @param protocol Protocol values: tcp|tcp-nio|udp
 	 */
 	public void setProtocol(String protocol) {
 		this.protocol = protocol;
@@ -147,6 +305,35 @@ public class DSConfiguration {
 		return protocol;
 	}
 	
+	/**
+	 * Set the number of I/O threads serving all the connections of a broker using 
+	 * the <code>tcp-nio</code> protocol.
+	 * 
+	 * @param threads Number of threads.
+	 */
+	public void setIOThreads(int threads) {
+		ioThreads = threads;
+	}
+	
+	public int getIOThreads() {
+		return ioThreads;
+	}
+	
+	/**
+	 * Set the classes of the messages that are published without acknowledgment and 
+	 * retransmission when using the <code>udp</code> protocol (e.g. status updates and
+	 * heartbeats, that are superseded by the next one). Subclasses are included.
+	 * 
+	 * @param classes Fully qualified class names.
+	 */
+	public void setUnreliableMessages(String[] classes) {
+		unreliableMessages = classes;
+	}
+	
+	public String[] getUnreliableMessages() {
+		return unreliableMessages;
+	}
+	
 	/**
 	 * Set the address of the node
 	 * 
@@ -215,6 +402,437 @@ public class DSConfiguration {
 		return createBroker;
 	}
 	
+	/**
+	 * Set the way the status of the node is disseminated to the engaged nodes. 
+	 * With <code>pubsub</code> every status change is published through the brokers to the
+	 * subscribers of the status. With <code>gossip</code> the nodes periodically exchange 
+	 * digests of their status view with a few random peers and pull only the newer entries.
+	 * 
+	 * @param mode Dissemination values: pubsub|gossip
+	 */
+	public void setStatusDissemination(String mode) {
+		statusDissemination = mode;
+	}
+	
+	public String getStatusDissemination() {
+		return statusDissemination;
+	}
+	
+	/**
+	 * Set the time between two gossip rounds.
+	 * 
+	 * @param interval Time in milliseconds.
+	 */
+	public void setGossipInterval(int interval) {
+		gossipInterval = interval;
+	}
+	
+	public int getGossipInterval() {
+		return gossipInterval;
+	}
+	
+	/**
+	 * Set the number of random peers contacted in every gossip round.
+	 * 
+	 * @param fanout Number of peers.
+	 */
+	public void setGossipFanout(int fanout) {
+		gossipFanout = fanout;
+	}
+	
+	public int getGossipFanout() {
+		return gossipFanout;
+	}
+	
+	/**
+	 * Set the names of the nodes used as first peers by the gossip based dissemination.
+	 * Other peers are learnt from the exchanged digests.
+	 * 
+	 * @param seeds Array of node names.
+	 */
+	public void setGossipSeeds(String[] seeds) {
+		gossipSeeds = seeds;
+	}
+	
+	public String[] getGossipSeeds() {
+		return gossipSeeds;
+	}
+	
+	/**
+	 * Set the number of gossip rounds after which a node whose heartbeat has not advanced
+	 * is expired from the gossip view and from the peers. The node is remembered for as
+	 * many rounds, so that it is not brought back by peers that have not expired it yet.
+	 * 
+	 * @param rounds Number of rounds; 0 to never expire nodes.
+	 */
+	public void setGossipExpiryRounds(int rounds) {
+		gossipExpiryRounds = rounds;
+	}
+	
+	public int getGossipExpiryRounds() {
+		return gossipExpiryRounds;
+	}
+	
+	/**
+	 * Set the interval between two heartbeats. When heartbeats are enabled the node 
+	 * periodically sends its {@link discoveryService.core.status.Status} even if it 
+	 * did not change, and the liveness of the engaged nodes is monitored through a 
+	 * {@link discoveryService.core.status.PhiAccrualFailureDetector}.
+	 * 
+	 * @param interval Time in milliseconds. If 0 heartbeats are disabled.
+	 */
+	public void setHeartbeatInterval(int interval) {
+		heartbeatInterval = interval;
+	}
+	
+	public int getHeartbeatInterval() {
+		return heartbeatInterval;
+	}
+	
+	/**
+	 * Set the suspicion level above which an engaged node is reported as suspected
+	 * to the {@link StatusListener}.
+	 * 
+	 * @param threshold The threshold on phi (e.g. 8 means a probability of a wrong 
+	 * suspicion of about 10^-8).
+	 */
+	public void setPhiThreshold(double threshold) {
+		phiThreshold = threshold;
+	}
+	
+	public double getPhiThreshold() {
+		return phiThreshold;
+	}
+	
+	/**
+	 * Set the number of inter-arrival times of the heartbeats used by the failure detector
+	 * to estimate their distribution.
+	 * 
+	 * @param window Number of samples.
+	 */
+	public void setFailureDetectorWindow(int window) {
+		failureDetectorWindow = window;
+	}
+	
+	public int getFailureDetectorWindow() {
+		return failureDetectorWindow;
+	}
+	
+	/**
+	 * Set the number of recent values kept for each numeric attribute of the status of
+	 * the engaged nodes (see <code>DSCore.getStatusTable()</code>).
+	 * 
+	 * @param size Number of values; 0 to keep only the last status.
+	 */
+	public void setStatusHistorySize(int size) {
+		statusHistorySize = size;
+	}
+	
+	public int getStatusHistorySize() {
+		return statusHistorySize;
+	}
+	
+	/**
+	 * Set the pause of the heartbeats that is tolerated by the failure detector before
+	 * the suspicion level starts growing (e.g. to absorb garbage collection pauses).
+	 * 
+	 * @param pause Time in milliseconds.
+	 */
+	public void setAcceptableHeartbeatPause(int pause) {
+		acceptableHeartbeatPause = pause;
+	}
+	
+	public int getAcceptableHeartbeatPause() {
+		return acceptableHeartbeatPause;
+	}
+	
+	/**
+	 * Set the default time to live of the publications. The node renews the lease of its
+	 * publications in background, while the brokers expire them when the renewals stop.
+	 * 
+	 * @param ttl Time in milliseconds. If 0 (the default) publications never expire.
+	 */
+	public void setLeaseTTL(int ttl) {
+		leaseTTL = ttl;
+	}
+	
+	public int getLeaseTTL() {
+		return leaseTTL;
+	}
+	
+	/**
+	 * Set the time during which a watch collects the replies that make up its initial
+	 * snapshot. The changes received meanwhile are applied after the snapshot.
+	 * 
+	 * @param timeout Time in milliseconds.
+	 */
+	public void setWatchSnapshotTimeout(int timeout) {
+		watchSnapshotTimeout = timeout;
+	}
+	
+	public int getWatchSnapshotTimeout() {
+		return watchSnapshotTimeout;
+	}
+	
+	/**
+	 * Set whether the engagements of a node sent without a reply timeout get one estimated 
+	 * from the round-trip times observed by the node (see {@link RttEstimator}). The searches,
+	 * answered by many nodes, and the tasks, whose replies wait for their computation, keep
+	 * their own reply timeout. Disabled by default.
+	 * Before the first reply of a kind of request, and as upper bound, the timeout is 
+	 * <code>replyTableTimeout</code>.
+	 * 
+	 * @param enabled <code>true</code> to estimate the timeouts.
+	 */
+	public void setAdaptiveReplyTimeouts(boolean enabled) {
+		adaptiveReplyTimeouts = enabled;
+	}
+	
+	public boolean getAdaptiveReplyTimeouts() {
+		return adaptiveReplyTimeouts;
+	}
+	
+	/**
+	 * Set the lower bound of the estimated reply timeouts.
+	 * 
+	 * @param timeout Time in milliseconds.
+	 */
+	public void setMinReplyTimeout(int timeout) {
+		minReplyTimeout = timeout;
+	}
+	
+	public int getMinReplyTimeout() {
+		return minReplyTimeout;
+	}
+	
+	/**
+	 * Set the time during which the broker routes back the replies to a request that does not
+	 * carry its own reply timeout. After that time the entry of the request is removed from
+	 * the reply table. Used in case of createBroker=yes.
+	 * 
+	 * @param timeout Time in milliseconds.
+	 */
+	public void setReplyTableTimeout(int timeout) {
+		replyTableTimeout = timeout;
+	}
+	
+	public int getReplyTableTimeout() {
+		return replyTableTimeout;
+	}
+	
+	/**
+	 * Set the maximum number of entries of the reply table of the broker. When the table is 
+	 * full the oldest entry is evicted. Used in case of createBroker=yes.
+	 * 
+	 * @param capacity Maximum number of entries; it must be positive.
+	 */
+	public void setReplyTableCapacity(int capacity) {
+		replyTableCapacity = capacity;
+	}
+	
+	public int getReplyTableCapacity() {
+		return replyTableCapacity;
+	}
+	
+	/**
+	 * Set whether the local broker forwards to the other brokers only the subscriptions
+	 * not covered by the ones already forwarded (e.g. the publications of a service by
+	 * many nodes are forwarded once). Used in case of createBroker=yes. Disabled by default.
+	 * 
+	 * @param covering <code>true</code> to enable subscription covering.
+	 */
+	public void setSubscriptionCovering(boolean covering) {
+		subscriptionCovering = covering;
+	}
+	
+	public boolean getSubscriptionCovering() {
+		return subscriptionCovering;
+	}
+	
+	/**
+	 * Set the size of the Bloom filters summarizing the subscriptions (services, tasks,
+	 * engagements, ...) that the local broker exchanges with the other brokers instead of 
+	 * forwarding the subscriptions. All the brokers must use the same size. Used in case of
+	 * createBroker=yes.
+	 * 
+	 * @param bits Number of bits of the summaries; 0 to forward the subscriptions.
+	 */
+	public void setSummaryBits(int bits) {
+		summaryBits = bits;
+	}
+	
+	public int getSummaryBits() {
+		return summaryBits;
+	}
+	
+	/**
+	 * Set the number of bits set by each key in the subscription summaries.
+	 * 
+	 * @param hashes Number of bits.
+	 */
+	public void setSummaryHashes(int hashes) {
+		summaryHashes = hashes;
+	}
+	
+	public int getSummaryHashes() {
+		return summaryHashes;
+	}
+	
+	/**
+	 * Set the brokers of a cluster among which the directory of the services is partitioned.
+	 * The subscriptions of each service are stored only by the broker of the publisher and by
+	 * the broker owning its service ID, and the searches for a service ID are sent only to the
+	 * owner. The brokers must be connected with each other. Used in case of createBroker=yes.
+	 * 
+	 * @param urls The URLs of the brokers, as returned by <code>Broker.getURL()</code> 
+	 * (e.g. reds-tcp:192.168.1.2:1911). If <code>null</code> the directory is not partitioned.
+	 */
+	public void setShardBrokers(String[] urls) {
+		shardBrokers = urls;
+	}
+	
+	public String[] getShardBrokers() {
+		return shardBrokers;
+	}
+	
+	/**
+	 * Set the number of points of each broker on the consistent hashing ring used to
+	 * partition the directory. More points give a more even partition.
+	 * 
+	 * @param virtualNodes Number of points.
+	 */
+	public void setShardVirtualNodes(int virtualNodes) {
+		shardVirtualNodes = virtualNodes;
+	}
+	
+	public int getShardVirtualNodes() {
+		return shardVirtualNodes;
+	}
+	
+	/**
+	 * Set whether the local broker keeps the replicas of the publications of its nodes and
+	 * answers the searches matching them with a single reply. Paged searches require it: a node
+	 * that does not create a broker enables it to declare that its broker is in directory mode.
+	 * 
+	 * @param directory <code>true</code> to enable the directory mode.
+	 */
+	public void setDirectoryMode(boolean directory) {
+		directoryMode = directory;
+	}
+	
+	public boolean getDirectoryMode() {
+		return directoryMode;
+	}
+	
+	/**
+	 * Set the initial number of replicas that the directory of the local broker keeps in 
+	 * off-heap stores, with fixed layout records and interned strings, instead of heap objects. 
+	 * Only the items with a registered codec (e.g. the service descriptors) are stored 
+	 * off the heap. Used in case of directoryMode=yes.
+	 * 
+	 * @param capacity Number of replicas, the stores grow as needed; 0 to keep all the replicas 
+	 * on the heap.
+	 */
+	public void setDirectoryStoreCapacity(int capacity) {
+		directoryStoreCapacity = capacity;
+	}
+	
+	public int getDirectoryStoreCapacity() {
+		return directoryStoreCapacity;
+	}
+	
+	/**
+	 * Set whether the messages with large payloads (tasks, task results, status updates) are
+	 * sent sealed in an envelope, that the brokers route on a small header without 
+	 * deserializing the payload. Disabled by default.
+	 * 
+	 * @param enabled <code>true</code> to seal the messages.
+	 */
+	public void setHeaderRouting(boolean enabled) {
+		headerRouting = enabled;
+	}
+	
+	public boolean getHeaderRouting() {
+		return headerRouting;
+	}
+	
+	/**
+	 * Set the number of outbound operations (publish, reply, subscribe, ...) that can be
+	 * pending in the pipeline of the node. Application threads only enqueue the operations,
+	 * that are written to the broker by a single thread; when the pipeline is full they wait.
+	 * 
+	 * @param size Number of operations, rounded up to a power of two. If 0 (the default) the
+	 * operations are written by the calling threads.
+	 */
+	public void setOutboundRingSize(int size) {
+		outboundRingSize = size;
+	}
+	
+	public int getOutboundRingSize() {
+		return outboundRingSize;
+	}
+	
+	/**
+	 * Set the maximum number of outbound operations written to the broker with a single flush.
+	 * 
+	 * @param size Number of operations.
+	 */
+	public void setOutboundBatchSize(int size) {
+		outboundBatchSize = size;
+	}
+	
+	public int getOutboundBatchSize() {
+		return outboundBatchSize;
+	}
+	
+	/**
+	 * Set the maximum time an outbound operation waits for the batch to fill before being
+	 * flushed. Higher values trade latency for fewer writes.
+	 * 
+	 * @param latency Time in microseconds. If 0 the operations are flushed as soon as no
+	 * other one is pending.
+	 */
+	public void setOutboundFlushLatency(int latency) {
+		outboundFlushLatency = latency;
+	}
+	
+	public int getOutboundFlushLatency() {
+		return outboundFlushLatency;
+	}
+	
+	/**
+	 * Set the weights of the priority classes of the messages. The queues of the classes
+	 * are served with weighted round robin in the <code>tcp-nio</code> transport and in the 
+	 * delivery of the received messages, and give the share of each class in the batches
+	 * of the outbound pipeline.
+	 * 
+	 * @param weights The weights of the <code>CONTROL</code>, <code>NORMAL</code> and 
+	 * <code>BULK</code> classes; <code>null</code> (the default) keeps the FIFO order in the
+	 * transports and in the delivery, while the outbound pipeline uses the default weights.
+	 */
+	public void setPriorityWeights(int[] weights) {
+		priorityWeights = weights;
+	}
+	
+	public int[] getPriorityWeights() {
+		return priorityWeights;
+	}
+	
+	/**
+	 * Set the number of received messages that can wait to be delivered to the application 
+	 * listeners. When the queue is full the node stops reading from the broker until the 
+	 * listeners catch up.
+	 * 
+	 * @param size Number of messages; 0 for an unbounded queue.
+	 */
+	public void setInboundQueueSize(int size) {
+		inboundQueueSize = size;
+	}
+	
+	public int getInboundQueueSize() {
+		return inboundQueueSize;
+	}
+	
 	public String toString() {
 		return super.toString() + "\n" + 
 					"nodeName= " + nodeName + "\n" +
@@ -222,6 +840,8 @@ public class DSConfiguration {
 					"brokerPort= " + brokerPort + "\n" +
 					"brokerAddress= " + brokerAddress + "\n" +
 					(String)(((brokerNeighbors == null) || (brokerNeighbors.length == 0))? "" : Arrays.asList(brokerNeighbors)) +
-					"maxNumOfNeighbors= " + maxNumOfNeighbors;				
+					"maxNumOfNeighbors= " + maxNumOfNeighbors + "\n" +
+					"statusDissemination= " + statusDissemination + "\n" +
+					"heartbeatInterval= " + heartbeatInterval;				
 	}
 }
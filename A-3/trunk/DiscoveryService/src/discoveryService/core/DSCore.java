@@ -22,8 +22,20 @@ package discoveryService.core;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -31,13 +43,29 @@ import polimi.reds.DispatchingService;
 import polimi.reds.Filter;
 import polimi.reds.Message;
 import polimi.reds.MessageID;
+import polimi.reds.Repliable;
 import polimi.reds.Replies;
 import polimi.reds.TimeoutException;
 import discoveryService.broker.Broker;
+import discoveryService.core.gossip.GossipDigest;
+import discoveryService.core.gossip.GossipFilter;
+import discoveryService.core.gossip.GossipUpdate;
+import discoveryService.core.gossip.GossipView;
+import discoveryService.core.gossip.StatusGossiper;
+import discoveryService.core.lease.LeasedFilter;
+import discoveryService.core.lease.Publication;
+import discoveryService.core.pipeline.PipelinedDispatchingService;
 import discoveryService.core.status.EngageMessage;
 import discoveryService.core.status.EngageMessageFilter;
+import discoveryService.core.status.PhiAccrualFailureDetector;
 import discoveryService.core.status.Status;
 import discoveryService.core.status.StatusFilter;
+import discoveryService.core.status.StatusTable;
+import discoveryService.core.watch.PublicationEvent;
+import discoveryService.core.watch.Watch;
+import discoveryService.core.watch.WatchFilter;
+import discoveryService.core.watch.WatchListener;
+import discoveryService.core.watch.WatchRequest;
 
 /**
  * The core of a Discovery Service node. It can be composed of two parts: the broker and the dispatching service.
@@ -57,24 +85,101 @@ import discoveryService.core.status.StatusFilter;
  * With the node can be associated a {@link Status} that represents some particular information about the state
  * of the node. Discovery Service node notifies status changes when triggered through the method <code>
  * DSCore.notifyStatusUpdate</code>. A node can notify to the service that it is interested in status changes
- * of a specific node through the method <code>DSCore.engage()</code>.
+ * of a specific node through the method <code>DSCore.engage()</code>, or of a group of nodes at once
+ * through <code>DSCore.engageAll()</code>.
+ * </p>
+ * <p>
+ * When the configuration selects the <code>gossip</code> status dissemination, status changes are
+ * not published through the brokers: nodes periodically exchange digests of their status view
+ * with random peers (see {@link StatusGossiper}) and the status of the engaged nodes is read from
+ * the converged local view.
+ * </p>
+ * <p>
+ * When heartbeats are enabled the node periodically sends its status and monitors the liveness
+ * of the engaged nodes with a {@link PhiAccrualFailureDetector} for each of them. The nodes that
+ * become suspected, and trusted again, are reported to the {@link SuspicionListener}s. With the
+ * gossip dissemination the heartbeats are the counters gossiped in every round.
+ * </p>
+ * <p>
+ * Publications are leased: the template of a publication is subscribed through a {@link LeasedFilter}
+ * that the node renews in background and that the brokers expire when the renewals stop.
+ * </p>
+ * <p>
+ * The node notifies the changes of its publications with {@link PublicationEvent}s, so that other
+ * nodes can follow the publications matching a filter through a {@link Watch} (see <code>DSCore.watch()
+ * </code>) instead of searching for them periodically.
+ * </p>
+ * <p>
+ * The brokers in directory mode answer the searches with a {@link DirectoryReply} aggregating the 
+ * items of many nodes: the methods returning the replies unpack it and return the items one by one.
+ * </p>
+ * <p>
+ * Unless disabled in the configuration, outbound operations (publish, search, reply, subscriptions)
+ * go through a {@link PipelinedDispatchingService}: the calling threads only enqueue them and a 
+ * single writer thread sends them to the broker in batches.
+ * </p>
+ * <p>
+ * Messages belong to a {@link Priority} class. When priority weights are configured (see
+ * <code>DSConfiguration.setPriorityWeights()</code>) each class has its own queues in the transports
+ * and in the delivery of the received messages, served with weighted round robin; otherwise 
+ * messages are delivered in FIFO order. The outbound pipeline always has a ring for each class.
+ * </p>
  * 
  * @author leleplx@gmail.com (emanuele)
  *
  */
 public class DSCore {
+	/**
+	 * Time in milliseconds between two checks of the leases to renew and of the watches to
+	 * expire, when the node runs on a {@link DSHost}.
+	 */
+	public final static int HOSTED_CHECK_INTERVAL = 1000;
 	private static Logger logger = Logger.getLogger(DSCore.class);
 	private String nodeName;
 	private DispatchingService ds;
 	private Broker broker;
-	private MessageListener msgListener;
-	private Object msgListenerLock;
-	private StatusListener statusListener;
-	private Object statusListenerLock;
+	private ListenerRegistry msgListeners;
+	private CopyOnWriteArrayList<StatusListener> statusListeners;
+	private CopyOnWriteArrayList<SuspicionListener> suspicionListeners;
 	private MsgHandler msgHandler;
 	private Status status;
 	private EngageMessageFilter emFilter;
-	private Hashtable<String, Status> engagedNodesTable;
+	private StatusTable engagedNodesTable;
+	private AtomicLong statusVersion;
+	// The start time of the node: the versions of its status restart from 0 in each incarnation
+	private long incarnation;
+	private GossipView gossipView;
+	private StatusGossiper gossiper;
+	private int heartbeatInterval;
+	private double phiThreshold;
+	private int failureDetectorWindow;
+	private int acceptableHeartbeatPause;
+	private Hashtable<String, PhiAccrualFailureDetector> failureDetectors;
+	// The group filter that replaced the pattern of an engagement once it has completed
+	private Hashtable<StatusFilter, StatusFilter> patternGroups;
+	private LivenessMonitor livenessMonitor;
+	private int leaseTTL;
+	private String leasePrefix;
+	private AtomicLong leaseCounter;
+	private ArrayList<Publication> publications;
+	private LeaseRenewer leaseRenewer;
+	private Hashtable<String, Watch> watches;
+	private AtomicLong watchCounter;
+	private int watchSnapshotTimeout;
+	private WatchSweeper watchSweeper;
+	private Hashtable<MessageID, LinkedList<Message>> directoryItems;
+	private HashMap<String, SearchFlight> flights;
+	private AtomicLong coalescedSearches;
+	private int[] priorityWeights;
+	private int inboundQueueSize;
+	private DSHost host;
+	// Periodic tasks run by the scheduler of the host
+	private ArrayList<ScheduledFuture<?>> scheduledTasks;
+	private RttEstimator rttEstimator;
+	private boolean adaptiveReplyTimeouts;
+	private boolean directoryMode;
+	private String brokerURL;
+	private Hashtable<MessageID, Request> requests;
 	
 	/**
 	 * Create an instance of DSCore with the given node name and parameters passed in an instance of
@@ -88,18 +193,63 @@ public class DSCore {
 	 * TODO: handle situations when a neighbor dies. Ref. Overlay.addNeighborDeadListener(NeighborDeadListener)
 	 */
 	public DSCore(String nodeName, DSConfiguration dsConf) {
+		this(nodeName, dsConf, null);
+	}
+	
+	/**
+	 * Create a logical node of a {@link DSHost}, using the connection of the host
+	 * (see <code>DSHost.createNode()</code>).
+	 */
+	DSCore(String nodeName, DSConfiguration dsConf, DSHost host) {
 		if ((this.nodeName = nodeName) == null)
 			throw new IllegalConfigurationException("No node name defined");
-		if (dsConf.getCreateBroker()) {
-			logger.info("Creating broker");
-			broker = DSFactory.createBroker(dsConf);
+		this.host = host;
+		if (host != null)
+			ds = host.attach(nodeName);
+		else {
+			if (dsConf.getCreateBroker()) {
+				logger.info("Creating broker");
+				broker = DSFactory.createBroker(dsConf);
+			}
+			ds = DSFactory.createDispatchingService(dsConf);
+		}
+		msgListeners = new ListenerRegistry();
+		statusListeners = new CopyOnWriteArrayList<StatusListener>();
+		suspicionListeners = new CopyOnWriteArrayList<SuspicionListener>();
+		engagedNodesTable = new StatusTable(dsConf.getStatusHistorySize());
+		statusVersion = new AtomicLong(0);
+		incarnation = System.currentTimeMillis();
+		heartbeatInterval = dsConf.getHeartbeatInterval();
+		phiThreshold = dsConf.getPhiThreshold();
+		failureDetectorWindow = dsConf.getFailureDetectorWindow();
+		acceptableHeartbeatPause = dsConf.getAcceptableHeartbeatPause();
+		failureDetectors = new Hashtable<String, PhiAccrualFailureDetector>();
+		patternGroups = new Hashtable<StatusFilter, StatusFilter>();
+		priorityWeights = dsConf.getPriorityWeights();
+		inboundQueueSize = dsConf.getInboundQueueSize();
+		leaseTTL = dsConf.getLeaseTTL();
+		leasePrefix = nodeName + "@" + System.currentTimeMillis() + "#";
+		leaseCounter = new AtomicLong(0);
+		publications = new ArrayList<Publication>();
+		watches = new Hashtable<String, Watch>();
+		watchCounter = new AtomicLong(0);
+		watchSnapshotTimeout = dsConf.getWatchSnapshotTimeout();
+		directoryItems = new Hashtable<MessageID, LinkedList<Message>>();
+		flights = new HashMap<String, SearchFlight>();
+		coalescedSearches = new AtomicLong(0);
+		rttEstimator = new RttEstimator(dsConf.getMinReplyTimeout(), dsConf.getReplyTableTimeout());
+		adaptiveReplyTimeouts = dsConf.getAdaptiveReplyTimeouts();
+		directoryMode = dsConf.getDirectoryMode();
+		brokerURL = dsConf.getBrokerAddress() + ":" + dsConf.getBrokerPort();
+		requests = new Hashtable<MessageID, Request>();
+		if (DSConfiguration.GOSSIP.equalsIgnoreCase(dsConf.getStatusDissemination())) {
+			gossipView = new GossipView(nodeName, dsConf.getGossipExpiryRounds());
+			gossiper = new StatusGossiper(nodeName, ds, gossipView, dsConf.getGossipInterval(), 
+											dsConf.getGossipFanout());
+			if (dsConf.getGossipSeeds() != null)
+				for (String seed : dsConf.getGossipSeeds())
+					gossiper.addSeed(seed);
 		}
-		ds = DSFactory.createDispatchingService(dsConf);
-		msgListener = null;
-		msgListenerLock = new Object();
-		statusListener = null;
-		statusListenerLock = new Object();
-		engagedNodesTable = new Hashtable<String, Status>();
 	}
 	
 	/**
@@ -119,24 +269,98 @@ public class DSCore {
 		ds.open();
 		logger.info("Dispatching service opened: " + ds.isOpened());
 		msgHandler = new CoreMsgHandler();
-		msgHandler.start();
+		// The messages of a hosted node are received and delivered by the threads of the host
+		if (host != null)
+			((HostedDispatchingService)ds).setHandler(msgHandler);
+		else
+			msgHandler.start();
 		
 		// Create an instance of Status and then make a subscription to messages interested
 		// in the status of the node.
 		status = new Status();
 		status.setNodeName(nodeName);
+		status.setIncarnation(incarnation);
 		try {
 			status.setAddress(InetAddress.getLocalHost().getHostAddress());
 		} catch (UnknownHostException e) { e.printStackTrace(); }
-		emFilter = new EngageMessageFilter(status);
+		emFilter = new EngageMessageFilter(new Status(status));
 		ds.subscribe(emFilter);
 		
+		if (heartbeatInterval > 0)
+			livenessMonitor = new LivenessMonitor();
+		leaseRenewer = new LeaseRenewer();
+		watchSweeper = new WatchSweeper();
+		if (gossiper != null) {
+			gossipView.put(status);
+			ds.subscribe(new GossipFilter(nodeName));
+		}
+		
+		// The nodes of a host share the threads of its scheduler
+		if (host != null) {
+			scheduledTasks = new ArrayList<ScheduledFuture<?>>();
+			if (gossiper != null) {
+				scheduledTasks.add(host.schedule(new Runnable() {
+					public void run() {
+						gossiper.gossipRound();
+					}
+				}, gossiper.getInterval()));
+			}
+			if (livenessMonitor != null) {
+				scheduledTasks.add(host.schedule(new Runnable() {
+					public void run() {
+						livenessMonitor.beat();
+					}
+				}, heartbeatInterval));
+			}
+			scheduledTasks.add(host.schedule(new Runnable() {
+				public void run() {
+					leaseRenewer.renewDue();
+				}
+			}, HOSTED_CHECK_INTERVAL));
+			scheduledTasks.add(host.schedule(new Runnable() {
+				public void run() {
+					watchSweeper.sweep();
+				}
+			}, HOSTED_CHECK_INTERVAL));
+			return;
+		}
+		
+		if (gossiper != null)
+			gossiper.start();
+		if (livenessMonitor != null)
+			livenessMonitor.start();
+		leaseRenewer.start();
+		watchSweeper.start();
 	}
 
 	/**
 	 * Stop the activity of the node.
 	 */
 	public void stop() {
+		if (scheduledTasks != null) {
+			for (ScheduledFuture<?> task : scheduledTasks)
+				task.cancel(false);
+			scheduledTasks = null;
+		}
+		else {
+			if (gossiper != null)
+				gossiper.stopGossip();
+			if (livenessMonitor != null)
+				livenessMonitor.stopMonitor();
+			leaseRenewer.stopRenewer();
+			watchSweeper.stopSweeper();
+		}
+		synchronized(watches) {
+			for (Watch w : watches.values())
+				w.markCancelled();
+			watches.clear();
+		}
+		Publication[] active;
+		synchronized(publications) {
+			active = publications.toArray(new Publication[0]);
+		}
+		for (Publication p : active)
+			withdraw(p);
 		msgHandler.stopProcess();
 		ds.close();
 		if (broker != null)
@@ -174,9 +398,10 @@ public class DSCore {
 	/**
 	 * Set the instance attribute status to the one passed as parameter.
 	 * 
-	 * @param status
+	 * @param status The new status; it is stamped with the incarnation of this node.
 	 */
 	public void setStatus(Status status) {
+		status.setIncarnation(incarnation);
 		this.status = status;
 	}
 	
@@ -191,12 +416,17 @@ public class DSCore {
 	
 	/**
 	 * Notify to nodes a change in the status.
+	 * Using the gossip dissemination the new status is only stored in the local view 
+	 * and it will reach the other nodes in the next gossip rounds.
 	 */
 	public void notifyStatusUpdate() {
-		ds.unsubscribe(emFilter);
-		emFilter = new EngageMessageFilter(status);
+		status.setVersion(statusVersion.incrementAndGet());
+		if (gossiper != null) {
+			gossipView.put(status);
+			return;
+		}
+		// The engage filter matches only the node name and the address: it is still valid
 		ds.publish(status);
-		
 	}
 	
 	/**
@@ -210,8 +440,17 @@ public class DSCore {
 	public StatusFilter engage(String nodeName) {
 		// search status + subscribe
 		StatusFilter sf = new StatusFilter(nodeName, null, null);
+		if (gossiper != null) {
+			// The status is pulled by gossip rounds: it is enough to add the node to the peers.
+			gossiper.addPeer(nodeName);
+			Status known = gossipView.get(nodeName);
+			engagedNodesTable.put((known != null) ? known : new Status(nodeName, null, null));
+			logger.info("[" + this.nodeName + "-CORE] engaged with " + nodeName + " through gossip; " + known);
+			return sf;
+		}
 		EngageMessage em = new EngageMessage(sf);
-		search(em);
+		// The reply comes from the engaged node itself
+		send(em, nodeName, true);
 		Message reply = null;
 		try {
 			reply = this.getNextReply(em.getID());
@@ -221,19 +460,142 @@ public class DSCore {
 		}
 		logger.info("[" + this.nodeName + "-CORE] engaged with " + nodeName + "; " + reply);
 		subscribe(sf);
-		synchronized(engagedNodesTable) {
-			engagedNodesTable.put(nodeName, (Status)reply);
-		}
+		engagedNodesTable.put((reply instanceof Status) ? (Status)reply : new Status(nodeName, null, null));
+		heartbeatReceived(nodeName);
 		return sf;
 	}
 	
+	/**
+	 * Perform the engagement with a group of nodes without waiting for each of them in turn:
+	 * the engage requests are sent all at once, a single subscription receives the status 
+	 * notifications of the whole group and the returned {@link Engagement} completes when
+	 * every node has replied or its reply timeout has elapsed.
+	 * 
+	 * @param nodeNames The nodes to engage with.
+	 * @return The engagement in progress. Its filter is the one to pass to <code>disEngage()</code>.
+	 */
+	public Engagement engageAll(Collection<String> nodeNames) {
+		StatusFilter group = new StatusFilter(nodeNames);
+		Engagement engagement = new Engagement(group);
+		if (gossiper != null) {
+			for (String name : group.getNodeNames()) {
+				gossiper.addPeer(name);
+				Status known = gossipView.get(name);
+				if (known == null)
+					known = new Status(name, null, null);
+				engagedNodesTable.put(known);
+				engagement.engaged(name, known);
+			}
+			engagement.complete();
+			logger.info("[" + this.nodeName + "-CORE] engaged with " + group.getNodeNames() + " through gossip");
+			return engagement;
+		}
+		// Subscribe first, so that no status change is missed while the requests are in flight
+		subscribe(group);
+		Map<String, MessageID> pending = new LinkedHashMap<String, MessageID>();
+		for (String name : group.getNodeNames()) {
+			EngageMessage em = new EngageMessage(new StatusFilter(name, null, null));
+			send(em, name, true);
+			pending.put(name, em.getID());
+		}
+		new Engager(engagement, pending, null).start();
+		return engagement;
+	}
+	
+	/**
+	 * Perform the engagement with all the nodes whose status matches a filter, e.g. a 
+	 * {@link StatusFilter} without node name and with a predicate on the status. A single
+	 * engage request is sent and all the nodes replying within its reply timeout are engaged.
+	 * <p>
+	 * The pattern selects the nodes only when engaging them: once the engagement completes
+	 * the subscription of the pattern is replaced by one of the engaged nodes, so that their
+	 * status notifications and heartbeats keep arriving also when their status no longer 
+	 * matches the pattern. The listeners can evaluate <code>pattern.matches(status)</code> on
+	 * the notifications to follow the nodes leaving or joining the pattern.
+	 * </p>
+	 * 
+	 * @param pattern The filter of the status of the nodes to engage with.
+	 * @return The engagement in progress, that completes when the reply timeout elapses. 
+	 * Its filter is the pattern.
+	 */
+	public Engagement engageAll(StatusFilter pattern) {
+		Engagement engagement = new Engagement(pattern);
+		if (gossiper != null) {
+			// Engage the nodes of the local view whose status matches
+			for (String name : gossipView.getNodes()) {
+				Status known = gossipView.get(name);
+				if ((known == null) || !pattern.matches(known))
+					continue;
+				gossiper.addPeer(name);
+				engagedNodesTable.put(known);
+				engagement.engaged(name, known);
+			}
+			engagement.complete();
+			return engagement;
+		}
+		subscribe(pattern);
+		EngageMessage em = new EngageMessage(pattern);
+		send(em, null, false);
+		new Engager(engagement, null, em.getID()).start();
+		return engagement;
+	}
+	
 	/**
 	 * Terminates the engage relationship.
 	 *  
-	 * @param sf The StatusFilter instance return at the method <code>DSCore.engage()</code> in invocated.
+	 * @param sf The StatusFilter instance return at the method <code>DSCore.engage()</code> in invocated,
+	 * or the filter of an {@link Engagement}.
 	 */
 	public void disEngage(StatusFilter sf) {
 		ds.unsubscribe(sf);
+		StatusFilter group = patternGroups.remove(sf);
+		if (group != null) {
+			disEngage(group);
+			return;
+		}
+		if (sf.getStatus().getNodeName() != null) {
+			failureDetectors.remove(sf.getStatus().getNodeName());
+			if (gossiper != null)
+				gossiper.removePeer(sf.getStatus().getNodeName());
+		}
+		if (sf.getNodeNames() != null) {
+			for (String name : sf.getNodeNames()) {
+				failureDetectors.remove(name);
+				if (gossiper != null)
+					gossiper.removePeer(name);
+			}
+		}
+	}
+	
+	/**
+	 * Get the current suspicion level of an engaged node. 
+	 * 
+	 * @param nodeName The name of the engaged node.
+	 * @return The value of phi computed by the failure detector of the node, or 0 if
+	 * heartbeats are disabled or no heartbeat has been received from the node.
+	 */
+	public double getSuspicionLevel(String nodeName) {
+		PhiAccrualFailureDetector fd = failureDetectors.get(nodeName);
+		if (fd == null)
+			return 0.0;
+		return fd.phi(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Record the arrival of a status (used as heartbeat) from an engaged node.
+	 */
+	private void heartbeatReceived(String nodeName) {
+		if (heartbeatInterval <= 0)
+			return;
+		PhiAccrualFailureDetector fd;
+		synchronized(failureDetectors) {
+			fd = failureDetectors.get(nodeName);
+			if (fd == null) {
+				fd = new PhiAccrualFailureDetector(failureDetectorWindow, heartbeatInterval, acceptableHeartbeatPause);
+				failureDetectors.put(nodeName, fd);
+			}
+		}
+		fd.heartbeat(System.currentTimeMillis());
 	}
 	
 	/**
@@ -244,37 +606,179 @@ public class DSCore {
 	 * @return The status of the specified node.
 	 */
 	public Status getEngagedNodeStatus(String nodeName) {
-		synchronized(engagedNodesTable) {
-			return engagedNodesTable.get(nodeName);
+		if (gossiper != null) {
+			Status known = gossipView.get(nodeName);
+			if (known != null)
+				return known;
 		}
+		return engagedNodesTable.get(nodeName);
 	}
 	
 	/**
 	 * Return a list of the engaged nodes.
 	 * 
-	 * @return
+	 * @return A copy of the names of the engaged nodes.
 	 */
 	public Set<String> getEngagedNodes() {
-		synchronized(engagedNodesTable) {
-			return engagedNodesTable.keySet();
-		}
+		return engagedNodesTable.getNodes();
+	}
+	
+	/**
+	 * Return the table of the last status of the engaged nodes, with the history of the 
+	 * numeric attributes of their status (see <code>DSConfiguration.setStatusHistorySize()</code>).
+	 * The table can be read without locking, e.g. to compute trends on the engaged nodes.
+	 * With the gossip dissemination the table holds the statuses received for the engaged
+	 * nodes, while <code>getEngagedNodeStatus()</code> reads the local view.
+	 * 
+	 * @return The table.
+	 */
+	public StatusTable getStatusTable() {
+		return engagedNodesTable;
 	}
 	
 	/**
 	 * Publish information on the discovery service and makes it available for searching.
 	 * The information is in the form of {@link DSMessage}. An instance of {@link Filter} is
 	 * required since it is used to match query by other nodes.
+	 * The publication is leased with the time to live set in {@link DSConfiguration}.
+	 * 
+	 * @param item An instance of DSMessage describing the information to be published.
+	 * @param template An instance of Filter built to allow the matching of search messages 
+	 * addressed to the information published by the node.
+	 * 
+	 * @return The handle of the publication, used to withdraw it.
+	 */
+	public Publication publish(DSMessage item, Filter template) {
+		return publish(item, template, leaseTTL);
+	}
+	
+	/**
+	 * Publish information on the discovery service with a specific lease.
 	 * 
 	 * @param item An instance of DSMessage describing the information to be published.
 	 * @param template An instance of Filter built to allow the matching of search messages 
 	 * addressed to the information published by the node.
+	 * @param ttl Time to live of the lease in milliseconds. If 0 the publication never expires.
+	 * 
+	 * @return The handle of the publication, used to withdraw it.
 	 */
-	public void publish(DSMessage item, Filter template) {
+	public Publication publish(DSMessage item, Filter template, long ttl) {
 		item.setNodeName(nodeName);
 		ds.publish(item);
 		logger.info("[" + nodeName + "-CORE]: Published " + item);
-		ds.subscribe(template);
-		logger.info("[" + nodeName + "-CORE]: Subscribed to interest in " + template);
+		String id = leasePrefix + leaseCounter.incrementAndGet();
+		Filter filter = template;
+		if (ttl > 0)
+			filter = new LeasedFilter(template, id, 0, ttl);
+		Publication publication = new Publication(this, id, item, filter, ttl);
+		synchronized(publications) {
+			publications.add(publication);
+			publications.notifyAll();
+		}
+		ds.subscribe(filter);
+		logger.info("[" + nodeName + "-CORE]: Subscribed to interest in " + filter);
+		notifyWatchers(PublicationEvent.ADDED, publication);
+		return publication;
+	}
+	
+	/**
+	 * Replace the item of an active publication, keeping its template and its lease.
+	 * The nodes watching the publication are notified of the change.
+	 * 
+	 * @param publication The handle returned by <code>DSCore.publish()</code>.
+	 * @param item The new item.
+	 */
+	public void update(Publication publication, DSMessage item) {
+		if (publication.isWithdrawn())
+			return;
+		item.setNodeName(nodeName);
+		publication.replaceItem(item);
+		ds.publish(item);
+		logger.info("[" + nodeName + "-CORE]: Updated " + publication);
+		notifyWatchers(PublicationEvent.CHANGED, publication);
+	}
+	
+	/**
+	 * Withdraw a publication: the subscription of its template is removed from the brokers
+	 * and its lease is no longer renewed.
+	 * 
+	 * @param publication The handle returned by <code>DSCore.publish()</code>.
+	 */
+	public void withdraw(Publication publication) {
+		synchronized(publications) {
+			if (!publications.remove(publication))
+				return;
+			publication.markWithdrawn();
+		}
+		ds.unsubscribe(publication.getFilter());
+		logger.info("[" + nodeName + "-CORE]: Withdrawn " + publication);
+		notifyWatchers(PublicationEvent.REMOVED, publication);
+	}
+	
+	/**
+	 * Publish an event about a publication to the nodes watching it.
+	 */
+	private void notifyWatchers(int type, Publication publication) {
+		PublicationEvent event = new PublicationEvent(type, publication.getID(), 
+				publication.getItem(), publication.getVersion(), publication.getTTL());
+		event.setTemplate(publication.getTemplate());
+		event.setNodeName(nodeName);
+		ds.publish(event);
+	}
+	
+	/**
+	 * Watch the items published in the service that match a filter: the listener receives 
+	 * the snapshot of the matching items and then every item added, changed or removed, 
+	 * either withdrawn by its publisher or expired because its lease has not been renewed.
+	 * <p>
+	 * The snapshot is collected for <code>watchSnapshotTimeout</code> milliseconds (see 
+	 * {@link DSConfiguration}) by a search with the query passed as parameter: it must be 
+	 * matched by the templates of the publications that match the filter.
+	 * </p>
+	 * 
+	 * @param itemFilter The filter matching the items to be watched.
+	 * @param query The search message used to collect the snapshot.
+	 * @param listener The listener notified of the changes.
+	 * 
+	 * @return The handle of the watch, used to cancel it.
+	 */
+	public Watch watch(Filter itemFilter, DSMessage query, WatchListener listener) {
+		WatchFilter filter = new WatchFilter(leasePrefix + "watch" + watchCounter.incrementAndGet(), itemFilter);
+		final Watch watch = new Watch(this, filter, listener);
+		watches.put(filter.getWatchID(), watch);
+		// Subscribe to the changes before searching, so that none is lost
+		subscribe(filter);
+		query.setNodeName(nodeName);
+		final WatchRequest request = new WatchRequest(query);
+		request.setReplyTimeout(watchSnapshotTimeout);
+		search(request);
+		Thread collector = new Thread() {
+			public void run() {
+				Message[] replies = null;
+				try {
+					replies = getAllReplies(request.getID());
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				watch.snapshot(replies);
+			}
+		};
+		collector.setDaemon(true);
+		collector.start();
+		return watch;
+	}
+	
+	/**
+	 * Cancel a watch: its subscription is removed and the listener is no longer notified.
+	 * 
+	 * @param watch The handle returned by <code>DSCore.watch()</code>.
+	 */
+	public void unwatch(Watch watch) {
+		if (watches.remove(watch.getFilter().getWatchID()) == null)
+			return;
+		watch.markCancelled();
+		ds.unsubscribe(watch.getFilter());
+		logger.info("[" + nodeName + "-CORE]: Cancelled " + watch);
 	}
 	
 	/**
@@ -287,8 +791,213 @@ public class DSCore {
 	 * pattern.
 	 */
 	public void search(DSMessage template) {
-		template.setNodeName(nodeName);
-		ds.publish(template);
+		send(template, null, false);
+	}
+	
+	/**
+	 * Send a repliable message that is not a search, e.g. a task, whose replies are read 
+	 * with <code>getNextReply()</code> or <code>getAllReplies()</code>. The message keeps
+	 * its reply timeout: the round trip of a task is mostly its computation time, so it is 
+	 * neither measured nor given an estimated timeout.
+	 * 
+	 * @param msg The message.
+	 */
+	public void request(DSMessage msg) {
+		send(msg, null, false);
+	}
+	
+	/**
+	 * Return the time within which the replies to a kind of message are expected, estimated 
+	 * from the round-trip times observed by the node (see {@link RttEstimator}).
+	 * 
+	 * @param type The type of the message.
+	 * @param destination The node the message is sent to, <code>null</code> if it is published
+	 * through the broker to the node matching it.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public long getReplyTimeout(Class<? extends DSMessage> type, String destination) {
+		return rttEstimator.getTimeout(rttKey(type, destination));
+	}
+	
+	/**
+	 * Return the estimator of the round-trip times of the node, e.g. to read its estimates.
+	 * The kinds of requests are identified by <code>type name@destination</code>, the 
+	 * destination being the URL of the broker for the messages published to any node.
+	 */
+	public RttEstimator getRttEstimator() {
+		return rttEstimator;
+	}
+	
+	private String rttKey(Class<?> type, String destination) {
+		return type.getName() + "@" + ((destination != null) ? destination : brokerURL);
+	}
+	
+	/**
+	 * Publish a message. A point-to-point request (the engagement of a node) without reply 
+	 * timeout gets the estimated one, and the time it is sent is recorded to measure the 
+	 * round-trip time of its first reply. The requests answered by many nodes (searches, 
+	 * engagements by pattern) are not measured and keep their reply timeout: the estimate 
+	 * would follow the fastest responders and the shrinking window would drop the slower ones.
+	 * Neither are the tasks, whose replies wait for their computation.
+	 */
+	private void send(DSMessage msg, String destination, boolean pointToPoint) {
+		msg.setNodeName(nodeName);
+		if (pointToPoint && (msg instanceof Repliable)) {
+			String key = rttKey(msg.getClass(), destination);
+			if (adaptiveReplyTimeouts && (msg.getReplyTimeout() == 0))
+				msg.setReplyTimeout(rttEstimator.getTimeout(key));
+			long now = System.currentTimeMillis();
+			long timeout = (msg.getReplyTimeout() > 0) ? msg.getReplyTimeout() : rttEstimator.getTimeout(key);
+			synchronized(requests) {
+				Iterator<Request> it = requests.values().iterator();
+				while (it.hasNext())
+					if (it.next().deadline < now)
+						it.remove();
+				requests.put(msg.getID(), new Request(key, now, now + timeout));
+			}
+		}
+		ds.publish(msg);
+	}
+	
+	/**
+	 * Record the round-trip time of a reply received from the dispatching service.
+	 */
+	private void replyReceived(MessageID msgID) {
+		Request request = requests.get(msgID);
+		if ((request == null) || (request.replies++ > 0))
+			return;
+		rttEstimator.sample(request.key, System.currentTimeMillis() - request.sent);
+	}
+	
+	/**
+	 * Stop measuring the replies of a message; if none arrived, its timeout was too short.
+	 */
+	private void requestExpired(MessageID msgID) {
+		Request request = requests.remove(msgID);
+		if ((request != null) && (request.replies == 0))
+			rttEstimator.timeout(request.key);
+	}
+	
+	/**
+	 * Send a search message and wait for all its replies, that is until its reply timeout 
+	 * (or the default one of the dispatching service) elapses.
+	 * <p>
+	 * If the template is {@link Coalescable}, the search is single flight: while a search with
+	 * the same key and reply timeout is in progress, the other callers do not send their
+	 * own, but wait for the one in progress and get the same replies.
+	 * If the template is a {@link RankedQuery}, the replies are sorted and only the best ones
+	 * are returned.
+	 * </p>
+	 * 
+	 * @param template The search template (see <code>DSCore.search()</code>).
+	 * 
+	 * @return The replies received. The replies of a coalesced search are the same instances
+	 * for all the callers.
+	 */
+	public Message[] searchAll(DSMessage template) {
+		String key = (template instanceof Coalescable) ? ((Coalescable)template).getCoalescingKey() : null;
+		if (key == null)
+			return collectReplies(template);
+		key = key + "/" + template.getReplyTimeout();
+		SearchFlight flight;
+		synchronized(flights) {
+			flight = flights.get(key);
+			if (flight == null)
+				flights.put(key, new SearchFlight());
+		}
+		if (flight != null) {
+			coalescedSearches.incrementAndGet();
+			return flight.await();
+		}
+		
+		Message[] replies = new Message[0];
+		try {
+			replies = collectReplies(template);
+		} finally {
+			synchronized(flights) {
+				flight = flights.remove(key);
+			}
+			flight.complete(replies);
+		}
+		return replies;
+	}
+	
+	/**
+	 * Open a cursor on the results of a search, to read them in pages or as a stream.
+	 * No search is sent until the first page is asked for.
+	 * <p>
+	 * Paging requires the brokers to be in directory mode (<code>directoryMode</code> in the
+	 * configuration, also for the nodes that do not create a broker): the broker answers each
+	 * page with at most <code>limit</code> items. Without the directory every publisher ranking
+	 * after the cursor would reply to every page, and reading all the pages would cost a 
+	 * number of replies quadratic in the number of publishers.
+	 * </p>
+	 * 
+	 * @param template The search template of the first page; it must be a {@link PagedQuery},
+	 * whose limit is the size of the pages.
+	 * 
+	 * @return The cursor.
+	 * 
+	 * @throws IllegalStateException If the directory mode is not configured; use 
+	 * <code>searchAll()</code> with a {@link RankedQuery} instead.
+	 */
+	public ResultCursor openCursor(DSMessage template) {
+		if (!(template instanceof PagedQuery) || (((PagedQuery)template).getLimit() <= 0))
+			throw new IllegalArgumentException(template + " is not a paged query");
+		if (!directoryMode)
+			throw new IllegalStateException("Paged searches require the directory mode of the brokers");
+		return new ResultCursor(this, template);
+	}
+	
+	/**
+	 * Send the search of a page and collect its replies as they arrive, keeping only the 
+	 * best ones, until the reply timeout elapses.
+	 */
+	Message[] searchPage(DSMessage template) {
+		return collectReplies(template);
+	}
+	
+	/**
+	 * Send a search and collect its replies one by one as they arrive, until the reply 
+	 * timeout elapses. The replies of a
+	 * {@link RankedQuery} are merged keeping only the best ones.
+	 */
+	private Message[] collectReplies(DSMessage template) {
+		RankedQuery query = (template instanceof RankedQuery) ? (RankedQuery)template : null;
+		search(template);
+		ArrayList<Message> results = new ArrayList<Message>();
+		while (true) {
+			Message reply;
+			try {
+				reply = getNextReply(template.getID());
+			} catch (TimeoutException e) {
+				break;
+			}
+			if (reply == null) {
+				// An empty directory reply
+				if (hasMoreReplies(template.getID()))
+					continue;
+				break;
+			}
+			if ((query != null) && !Ranking.isAfterCursor(query, reply))
+				continue;
+			results.add(reply);
+			// Drop the results that can no longer be among the best ones
+			if ((query != null) && (query.getLimit() > 0) && (results.size() >= 2 * query.getLimit()))
+				Ranking.rank(results, query);
+		}
+		if (query != null)
+			Ranking.rank(results, query);
+		return results.toArray(new Message[results.size()]);
+	}
+	
+	/**
+	 * Return the number of searches that have not been sent because an equivalent search 
+	 * was in progress.
+	 */
+	public long getCoalescedSearchCount() {
+		return coalescedSearches.get();
 	}
 	
 	/**
@@ -320,10 +1029,13 @@ public class DSCore {
 	 * @return An instance of {@link Message} containing a reply.
 	 */
 	public Message getNextReply(int timeout) {
+		Message item = nextDirectoryItem(null);
+		if (item != null)
+			return item;
 		if (timeout == 0)
-			return ds.getNextReply();
+			return unpack(ds.getNextReply());
 		else if (timeout > 0)
-			return ds.getNextReply(timeout);
+			return unpack(ds.getNextReply(timeout));
 		else
 			return null;
 	}
@@ -339,7 +1051,19 @@ public class DSCore {
 	 * @throws TimeoutException
 	 */
 	public Message getNextReply(MessageID msgID) throws NullPointerException, TimeoutException {
-		return ds.getNextReply(msgID);
+		Message item = nextDirectoryItem(msgID);
+		if (item != null)
+			return item;
+		Message reply;
+		try {
+			reply = ds.getNextReply(msgID);
+		} catch (TimeoutException e) {
+			requestExpired(msgID);
+			throw e;
+		}
+		if (reply != null)
+			replyReceived(msgID);
+		return unpack(reply);
 	}
 	
 	/**
@@ -350,9 +1074,21 @@ public class DSCore {
 	 * @return An array of {@link Message} containing all the replies.
 	 */
 	public Message[] getAllReplies(MessageID msgID) {
+		// The replies are returned all together, their round-trip times are unknown
+		requests.remove(msgID);
+		ArrayList<Message> all = new ArrayList<Message>();
+		LinkedList<Message> items = directoryItems.remove(msgID);
+		if (items != null)
+			all.addAll(items);
 		Replies replies = ds.getAllReplies(msgID);
 		Message[] replyMsgs = replies.getReplies();
-		return replyMsgs;
+		for (Message reply : replyMsgs) {
+			if (reply instanceof DirectoryReply)
+				all.addAll(((DirectoryReply)reply).getItems());
+			else
+				all.add(reply);
+		}
+		return all.toArray(new Message[0]);
 	}
 	
 	/**
@@ -361,7 +1097,7 @@ public class DSCore {
 	 * @return True if there are more replies to be fetched.
 	 */
 	public boolean hasMoreReplies() {
-		return ds.hasMoreReplies();
+		return !directoryItems.isEmpty() || ds.hasMoreReplies();
 	}
 	
 	/**
@@ -370,50 +1106,149 @@ public class DSCore {
 	 * @return True if there are more replies to be fetched for the specified message.
 	 */
 	public boolean hasMoreReplies(MessageID msgID) {
-		return ds.hasMoreReplies(msgID);
+		return directoryItems.containsKey(msgID) || ds.hasMoreReplies(msgID);
+	}
+	
+	/**
+	 * Return the first item of a {@link DirectoryReply}, keeping the others to be returned
+	 * by the next calls.
+	 */
+	private Message unpack(Message reply) {
+		if (!(reply instanceof DirectoryReply))
+			return reply;
+		DirectoryReply dirReply = (DirectoryReply)reply;
+		LinkedList<Message> items = new LinkedList<Message>(dirReply.getItems());
+		if (items.isEmpty())
+			return null;
+		Message first = items.removeFirst();
+		if (!items.isEmpty()) {
+			synchronized(directoryItems) {
+				LinkedList<Message> pending = directoryItems.get(dirReply.getSearchID());
+				if (pending == null)
+					directoryItems.put(dirReply.getSearchID(), items);
+				else
+					pending.addAll(items);
+			}
+		}
+		return first;
+	}
+	
+	/**
+	 * Return the next item left by an unpacked {@link DirectoryReply}.
+	 * 
+	 * @param msgID The ID of the search or <code>null</code> for any search.
+	 * @return The item or <code>null</code> if there is none.
+	 */
+	private Message nextDirectoryItem(MessageID msgID) {
+		synchronized(directoryItems) {
+			Iterator<Map.Entry<MessageID, LinkedList<Message>>> it = directoryItems.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<MessageID, LinkedList<Message>> entry = it.next();
+				if ((msgID != null) && !msgID.equals(entry.getKey()))
+					continue;
+				Message item = entry.getValue().removeFirst();
+				if (entry.getValue().isEmpty())
+					it.remove();
+				return item;
+			}
+		}
+		return null;
 	}
 
 	/**
 	 * Register an instance of @{link MessageListener} that will be notified when
-	 * a message arrives at the node.
+	 * a message arrives at the node. It replaces the listeners already registered,
+	 * those added through <code>addMessageListener</code> included.
 	 * 
 	 * @param listener The instance of MessageListener to be registered.
 	 */
 	public void registerMessageListener(MessageListener listener) {
-		synchronized(msgListenerLock) {
-			msgListener = listener;
-		}
+		msgListeners.set(DSMessage.class, null, listener);
+	}
+	
+	/**
+	 * Add an instance of {@link MessageListener} that will be notified when a message 
+	 * arrives at the node, besides the listeners already registered.
+	 * 
+	 * @param listener The instance of MessageListener to be added.
+	 */
+	public void addMessageListener(MessageListener listener) {
+		msgListeners.add(DSMessage.class, null, listener);
+	}
+	
+	/**
+	 * Add an instance of {@link MessageListener} that will be notified only of the 
+	 * messages of a type, and optionally matching a filter (see {@link ListenerRegistry}).
+	 * Many listeners can be added: each message is notified to all the matching ones.
+	 * 
+	 * @param type The type of the messages, its subclasses included.
+	 * @param filter The filter the messages must match; <code>null</code> for any message of the type.
+	 * @param listener The instance of MessageListener to be added.
+	 */
+	public void addMessageListener(Class<? extends DSMessage> type, Filter filter, MessageListener listener) {
+		msgListeners.add(type, filter, listener);
 	}
 	
 	/**
-	 * Remove the message listener.
+	 * Remove all the message listeners.
 	 * 
 	 */
 	public void removeMessageListener() {
-		synchronized(msgListenerLock) {
-			msgListener = null;
-		}
+		msgListeners.clear();
+	}
+	
+	/**
+	 * Remove all the registrations of a message listener.
+	 * 
+	 * @param listener The listener to be removed.
+	 */
+	public void removeMessageListener(MessageListener listener) {
+		msgListeners.remove(listener);
 	}
 	
 	/**
 	 * Register an instance of {@link StatusListener} that will be notified when
-	 * an engaged node changes its status.
+	 * an engaged node changes its status. Many listeners can be registered.
 	 * 
 	 * @param listener The instance of StatusListener to be registered.
 	 */
 	public void registerStatusListener(StatusListener listener) {
-		synchronized(statusListenerLock) {
-			statusListener = listener;
-		}
+		statusListeners.add(listener);
 	}
 	
 	/**
-	 * Remove the listener.
+	 * Remove all the status listeners.
 	 */
 	public void removeStatusListener() {
-		synchronized(msgListenerLock) {
-			statusListener = null;
-		}
+		statusListeners.clear();
+	}
+	
+	/**
+	 * Remove a status listener.
+	 * 
+	 * @param listener The listener to be removed.
+	 */
+	public void removeStatusListener(StatusListener listener) {
+		statusListeners.remove(listener);
+	}
+	
+	/**
+	 * Register an instance of {@link SuspicionListener} that will be notified when an
+	 * engaged node becomes suspected or is trusted again. Used when heartbeats are enabled.
+	 * 
+	 * @param listener The listener to be registered.
+	 */
+	public void registerSuspicionListener(SuspicionListener listener) {
+		suspicionListeners.add(listener);
+	}
+	
+	/**
+	 * Remove a suspicion listener.
+	 * 
+	 * @param listener The listener to be removed.
+	 */
+	public void removeSuspicionListener(SuspicionListener listener) {
+		suspicionListeners.remove(listener);
 	}
 	
 	/**
@@ -427,59 +1262,455 @@ public class DSCore {
 	 */
 	private class CoreMsgHandler extends MsgHandler {
 		private volatile boolean stopped = false;
-		private MessageListener mListener;
-		private StatusListener sListener;
+		private PriorityLanes<DSMessage> inbound = new PriorityLanes<DSMessage>(priorityWeights, inboundQueueSize);
 		
 		/**
 		 * Every message received by the node passes through this method.
 		 * If the message in an instance of <code>EngageMessage</code> or <code>Status</code>
 		 * the method processes it. Otherwise the messages is delivered to the application
-		 * listeners (if any).
+		 * listeners registered for its type (if any).
 		 * 
 		 */
 		public void process(DSMessage msg) {
 			if (msg instanceof EngageMessage) {
 				logger.info("[" + nodeName + "-CORE]: received from " + msg.getNodeName() + " EngageMessage --> " + ((EngageMessage)msg).toString());
-				ds.reply(status, msg.getID());
+				// The brokers do not evaluate the predicate of the filter
+				if (((EngageMessage)msg).getStatusFilter().matches(status))
+					ds.reply(status, msg.getID());
 			}
 			
 			else if (msg instanceof Status) {
 				logger.info("[" + nodeName + "-CORE]: received from " + msg.getNodeName() + " Status --> " + ((Status)msg).toString());
-				synchronized(engagedNodesTable) {
-					engagedNodesTable.put(msg.getNodeName(), (Status)msg);
-				}
+				boolean changed = engagedNodesTable.put((Status)msg);
+				heartbeatReceived(msg.getNodeName());
 				
-				// Save a copy of DSCore.statusListener in order to let
-				// the node to avoid to lock the listeners registered.
-				synchronized(statusListenerLock) {
-					sListener = statusListener;
+				// A heartbeat republishes the same version: only the heartbeat is recorded
+				if (changed) {
+					// The list is copy-on-write: iterating it does not lock the listeners registered
+					for (StatusListener sListener : statusListeners)
+						sListener.notify((Status)msg);
 				}
-				if (sListener != null)
-					sListener.notify((Status)msg);
 			}
 			
-			else {
-				// Save a copy of DSCore.statusListener in order to let
-				// the node to avoid to lock the listeners registered.
-				synchronized(msgListenerLock) {
-					mListener = msgListener;
+			else if ((msg instanceof GossipDigest) && (gossiper != null)) {
+				gossiper.onDigest((GossipDigest)msg);
+			}
+			
+			else if (msg instanceof WatchRequest) {
+				// Reply with the publications matched by the query of the watch
+				DSMessage query = ((WatchRequest)msg).getQuery();
+				Publication[] active;
+				synchronized(publications) {
+					active = publications.toArray(new Publication[0]);
+				}
+				for (Publication p : active) {
+					if (!p.getFilter().matches(query))
+						continue;
+					PublicationEvent event = new PublicationEvent(PublicationEvent.ADDED, p.getID(), 
+							p.getItem(), p.getVersion(), p.getTTL());
+					event.setNodeName(nodeName);
+					ds.reply(event, msg.getID());
 				}
-				if (mListener != null)
-					mListener.notify(msg);
+			}
+			
+			else if (msg instanceof PublicationEvent) {
+				Watch[] active;
+				synchronized(watches) {
+					active = watches.values().toArray(new Watch[0]);
+				}
+				for (Watch w : active)
+					if (w.getFilter().matches(msg))
+						w.onEvent((PublicationEvent)msg);
+			}
+			
+			else if ((msg instanceof GossipUpdate) && (gossiper != null)) {
+				HashSet<String> alive = new HashSet<String>();
+				List<Status> merged = gossiper.onUpdate((GossipUpdate)msg, alive);
+				// The gossiped heartbeats do not change the version of the status
+				for (String name : alive)
+					if (engagedNodesTable.contains(name))
+						heartbeatReceived(name);
+				for (Status s : merged) {
+					if (!engagedNodesTable.update(s))
+						continue;
+					for (StatusListener sListener : statusListeners)
+						sListener.notify(s);
+				}
+			}
+			
+			else {
+				// The registry is copy-on-write: dispatching does not lock the listeners registered
+				msgListeners.dispatch(msg);
 			}
 		}
 		
+		/**
+		 * Messages handled by the core (engagement, status and gossip) are processed as soon
+		 * as they are received; the other messages are queued (in FIFO order, or by priority 
+		 * class if priority weights are configured) and delivered to the application listener
+		 * by a different thread, so that a slow listener does not delay status and heartbeats.
+		 * The queue is bounded: when it is full this thread waits, and the messages stay in 
+		 * the dispatching service.
+		 */
 		public void run() {
+			Deliverer deliverer = new Deliverer();
+			deliverer.start();
 			while(!stopped) {
 				Message msg = ds.getNextMessage(1000);
 				if ((msg != null) && (msg instanceof DSMessage)) {
-					process(((DSMessage)msg));
+					DSMessage dsMsg = (DSMessage)msg;
+					if (isProcessedOnReceipt(dsMsg))
+						process(dsMsg);
+					else
+						inbound.put(dsMsg.getPriority(), dsMsg);
 				}
 			}
+			deliverer.stopDeliverer();
 		}
 		
 		public void stopProcess() {
 			stopped = true;
 		}
+		
+		/**
+		 * Thread delivering the application messages, with weighted round robin among 
+		 * the priority classes if they are enabled.
+		 */
+		private class Deliverer extends Thread {
+			private volatile boolean stopped = false;
+			
+			public Deliverer() {
+				setDaemon(true);
+			}
+			
+			public void run() {
+				while (!stopped) {
+					DSMessage msg = inbound.take(1000);
+					if (msg != null)
+						process(msg);
+				}
+			}
+			
+			public void stopDeliverer() {
+				stopped = true;
+			}
+		}
+	}
+	
+	/**
+	 * Return <code>true</code> if the message is handled by the core (engagement, status and 
+	 * gossip) and has to be processed as soon as it is received.
+	 */
+	static boolean isProcessedOnReceipt(DSMessage msg) {
+		return (msg instanceof EngageMessage) || (msg instanceof Status) || 
+				(msg instanceof GossipDigest) || (msg instanceof GossipUpdate);
+	}
+	
+	/**
+	 * Thread renewing the leases of the active publications. A lease is renewed
+	 * subscribing the next generation of its {@link LeasedFilter} before unsubscribing
+	 * the current one, so that the publication is never missing from the brokers.
+	 * 
+	 * @author leleplx@gmail.com (emanuele)
+	 *
+	 */
+	private class LeaseRenewer extends Thread {
+		private volatile boolean stopped = false;
+		
+		public LeaseRenewer() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (!stopped) {
+				synchronized(publications) {
+					long now = System.currentTimeMillis();
+					long next = Long.MAX_VALUE;
+					for (Publication p : publications)
+						next = Math.min(next, p.getRenewalTime());
+					if (next > now) {
+						try {
+							if (next == Long.MAX_VALUE)
+								publications.wait();
+							else
+								publications.wait(next - now);
+						} catch (InterruptedException e) { }
+						continue;
+					}
+				}
+				renewDue();
+			}
+		}
+		
+		/**
+		 * Renew the leases whose renewal time has come.
+		 */
+		public void renewDue() {
+			ArrayList<Publication> due = new ArrayList<Publication>();
+			synchronized(publications) {
+				long now = System.currentTimeMillis();
+				for (Publication p : publications)
+					if (p.getRenewalTime() <= now)
+						due.add(p);
+			}
+			for (Publication p : due)
+				renew(p);
+		}
+		
+		private void renew(Publication p) {
+			if (p.isWithdrawn() || !(p.getFilter() instanceof LeasedFilter))
+				return;
+			LeasedFilter renewed = ((LeasedFilter)p.getFilter()).renew();
+			ds.subscribe(renewed);
+			Filter old = p.renewed(renewed, System.currentTimeMillis());
+			ds.unsubscribe(old);
+			if (p.isWithdrawn())
+				ds.unsubscribe(renewed);
+			else
+				notifyWatchers(PublicationEvent.RENEWED, p);
+		}
+		
+		public void stopRenewer() {
+			stopped = true;
+			interrupt();
+		}
+	}
+	
+	/**
+	 * Thread collecting the replies of the engage requests of a bulk engagement. The requests
+	 * are all in flight together, so waiting for them in turn takes as long as the slowest one.
+	 * 
+	 * @author leleplx@gmail.com (emanuele)
+	 *
+	 */
+	private class Engager extends Thread {
+		private Engagement engagement;
+		// The request sent to each node, or the single request matching a pattern
+		private Map<String, MessageID> pending;
+		private MessageID patternID;
+		
+		public Engager(Engagement engagement, Map<String, MessageID> pending, MessageID patternID) {
+			this.engagement = engagement;
+			this.pending = pending;
+			this.patternID = patternID;
+			setDaemon(true);
+		}
+		
+		public void run() {
+			if (pending != null) {
+				for (Map.Entry<String, MessageID> request : pending.entrySet()) {
+					Message reply = null;
+					try {
+						reply = getNextReply(request.getValue());
+					} catch (TimeoutException e) {
+						logger.info("[" + nodeName + "-CORE] Engagement with " + request.getKey() + " failed!");
+					}
+					if (reply instanceof Status)
+						engaged((Status)reply);
+					else
+						engagement.failed(request.getKey());
+				}
+			}
+			else {
+				try {
+					while (true) {
+						Message reply = getNextReply(patternID);
+						if (reply instanceof Status)
+							engaged((Status)reply);
+					}
+				} catch (TimeoutException e) {
+					// All the matching nodes have replied
+				}
+				followEngagedNodes();
+			}
+			engagement.complete();
+			logger.info("[" + nodeName + "-CORE] " + engagement);
+		}
+		
+		/**
+		 * Replace the subscription of the pattern with one of the engaged nodes, whose 
+		 * notifications must not depend on their status matching the pattern.
+		 */
+		private void followEngagedNodes() {
+			StatusFilter pattern = engagement.getFilter();
+			Set<String> nodes = engagement.getEngagedNodes();
+			if (!nodes.isEmpty()) {
+				StatusFilter group = new StatusFilter(nodes);
+				patternGroups.put(pattern, group);
+				ds.subscribe(group);
+			}
+			ds.unsubscribe(pattern);
+		}
+		
+		private void engaged(Status status) {
+			engagedNodesTable.put(status);
+			heartbeatReceived(status.getNodeName());
+			engagement.engaged(status.getNodeName(), status);
+		}
+	}
+	
+	/**
+	 * A repliable message sent by the node, whose replies are measured.
+	 */
+	private static class Request {
+		private String key;
+		private long sent;
+		private long deadline;
+		private int replies;
+		
+		public Request(String key, long sent, long deadline) {
+			this.key = key;
+			this.sent = sent;
+			this.deadline = deadline;
+			replies = 0;
+		}
+	}
+	
+	/**
+	 * A search in progress, whose replies are shared by the callers of <code>searchAll()
+	 * </code> with an equivalent search.
+	 */
+	private static class SearchFlight {
+		private Message[] replies = null;
+		
+		public synchronized void complete(Message[] replies) {
+			this.replies = replies;
+			notifyAll();
+		}
+		
+		public synchronized Message[] await() {
+			while (replies == null) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return new Message[0];
+				}
+			}
+			return replies.clone();
+		}
+	}
+	
+	/**
+	 * Thread removing from the watches the publications whose lease has not been renewed
+	 * in time, e.g. because their publisher died.
+	 * 
+	 * @author leleplx@gmail.com (emanuele)
+	 *
+	 */
+	private class WatchSweeper extends Thread {
+		private volatile boolean stopped = false;
+		
+		public WatchSweeper() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (!stopped) {
+				try {
+					sleep(1000);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				sweep();
+			}
+		}
+		
+		/**
+		 * Remove from the watches the publications whose lease has expired.
+		 */
+		public void sweep() {
+			Watch[] active;
+			synchronized(watches) {
+				active = watches.values().toArray(new Watch[0]);
+			}
+			long now = System.currentTimeMillis();
+			for (Watch w : active)
+				w.expire(now);
+		}
+		
+		public void stopSweeper() {
+			stopped = true;
+			interrupt();
+		}
+	}
+	
+	/**
+	 * Thread sending the heartbeats of the node and checking the suspicion level of
+	 * the engaged nodes every <code>heartbeatInterval</code> milliseconds.
+	 * A heartbeat is the current status of the node sent without changing it, published
+	 * to the subscribers of the status. Using the gossip dissemination the heartbeats are
+	 * the counters incremented in every gossip round, so the monitor only checks the 
+	 * engaged nodes. A node is reported to the suspicion listeners when its suspicion level
+	 * crosses the threshold, and again when it falls below it.
+	 * 
+	 * @author leleplx@gmail.com (emanuele)
+	 *
+	 */
+	private class LivenessMonitor extends Thread {
+		private volatile boolean stopped = false;
+		// Nodes reported as suspected and not trusted again
+		private HashSet<String> suspected = new HashSet<String>();
+		
+		public LivenessMonitor() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (!stopped) {
+				try {
+					sleep(heartbeatInterval);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				beat();
+			}
+		}
+		
+		/**
+		 * Send a heartbeat and check the engaged nodes.
+		 */
+		public void beat() {
+			sendHeartbeat();
+			checkEngagedNodes();
+		}
+		
+		private void sendHeartbeat() {
+			if (gossiper == null)
+				ds.publish(status);
+		}
+		
+		private void checkEngagedNodes() {
+			long now = System.currentTimeMillis();
+			String[] nodes;
+			synchronized(failureDetectors) {
+				nodes = failureDetectors.keySet().toArray(new String[0]);
+			}
+			HashSet<String> monitored = new HashSet<String>();
+			for (String node : nodes) {
+				PhiAccrualFailureDetector fd = failureDetectors.get(node);
+				if (fd == null)
+					continue;
+				monitored.add(node);
+				double phi = fd.phi(now);
+				if ((phi >= phiThreshold) && suspected.add(node)) {
+					logger.info("[" + nodeName + "-CORE]: " + node + " suspected, phi = " + phi);
+					for (SuspicionListener listener : suspicionListeners)
+						listener.suspect(node, phi);
+				}
+				else if ((phi < phiThreshold) && suspected.remove(node)) {
+					logger.info("[" + nodeName + "-CORE]: " + node + " trusted again, phi = " + phi);
+					for (SuspicionListener listener : suspicionListeners)
+						listener.trust(node);
+				}
+			}
+			// Forget the disengaged nodes
+			suspected.retainAll(monitored);
+		}
+		
+		public void stopMonitor() {
+			stopped = true;
+			interrupt();
+		}
 	}
 }
@@ -28,6 +28,13 @@ import polimi.reds.DispatchingService;
 import polimi.reds.TCPDispatchingService;
 import discoveryService.broker.Broker;
 import discoveryService.broker.TCPReplyCapableBroker;
+import discoveryService.core.pipeline.PipelinedDispatchingService;
+import discoveryService.transport.AbstractDispatchingService;
+import discoveryService.transport.NIODispatchingService;
+import discoveryService.transport.NIOTransport;
+import discoveryService.transport.ReliabilityPolicy;
+import discoveryService.transport.UDPDispatchingService;
+import discoveryService.transport.UDPTransport;
 
 /**
  * This class provides helper methods to create instances of the different
@@ -47,20 +54,41 @@ public class DSFactory {
 	 * @param conf An instance of {@link DSConfiguration} with the parameters used to
 	 * set up the broker.
 	 * 
-	 * @return The instance of {@link DSConfiguration} created.
-	 * 
-	 * TODO: implement UDP
+	 * @return The instance of {@link DSConfiguration} created. Unless <code>outboundRingSize</code>
+	 * is 0 it is wrapped by a {@link PipelinedDispatchingService}, and unless <code>headerRouting</code>
+	 * is disabled by an {@link EnvelopeDispatchingService}.
 	 */
 	public static DispatchingService createDispatchingService(DSConfiguration conf) {
+		DispatchingService ds = createProtocolDispatchingService(conf);
+		if (ds == null)
+			return null;
+		if (ds instanceof AbstractDispatchingService)
+			((AbstractDispatchingService)ds).setPriorityWeights(conf.getPriorityWeights());
+		if (conf.getOutboundRingSize() > 0)
+			ds = new PipelinedDispatchingService(ds, conf.getOutboundRingSize(), 
+					conf.getOutboundBatchSize(), conf.getOutboundFlushLatency(), 
+					(conf.getPriorityWeights() != null) ? conf.getPriorityWeights() : Priority.DEFAULT_WEIGHTS);
+		if (conf.getHeaderRouting())
+			ds = new EnvelopeDispatchingService(ds);
+		return ds;
+	}
+	
+	private static DispatchingService createProtocolDispatchingService(DSConfiguration conf) {
 		// TCP Dispatcher
 		if (conf.getProtocol().equals(DSConfiguration.TCP)) {
 			String address = conf.getBrokerAddress();
 			int port = conf.getBrokerPort();
 			return new TCPDispatchingService(address, port);
 		}
-		/*
-		 * TODO: implement UDP Dispatching Service
-		 */
+		// Dispatcher for brokers using the non-blocking transport
+		if (conf.getProtocol().equals(DSConfiguration.TCP_NIO)) {
+			return new NIODispatchingService(conf.getBrokerAddress(), conf.getBrokerPort());
+		}
+		// UDP Dispatcher
+		if (conf.getProtocol().equals(DSConfiguration.UDP)) {
+			return new UDPDispatchingService(conf.getBrokerAddress(), conf.getBrokerPort(), 
+							new ReliabilityPolicy(conf.getUnreliableMessages()));
+		}
 		return null;
 	}
 	
@@ -73,14 +101,13 @@ public class DSFactory {
 	 * set up the broker.
 	 * 
 	 * @return The instance of {@link Broker} created.
-	 * 
-	 * TODO: implement UDP.
 	 */
 	public static Broker createBroker(DSConfiguration conf) {
-		Broker broker; 
+		TCPReplyCapableBroker broker; 
 		
-		// TCP Reply Capable Broker
-		if (conf.getProtocol().equals(DSConfiguration.TCP)) {
+		// Reply Capable Broker over the TCP, NIO or UDP transport
+		if (conf.getProtocol().equals(DSConfiguration.TCP) || conf.getProtocol().equals(DSConfiguration.TCP_NIO)
+				|| conf.getProtocol().equals(DSConfiguration.UDP)) {
 			String address = null;
 			try {
 				address = InetAddress.getLocalHost().getHostAddress();
@@ -89,7 +116,25 @@ public class DSFactory {
 			if(address==null)
 				return null;			
 			
-			broker = new TCPReplyCapableBroker(address, conf.getBrokerPort());
+			if (conf.getProtocol().equals(DSConfiguration.UDP))
+				broker = new TCPReplyCapableBroker(address, new UDPTransport(conf.getBrokerPort(), 
+							new ReliabilityPolicy(conf.getUnreliableMessages())),
+							conf.getReplyTableTimeout(), conf.getReplyTableCapacity());
+			else if (conf.getProtocol().equals(DSConfiguration.TCP_NIO))
+				broker = new TCPReplyCapableBroker(address, new NIOTransport(conf.getBrokerPort(), conf.getIOThreads(), 
+							conf.getPriorityWeights()),
+							conf.getReplyTableTimeout(), conf.getReplyTableCapacity());
+			else
+				broker = new TCPReplyCapableBroker(address, conf.getBrokerPort(), 
+							conf.getReplyTableTimeout(), conf.getReplyTableCapacity());
+			if (conf.getSubscriptionCovering())
+				broker.enableSubscriptionCovering();
+			if (conf.getSummaryBits() > 0)
+				broker.enableSubscriptionSummaries(conf.getSummaryBits(), conf.getSummaryHashes());
+			if (conf.getShardBrokers() != null)
+				broker.enableSharding(conf.getShardBrokers(), conf.getShardVirtualNodes());
+			if (conf.getDirectoryMode())
+				broker.enableDirectory(conf.getDirectoryStoreCapacity());
 			broker.start();
 			logger.info("Broker started!");
 			
@@ -103,9 +148,6 @@ public class DSFactory {
 			}
 			return broker;
 		}
-		/*
-		 * TODO: implement UDP Dispatching Service
-		 */
 		
 		return null;
 	}
@@ -0,0 +1,420 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.DispatchingService;
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.MessageID;
+import polimi.reds.Repliable;
+import discoveryService.broker.Broker;
+
+/**
+ * Host of many logical nodes sharing a single {@link DispatchingService}, i.e. a single
+ * connection to the broker, a single thread receiving the messages and a single thread 
+ * delivering them to the application listeners.
+ * <p>
+ * Each {@link DSCore} created by <code>createNode()</code> uses a {@link HostedDispatchingService}:
+ * <ul>
+ * <li>the subscriptions of the nodes are made once on the connection, and removed when
+ * no node of the host needs them anymore;</li>
+ * <li>each message received is demultiplexed to the nodes whose subscriptions match it;</li>
+ * <li>the messages published by a node are delivered directly to the other nodes of the 
+ * host, since the broker never sends a message back to the connection it comes from, 
+ * and so are the replies to them;</li>
+ * <li>the replies received are kept by the connection for the message they answer, so 
+ * each node gets the replies of its own messages.</li>
+ * </ul>
+ * The messages delivered locally are the same instances published, they should not be 
+ * changed after publishing them.
+ * </p>
+ * <p>
+ * The periodic tasks of the nodes (lease renewals, expiration of the watches, heartbeats,
+ * gossip rounds) run on a scheduler of the host with <code>SCHEDULER_THREADS</code> threads,
+ * so the number of threads of the host does not grow with the number of nodes.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class DSHost {
+	/**
+	 * Number of threads running the periodic tasks of the nodes.
+	 */
+	public final static int SCHEDULER_THREADS = 2;
+	private static Logger logger = Logger.getLogger(DSHost.class);
+	
+	private DSConfiguration conf;
+	private DispatchingService ds;
+	private Broker broker;
+	private HashMap<String, HostedDispatchingService> nodes;
+	// Nodes subscribed to each filter
+	private HashMap<Filter, HashSet<HostedDispatchingService>> subscriptions;
+	// Nodes that published the repliable messages delivered locally, with their deadline
+	private HashMap<MessageID, LocalRequest> localRequests;
+	private PriorityLanes<Delivery> inbound;
+	private Receiver receiver;
+	private Deliverer deliverer;
+	private ScheduledExecutorService scheduler;
+	
+	/**
+	 * Create a host connecting to the broker specified in the configuration (and creating 
+	 * the broker, if required).
+	 * 
+	 * @param conf The configuration of the connection; the nodes are created with their own.
+	 */
+	public DSHost(DSConfiguration conf) {
+		this.conf = conf;
+		if (conf.getCreateBroker()) {
+			logger.info("Creating broker");
+			broker = DSFactory.createBroker(conf);
+		}
+		ds = DSFactory.createDispatchingService(conf);
+		nodes = new HashMap<String, HostedDispatchingService>();
+		subscriptions = new HashMap<Filter, HashSet<HostedDispatchingService>>();
+		localRequests = new HashMap<MessageID, LocalRequest>();
+		inbound = new PriorityLanes<Delivery>(conf.getPriorityWeights());
+	}
+	
+	/**
+	 * Create a logical node of the host. The node has to be started as any other node.
+	 * 
+	 * @param nodeName The name of the node, unique in the host.
+	 * @param nodeConf The configuration of the node; the parameters of the connection 
+	 * and of the broker are ignored.
+	 * 
+	 * @return The node.
+	 */
+	public DSCore createNode(String nodeName, DSConfiguration nodeConf) {
+		return new DSCore(nodeName, nodeConf, this);
+	}
+	
+	/**
+	 * Open the connection to the broker and start the threads of the host. Called by the
+	 * first node started, if not called before.
+	 * 
+	 * @throws ConnectException
+	 */
+	public synchronized void open() throws ConnectException {
+		if (receiver != null)
+			return;
+		ds.open();
+		logger.info("Dispatching service of the host opened: " + ds.isOpened());
+		receiver = new Receiver();
+		receiver.start();
+		deliverer = new Deliverer();
+		deliverer.start();
+		scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "DSHost-scheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Stop the threads of the host and close the connection. The nodes should be stopped before.
+	 */
+	public synchronized void close() {
+		if (receiver == null)
+			return;
+		receiver.stopReceiver();
+		deliverer.stopDeliverer();
+		scheduler.shutdownNow();
+		receiver = null;
+		deliverer = null;
+		scheduler = null;
+		ds.close();
+		if (broker != null)
+			broker.stop();
+	}
+	
+	/**
+	 * Run a periodic task of a node on the scheduler of the host. A failure of the task is
+	 * logged and does not cancel its next executions.
+	 * 
+	 * @param task The task.
+	 * @param period Time in milliseconds between the end of an execution and the start of the next.
+	 * 
+	 * @return The handle used to cancel the task when the node stops.
+	 */
+	synchronized ScheduledFuture<?> schedule(final Runnable task, long period) {
+		return scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.error("Periodic task of a hosted node failed", e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	public synchronized boolean isOpened() {
+		return receiver != null;
+	}
+	
+	/**
+	 * Return the shared dispatching service.
+	 */
+	public DispatchingService getDispatchingService() {
+		return ds;
+	}
+	
+	/**
+	 * Return the number of nodes attached to the host.
+	 */
+	public int getNodeCount() {
+		synchronized(nodes) {
+			return nodes.size();
+		}
+	}
+	
+	/**
+	 * Return the number of distinct subscriptions made on the connection.
+	 */
+	public int getSubscriptionCount() {
+		synchronized(subscriptions) {
+			return subscriptions.size();
+		}
+	}
+	
+	/**
+	 * Return the time in milliseconds during which the replies to the messages without a 
+	 * reply timeout are accepted, the same of the brokers.
+	 */
+	long getDefaultReplyTimeout() {
+		return conf.getReplyTableTimeout();
+	}
+	
+	/**
+	 * Create the dispatching service of a node.
+	 */
+	HostedDispatchingService attach(String nodeName) {
+		synchronized(nodes) {
+			if (nodes.containsKey(nodeName))
+				throw new IllegalConfigurationException("Node " + nodeName + " already hosted");
+			HostedDispatchingService node = new HostedDispatchingService(this, nodeName);
+			nodes.put(nodeName, node);
+			return node;
+		}
+	}
+	
+	void detach(HostedDispatchingService node) {
+		unsubscribeAll(node);
+		synchronized(nodes) {
+			nodes.remove(node.getNodeName());
+		}
+	}
+	
+	void subscribe(HostedDispatchingService node, Filter filter) {
+		boolean first;
+		synchronized(subscriptions) {
+			HashSet<HostedDispatchingService> subscribers = subscriptions.get(filter);
+			first = (subscribers == null);
+			if (first) {
+				subscribers = new HashSet<HostedDispatchingService>();
+				subscriptions.put(filter, subscribers);
+			}
+			subscribers.add(node);
+		}
+		if (first)
+			ds.subscribe(filter);
+	}
+	
+	void unsubscribe(HostedDispatchingService node, Filter filter) {
+		boolean last = false;
+		synchronized(subscriptions) {
+			HashSet<HostedDispatchingService> subscribers = subscriptions.get(filter);
+			if ((subscribers != null) && subscribers.remove(node) && subscribers.isEmpty()) {
+				subscriptions.remove(filter);
+				last = true;
+			}
+		}
+		if (last)
+			ds.unsubscribe(filter);
+	}
+	
+	void unsubscribeAll(HostedDispatchingService node) {
+		ArrayList<Filter> unused = new ArrayList<Filter>();
+		synchronized(subscriptions) {
+			Iterator<Map.Entry<Filter, HashSet<HostedDispatchingService>>> it = subscriptions.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Filter, HashSet<HostedDispatchingService>> entry = it.next();
+				if (entry.getValue().remove(node) && entry.getValue().isEmpty()) {
+					unused.add(entry.getKey());
+					it.remove();
+				}
+			}
+		}
+		for (Filter filter : unused)
+			ds.unsubscribe(filter);
+	}
+	
+	/**
+	 * Deliver a message to the other nodes of the host, then send it to the broker.
+	 */
+	void publish(HostedDispatchingService sender, Message msg) {
+		if (msg instanceof Repliable) {
+			long timeout = (msg instanceof DSMessage) ? ((DSMessage)msg).getReplyTimeout() : 0;
+			long now = System.currentTimeMillis();
+			synchronized(localRequests) {
+				purgeRequests(now);
+				localRequests.put(msg.getID(), new LocalRequest(sender, 
+						now + ((timeout > 0) ? timeout : getDefaultReplyTimeout())));
+			}
+		}
+		dispatch(sender, msg);
+		ds.publish(msg);
+	}
+	
+	/**
+	 * Send a reply to the node that published the message: directly if it is a node of 
+	 * the host, otherwise through the broker.
+	 */
+	void reply(Message reply, MessageID id) {
+		LocalRequest request;
+		synchronized(localRequests) {
+			request = localRequests.get(id);
+		}
+		if (request != null)
+			request.node.localReply(id, reply);
+		else
+			ds.reply(reply, id);
+	}
+	
+	/**
+	 * Deliver a message to the nodes of the host whose subscriptions match it.
+	 * 
+	 * @param sender The node that published the message, <code>null</code> if received.
+	 */
+	private void dispatch(HostedDispatchingService sender, Message msg) {
+		HashSet<HostedDispatchingService> recipients = new HashSet<HostedDispatchingService>();
+		synchronized(subscriptions) {
+			for (Map.Entry<Filter, HashSet<HostedDispatchingService>> entry : subscriptions.entrySet())
+				if (entry.getKey().matches(msg))
+					recipients.addAll(entry.getValue());
+		}
+		recipients.remove(sender);
+		for (HostedDispatchingService node : recipients) {
+			MsgHandler handler = node.getHandler();
+			if ((handler == null) || !(msg instanceof DSMessage))
+				node.enqueue(msg);
+			else if (DSCore.isProcessedOnReceipt((DSMessage)msg))
+				handler.process((DSMessage)msg);
+			else
+				inbound.put(((DSMessage)msg).getPriority(), new Delivery(handler, (DSMessage)msg));
+		}
+	}
+	
+	private void purgeRequests(long now) {
+		Iterator<LocalRequest> it = localRequests.values().iterator();
+		while (it.hasNext())
+			if (it.next().deadline <= now)
+				it.remove();
+	}
+	
+	private static class LocalRequest {
+		private HostedDispatchingService node;
+		private long deadline;
+		
+		public LocalRequest(HostedDispatchingService node, long deadline) {
+			this.node = node;
+			this.deadline = deadline;
+		}
+	}
+	
+	private static class Delivery {
+		private MsgHandler handler;
+		private DSMessage msg;
+		
+		public Delivery(MsgHandler handler, DSMessage msg) {
+			this.handler = handler;
+			this.msg = msg;
+		}
+	}
+	
+	/**
+	 * Thread receiving the messages from the connection and demultiplexing them to the nodes.
+	 */
+	private class Receiver extends Thread {
+		private volatile boolean stopped = false;
+		
+		public Receiver() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (!stopped) {
+				Message msg = ds.getNextMessage(1000);
+				if (msg != null)
+					dispatch(null, msg);
+			}
+		}
+		
+		public void stopReceiver() {
+			stopped = true;
+		}
+	}
+	
+	/**
+	 * Thread delivering the application messages of all the nodes, with weighted round robin
+	 * among the priority classes if they are enabled.
+	 */
+	private class Deliverer extends Thread {
+		private volatile boolean stopped = false;
+		
+		public Deliverer() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (!stopped) {
+				Delivery delivery = inbound.take(1000);
+				if (delivery != null) {
+					try {
+						delivery.handler.process(delivery.msg);
+					} catch (RuntimeException e) {
+						logger.error("Delivery of " + delivery.msg + " failed", e);
+					}
+				}
+			}
+		}
+		
+		public void stopDeliverer() {
+			stopped = true;
+		}
+	}
+}
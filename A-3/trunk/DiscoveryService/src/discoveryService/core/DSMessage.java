@@ -33,6 +33,8 @@ import polimi.reds.Message;
 public class DSMessage extends Message {
 	private static final long serialVersionUID = -7684705933007103294L;
 	protected String nodeName;
+	protected long replyTimeout = 0;
+	protected Priority priority = null;
 	
 	/**
 	 * Set a string identifier used to identify the node in the service.
@@ -46,4 +48,55 @@ public class DSMessage extends Message {
 	public String getNodeName() {
 		return nodeName;
 	}
+	
+	/**
+	 * Set the time during which the sender of a repliable message waits for replies.
+	 * The brokers use it as deadline of the entry of the message in their reply table.
+	 * 
+	 * @param timeout Time in milliseconds. If 0 the default timeout of the brokers is used.
+	 */
+	public void setReplyTimeout(long timeout) {
+		replyTimeout = timeout;
+	}
+	
+	public long getReplyTimeout() {
+		return replyTimeout;
+	}
+	
+	/**
+	 * Set the priority class of this message, overriding the default priority of its type.
+	 * 
+	 * @param priority The priority or <code>null</code> to use the default one.
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+	
+	/**
+	 * Return the priority class of the message: the one set with <code>setPriority()</code>,
+	 * if any, otherwise the default priority of its type.
+	 */
+	public Priority getPriority() {
+		return (priority != null) ? priority : getDefaultPriority();
+	}
+	
+	/**
+	 * Return the header with which the brokers route the message without deserializing 
+	 * it, in which case the message is sent sealed in an {@link Envelope}. Subclasses 
+	 * carrying payloads that the brokers do not need override it; the filters of such
+	 * messages must be able to match the envelope.
+	 * 
+	 * @return The header or <code>null</code> if the message is sent as a whole.
+	 */
+	public RoutingHeader getRoutingHeader() {
+		return null;
+	}
+	
+	/**
+	 * Return the priority class of the messages of this type. Subclasses override it to
+	 * declare their priority.
+	 */
+	protected Priority getDefaultPriority() {
+		return Priority.NORMAL;
+	}
 }
@@ -0,0 +1,61 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import polimi.reds.MessageID;
+
+/**
+ * Aggregated reply sent by a broker in directory mode: it carries the items published
+ * by the nodes of the region of the broker that match a search. {@link DSCore} unpacks
+ * it, so that the items are returned one by one as if each node had replied.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class DirectoryReply extends DSMessage {
+	private static final long serialVersionUID = -5320775467190823617L;
+	private MessageID searchID;
+	private ArrayList<DSMessage> items;
+	
+	/**
+	 * @param searchID The ID of the search replied.
+	 * @param items The matching items.
+	 */
+	public DirectoryReply(MessageID searchID, List<DSMessage> items) {
+		super();
+		this.searchID = searchID;
+		this.items = new ArrayList<DSMessage>(items);
+	}
+	
+	public MessageID getSearchID() {
+		return searchID;
+	}
+	
+	public List<DSMessage> getItems() {
+		return items;
+	}
+	
+	public String toString() {
+		return "DirectoryReply[" + searchID + "; " + items + "]";
+	}
+}
@@ -0,0 +1,152 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import discoveryService.core.status.Status;
+import discoveryService.core.status.StatusFilter;
+
+/**
+ * The result of a bulk engagement started with <code>DSCore.engageAll()</code>: the engage
+ * requests are all sent at once and the engagement completes when every node has replied
+ * or its reply timeout has elapsed.
+ * <p>
+ * The result is the status of the engaged nodes; the nodes that did not reply in time are
+ * reported by <code>getFailedNodes()</code>. The status notifications of all the nodes
+ * are received through the single subscription returned by <code>getFilter()</code>,
+ * to be passed to <code>DSCore.disEngage()</code>.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class Engagement implements Future<Map<String, Status>> {
+	private StatusFilter filter;
+	private Map<String, Status> engaged;
+	private Set<String> failed;
+	private boolean done;
+	
+	Engagement(StatusFilter filter) {
+		this.filter = filter;
+		engaged = new LinkedHashMap<String, Status>();
+		failed = new TreeSet<String>();
+		done = false;
+	}
+	
+	/**
+	 * Get the filter subscribed to receive the status notifications of the engaged nodes.
+	 * 
+	 * @return The filter.
+	 */
+	public StatusFilter getFilter() {
+		return filter;
+	}
+	
+	synchronized void engaged(String nodeName, Status status) {
+		failed.remove(nodeName);
+		engaged.put(nodeName, status);
+	}
+	
+	synchronized void failed(String nodeName) {
+		if (!engaged.containsKey(nodeName))
+			failed.add(nodeName);
+	}
+	
+	synchronized void complete() {
+		done = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Get the nodes engaged so far.
+	 * 
+	 * @return The names of the nodes that replied.
+	 */
+	public synchronized Set<String> getEngagedNodes() {
+		return new TreeSet<String>(engaged.keySet());
+	}
+	
+	/**
+	 * Get the nodes that did not reply to the engage request within its reply timeout.
+	 * 
+	 * @return The names of the nodes, empty if the engagement is not done yet.
+	 */
+	public synchronized Set<String> getFailedNodes() {
+		return new TreeSet<String>(failed);
+	}
+	
+	/**
+	 * Engagements cannot be cancelled: use <code>DSCore.disEngage()</code> with the filter.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+	
+	public boolean isCancelled() {
+		return false;
+	}
+	
+	public synchronized boolean isDone() {
+		return done;
+	}
+	
+	/**
+	 * Wait for the engagement to complete.
+	 * 
+	 * @return The status of the engaged nodes, by node name.
+	 */
+	public synchronized Map<String, Status> get() throws InterruptedException {
+		while (!done)
+			wait();
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Status>(engaged));
+	}
+	
+	/**
+	 * Wait for the engagement to complete for at most the given time.
+	 * 
+	 * @return The status of the engaged nodes, by node name.
+	 * 
+	 * @throws java.util.concurrent.TimeoutException If the engagement is not complete in time; 
+	 * the nodes engaged so far are returned by <code>getEngagedNodes()</code>.
+	 */
+	public synchronized Map<String, Status> get(long timeout, TimeUnit unit) 
+			throws InterruptedException, java.util.concurrent.TimeoutException {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (!done) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				throw new java.util.concurrent.TimeoutException();
+			wait(left);
+		}
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Status>(engaged));
+	}
+	
+	public synchronized String toString() {
+		return "Engagement[" + filter + "; engaged " + engaged.keySet() + ", failed " + failed + 
+				(done ? "" : ", in progress") + "]";
+	}
+}
@@ -0,0 +1,140 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import polimi.reds.MessageID;
+import polimi.reds.Repliable;
+import discoveryService.broker.Indexable;
+
+/**
+ * Message carrying a {@link DSMessage} as bytes together with its {@link RoutingHeader}.
+ * <p>
+ * The brokers route the envelope matching the filters against the header only: the 
+ * sealed message, with payloads such as task results, is passed through as an array of 
+ * bytes and is deserialized only by the receiving node with <code>open()</code>. The
+ * envelope has the ID, the sender, the reply timeout and the priority of the sealed 
+ * message, so replies and reply tables work as for the message itself.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class Envelope extends DSMessage implements Indexable {
+	private static final long serialVersionUID = 8832457119640361504L;
+	private RoutingHeader header;
+	private byte[] body;
+	private MessageID id;
+	private transient DSMessage content;
+	
+	protected Envelope(DSMessage msg, RoutingHeader header) throws IOException {
+		this.header = header;
+		id = msg.getID();
+		nodeName = msg.getNodeName();
+		replyTimeout = msg.getReplyTimeout();
+		priority = msg.getPriority();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(msg);
+		out.close();
+		body = bytes.toByteArray();
+		content = msg;
+	}
+	
+	/**
+	 * Seal a message in an envelope, if the message provides a routing header.
+	 * 
+	 * @param msg The message.
+	 * @return The envelope, or <code>null</code> if the message must be sent as a whole.
+	 * @throws IOException If the message cannot be serialized.
+	 */
+	public static Envelope seal(DSMessage msg) throws IOException {
+		RoutingHeader header = msg.getRoutingHeader();
+		if (header == null)
+			return null;
+		if (msg.getID() == null)
+			msg.createID();
+		if (msg instanceof Repliable)
+			return new RepliableEnvelope(msg, header);
+		return new Envelope(msg, header);
+	}
+	
+	/**
+	 * Return the sealed message, deserializing it the first time.
+	 * 
+	 * @throws IOException If the message cannot be deserialized (e.g. its class is unknown).
+	 */
+	public synchronized DSMessage open() throws IOException {
+		if (content == null) {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(body));
+			try {
+				content = (DSMessage)in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown message class " + header.getTypeName() + ": " + e.getMessage());
+			} finally {
+				in.close();
+			}
+		}
+		return content;
+	}
+	
+	public RoutingHeader getHeader() {
+		return header;
+	}
+	
+	/**
+	 * Return the size in bytes of the sealed message.
+	 */
+	public int getBodySize() {
+		return body.length;
+	}
+	
+	/**
+	 * The envelope has the ID of the sealed message.
+	 */
+	@Override
+	public MessageID getID() {
+		return id;
+	}
+	
+	/**
+	 * The ID of the envelope is the one of the sealed message: it is never regenerated.
+	 */
+	@Override
+	public void createID() {
+	}
+	
+	public String getIndexKind() {
+		return header.getIndexKind();
+	}
+	
+	public String getIndexKey() {
+		return header.getIndexKey();
+	}
+	
+	public String toString() {
+		return "Envelope[" + header + "; " + body.length + " bytes]";
+	}
+}
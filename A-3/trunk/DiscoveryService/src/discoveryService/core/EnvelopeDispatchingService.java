@@ -0,0 +1,243 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.DispatchingService;
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.MessageID;
+import polimi.reds.Replies;
+import polimi.reds.TimeoutException;
+
+/**
+ * {@link DispatchingService} that seals the outgoing messages providing a {@link RoutingHeader}
+ * in an {@link Envelope} and opens the received envelopes, so that the brokers route these
+ * messages without deserializing their payloads.
+ * <p>
+ * Messages are sealed by the calling thread: changing a message after publishing it does
+ * not affect what is sent. Replies are sealed as well. An envelope that cannot be opened 
+ * (e.g. because the class of the message is unknown to the node) is discarded, and the
+ * calls waiting for a message or a reply go on waiting for the next one until their timeout.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class EnvelopeDispatchingService implements DispatchingService {
+	private static Logger logger = Logger.getLogger(EnvelopeDispatchingService.class);
+	private DispatchingService ds;
+	
+	/**
+	 * Create the service.
+	 * 
+	 * @param ds The wrapped dispatching service.
+	 */
+	public EnvelopeDispatchingService(DispatchingService ds) {
+		this.ds = ds;
+	}
+	
+	/**
+	 * Return the wrapped dispatching service.
+	 */
+	public DispatchingService getDispatchingService() {
+		return ds;
+	}
+	
+	@Override
+	public void open() throws ConnectException {
+		ds.open();
+	}
+	
+	@Override
+	public void close() {
+		ds.close();
+	}
+	
+	@Override
+	public boolean isOpened() {
+		return ds.isOpened();
+	}
+	
+	@Override
+	public void subscribe(Filter filter) {
+		ds.subscribe(filter);
+	}
+	
+	@Override
+	public void unsubscribe(Filter filter) {
+		ds.unsubscribe(filter);
+	}
+	
+	@Override
+	public void unsubscribeAll() {
+		ds.unsubscribeAll();
+	}
+	
+	@Override
+	public void publish(Message msg) {
+		ds.publish(seal(msg));
+	}
+	
+	@Override
+	public void reply(Message reply, MessageID repliableMessageID) {
+		ds.reply(seal(reply), repliableMessageID);
+	}
+	
+	@Override
+	public Message getNextMessage() {
+		while (true) {
+			Message msg = ds.getNextMessage();
+			if (!(msg instanceof Envelope))
+				return msg;
+			msg = open(msg);
+			if (msg != null)
+				return msg;
+		}
+	}
+	
+	@Override
+	public Message getNextMessage(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (true) {
+			Message msg = ds.getNextMessage(remaining);
+			if (!(msg instanceof Envelope))
+				return msg;
+			msg = open(msg);
+			if (msg != null)
+				return msg;
+			remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return null;
+		}
+	}
+	
+	@Override
+	public boolean hasMoreMessages() {
+		return ds.hasMoreMessages();
+	}
+	
+	@Override
+	public Message getNextReply() {
+		while (true) {
+			Message msg = ds.getNextReply();
+			if (!(msg instanceof Envelope))
+				return msg;
+			msg = open(msg);
+			if (msg != null)
+				return msg;
+		}
+	}
+	
+	@Override
+	public Message getNextReply(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (true) {
+			Message msg = ds.getNextReply(remaining);
+			if (!(msg instanceof Envelope))
+				return msg;
+			msg = open(msg);
+			if (msg != null)
+				return msg;
+			remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return null;
+		}
+	}
+	
+	/**
+	 * Return the next reply to a request that can be opened. The wrapped service throws
+	 * <code>TimeoutException</code> when the reply timeout of the request expires.
+	 */
+	@Override
+	public Message getNextReply(MessageID id) throws TimeoutException {
+		while (true) {
+			Message msg = ds.getNextReply(id);
+			if (!(msg instanceof Envelope))
+				return msg;
+			msg = open(msg);
+			if (msg != null)
+				return msg;
+		}
+	}
+	
+	@Override
+	public Replies getAllReplies(MessageID id) {
+		Replies replies = ds.getAllReplies(id);
+		Message[] msgs = replies.getReplies();
+		if (msgs == null)
+			return replies;
+		int count = 0;
+		Message[] opened = new Message[msgs.length];
+		for (Message msg : msgs) {
+			Message m = open(msg);
+			if (m != null)
+				opened[count++] = m;
+		}
+		if (count < opened.length) {
+			Message[] trimmed = new Message[count];
+			System.arraycopy(opened, 0, trimmed, 0, count);
+			opened = trimmed;
+		}
+		return new Replies(id, opened);
+	}
+	
+	@Override
+	public boolean hasMoreReplies() {
+		return ds.hasMoreReplies();
+	}
+	
+	@Override
+	public boolean hasMoreReplies(MessageID id) {
+		return ds.hasMoreReplies(id);
+	}
+	
+	private Message seal(Message msg) {
+		if (!(msg instanceof DSMessage))
+			return msg;
+		try {
+			Envelope envelope = Envelope.seal((DSMessage)msg);
+			return (envelope != null) ? envelope : msg;
+		} catch (IOException e) {
+			logger.error("Unable to seal " + msg + ", sending it as a whole", e);
+			return msg;
+		}
+	}
+	
+	/**
+	 * Return the message sealed in an envelope, or the message itself. 
+	 */
+	private Message open(Message msg) {
+		if (!(msg instanceof Envelope))
+			return msg;
+		try {
+			return ((Envelope)msg).open();
+		} catch (IOException e) {
+			logger.error("Discarding " + msg, e);
+			return null;
+		}
+	}
+}
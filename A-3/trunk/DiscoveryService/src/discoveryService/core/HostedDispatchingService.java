@@ -0,0 +1,313 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import polimi.reds.DispatchingService;
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.MessageID;
+import polimi.reds.Replies;
+import polimi.reds.Repliable;
+import polimi.reds.TimeoutException;
+
+/**
+ * {@link DispatchingService} of a logical node of a {@link DSHost}: it uses the connection
+ * of the host and receives the messages demultiplexed by the host.
+ * <p>
+ * The received messages are passed to the handler of the node, if set by its {@link DSCore},
+ * otherwise they are queued and returned by <code>getNextMessage()</code>. The replies
+ * to the messages published by the node are read from the connection by message ID, merged
+ * with the ones sent by the other nodes of the host.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class HostedDispatchingService implements DispatchingService {
+	// Interval in milliseconds between two checks of the replies of the node
+	private final static int REPLY_POLL_INTERVAL = 10;
+	private DSHost host;
+	private String nodeName;
+	private volatile boolean opened;
+	private volatile MsgHandler handler;
+	private LinkedBlockingQueue<Message> messages;
+	// Replies sent by the other nodes of the host
+	private HashMap<MessageID, LinkedList<Message>> localReplies;
+	// Repliable messages published by the node, with their deadline
+	private HashMap<MessageID, Long> requests;
+	
+	HostedDispatchingService(DSHost host, String nodeName) {
+		this.host = host;
+		this.nodeName = nodeName;
+		opened = false;
+		handler = null;
+		messages = new LinkedBlockingQueue<Message>();
+		localReplies = new HashMap<MessageID, LinkedList<Message>>();
+		requests = new HashMap<MessageID, Long>();
+	}
+	
+	public String getNodeName() {
+		return nodeName;
+	}
+	
+	/**
+	 * Let the handler of the node process the received messages.
+	 */
+	void setHandler(MsgHandler handler) {
+		this.handler = handler;
+	}
+	
+	MsgHandler getHandler() {
+		return handler;
+	}
+	
+	void enqueue(Message msg) {
+		messages.offer(msg);
+	}
+	
+	void localReply(MessageID id, Message reply) {
+		synchronized(localReplies) {
+			LinkedList<Message> replies = localReplies.get(id);
+			if (replies == null) {
+				replies = new LinkedList<Message>();
+				localReplies.put(id, replies);
+			}
+			replies.add(reply);
+			localReplies.notifyAll();
+		}
+	}
+	
+	@Override
+	public void open() throws ConnectException {
+		host.open();
+		opened = true;
+	}
+	
+	@Override
+	public void close() {
+		opened = false;
+		handler = null;
+		host.detach(this);
+	}
+	
+	@Override
+	public boolean isOpened() {
+		return opened && host.isOpened();
+	}
+	
+	@Override
+	public void subscribe(Filter filter) {
+		host.subscribe(this, filter);
+	}
+	
+	@Override
+	public void unsubscribe(Filter filter) {
+		host.unsubscribe(this, filter);
+	}
+	
+	@Override
+	public void unsubscribeAll() {
+		host.unsubscribeAll(this);
+	}
+	
+	@Override
+	public void publish(Message msg) {
+		if (msg instanceof Repliable) {
+			long timeout = (msg instanceof DSMessage) ? ((DSMessage)msg).getReplyTimeout() : 0;
+			synchronized(localReplies) {
+				requests.put(msg.getID(), System.currentTimeMillis() + ((timeout > 0) ? timeout : host.getDefaultReplyTimeout()));
+			}
+		}
+		host.publish(this, msg);
+	}
+	
+	@Override
+	public void reply(Message reply, MessageID repliableMessageID) {
+		host.reply(reply, repliableMessageID);
+	}
+	
+	@Override
+	public Message getNextMessage() {
+		try {
+			return messages.take();
+		} catch (InterruptedException e) {
+			return null;
+		}
+	}
+	
+	@Override
+	public Message getNextMessage(long timeout) {
+		try {
+			return messages.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return null;
+		}
+	}
+	
+	@Override
+	public boolean hasMoreMessages() {
+		return !messages.isEmpty();
+	}
+	
+	/**
+	 * Return the next reply to any message published by the node, waiting for it until
+	 * the deadlines of all the messages elapse.
+	 */
+	@Override
+	public Message getNextReply() {
+		return getNextReply(Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Return the next reply to any message published by the node. The replies received
+	 * from the broker for the messages of other nodes of the host are not returned.
+	 */
+	@Override
+	public Message getNextReply(long timeout) {
+		long deadline = (timeout == Long.MAX_VALUE) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+		while (true) {
+			MessageID[] pending;
+			synchronized(localReplies) {
+				Iterator<Map.Entry<MessageID, LinkedList<Message>>> it = localReplies.entrySet().iterator();
+				if (it.hasNext()) {
+					Map.Entry<MessageID, LinkedList<Message>> entry = it.next();
+					Message reply = entry.getValue().removeFirst();
+					if (entry.getValue().isEmpty())
+						it.remove();
+					return reply;
+				}
+				purgeRequests(System.currentTimeMillis());
+				pending = requests.keySet().toArray(new MessageID[0]);
+			}
+			for (MessageID id : pending) {
+				if (host.getDispatchingService().hasMoreReplies(id)) {
+					try {
+						return host.getDispatchingService().getNextReply(id);
+					} catch (TimeoutException e) {
+						continue;
+					}
+				}
+			}
+			long now = System.currentTimeMillis();
+			if ((now >= deadline) || ((pending.length == 0) && (deadline == Long.MAX_VALUE)))
+				return null;
+			synchronized(localReplies) {
+				try {
+					localReplies.wait(Math.min(REPLY_POLL_INTERVAL, deadline - now));
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Return the next reply to a message, the replies of the other nodes of the host first.
+	 * If none has arrived, wait for a reply from the broker until the deadline of the message:
+	 * the replies of the other nodes of the host arriving in the meantime are returned 
+	 * by the next calls.
+	 */
+	@Override
+	public Message getNextReply(MessageID id) throws TimeoutException {
+		Message reply = nextLocalReply(id);
+		if (reply != null)
+			return reply;
+		try {
+			return host.getDispatchingService().getNextReply(id);
+		} catch (TimeoutException e) {
+			reply = nextLocalReply(id);
+			if (reply == null)
+				throw e;
+			return reply;
+		}
+	}
+	
+	@Override
+	public Replies getAllReplies(MessageID id) {
+		Replies replies = host.getDispatchingService().getAllReplies(id);
+		LinkedList<Message> local;
+		synchronized(localReplies) {
+			local = localReplies.remove(id);
+			requests.remove(id);
+		}
+		if (local == null)
+			return replies;
+		ArrayList<Message> all = new ArrayList<Message>(local);
+		if (replies.getReplies() != null)
+			all.addAll(Arrays.asList(replies.getReplies()));
+		return new Replies(id, all.toArray(new Message[all.size()]));
+	}
+	
+	@Override
+	public boolean hasMoreReplies() {
+		MessageID[] pending;
+		synchronized(localReplies) {
+			if (!localReplies.isEmpty())
+				return true;
+			pending = requests.keySet().toArray(new MessageID[0]);
+		}
+		for (MessageID id : pending)
+			if (host.getDispatchingService().hasMoreReplies(id))
+				return true;
+		return false;
+	}
+	
+	@Override
+	public boolean hasMoreReplies(MessageID id) {
+		synchronized(localReplies) {
+			if (localReplies.containsKey(id))
+				return true;
+		}
+		return host.getDispatchingService().hasMoreReplies(id);
+	}
+	
+	public String toString() {
+		return "HostedDispatchingService[" + nodeName + "]";
+	}
+	
+	private Message nextLocalReply(MessageID id) {
+		synchronized(localReplies) {
+			LinkedList<Message> replies = localReplies.get(id);
+			if (replies == null)
+				return null;
+			Message reply = replies.removeFirst();
+			if (replies.isEmpty())
+				localReplies.remove(id);
+			return reply;
+		}
+	}
+	
+	private void purgeRequests(long now) {
+		Iterator<Long> it = requests.values().iterator();
+		while (it.hasNext())
+			if (it.next().longValue() <= now)
+				it.remove();
+	}
+}
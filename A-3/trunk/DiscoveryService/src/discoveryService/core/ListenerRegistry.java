@@ -0,0 +1,166 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import polimi.reds.Filter;
+
+/**
+ * Registry of the {@link MessageListener}s of a node. Each listener is registered for a
+ * type of {@link DSMessage} (its subclasses included) and optionally a {@link Filter} 
+ * the messages must match, so that many listeners, e.g. of different subsystems sharing
+ * the node, receive only the messages they handle.
+ * <p>
+ * The registrations are copy-on-write: registering or removing a listener replaces the
+ * whole table, while dispatching a message only reads it, without locking. The listeners
+ * matching each concrete class of message are resolved the first time a message of that
+ * class is dispatched and cached in the table, so the following messages are dispatched 
+ * without walking the type hierarchy.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ListenerRegistry {
+	private static final Registration[] NONE = new Registration[0];
+	private volatile Table table;
+	
+	public ListenerRegistry() {
+		table = new Table(NONE);
+	}
+	
+	/**
+	 * Register a listener for a type of messages.
+	 * 
+	 * @param type The type of the messages, e.g. <code>DSMessage.class</code> for all of them.
+	 * @param filter A filter the messages must match; <code>null</code> for all the messages 
+	 * of the type.
+	 * @param listener The listener.
+	 */
+	public synchronized void add(Class<? extends DSMessage> type, Filter filter, MessageListener listener) {
+		Registration[] all = table.all;
+		Registration[] updated = new Registration[all.length + 1];
+		System.arraycopy(all, 0, updated, 0, all.length);
+		updated[all.length] = new Registration(type, filter, listener);
+		table = new Table(updated);
+	}
+	
+	/**
+	 * Replace all the registrations with a single listener.
+	 * 
+	 * @param type The type of the messages, e.g. <code>DSMessage.class</code> for all of them.
+	 * @param filter A filter the messages must match; <code>null</code> for all the messages 
+	 * of the type.
+	 * @param listener The listener.
+	 */
+	public synchronized void set(Class<? extends DSMessage> type, Filter filter, MessageListener listener) {
+		table = new Table(new Registration[] { new Registration(type, filter, listener) });
+	}
+	
+	/**
+	 * Remove all the registrations of a listener.
+	 * 
+	 * @param listener The listener.
+	 * @return <code>true</code> if the listener was registered.
+	 */
+	public synchronized boolean remove(MessageListener listener) {
+		ArrayList<Registration> kept = new ArrayList<Registration>();
+		for (Registration r : table.all)
+			if (r.listener != listener)
+				kept.add(r);
+		if (kept.size() == table.all.length)
+			return false;
+		table = new Table(kept.toArray(NONE));
+		return true;
+	}
+	
+	/**
+	 * Remove all the listeners.
+	 */
+	public synchronized void clear() {
+		table = new Table(NONE);
+	}
+	
+	/**
+	 * Return the number of registrations.
+	 */
+	public int size() {
+		return table.all.length;
+	}
+	
+	/**
+	 * Notify a message to the listeners registered for its type whose filter matches it,
+	 * in the order they were registered.
+	 * 
+	 * @param msg The message.
+	 * @return <code>true</code> if at least one listener has been notified.
+	 */
+	public boolean dispatch(DSMessage msg) {
+		boolean notified = false;
+		for (Registration r : table.resolve(msg.getClass())) {
+			if ((r.filter != null) && !r.filter.matches(msg))
+				continue;
+			r.listener.notify(msg);
+			notified = true;
+		}
+		return notified;
+	}
+	
+	/**
+	 * An immutable set of registrations with the cache of the ones matching each class.
+	 * The cache belongs to the table, so it never holds registrations of an older table.
+	 */
+	private static class Table {
+		private final Registration[] all;
+		private final ConcurrentHashMap<Class<?>, Registration[]> byClass;
+		
+		public Table(Registration[] all) {
+			this.all = all;
+			byClass = new ConcurrentHashMap<Class<?>, Registration[]>();
+		}
+		
+		public Registration[] resolve(Class<?> type) {
+			Registration[] matching = byClass.get(type);
+			if (matching == null) {
+				ArrayList<Registration> found = new ArrayList<Registration>();
+				for (Registration r : all)
+					if (r.type.isAssignableFrom(type))
+						found.add(r);
+				matching = found.isEmpty() ? NONE : found.toArray(NONE);
+				byClass.put(type, matching);
+			}
+			return matching;
+		}
+	}
+	
+	private static class Registration {
+		private final Class<? extends DSMessage> type;
+		private final Filter filter;
+		private final MessageListener listener;
+		
+		public Registration(Class<? extends DSMessage> type, Filter filter, MessageListener listener) {
+			this.type = type;
+			this.filter = filter;
+			this.listener = listener;
+		}
+	}
+}
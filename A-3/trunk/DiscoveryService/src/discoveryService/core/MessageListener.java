@@ -22,7 +22,8 @@ package discoveryService.core;
 /**
  * This interface allow users to define a method in reaction to the reception of a 
  * {@link DSMessage}
- * The listener should be registered trough <code>DSCore.registerMessageListener</code>
+ * The listener should be registered trough <code>DSCore.registerMessageListener</code>,
+ * or added to the other listeners of the node trough <code>DSCore.addMessageListener</code>
  *  
  * @author leleplx@gmail.com (emanuele)
  *
@@ -0,0 +1,52 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import polimi.reds.Message;
+
+/**
+ * A {@link RankedQuery} whose results are read in pages of <code>getLimit()</code> results
+ * through a {@link ResultCursor}. Each page is a new search asking for the results that
+ * come after the last one of the previous page (the cursor), so that every node and broker
+ * answering it sends at most a page of results and keeps no state about the search.
+ * <p>
+ * The order of <code>compare()</code> must be total (only the same result compares as 0),
+ * otherwise the results equivalent to the cursor are skipped.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface PagedQuery extends RankedQuery {
+	/**
+	 * Return the last result of the previous page.
+	 * 
+	 * @return The result or <code>null</code> for the first page.
+	 */
+	public Message getCursor();
+	
+	/**
+	 * Create the query of the page following the given result.
+	 * 
+	 * @param last The last result of this page.
+	 * @return A new query, with its own message ID.
+	 */
+	public DSMessage nextPage(Message last);
+}
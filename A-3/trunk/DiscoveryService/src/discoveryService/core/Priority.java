@@ -0,0 +1,55 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+/**
+ * Priority classes of the messages of Discovery Service.
+ * <p>
+ * Each class has its own queues in the outbound pipeline of the node, in the transports
+ * and in the processing of the received messages; the queues are served with weighted
+ * round robin so that control traffic is not delayed by large data and bulk traffic is 
+ * not starved.
+ * </p>
+ * <ul>
+ * <li><code>CONTROL</code>: status, heartbeats, engagement, gossip and subscriptions.</li>
+ * <li><code>NORMAL</code>: publications and searches.</li>
+ * <li><code>BULK</code>: tasks and their results.</li>
+ * </ul>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public enum Priority {
+	CONTROL, NORMAL, BULK;
+	
+	/**
+	 * Default weights of the classes, indexed by ordinal.
+	 */
+	public final static int[] DEFAULT_WEIGHTS = { 16, 4, 1 };
+	
+	/**
+	 * Return the priority of a message: the one of the {@link DSMessage} or <code>NORMAL</code>.
+	 */
+	public static Priority of(Object message) {
+		if (message instanceof DSMessage)
+			return ((DSMessage)message).getPriority();
+		return NORMAL;
+	}
+}
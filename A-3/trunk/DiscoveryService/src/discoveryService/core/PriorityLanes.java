@@ -0,0 +1,280 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * A queue made of one lane for each {@link Priority}, served with weighted round robin.
+ * <p>
+ * In each round a lane can deliver as many elements as its weight; a round ends when 
+ * the non empty lanes have used all their credits. Elements of the same lane are delivered 
+ * in FIFO order. The queue is thread safe and <code>take()</code> blocks until an element 
+ * is available. Without weights the queue has a single lane: all the elements are 
+ * delivered in FIFO order, whatever their priority.
+ * </p>
+ * <p>
+ * A queue with a capacity is bounded: <code>put()</code> waits while the queue is full, so
+ * that a slow consumer slows down the producer instead of filling the heap.
+ * </p>
+ * <p>
+ * An element added with <code>putOrdered()</code> (e.g. a subscription change) is not
+ * reordered with respect to the other lanes: it is delivered after all the elements added
+ * before it, and the elements added after it are delivered after it.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class PriorityLanes<E> {
+	private ArrayDeque<E>[] lanes;
+	private int[] weights;
+	private int[] credits;
+	private int size;
+	// Maximum number of elements, 0 if unbounded
+	private int capacity;
+	// Single lane, when there are no weights
+	private boolean fifo;
+	// Elements added to and removed from each lane so far
+	private long[] added;
+	private long[] removed;
+	// Ordered elements not delivered yet, oldest first
+	private ArrayDeque<Barrier> barriers;
+	
+	/**
+	 * Create the queue with the default weights.
+	 */
+	public PriorityLanes() {
+		this(Priority.DEFAULT_WEIGHTS);
+	}
+	
+	/**
+	 * Create an unbounded queue.
+	 * 
+	 * @param weights The weights of the lanes, indexed by the ordinal of the {@link Priority};
+	 * <code>null</code> for a single FIFO lane.
+	 */
+	public PriorityLanes(int[] weights) {
+		this(weights, 0);
+	}
+	
+	/**
+	 * Create the queue.
+	 * 
+	 * @param weights The weights of the lanes, indexed by the ordinal of the {@link Priority};
+	 * <code>null</code> for a single FIFO lane.
+	 * @param capacity Maximum number of elements; 0 for an unbounded queue.
+	 */
+	@SuppressWarnings("unchecked")
+	public PriorityLanes(int[] weights, int capacity) {
+		fifo = (weights == null);
+		this.capacity = Math.max(0, capacity);
+		int n = fifo ? 1 : Priority.values().length;
+		lanes = (ArrayDeque<E>[])new ArrayDeque<?>[n];
+		this.weights = new int[n];
+		credits = new int[n];
+		for (int i = 0; i < n; i++) {
+			lanes[i] = new ArrayDeque<E>();
+			this.weights[i] = ((weights != null) && (i < weights.length)) ? Math.max(1, weights[i]) : 1;
+			credits[i] = this.weights[i];
+		}
+		size = 0;
+		added = new long[n];
+		removed = new long[n];
+		barriers = new ArrayDeque<Barrier>();
+	}
+	
+	/**
+	 * Add an element, waiting while the queue is full. If the calling thread is interrupted
+	 * the element is added anyway.
+	 */
+	public synchronized void put(Priority priority, E element) {
+		awaitSpace();
+		int lane = lane(priority);
+		lanes[lane].add(element);
+		added[lane]++;
+		size++;
+		notifyAll();
+	}
+	
+	/**
+	 * Add an element that keeps its position with respect to the elements of all the lanes.
+	 */
+	public synchronized void putOrdered(Priority priority, E element) {
+		awaitSpace();
+		int lane = lane(priority);
+		barriers.add(new Barrier(lane, added[lane], added.clone()));
+		put(priority, element);
+	}
+	
+	/**
+	 * Remove the next element according to the weights.
+	 * 
+	 * @return The element or <code>null</code> if the queue is empty.
+	 */
+	public synchronized E poll() {
+		if (size == 0)
+			return null;
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < lanes.length; i++) {
+				if ((credits[i] > 0) && isReady(i)) {
+					credits[i]--;
+					return remove(i);
+				}
+			}
+			// The non empty lanes have no credits left: start a new round
+			for (int i = 0; i < lanes.length; i++)
+				credits[i] = weights[i];
+		}
+		return null;
+	}
+	
+	/**
+	 * Remove the next element of the given lane, ignoring the weights.
+	 */
+	public synchronized E poll(Priority priority) {
+		if (!isReady(lane(priority)))
+			return null;
+		return remove(lane(priority));
+	}
+	
+	/**
+	 * Wait for the next element.
+	 * 
+	 * @return The element or <code>null</code> if interrupted.
+	 */
+	public synchronized E take() {
+		while (size == 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return poll();
+	}
+	
+	/**
+	 * Wait for the next element at most <code>timeout</code> milliseconds.
+	 * 
+	 * @return The element or <code>null</code> if the time elapsed.
+	 */
+	public synchronized E take(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		long now;
+		while ((size == 0) && ((now = System.currentTimeMillis()) < deadline)) {
+			try {
+				wait(deadline - now);
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return poll();
+	}
+	
+	/**
+	 * Return the number of elements of the given lane (of the whole queue if it has a single
+	 * lane).
+	 */
+	public synchronized int size(Priority priority) {
+		return lanes[lane(priority)].size();
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public synchronized void clear() {
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i].clear();
+			removed[i] = added[i];
+		}
+		barriers.clear();
+		size = 0;
+		notifyAll();
+	}
+	
+	private int lane(Priority priority) {
+		return fifo ? 0 : priority.ordinal();
+	}
+	
+	private void awaitSpace() {
+		boolean interrupted = false;
+		while ((capacity > 0) && (size >= capacity) && !interrupted) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Check if the head of a lane can be delivered without overtaking the oldest ordered
+	 * element or being overtaken by it.
+	 */
+	private boolean isReady(int lane) {
+		if (lanes[lane].isEmpty())
+			return false;
+		Barrier b = barriers.peek();
+		if (b == null)
+			return true;
+		if (lane != b.lane)
+			return removed[lane] < b.before[lane];
+		if (removed[lane] < b.position)
+			return true;
+		for (int i = 0; i < lanes.length; i++)
+			if ((i != lane) && (removed[i] < b.before[i]))
+				return false;
+		return true;
+	}
+	
+	private E remove(int lane) {
+		Barrier b = barriers.peek();
+		if ((b != null) && (b.lane == lane) && (removed[lane] == b.position))
+			barriers.poll();
+		removed[lane]++;
+		size--;
+		if (capacity > 0)
+			notifyAll();
+		return lanes[lane].poll();
+	}
+	
+	/**
+	 * Position of an ordered element and number of elements added to each lane before it.
+	 */
+	private static class Barrier {
+		private int lane;
+		private long position;
+		private long[] before;
+		
+		public Barrier(int lane, long position, long[] before) {
+			this.lane = lane;
+			this.position = position;
+			this.before = before;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import polimi.reds.Message;
+
+/**
+ * A search asking only for the best results according to an order, at most 
+ * <code>getLimit()</code>. The brokers answering the search from their directories
+ * send only their best results, and <code>DSCore.searchAll()</code> merges the results
+ * received keeping the best ones (see {@link Ranking}).
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface RankedQuery {
+	/**
+	 * Return the maximum number of results.
+	 * 
+	 * @return The number of results or 0 for all of them.
+	 */
+	public int getLimit();
+	
+	/**
+	 * Compare two results of the search.
+	 * 
+	 * @return A negative number if the first result is better than the second, a positive
+	 * one if it is worse, 0 if they are equivalent.
+	 */
+	public int compare(Message a, Message b);
+}
@@ -0,0 +1,71 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import polimi.reds.Message;
+
+/**
+ * Sorts the results of a {@link RankedQuery}.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class Ranking {
+	/**
+	 * Sort the results from the best to the worst and drop the ones beyond the limit of the query.
+	 * The results that the query considers equivalent keep their order. The results of a 
+	 * {@link PagedQuery} that do not come after its cursor are dropped too.
+	 * 
+	 * @param results The results, modified in place.
+	 * @param query The query.
+	 */
+	public static <T extends Message> void rank(List<T> results, final RankedQuery query) {
+		if ((query instanceof PagedQuery) && (((PagedQuery)query).getCursor() != null)) {
+			Iterator<T> it = results.iterator();
+			while (it.hasNext())
+				if (!isAfterCursor(query, it.next()))
+					it.remove();
+		}
+		Collections.sort(results, new Comparator<T>() {
+			public int compare(T a, T b) {
+				return query.compare(a, b);
+			}
+		});
+		int limit = query.getLimit();
+		if ((limit > 0) && (results.size() > limit))
+			results.subList(limit, results.size()).clear();
+	}
+	
+	/**
+	 * Return <code>true</code> if the result belongs to the page asked for by the query, 
+	 * i.e. it comes after the cursor of a {@link PagedQuery}.
+	 */
+	public static boolean isAfterCursor(RankedQuery query, Message result) {
+		if (!(query instanceof PagedQuery))
+			return true;
+		Message cursor = ((PagedQuery)query).getCursor();
+		return (cursor == null) || (query.compare(result, cursor) > 0);
+	}
+}
@@ -0,0 +1,173 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.LinkedList;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.Message;
+
+/**
+ * Reads the results of a {@link PagedQuery} one page at a time, sending the search of the
+ * next page only when the previous one has been consumed. The results of a page are 
+ * collected as they arrive keeping only the best ones, so neither the network nor the
+ * requester have to handle more than a page per answering node.
+ * <p>
+ * The pages can be pulled with <code>nextPage()</code>, or pushed to a {@link ResultListener}
+ * with <code>stream()</code>: the listener receives as many results as the credits it 
+ * granted, and a new page is searched for only when it has credits left.
+ * </p>
+ * Cursors are created by <code>DSCore.openCursor()</code>.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ResultCursor {
+	private static Logger logger = Logger.getLogger(ResultCursor.class);
+	
+	private DSCore core;
+	private DSMessage query;
+	private boolean exhausted;
+	private volatile boolean closed;
+	private long pages;
+	// Stream
+	private LinkedList<Message> buffer;
+	private int credits;
+	
+	ResultCursor(DSCore core, DSMessage first) {
+		this.core = core;
+		query = first;
+		exhausted = false;
+		closed = false;
+		pages = 0;
+		buffer = new LinkedList<Message>();
+		credits = 0;
+	}
+	
+	/**
+	 * Search for the next page and wait for its results, that is until the reply timeout
+	 * of the query elapses.
+	 * 
+	 * @return The results of the page, in order; empty if there are no more results.
+	 */
+	public synchronized Message[] nextPage() {
+		if (exhausted || closed)
+			return new Message[0];
+		Message[] page = core.searchPage(query);
+		pages++;
+		PagedQuery paged = (PagedQuery)query;
+		if ((page.length == 0) || (page.length < paged.getLimit()))
+			exhausted = true;
+		else
+			query = paged.nextPage(page[page.length - 1]);
+		return page;
+	}
+	
+	/**
+	 * Return <code>false</code> if the last page read was the last one.
+	 */
+	public synchronized boolean hasMore() {
+		return !exhausted && !closed;
+	}
+	
+	/**
+	 * Return the number of pages searched for.
+	 */
+	public synchronized long getPageCount() {
+		return pages;
+	}
+	
+	/**
+	 * Deliver the results to a listener, on a thread of the cursor. The listener receives
+	 * at most <code>credits</code> results, then it has to grant new credits through 
+	 * <code>request()</code> to receive the following ones.
+	 * 
+	 * @param listener The listener.
+	 * @param credits The initial credits.
+	 */
+	public void stream(final ResultListener listener, int credits) {
+		request(credits);
+		Thread streamer = new Thread() {
+			public void run() {
+				try {
+					while (true) {
+						Message result = take();
+						if (result == null)
+							break;
+						listener.result(result);
+					}
+				} catch (InterruptedException e) {
+					logger.warn("Stream of " + query + " interrupted", e);
+				}
+				listener.completed();
+			}
+		};
+		streamer.setDaemon(true);
+		streamer.start();
+	}
+	
+	/**
+	 * Grant credits to the listener of the stream.
+	 * 
+	 * @param credits The number of further results the listener can receive.
+	 */
+	public void request(int credits) {
+		synchronized(buffer) {
+			this.credits += credits;
+			buffer.notifyAll();
+		}
+	}
+	
+	/**
+	 * Stop the cursor: no more pages are searched for and the stream is completed.
+	 */
+	public void close() {
+		synchronized(buffer) {
+			closed = true;
+			buffer.notifyAll();
+		}
+	}
+	
+	/**
+	 * Wait for a credit and return the next result, searching for the next page if needed.
+	 * 
+	 * @return The result or <code>null</code> at the end of the results.
+	 */
+	private Message take() throws InterruptedException {
+		synchronized(buffer) {
+			while ((credits == 0) && !closed)
+				buffer.wait();
+			if (closed)
+				return null;
+			credits--;
+			if (!buffer.isEmpty())
+				return buffer.removeFirst();
+		}
+		// Only the stream thread searches, no lock held while waiting for the replies
+		Message[] page = nextPage();
+		logger.debug("Page " + pages + " of " + query + ": " + page.length + " results");
+		synchronized(buffer) {
+			for (Message result : page)
+				buffer.add(result);
+			return buffer.isEmpty() || closed ? null : buffer.removeFirst();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import polimi.reds.Message;
+
+/**
+ * This interface allow users to receive the results of a search as a stream 
+ * (see <code>ResultCursor.stream()</code>).
+ *  
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface ResultListener {
+	/**
+	 * Called for each result, in order, as long as the listener has credits.
+	 * 
+	 * @param result The result.
+	 */
+	public void result(Message result);
+	
+	/**
+	 * Called after the last result, or when the cursor is closed.
+	 */
+	public void completed();
+}
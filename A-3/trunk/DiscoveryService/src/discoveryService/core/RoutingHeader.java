@@ -0,0 +1,123 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import discoveryService.broker.Indexable;
+
+/**
+ * The attributes of a {@link DSMessage} needed by the brokers to route it: the type of the
+ * message, the sender node, the destination node, the index key and a few attributes
+ * matched by the filters. It travels in clear inside an {@link Envelope} while the rest of 
+ * the message is carried as bytes.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class RoutingHeader implements Serializable {
+	private static final long serialVersionUID = -5518364960946823147L;
+	private String[] types;
+	private String nodeName;
+	private String destination;
+	private String indexKind;
+	private String indexKey;
+	private HashMap<String, Serializable> attributes;
+	
+	/**
+	 * Create the header of a message with its type, its sender and, if the message is
+	 * {@link Indexable}, its index key.
+	 * 
+	 * @param msg The message.
+	 */
+	public RoutingHeader(DSMessage msg) {
+		ArrayList<String> names = new ArrayList<String>();
+		for (Class<?> c = msg.getClass(); (c != null) && DSMessage.class.isAssignableFrom(c); c = c.getSuperclass())
+			names.add(c.getName());
+		types = names.toArray(new String[0]);
+		nodeName = msg.getNodeName();
+		if (msg instanceof Indexable) {
+			indexKind = ((Indexable)msg).getIndexKind();
+			indexKey = ((Indexable)msg).getIndexKey();
+		}
+		attributes = null;
+	}
+	
+	/**
+	 * Check whether the message is an instance of the given class. Interfaces are not
+	 * considered.
+	 * 
+	 * @param messageClass A subclass of {@link DSMessage}.
+	 */
+	public boolean isA(Class<?> messageClass) {
+		String name = messageClass.getName();
+		for (String t : types)
+			if (t.equals(name))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Return the name of the class of the message.
+	 */
+	public String getTypeName() {
+		return types[0];
+	}
+	
+	public String getNodeName() {
+		return nodeName;
+	}
+	
+	public void setDestination(String destination) {
+		this.destination = destination;
+	}
+	
+	public String getDestination() {
+		return destination;
+	}
+	
+	public String getIndexKind() {
+		return indexKind;
+	}
+	
+	public String getIndexKey() {
+		return indexKey;
+	}
+	
+	/**
+	 * Add an attribute matched by the filters of the message.
+	 */
+	public void setAttribute(String name, Serializable value) {
+		if (attributes == null)
+			attributes = new HashMap<String, Serializable>();
+		attributes.put(name, value);
+	}
+	
+	public Serializable getAttribute(String name) {
+		return (attributes == null) ? null : attributes.get(name);
+	}
+	
+	public String toString() {
+		return "RoutingHeader[" + getTypeName() + "; from: " + nodeName + "; to: " + destination + 
+				"; key: " + indexKind + ":" + indexKey + ((attributes == null) ? "" : "; " + attributes) + "]";
+	}
+}
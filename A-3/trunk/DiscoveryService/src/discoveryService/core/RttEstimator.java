@@ -0,0 +1,141 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+import java.util.HashMap;
+
+/**
+ * Estimates the time within which the replies to a kind of request arrive, from the 
+ * round-trip times observed, as the retransmission timeout of TCP (RFC 6298):
+ * <pre>
+ * rttvar = 3/4 rttvar + 1/4 |srtt - rtt|
+ * srtt = 7/8 srtt + 1/8 rtt
+ * timeout = srtt + 4 rttvar
+ * </pre>
+ * The first sample sets <code>srtt = rtt</code> and <code>rttvar = rtt / 2</code>. When a 
+ * request gets no reply in time the timeout is doubled, until the next sample. The timeouts
+ * are bounded by a minimum and a maximum; before the first sample the maximum is used.
+ * <p>
+ * Requests are grouped by a key, e.g. the type of the message and its destination.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class RttEstimator {
+	private long minTimeout;
+	private long maxTimeout;
+	private HashMap<String, Estimate> estimates;
+	
+	/**
+	 * @param minTimeout Minimum timeout in milliseconds.
+	 * @param maxTimeout Maximum timeout in milliseconds, also used before the first sample.
+	 */
+	public RttEstimator(long minTimeout, long maxTimeout) {
+		this.minTimeout = minTimeout;
+		this.maxTimeout = Math.max(minTimeout, maxTimeout);
+		estimates = new HashMap<String, Estimate>();
+	}
+	
+	/**
+	 * Record the round-trip time of a request.
+	 * 
+	 * @param key The kind of the request.
+	 * @param rtt Time in milliseconds between the request and its reply.
+	 */
+	public synchronized void sample(String key, long rtt) {
+		Estimate e = estimates.get(key);
+		if (e == null) {
+			e = new Estimate();
+			estimates.put(key, e);
+		}
+		if (e.samples == 0) {
+			e.srtt = rtt;
+			e.rttvar = rtt / 2.0;
+		}
+		else {
+			e.rttvar = 0.75 * e.rttvar + 0.25 * Math.abs(e.srtt - rtt);
+			e.srtt = 0.875 * e.srtt + 0.125 * rtt;
+		}
+		e.samples++;
+		e.timeout = bound((long)Math.ceil(e.srtt + 4 * e.rttvar));
+	}
+	
+	/**
+	 * Record that a request got no reply within its timeout: the timeout is doubled.
+	 * 
+	 * @param key The kind of the request.
+	 */
+	public synchronized void timeout(String key) {
+		Estimate e = estimates.get(key);
+		if ((e != null) && (e.samples > 0))
+			e.timeout = bound(e.timeout * 2);
+	}
+	
+	/**
+	 * Return the time within which the replies to a kind of request are expected.
+	 * 
+	 * @param key The kind of the request.
+	 * @return Time in milliseconds.
+	 */
+	public synchronized long getTimeout(String key) {
+		Estimate e = estimates.get(key);
+		return ((e == null) || (e.samples == 0)) ? maxTimeout : e.timeout;
+	}
+	
+	/**
+	 * Return the smoothed round-trip time of a kind of request.
+	 * 
+	 * @return Time in milliseconds, or -1 if no sample has been recorded.
+	 */
+	public synchronized double getSmoothedRtt(String key) {
+		Estimate e = estimates.get(key);
+		return ((e == null) || (e.samples == 0)) ? -1 : e.srtt;
+	}
+	
+	/**
+	 * Return the variation of the round-trip time of a kind of request.
+	 * 
+	 * @return Time in milliseconds, or -1 if no sample has been recorded.
+	 */
+	public synchronized double getRttVariation(String key) {
+		Estimate e = estimates.get(key);
+		return ((e == null) || (e.samples == 0)) ? -1 : e.rttvar;
+	}
+	
+	/**
+	 * Return the number of round-trip times recorded for a kind of request.
+	 */
+	public synchronized long getSampleCount(String key) {
+		Estimate e = estimates.get(key);
+		return (e == null) ? 0 : e.samples;
+	}
+	
+	private long bound(long timeout) {
+		return Math.max(minTimeout, Math.min(maxTimeout, timeout));
+	}
+	
+	private static class Estimate {
+		private double srtt;
+		private double rttvar;
+		private long timeout;
+		private long samples;
+	}
+}
@@ -0,0 +1,47 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core;
+
+/**
+ * Listener of the failure detection of the engaged nodes, called when heartbeats are 
+ * enabled. The listener should be registered through <code>DSCore.registerSuspicionListener</code>.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface SuspicionListener {
+	/**
+	 * Called when the suspicion level of an engaged node rises above the threshold set in 
+	 * {@link DSConfiguration}. The method is called once: it is called again only after
+	 * the node has been trusted again.
+	 * 
+	 * @param nodeName The name of the suspected node.
+	 * @param phi The suspicion level computed by the {@link discoveryService.core.status.PhiAccrualFailureDetector}.
+	 */
+	public void suspect(String nodeName, double phi);
+	
+	/**
+	 * Called when the suspicion level of a suspected node falls below the threshold,
+	 * because its heartbeats arrive again.
+	 * 
+	 * @param nodeName The name of the node.
+	 */
+	public void trust(String nodeName);
+}
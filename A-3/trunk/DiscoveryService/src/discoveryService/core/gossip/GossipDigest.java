@@ -0,0 +1,102 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.gossip;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
+
+/**
+ * Compact summary of the status view of a node sent to a peer during a gossip round.
+ * For every node known by the sender the digest contains only the incarnation and 
+ * the version of the last {@link discoveryService.core.status.Status} received, and the
+ * last heartbeat of the node. The peer answers with a
+ * {@link GossipUpdate} containing the entries for which it holds a newer version.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class GossipDigest extends DSMessage {
+	private static final long serialVersionUID = 2290541785936120512L;
+	private String destination;
+	private HashMap<String, Version> versions;
+	
+	public GossipDigest(String destination, Map<String, Version> versions) {
+		super();
+		this.destination = destination;
+		this.versions = new HashMap<String, Version>(versions);
+	}
+	
+	public String getDestination() {
+		return destination;
+	}
+	
+	public void setDestination(String destination) {
+		this.destination = destination;
+	}
+	
+	public Map<String, Version> getVersions() {
+		return versions;
+	}
+	
+	public String toString() {
+		return nodeName + ": GossipDigest[" + destination + "; " + versions + "]";
+	}
+	
+	@Override
+	protected Priority getDefaultPriority() {
+		return Priority.CONTROL;
+	}
+	
+	/**
+	 * The incarnation and the version of the status of a node, and its heartbeat.
+	 */
+	public static class Version implements Serializable {
+		private static final long serialVersionUID = -4172203581126624391L;
+		private long incarnation;
+		private long version;
+		private long heartbeat;
+		
+		public Version(long incarnation, long version, long heartbeat) {
+			this.incarnation = incarnation;
+			this.version = version;
+			this.heartbeat = heartbeat;
+		}
+		
+		public long getIncarnation() {
+			return incarnation;
+		}
+		
+		public long getVersion() {
+			return version;
+		}
+		
+		public long getHeartbeat() {
+			return heartbeat;
+		}
+		
+		public String toString() {
+			return incarnation + "." + version + "/" + heartbeat;
+		}
+	}
+}
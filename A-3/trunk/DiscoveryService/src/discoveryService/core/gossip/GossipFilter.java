@@ -0,0 +1,68 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.gossip;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+
+/**
+ * Subscription filter used by a node running the gossip based status dissemination.
+ * It matches the {@link GossipDigest} and {@link GossipUpdate} messages addressed
+ * to the node passed to the constructor.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class GossipFilter implements Filter {
+	private static final long serialVersionUID = 7795028160314453245L;
+	private String destNode;
+	
+	public GossipFilter(String nodeName) {
+		destNode = nodeName;
+	}
+	
+	public String getDestinationNode() {
+		return destNode;
+	}
+	
+	@Override
+	public boolean matches(Message msg) {
+		if (msg instanceof GossipDigest)
+			return destNode.equals(((GossipDigest)msg).getDestination());
+		else if (msg instanceof GossipUpdate)
+			return destNode.equals(((GossipUpdate)msg).getDestination());
+		else
+			return false;
+	}
+	
+	public int hashCode() {
+		return "GossipFilter".concat(destNode).hashCode();
+	}
+	
+	public boolean equals(Object obj) {
+		if (!(obj instanceof GossipFilter))
+			return false;
+		return destNode.equals(((GossipFilter)obj).destNode);
+	}
+	
+	public String toString() {
+		return "GossipFilter[" + destNode + "]";
+	}
+}
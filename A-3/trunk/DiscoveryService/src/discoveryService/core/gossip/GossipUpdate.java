@@ -0,0 +1,81 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.gossip;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
+import discoveryService.core.status.Status;
+
+/**
+ * Answer to a {@link GossipDigest}. It carries the {@link Status} entries that the
+ * sender holds in a version newer than the one reported in the digest, and the 
+ * heartbeats of the nodes that are newer than the ones in the digest (for the nodes 
+ * whose status has not changed only the heartbeat is sent).
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class GossipUpdate extends DSMessage {
+	private static final long serialVersionUID = -4417216370945117823L;
+	private String destination;
+	private ArrayList<Status> entries;
+	private HashMap<String, GossipDigest.Version> heartbeats;
+	
+	public GossipUpdate(String destination, List<Status> entries, Map<String, GossipDigest.Version> heartbeats) {
+		super();
+		this.destination = destination;
+		this.entries = new ArrayList<Status>(entries);
+		this.heartbeats = new HashMap<String, GossipDigest.Version>(heartbeats);
+	}
+	
+	public String getDestination() {
+		return destination;
+	}
+	
+	public void setDestination(String destination) {
+		this.destination = destination;
+	}
+	
+	public List<Status> getEntries() {
+		return entries;
+	}
+	
+	/**
+	 * Return the incarnation, version and heartbeat of the nodes of the entries and of the
+	 * nodes whose heartbeat advanced.
+	 */
+	public Map<String, GossipDigest.Version> getHeartbeats() {
+		return heartbeats;
+	}
+	
+	public String toString() {
+		return nodeName + ": GossipUpdate[" + destination + "; " + entries + "; " + heartbeats + "]";
+	}
+	
+	@Override
+	protected Priority getDefaultPriority() {
+		return Priority.CONTROL;
+	}
+}
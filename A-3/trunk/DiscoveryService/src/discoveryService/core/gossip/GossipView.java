@@ -0,0 +1,248 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.gossip;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import discoveryService.core.status.Status;
+
+/**
+ * Local view of the status of the nodes built by the gossip based dissemination.
+ * For every node the view stores the most recent {@link Status} received so far
+ * (see {@link Status#isNewerThan(Status)}), so that a restarted node, whose versions
+ * start again from 0 in a new incarnation, replaces its old entries.
+ * <p>
+ * Besides its status, every node gossips a heartbeat counter that it increments in each 
+ * of its rounds. An entry whose heartbeat has not advanced for <code>expiryRounds</code> 
+ * rounds of the local node is expired: it is kept as a tombstone for as many rounds, 
+ * so that peers that have not expired it yet do not bring it back, and then forgotten.
+ * A heartbeat newer than the tombstone revives the entry. The digests and the peers 
+ * chosen by the gossiper are thus bounded by the nodes that are alive.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class GossipView {
+	private String owner;
+	private int expiryRounds;
+	private HashMap<String, Entry> entries;
+	// Rounds of the local node so far
+	private long round;
+	
+	/**
+	 * Create the view.
+	 * 
+	 * @param owner The name of the node owning the view; its entry never expires.
+	 * @param expiryRounds Number of rounds after which an entry whose heartbeat has not
+	 * advanced is expired; 0 to never expire entries.
+	 */
+	public GossipView(String owner, int expiryRounds) {
+		this.owner = owner;
+		this.expiryRounds = expiryRounds;
+		entries = new HashMap<String, Entry>();
+		round = 0;
+	}
+	
+	/**
+	 * Store the status of the local node. The local status is always accepted.
+	 * 
+	 * @param status The status of the node owning the view.
+	 */
+	public synchronized void put(Status status) {
+		Entry e = entries.get(status.getNodeName());
+		if (e == null)
+			entries.put(status.getNodeName(), new Entry(status, 0, round));
+		else
+			e.status = status;
+	}
+	
+	/**
+	 * Start a new round: increment the heartbeat of the local node and expire the entries
+	 * whose heartbeat has not advanced for too long.
+	 * 
+	 * @return The names of the nodes expired in this round.
+	 */
+	public synchronized List<String> nextRound() {
+		round++;
+		Entry local = entries.get(owner);
+		if (local != null) {
+			local.heartbeat++;
+			local.refreshed = round;
+		}
+		ArrayList<String> expired = new ArrayList<String>();
+		if (expiryRounds <= 0)
+			return expired;
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Entry> me = it.next();
+			Entry e = me.getValue();
+			if (me.getKey().equals(owner) || (round - e.refreshed <= expiryRounds))
+				continue;
+			if (e.dead)
+				it.remove();
+			else {
+				e.dead = true;
+				e.refreshed = round;
+				expired.add(me.getKey());
+			}
+		}
+		return expired;
+	}
+	
+	/**
+	 * Merge a status received from a peer. The heartbeat is recorded only if the status is
+	 * newer: otherwise it has to be recorded with <code>refresh()</code>.
+	 * 
+	 * @param status The status received.
+	 * @param heartbeat The heartbeat of the node of the status.
+	 * @return True if the status was newer than the one stored in the view.
+	 */
+	public synchronized boolean merge(Status status, long heartbeat) {
+		if ((status == null) || (status.getNodeName() == null) || status.getNodeName().equals(owner))
+			return false;
+		Entry e = entries.get(status.getNodeName());
+		if (e == null) {
+			entries.put(status.getNodeName(), new Entry(status, heartbeat, round));
+			return true;
+		}
+		if (status.isNewerThan(e.status)) {
+			// Only the node itself produces new versions: it is alive
+			boolean sameIncarnation = (status.getIncarnation() == e.status.getIncarnation());
+			e.status = status;
+			beat(e, sameIncarnation ? Math.max(e.heartbeat, heartbeat) : heartbeat);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Record the heartbeat of a node whose status has not changed.
+	 * 
+	 * @param nodeName The name of the node.
+	 * @param incarnation The incarnation the heartbeat belongs to.
+	 * @param heartbeat The heartbeat.
+	 * @return True if the heartbeat advanced.
+	 */
+	public synchronized boolean refresh(String nodeName, long incarnation, long heartbeat) {
+		Entry e = entries.get(nodeName);
+		if ((e == null) || nodeName.equals(owner) || (e.status.getIncarnation() != incarnation) || 
+				(heartbeat <= e.heartbeat))
+			return false;
+		beat(e, heartbeat);
+		return true;
+	}
+	
+	private void beat(Entry e, long heartbeat) {
+		e.heartbeat = heartbeat;
+		e.refreshed = round;
+		e.dead = false;
+	}
+	
+	/**
+	 * Return the status of a node, or <code>null</code> if the node is unknown or expired.
+	 */
+	public synchronized Status get(String nodeName) {
+		Entry e = entries.get(nodeName);
+		return ((e == null) || e.dead) ? null : e.status;
+	}
+	
+	/**
+	 * Return the names of the nodes known by the view and not expired.
+	 * 
+	 * @return A copy of the set of node names.
+	 */
+	public synchronized Set<String> getNodes() {
+		HashSet<String> nodes = new HashSet<String>();
+		for (Map.Entry<String, Entry> e : entries.entrySet())
+			if (!e.getValue().dead)
+				nodes.add(e.getKey());
+		return nodes;
+	}
+	
+	/**
+	 * Build the digest of the view: a map from the node name to the incarnation, the 
+	 * version and the heartbeat of its status. Tombstones are part of the digest, so
+	 * that peers do not send them back.
+	 * 
+	 * @return The digest of the view.
+	 */
+	public synchronized Map<String, GossipDigest.Version> digest() {
+		HashMap<String, GossipDigest.Version> digest = new HashMap<String, GossipDigest.Version>();
+		for (Entry e : entries.values())
+			digest.put(e.status.getNodeName(), e.version());
+		return digest;
+	}
+	
+	/**
+	 * Return the entries of the view that are newer than the ones described by the
+	 * digest of a peer (or that are unknown to the peer). Expired entries are not sent.
+	 * 
+	 * @param digest The digest received from the peer.
+	 * @param heartbeats Filled with the version of every node sent or whose heartbeat 
+	 * is newer than the one of the peer.
+	 * @return The list of statuses the peer should pull.
+	 */
+	public synchronized List<Status> newerThan(Map<String, GossipDigest.Version> digest, 
+												Map<String, GossipDigest.Version> heartbeats) {
+		ArrayList<Status> newer = new ArrayList<Status>();
+		for (Entry e : entries.values()) {
+			if (e.dead)
+				continue;
+			Status s = e.status;
+			GossipDigest.Version version = digest.get(s.getNodeName());
+			if ((version == null) || s.isNewerThan(version.getIncarnation(), version.getVersion())) {
+				newer.add(s);
+				heartbeats.put(s.getNodeName(), e.version());
+			}
+			else if ((s.getIncarnation() == version.getIncarnation()) && (e.heartbeat > version.getHeartbeat()))
+				heartbeats.put(s.getNodeName(), e.version());
+		}
+		return newer;
+	}
+	
+	/**
+	 * The state kept for a node.
+	 */
+	private static class Entry {
+		private Status status;
+		private long heartbeat;
+		// Round of the local node in which the heartbeat last advanced (or expired)
+		private long refreshed;
+		private boolean dead;
+		
+		public Entry(Status status, long heartbeat, long refreshed) {
+			this.status = status;
+			this.heartbeat = heartbeat;
+			this.refreshed = refreshed;
+			dead = false;
+		}
+		
+		public GossipDigest.Version version() {
+			return new GossipDigest.Version(status.getIncarnation(), status.getVersion(), heartbeat);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.gossip;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.DispatchingService;
+import discoveryService.core.status.Status;
+
+/**
+ * Epidemic dissemination of {@link Status} used as an alternative to the 
+ * publish/subscribe engagement.
+ * <p>
+ * Every <code>interval</code> milliseconds the gossiper picks <code>fanout</code> random 
+ * peers and sends each of them a {@link GossipDigest} of its {@link GossipView}. A 
+ * peer receiving the digest answers with a {@link GossipUpdate} holding only the 
+ * entries it knows in a newer version, so the sender pulls just what it is missing.
+ * The traffic generated by a node in a round is bounded by the fanout and does not
+ * depend on the number of nodes interested in its status.
+ * </p>
+ * Peers are the seed nodes given in the configuration, the nodes found in the view
+ * and the nodes that gossiped with this one or that are engaged. A peer is forgotten 
+ * when its entry of the view expires (see {@link GossipView}) or when it is removed,
+ * e.g. because it is no longer engaged; the seeds are never forgotten.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class StatusGossiper extends Thread {
+	private static Logger logger = Logger.getLogger(StatusGossiper.class);
+	private String nodeName;
+	private DispatchingService ds;
+	private GossipView view;
+	private int interval;
+	private int fanout;
+	private Set<String> peers;
+	private Set<String> seeds;
+	private volatile boolean stopped = false;
+	
+	public StatusGossiper(String nodeName, DispatchingService ds, GossipView view, int interval, int fanout) {
+		this.nodeName = nodeName;
+		this.ds = ds;
+		this.view = view;
+		this.interval = interval;
+		this.fanout = fanout;
+		peers = new HashSet<String>();
+		seeds = new HashSet<String>();
+		setDaemon(true);
+	}
+	
+	/**
+	 * Return the time in milliseconds between two gossip rounds.
+	 */
+	public int getInterval() {
+		return interval;
+	}
+	
+	/**
+	 * Add a seed: a peer that is never forgotten.
+	 * 
+	 * @param seed The name of the node.
+	 */
+	public void addSeed(String seed) {
+		if ((seed == null) || seed.equals(nodeName))
+			return;
+		synchronized(peers) {
+			seeds.add(seed);
+		}
+	}
+	
+	/**
+	 * Add a node to the set of peers the gossiper can choose from.
+	 * 
+	 * @param peer The name of the node.
+	 */
+	public void addPeer(String peer) {
+		if ((peer == null) || peer.equals(nodeName))
+			return;
+		synchronized(peers) {
+			peers.add(peer);
+		}
+	}
+	
+	/**
+	 * Remove a node from the set of peers. The node can still be chosen while its
+	 * entry of the view is alive.
+	 * 
+	 * @param peer The name of the node.
+	 */
+	public void removePeer(String peer) {
+		synchronized(peers) {
+			peers.remove(peer);
+		}
+	}
+	
+	/**
+	 * Perform a gossip round sending the digest of the view to <code>fanout</code>
+	 * random peers.
+	 */
+	public void gossipRound() {
+		List<String> expired = view.nextRound();
+		LinkedHashSet<String> candidates = new LinkedHashSet<String>(view.getNodes());
+		synchronized(peers) {
+			peers.removeAll(expired);
+			candidates.addAll(peers);
+			candidates.addAll(seeds);
+		}
+		candidates.remove(nodeName);
+		if (!expired.isEmpty())
+			logger.debug("[" + nodeName + "-GOSSIP]: expired " + expired);
+		ArrayList<String> targets = new ArrayList<String>(candidates);
+		Collections.shuffle(targets);
+		
+		int count = Math.min(fanout, targets.size());
+		if (count == 0)
+			return;
+		Map<String, GossipDigest.Version> versions = view.digest();
+		for (int i = 0; i < count; i++) {
+			GossipDigest digest = new GossipDigest(targets.get(i), versions);
+			digest.setNodeName(nodeName);
+			ds.publish(digest);
+		}
+	}
+	
+	/**
+	 * Answer to the digest of a peer sending back the entries it has to pull.
+	 * 
+	 * @param digest The digest received.
+	 */
+	public void onDigest(GossipDigest digest) {
+		addPeer(digest.getNodeName());
+		HashMap<String, GossipDigest.Version> heartbeats = new HashMap<String, GossipDigest.Version>();
+		List<Status> newer = view.newerThan(digest.getVersions(), heartbeats);
+		if (heartbeats.isEmpty())
+			return;
+		GossipUpdate update = new GossipUpdate(digest.getNodeName(), newer, heartbeats);
+		update.setNodeName(nodeName);
+		ds.publish(update);
+	}
+	
+	/**
+	 * Merge the entries and the heartbeats received from a peer into the view.
+	 * 
+	 * @param update The update received.
+	 * @param alive Filled with the names of the nodes whose status or heartbeat advanced.
+	 * @return The entries that were newer than the ones in the view.
+	 */
+	public List<Status> onUpdate(GossipUpdate update, Collection<String> alive) {
+		addPeer(update.getNodeName());
+		ArrayList<Status> merged = new ArrayList<Status>();
+		Map<String, GossipDigest.Version> heartbeats = update.getHeartbeats();
+		for (Status s : update.getEntries()) {
+			if (nodeName.equals(s.getNodeName()))
+				continue;
+			GossipDigest.Version version = heartbeats.get(s.getNodeName());
+			if (view.merge(s, (version != null) ? version.getHeartbeat() : 0)) {
+				addPeer(s.getNodeName());
+				merged.add(s);
+				alive.add(s.getNodeName());
+			}
+		}
+		for (Map.Entry<String, GossipDigest.Version> e : heartbeats.entrySet()) {
+			if (nodeName.equals(e.getKey()))
+				continue;
+			if (view.refresh(e.getKey(), e.getValue().getIncarnation(), e.getValue().getHeartbeat()))
+				alive.add(e.getKey());
+		}
+		return merged;
+	}
+	
+	public void run() {
+		while (!stopped) {
+			try {
+				sleep(interval);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				gossipRound();
+			} catch (RuntimeException e) {
+				logger.error("[" + nodeName + "-GOSSIP]: gossip round failed", e);
+			}
+		}
+	}
+	
+	public void stopGossip() {
+		stopped = true;
+		interrupt();
+	}
+}
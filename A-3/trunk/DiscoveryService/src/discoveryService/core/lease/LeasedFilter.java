@@ -0,0 +1,103 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.lease;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+
+/**
+ * Subscription filter valid for a limited time (lease).
+ * <p>
+ * A <code>LeasedFilter</code> wraps the template filter of a publication and carries 
+ * the time to live of the subscription. A broker using a {@link discoveryService.broker.LeaseSubscriptionTable}
+ * removes the subscription by itself when the time to live expires, so that the
+ * subscriptions of nodes that vanished do not stay in the tables forever.
+ * </p>
+ * The owner of the publication renews the lease before it expires by subscribing a
+ * new generation of the filter and unsubscribing the previous one. Two leased filters
+ * are equal only if they have the same lease identifier and generation.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class LeasedFilter implements Filter {
+	private static final long serialVersionUID = -2607334521748105466L;
+	private Filter template;
+	private String leaseID;
+	private int generation;
+	private long ttl;
+	
+	public LeasedFilter(Filter template, String leaseID, int generation, long ttl) {
+		this.template = template;
+		this.leaseID = leaseID;
+		this.generation = generation;
+		this.ttl = ttl;
+	}
+	
+	public Filter getTemplate() {
+		return template;
+	}
+	
+	public String getLeaseID() {
+		return leaseID;
+	}
+	
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Return the time to live of the subscription.
+	 * 
+	 * @return Time in milliseconds starting from the reception of the subscription.
+	 */
+	public long getTTL() {
+		return ttl;
+	}
+	
+	/**
+	 * Build the filter used to renew the lease.
+	 * 
+	 * @return A new generation of the filter with the same template and time to live.
+	 */
+	public LeasedFilter renew() {
+		return new LeasedFilter(template, leaseID, generation + 1, ttl);
+	}
+	
+	@Override
+	public boolean matches(Message msg) {
+		return template.matches(msg);
+	}
+	
+	public int hashCode() {
+		return leaseID.hashCode() * 31 + generation;
+	}
+	
+	public boolean equals(Object obj) {
+		if (!(obj instanceof LeasedFilter))
+			return false;
+		LeasedFilter lf = (LeasedFilter)obj;
+		return leaseID.equals(lf.leaseID) && (generation == lf.generation);
+	}
+	
+	public String toString() {
+		return "LeasedFilter[" + leaseID + "/" + generation + "; ttl: " + ttl + "; " + template + "]";
+	}
+}
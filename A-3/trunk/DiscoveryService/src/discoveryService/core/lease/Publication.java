@@ -0,0 +1,167 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.lease;
+
+import polimi.reds.Filter;
+import discoveryService.core.DSCore;
+import discoveryService.core.DSMessage;
+
+/**
+ * Handle of an item published through <code>DSCore.publish()</code>.
+ * <p>
+ * While the publication is active the owning {@link DSCore} renews its lease in
+ * background. Calling <code>withdraw()</code> removes the subscription of the template
+ * from the brokers and stops the renewals. If the owner dies the renewals stop as
+ * well and the brokers expire the subscription when the time to live elapses.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class Publication {
+	private DSCore core;
+	private String id;
+	private DSMessage item;
+	private long version;
+	private Filter filter;
+	private long ttl;
+	private long renewAt;
+	private volatile boolean withdrawn;
+	
+	public Publication(DSCore core, String id, DSMessage item, Filter filter, long ttl) {
+		this.core = core;
+		this.id = id;
+		this.item = item;
+		this.filter = filter;
+		this.ttl = ttl;
+		withdrawn = false;
+		scheduleRenewal(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Return the identifier of the publication, unique in the service. If the publication
+	 * is leased it is also the identifier of the lease.
+	 */
+	public String getID() {
+		return id;
+	}
+	
+	public synchronized DSMessage getItem() {
+		return item;
+	}
+	
+	/**
+	 * Return the version of the item, incremented each time it is replaced.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Replace the published item. Used by {@link DSCore}.
+	 * 
+	 * @param item The new item.
+	 * @return The item previously published.
+	 */
+	public synchronized DSMessage replaceItem(DSMessage item) {
+		DSMessage previous = this.item;
+		this.item = item;
+		version++;
+		return previous;
+	}
+	
+	/**
+	 * Return the filter currently subscribed for the publication. If the publication
+	 * is leased it is an instance of {@link LeasedFilter}.
+	 * 
+	 * @return The subscribed filter.
+	 */
+	public synchronized Filter getFilter() {
+		return filter;
+	}
+	
+	/**
+	 * Return the template of the publication, without the lease.
+	 */
+	public synchronized Filter getTemplate() {
+		if (filter instanceof LeasedFilter)
+			return ((LeasedFilter)filter).getTemplate();
+		return filter;
+	}
+	
+	/**
+	 * Return the time to live of the lease.
+	 * 
+	 * @return Time in milliseconds, 0 if the publication is not leased.
+	 */
+	public long getTTL() {
+		return ttl;
+	}
+	
+	public boolean isWithdrawn() {
+		return withdrawn;
+	}
+	
+	/**
+	 * Withdraw the publication from the service.
+	 */
+	public void withdraw() {
+		core.withdraw(this);
+	}
+	
+	/**
+	 * Return the time at which the lease has to be renewed.
+	 * 
+	 * @return Time in milliseconds or <code>Long.MAX_VALUE</code> if the publication is not leased.
+	 */
+	public synchronized long getRenewalTime() {
+		return renewAt;
+	}
+	
+	/**
+	 * Replace the subscribed filter with a renewed one. Used by {@link DSCore}.
+	 * 
+	 * @param renewed The new filter.
+	 * @param now Time of the renewal in milliseconds.
+	 * @return The filter previously subscribed.
+	 */
+	public synchronized Filter renewed(Filter renewed, long now) {
+		Filter old = filter;
+		filter = renewed;
+		scheduleRenewal(now);
+		return old;
+	}
+	
+	/**
+	 * Mark the publication as withdrawn. Used by {@link DSCore}.
+	 */
+	public void markWithdrawn() {
+		withdrawn = true;
+	}
+	
+	private void scheduleRenewal(long now) {
+		// Renew when half of the lease has elapsed to tolerate a lost or late renewal
+		renewAt = (ttl > 0) ? now + ttl / 2 : Long.MAX_VALUE;
+	}
+	
+	public String toString() {
+		return "Publication[" + id + "; " + item + "; " + filter + "]";
+	}
+}
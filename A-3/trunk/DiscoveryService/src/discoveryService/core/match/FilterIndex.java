@@ -0,0 +1,63 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.match;
+
+import java.util.Collection;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+
+/**
+ * Index of a set of filters of the same type, returning the filters matching a message 
+ * without testing them one by one. Indexes are created through {@link FilterIndexes}.
+ * <p>
+ * The filters are added once: the caller keeps track of the duplicates (e.g. the same 
+ * subscription made by many neighbors) and removes the instances it added.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface FilterIndex {
+	/**
+	 * Add a filter to the index.
+	 * 
+	 * @return <code>false</code> if the filter cannot be indexed, in which case the
+	 * caller has to match it by itself.
+	 */
+	public boolean add(Filter filter);
+	
+	/**
+	 * Remove a filter previously added.
+	 */
+	public void remove(Filter filter);
+	
+	/**
+	 * Return the filters of the index matching a message.
+	 * 
+	 * @return The filters, as they have been added; empty if none matches.
+	 */
+	public Collection<Filter> matches(Message msg);
+	
+	/**
+	 * Return the number of filters in the index.
+	 */
+	public int size();
+}
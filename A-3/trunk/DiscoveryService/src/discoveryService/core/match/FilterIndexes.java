@@ -0,0 +1,52 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.match;
+
+import java.util.Hashtable;
+
+import polimi.reds.Filter;
+
+/**
+ * Registry of the {@link FilterIndexFactory}s of the filter types, usually filled by a 
+ * static initializer of the filter types themselves.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class FilterIndexes {
+	private static Hashtable<Class<?>, FilterIndexFactory> factories = new Hashtable<Class<?>, FilterIndexFactory>();
+	
+	/**
+	 * Register the factory of the indexes of a type of filters.
+	 */
+	public static void register(Class<? extends Filter> type, FilterIndexFactory factory) {
+		factories.put(type, factory);
+	}
+	
+	/**
+	 * Create an index for a type of filters.
+	 * 
+	 * @return The index or <code>null</code> if no factory is registered for exactly that type.
+	 */
+	public static FilterIndex create(Class<?> type) {
+		FilterIndexFactory factory = factories.get(type);
+		return (factory == null) ? null : factory.createIndex();
+	}
+}
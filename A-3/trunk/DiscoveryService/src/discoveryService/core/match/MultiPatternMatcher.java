@@ -0,0 +1,563 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.match;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a string against a set of regular expressions in a single pass, with the
+ * semantics of <code>Matcher.find()</code>.
+ * <p>
+ * The literals of the patterns are compiled into an Aho-Corasick automaton:
+ * <ul>
+ * <li>a pattern that is a literal, possibly anchored with <code>^</code> and <code>$</code>
+ * or quoted with <code>\Q...\E</code>, is decided by the automaton alone;</li>
+ * <li>a pattern containing a literal required by every match (e.g. <code>proc.*</code>) is
+ * evaluated only if the automaton finds the literal in the string;</li>
+ * <li>the other patterns (alternations, inline flags, no literal) are always evaluated.</li>
+ * </ul>
+ * So the cost of matching depends on the length of the string and on the patterns that
+ * may match it, rather than on the number of patterns.
+ * </p>
+ * <p>
+ * Matching takes no lock: it reads an immutable snapshot of the automaton, published when
+ * the patterns change, and works on scratch arrays of the calling thread. Changing the
+ * patterns does not rebuild the automaton. A pattern whose literal is already in the
+ * automaton (e.g. a subscription renewed with the same template) only updates the patterns
+ * of that literal. A pattern with a new literal is evaluated directly until the next build,
+ * and a literal left without patterns stays in the automaton. The thread changing the
+ * patterns rebuilds the automaton once enough new or unused literals have accumulated.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class MultiPatternMatcher {
+	private final static int LITERAL = 0;
+	private final static int PREFILTERED = 1;
+	private final static int UNFILTERED = 2;
+	// Where a literal has been found
+	private final static int FOUND = 1;
+	private final static int AT_START = 2;
+	private final static int AT_END = 4;
+	private final static int WHOLE = 8;
+	private final static String META = "\\[](){}.*+?^$|";
+	// New literals out of the automaton that trigger a build
+	private final static int MAX_PENDING = 16;
+	// Literals of the automaton without patterns that trigger a build, besides a half of them
+	private final static int MAX_UNUSED = 64;
+	private final static Entry[] NO_ENTRIES = new Entry[0];
+	private final static Literal[] NO_LITERALS = new Literal[0];
+	
+	private HashMap<Integer, Entry> patterns;
+	private HashMap<String, Literal> literals;
+	private int unused;
+	private volatile State state;
+	private ThreadLocal<Scratch> scratch;
+	
+	public MultiPatternMatcher() {
+		patterns = new HashMap<Integer, Entry>();
+		literals = new HashMap<String, Literal>();
+		unused = 0;
+		state = build(NO_LITERALS, NO_LITERALS, NO_ENTRIES);
+		scratch = new ThreadLocal<Scratch>() {
+			protected Scratch initialValue() {
+				return new Scratch();
+			}
+		};
+	}
+	
+	/**
+	 * Add a pattern, replacing the one with the same identifier.
+	 * 
+	 * @param id Identifier of the pattern.
+	 * @param regex The regular expression.
+	 * @throws java.util.regex.PatternSyntaxException If the expression is not valid.
+	 */
+	public synchronized void add(int id, String regex) {
+		Entry entry = analyse(id, regex);
+		remove(id);
+		patterns.put(id, entry);
+		State s = state;
+		if (entry.kind == UNFILTERED) {
+			state = new State(s, s.pending, append(s.unfiltered, entry));
+			return;
+		}
+		Literal literal = literals.get(entry.literal);
+		if (literal == null) {
+			literal = new Literal(entry.literal);
+			literal.entries = new Entry[] { entry };
+			literals.put(entry.literal, literal);
+			state = new State(s, append(s.pending, literal), s.unfiltered);
+			if (state.pending.length > MAX_PENDING)
+				rebuild();
+			return;
+		}
+		if (literal.built && (literal.entries.length == 0))
+			unused--;
+		literal.entries = append(literal.entries, entry);
+	}
+	
+	/**
+	 * Remove a pattern.
+	 * 
+	 * @param id Identifier of the pattern.
+	 */
+	public synchronized void remove(int id) {
+		Entry entry = patterns.remove(id);
+		if (entry == null)
+			return;
+		State s = state;
+		if (entry.kind == UNFILTERED) {
+			state = new State(s, s.pending, without(s.unfiltered, entry));
+			return;
+		}
+		Literal literal = literals.get(entry.literal);
+		literal.entries = without(literal.entries, entry);
+		if (literal.entries.length > 0)
+			return;
+		if (!literal.built) {
+			literals.remove(literal.text);
+			state = new State(s, without(s.pending, literal), s.unfiltered);
+		}
+		else if (++unused > MAX_UNUSED + s.literalTable.length / 2)
+			rebuild();
+	}
+	
+	public synchronized int size() {
+		return patterns.size();
+	}
+	
+	/**
+	 * Return the identifiers of the patterns found in a string.
+	 * 
+	 * @param text The string.
+	 * @return The identifiers of the matching patterns.
+	 */
+	public BitSet match(String text) {
+		State s = state;
+		BitSet result = new BitSet();
+		Scratch scr = scratch.get();
+		int[] found = scr.found(s.literalTable.length);
+		int[] touched = scr.touched;
+		int touchedCount = 0;
+		int n = text.length();
+		int st = 0;
+		for (int i = 0; i < n; i++) {
+			char c = text.charAt(i);
+			int next;
+			while (((next = s.next(st, c)) < 0) && (st != 0))
+				st = s.fail[st];
+			st = (next < 0) ? 0 : next;
+			for (int l : s.outputs[st]) {
+				int start = i - s.literalTable[l].text.length() + 1;
+				if (found[l] == 0)
+					touched[touchedCount++] = l;
+				found[l] |= FOUND;
+				if (start == 0)
+					found[l] |= AT_START;
+				if (i == n - 1)
+					found[l] |= AT_END;
+				if ((start == 0) && (i == n - 1))
+					found[l] |= WHOLE;
+			}
+		}
+		// $ also matches before a final line terminator
+		boolean terminated = (n > 0) && ("\n\r\u0085\u2028\u2029".indexOf(text.charAt(n - 1)) >= 0);
+		for (int t = 0; t < touchedCount; t++) {
+			int flags = found[touched[t]];
+			// Only the literals found are cleared for the next match of the thread
+			found[touched[t]] = 0;
+			for (Entry entry : s.literalTable[touched[t]].entries) {
+				boolean matches;
+				if ((entry.kind == LITERAL) && !(entry.end && terminated)) {
+					int required = (entry.start && entry.end) ? WHOLE : entry.start ? AT_START : entry.end ? AT_END : FOUND;
+					matches = (flags & required) != 0;
+				}
+				else
+					matches = entry.pattern.matcher(text).find();
+				if (matches)
+					result.set(entry.id);
+			}
+		}
+		for (Literal literal : s.pending)
+			for (Entry entry : literal.entries)
+				if (entry.pattern.matcher(text).find())
+					result.set(entry.id);
+		for (Entry entry : s.unfiltered)
+			if (entry.pattern.matcher(text).find())
+				result.set(entry.id);
+		return result;
+	}
+	
+	/**
+	 * Build the automaton of the literals with patterns and publish it.
+	 */
+	private void rebuild() {
+		Iterator<Literal> it = literals.values().iterator();
+		while (it.hasNext())
+			if (it.next().entries.length == 0)
+				it.remove();
+		Literal[] table = literals.values().toArray(new Literal[0]);
+		for (Literal literal : table)
+			literal.built = true;
+		unused = 0;
+		state = build(table, NO_LITERALS, state.unfiltered);
+	}
+	
+	/**
+	 * Build the automaton of the given literals.
+	 */
+	private static State build(Literal[] literalTable, Literal[] pending, Entry[] unfiltered) {
+		ArrayList<HashMap<Character, Integer>> trie = new ArrayList<HashMap<Character, Integer>>();
+		ArrayList<ArrayList<Integer>> ends = new ArrayList<ArrayList<Integer>>();
+		trie.add(new HashMap<Character, Integer>());
+		ends.add(new ArrayList<Integer>());
+		for (int l = 0; l < literalTable.length; l++) {
+			int state = 0;
+			for (char c : literalTable[l].text.toCharArray()) {
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.add(new HashMap<Character, Integer>());
+					ends.add(new ArrayList<Integer>());
+					trie.get(state).put(c, next);
+				}
+				state = next;
+			}
+			ends.get(state).add(l);
+		}
+		
+		int states = trie.size();
+		char[][] edgeChars = new char[states][];
+		int[][] edgeTargets = new int[states][];
+		int[] fail = new int[states];
+		int[][] outputs = new int[states][];
+		State built = new State(literalTable, edgeChars, edgeTargets, fail, outputs, pending, unfiltered);
+		for (int s = 0; s < states; s++) {
+			Character[] chars = trie.get(s).keySet().toArray(new Character[0]);
+			Arrays.sort(chars);
+			edgeChars[s] = new char[chars.length];
+			edgeTargets[s] = new int[chars.length];
+			for (int i = 0; i < chars.length; i++) {
+				edgeChars[s][i] = chars[i];
+				edgeTargets[s][i] = trie.get(s).get(chars[i]);
+			}
+		}
+		
+		// Failure links in breadth first order, merging the outputs of the suffixes
+		outputs[0] = toArray(ends.get(0));
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int target : edgeTargets[0]) {
+			fail[target] = 0;
+			queue.add(target);
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.removeFirst();
+			ArrayList<Integer> out = ends.get(s);
+			for (int l : outputs[fail[s]])
+				out.add(l);
+			outputs[s] = toArray(out);
+			for (int i = 0; i < edgeChars[s].length; i++) {
+				char c = edgeChars[s][i];
+				int target = edgeTargets[s][i];
+				int f = fail[s];
+				int next;
+				while (((next = built.next(f, c)) < 0) && (f != 0))
+					f = fail[f];
+				fail[target] = ((next < 0) || (next == target)) ? 0 : next;
+				queue.add(target);
+			}
+		}
+		return built;
+	}
+	
+	private static Entry[] append(Entry[] array, Entry entry) {
+		Entry[] copy = Arrays.copyOf(array, array.length + 1);
+		copy[array.length] = entry;
+		return copy;
+	}
+	
+	private static Literal[] append(Literal[] array, Literal literal) {
+		Literal[] copy = Arrays.copyOf(array, array.length + 1);
+		copy[array.length] = literal;
+		return copy;
+	}
+	
+	private static Entry[] without(Entry[] array, Entry entry) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == entry) {
+				Entry[] copy = new Entry[array.length - 1];
+				System.arraycopy(array, 0, copy, 0, i);
+				System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+				return copy;
+			}
+		}
+		return array;
+	}
+	
+	private static Literal[] without(Literal[] array, Literal literal) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == literal) {
+				Literal[] copy = new Literal[array.length - 1];
+				System.arraycopy(array, 0, copy, 0, i);
+				System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+				return copy;
+			}
+		}
+		return array;
+	}
+	
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	/**
+	 * Classify a pattern and find its literal.
+	 */
+	private static Entry analyse(int id, String regex) {
+		Entry entry = new Entry(id, Pattern.compile(regex));
+		String body = regex;
+		if (body.startsWith("^")) {
+			entry.start = true;
+			body = body.substring(1);
+		}
+		if (body.endsWith("$") && !isEscaped(body, body.length() - 1)) {
+			entry.end = true;
+			body = body.substring(0, body.length() - 1);
+		}
+		String literal = literalOf(body);
+		if ((literal != null) && (literal.length() > 0)) {
+			entry.kind = LITERAL;
+			entry.literal = literal;
+			return entry;
+		}
+		entry.start = false;
+		entry.end = false;
+		literal = requiredLiteral(regex);
+		if ((literal != null) && (literal.length() > 0)) {
+			entry.kind = PREFILTERED;
+			entry.literal = literal;
+		}
+		else
+			entry.kind = UNFILTERED;
+		return entry;
+	}
+	
+	private static boolean isEscaped(String s, int index) {
+		int backslashes = 0;
+		for (int i = index - 1; (i >= 0) && (s.charAt(i) == '\\'); i--)
+			backslashes++;
+		return (backslashes % 2) == 1;
+	}
+	
+	/**
+	 * Return the string matched by an expression made only of literal characters.
+	 * 
+	 * @return The string or <code>null</code> if the expression is not a literal.
+	 */
+	private static String literalOf(String body) {
+		if (body.startsWith("\\Q")) {
+			int end = body.indexOf("\\E");
+			if (end < 0)
+				return body.substring(2);
+			return (end == body.length() - 2) ? body.substring(2, end) : null;
+		}
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < body.length(); i++) {
+			char c = body.charAt(i);
+			if (c == '\\') {
+				if ((i + 1 == body.length()) || Character.isLetterOrDigit(body.charAt(i + 1)))
+					return null;
+				literal.append(body.charAt(++i));
+			}
+			else if (META.indexOf(c) >= 0)
+				return null;
+			else
+				literal.append(c);
+		}
+		return literal.toString();
+	}
+	
+	/**
+	 * Return the longest sequence of characters that every match of an expression contains:
+	 * consecutive literal characters outside of groups and classes, not made optional by a 
+	 * quantifier.
+	 * 
+	 * @return The literal or <code>null</code> if it cannot be determined safely.
+	 */
+	private static String requiredLiteral(String regex) {
+		if ((regex.indexOf('|') >= 0) || regex.contains("(?") || regex.contains("\\Q"))
+			return null;
+		String best = "";
+		StringBuilder current = new StringBuilder();
+		int depth = 0;
+		boolean inClass = false;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (inClass) {
+				if (c == '\\')
+					i++;
+				else if (c == ']')
+					inClass = false;
+				i++;
+				continue;
+			}
+			char literal;
+			if (c == '\\') {
+				if ((i + 1 == regex.length()) || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					best = longest(best, current);
+					i += 2;
+					continue;
+				}
+				literal = regex.charAt(i + 1);
+				i += 2;
+			}
+			else if (META.indexOf(c) >= 0) {
+				best = longest(best, current);
+				if (c == '[')
+					inClass = true;
+				else if (c == '(')
+					depth++;
+				else if (c == ')')
+					depth--;
+				else if (c == '{') {
+					while ((i < regex.length()) && (regex.charAt(i) != '}'))
+						i++;
+				}
+				i++;
+				continue;
+			}
+			else {
+				literal = c;
+				i++;
+			}
+			char quantifier = (i < regex.length()) ? regex.charAt(i) : 0;
+			if ((depth > 0) || (quantifier == '?') || (quantifier == '*') || (quantifier == '{'))
+				best = longest(best, current);
+			else {
+				current.append(literal);
+				if (quantifier == '+')
+					best = longest(best, current);
+			}
+		}
+		return longest(best, current);
+	}
+	
+	private static String longest(String best, StringBuilder current) {
+		String candidate = current.toString();
+		current.setLength(0);
+		return (candidate.length() > best.length()) ? candidate : best;
+	}
+	
+	private static class Entry {
+		private int id;
+		private Pattern pattern;
+		private int kind;
+		private String literal;
+		private boolean start;
+		private boolean end;
+		
+		public Entry(int id, Pattern pattern) {
+			this.id = id;
+			this.pattern = pattern;
+		}
+	}
+	
+	private static class Literal {
+		private String text;
+		// Replaced as a whole, so that the matching threads read it without locking
+		private volatile Entry[] entries;
+		// Whether the literal is in the automaton
+		private boolean built;
+		
+		public Literal(String text) {
+			this.text = text;
+			entries = NO_ENTRIES;
+			built = false;
+		}
+	}
+	
+	/**
+	 * Immutable snapshot read by the matching threads: the automaton (sorted transitions,
+	 * failure links and literals recognized by each state), the literals not yet in the
+	 * automaton and the patterns without literal.
+	 */
+	private static class State {
+		private final Literal[] literalTable;
+		private final char[][] edgeChars;
+		private final int[][] edgeTargets;
+		private final int[] fail;
+		private final int[][] outputs;
+		private final Literal[] pending;
+		private final Entry[] unfiltered;
+		
+		public State(Literal[] literalTable, char[][] edgeChars, int[][] edgeTargets, int[] fail,
+						int[][] outputs, Literal[] pending, Entry[] unfiltered) {
+			this.literalTable = literalTable;
+			this.edgeChars = edgeChars;
+			this.edgeTargets = edgeTargets;
+			this.fail = fail;
+			this.outputs = outputs;
+			this.pending = pending;
+			this.unfiltered = unfiltered;
+		}
+		
+		/**
+		 * Share the automaton of another snapshot.
+		 */
+		public State(State automaton, Literal[] pending, Entry[] unfiltered) {
+			this(automaton.literalTable, automaton.edgeChars, automaton.edgeTargets, automaton.fail,
+					automaton.outputs, pending, unfiltered);
+		}
+		
+		private int next(int state, char c) {
+			int i = Arrays.binarySearch(edgeChars[state], c);
+			return (i < 0) ? -1 : edgeTargets[state][i];
+		}
+	}
+	
+	/**
+	 * Scratch arrays of a matching thread: the flags of the literals are all 0 between two
+	 * matches.
+	 */
+	private static class Scratch {
+		private int[] found = new int[0];
+		private int[] touched = new int[0];
+		
+		public int[] found(int literals) {
+			if (found.length < literals) {
+				found = new int[literals];
+				touched = new int[literals];
+			}
+			return found;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.pipeline;
+
+import polimi.reds.DispatchingService;
+
+/**
+ * A {@link DispatchingService} able to coalesce the data sent by a thread and to write it
+ * to the broker at once.
+ * <p>
+ * After <code>beginBatch()</code> the operations invoked by the calling thread 
+ * (<code>publish</code>, <code>reply</code>, <code>subscribe</code>, ...) are buffered until 
+ * <code>flushBatch()</code> is called; operations invoked by other threads are not affected.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface BatchingDispatchingService extends DispatchingService {
+	/**
+	 * Start buffering the data sent by the calling thread.
+	 */
+	public void beginBatch();
+	
+	/**
+	 * Send the data buffered since <code>beginBatch()</code> and stop buffering.
+	 */
+	public void flushBatch();
+}
@@ -0,0 +1,253 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.MessageID;
+
+/**
+ * Preallocated ring buffer of the outbound operations of a node, written by many producer
+ * threads and drained by a single consumer thread.
+ * <p>
+ * A producer claims a sequence number with an atomic increment, fills the entry in the 
+ * corresponding slot and marks the slot as published with that sequence. When the ring 
+ * is full the producer waits until the consumer releases the oldest entries (backpressure). 
+ * The consumer reads the contiguous published entries, processes them in place and 
+ * releases them; no object is allocated for an operation.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class OutboundRing {
+	public final static int SUBSCRIBE = 1;
+	public final static int UNSUBSCRIBE = 2;
+	public final static int UNSUBSCRIBE_ALL = 3;
+	public final static int PUBLISH = 4;
+	public final static int REPLY = 5;
+	
+	private final static long MAX_PARK_NANOS = 1000000;
+	
+	/**
+	 * A slot of the ring.
+	 */
+	public static class Entry {
+		private int type;
+		private Message message;
+		private Filter filter;
+		private MessageID repliableMessageID;
+		private long[] fence;
+		
+		public int getType() {
+			return type;
+		}
+		
+		public Message getMessage() {
+			return message;
+		}
+		
+		public Filter getFilter() {
+			return filter;
+		}
+		
+		public MessageID getRepliableMessageID() {
+			return repliableMessageID;
+		}
+		
+		/**
+		 * Return the operations that must be dispatched before this one, for an operation
+		 * ordered with respect to other rings.
+		 * 
+		 * @return The sequence numbers claimed in each ring when the operation was added,
+		 * or <code>null</code>.
+		 */
+		public long[] getFence() {
+			return fence;
+		}
+		
+		private void clear() {
+			message = null;
+			filter = null;
+			repliableMessageID = null;
+			fence = null;
+		}
+	}
+	
+	private final Entry[] entries;
+	private final int mask;
+	private final AtomicLongArray published;
+	private final AtomicLong claimed;
+	private volatile long released;
+	private volatile Thread consumer;
+	private volatile boolean consumerWaiting;
+	private final AtomicLong fullWaits;
+	
+	/**
+	 * Create the ring.
+	 * 
+	 * @param size Number of slots, rounded up to a power of two.
+	 */
+	public OutboundRing(int size) {
+		int capacity = 1;
+		while (capacity < size)
+			capacity <<= 1;
+		entries = new Entry[capacity];
+		published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			entries[i] = new Entry();
+			published.set(i, -1);
+		}
+		mask = capacity - 1;
+		claimed = new AtomicLong(0);
+		released = -1;
+		fullWaits = new AtomicLong(0);
+	}
+	
+	public int getCapacity() {
+		return entries.length;
+	}
+	
+	/**
+	 * Add an operation, waiting for a free slot if the ring is full.
+	 * 
+	 * @return The sequence number of the operation.
+	 */
+	public long put(int type, Message message, Filter filter, MessageID repliableMessageID) {
+		return put(type, message, filter, repliableMessageID, null);
+	}
+	
+	/**
+	 * Add an operation, waiting for a free slot if the ring is full.
+	 * 
+	 * @param fence The operations of other rings that must be dispatched before this one
+	 * (see <code>Entry.getFence()</code>), <code>null</code> if the operation is not ordered.
+	 * @return The sequence number of the operation.
+	 */
+	public long put(int type, Message message, Filter filter, MessageID repliableMessageID, long[] fence) {
+		long seq = claimed.getAndIncrement();
+		// The claimed slot must be published even if the thread is interrupted,
+		// otherwise the consumer would stop at it
+		boolean interrupted = false;
+		if (seq - entries.length > released) {
+			fullWaits.incrementAndGet();
+			int spins = 0;
+			while (seq - entries.length > released) {
+				if (spins++ < 100)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(50000);
+				if (Thread.interrupted())
+					interrupted = true;
+			}
+		}
+		int index = (int)(seq & mask);
+		Entry e = entries[index];
+		e.type = type;
+		e.message = message;
+		e.filter = filter;
+		e.repliableMessageID = repliableMessageID;
+		e.fence = fence;
+		published.set(index, seq);
+		if (consumerWaiting)
+			LockSupport.unpark(consumer);
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return seq;
+	}
+	
+	/**
+	 * Return the number of contiguous operations ready to be consumed, at most <code>max</code>.
+	 * To be called by the consumer thread only.
+	 */
+	public int available(int max) {
+		long first = released + 1;
+		int n = 0;
+		while ((n < max) && (published.get((int)((first + n) & mask)) == first + n))
+			n++;
+		return n;
+	}
+	
+	/**
+	 * Return the i-th operation ready to be consumed (0 is the oldest one).
+	 * To be called by the consumer thread only.
+	 */
+	public Entry get(int i) {
+		return entries[(int)((released + 1 + i) & mask)];
+	}
+	
+	/**
+	 * Release the <code>n</code> oldest operations, making their slots available to the producers.
+	 * To be called by the consumer thread only.
+	 */
+	public void release(int n) {
+		for (int i = 0; i < n; i++)
+			get(i).clear();
+		released = released + n;
+	}
+	
+	/**
+	 * Ask the producers to unpark the consumer thread when they add an operation.
+	 * A consumer calls <code>beginWait()</code> on each of the rings it serves, checks 
+	 * that no operation is available and parks.
+	 * To be called by the consumer thread only.
+	 */
+	public void beginWait() {
+		consumer = Thread.currentThread();
+		consumerWaiting = true;
+	}
+	
+	public void endWait() {
+		consumerWaiting = false;
+	}
+	
+	/**
+	 * Return the longest time in nanoseconds a consumer should park before checking 
+	 * the ring again.
+	 */
+	public static long getMaxParkNanos() {
+		return MAX_PARK_NANOS;
+	}
+	
+	/**
+	 * Return the sequence number of the last released operation (-1 if none).
+	 */
+	public long getReleased() {
+		return released;
+	}
+	
+	/**
+	 * Return the sequence number that will be assigned to the next operation.
+	 */
+	public long getClaimed() {
+		return claimed.get();
+	}
+	
+	/**
+	 * Return how many times a producer found the ring full.
+	 */
+	public long getFullWaits() {
+		return fullWaits.get();
+	}
+}
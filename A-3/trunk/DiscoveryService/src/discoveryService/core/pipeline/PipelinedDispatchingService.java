@@ -0,0 +1,465 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.pipeline;
+
+import java.net.ConnectException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.DispatchingService;
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.MessageID;
+import polimi.reds.Replies;
+import polimi.reds.TimeoutException;
+import discoveryService.core.Priority;
+
+/**
+ * {@link DispatchingService} that moves the outbound operations of a node off the calling threads.
+ * <p>
+ * <code>publish</code>, <code>reply</code>, <code>subscribe</code> and <code>unsubscribe</code> 
+ * only add the operation to an {@link OutboundRing}; a single writer thread drains the ring in
+ * order and invokes the wrapped dispatching service, so that application threads never contend 
+ * for the connection with the broker. When the wrapped service is a {@link BatchingDispatchingService}
+ * the operations drained together are written with a single flush.
+ * </p>
+ * <p>
+ * Each {@link Priority} class has its own ring. The writer composes every batch giving 
+ * each class a share proportional to its weight (the unused share goes to the other classes)
+ * and dispatches the operations of the batch from the highest priority to the lowest one.
+ * Subscription changes are <code>CONTROL</code> operations, messages have the priority of 
+ * their type. The order of the operations is preserved within each class. A subscription 
+ * change is never reordered with respect to the other classes: it records the operations 
+ * enqueued before it (its fence), which are dispatched first, and the operations enqueued 
+ * after it wait for it.
+ * </p>
+ * <p>
+ * The flush policy is controlled by two parameters: the writer flushes as soon as 
+ * <code>batchSize</code> operations are drained or, with fewer operations, when 
+ * <code>flushLatency</code> microseconds have elapsed since the first of them was seen 
+ * (0 means flushing as soon as the rings are empty); <code>CONTROL</code> operations are
+ * never delayed to fill a batch. When a ring is full its producers wait. 
+ * </p>
+ * <p>
+ * The methods waiting for the replies to a message first wait until the operations enqueued 
+ * before the call have been dispatched, so a search followed by <code>getAllReplies()</code> 
+ * behaves as with the wrapped service.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class PipelinedDispatchingService implements DispatchingService {
+	private static Logger logger = Logger.getLogger(PipelinedDispatchingService.class);
+	private DispatchingService ds;
+	private OutboundRing[] rings;
+	private int[] quotas;
+	private int batchSize;
+	private long flushLatency;
+	private Writer writer;
+	private Object dispatched;
+	private Object fences;
+	
+	/**
+	 * Create the pipeline.
+	 * 
+	 * @param ds The wrapped dispatching service.
+	 * @param ringSize Number of operations that can be pending.
+	 * @param batchSize Maximum number of operations written with a single flush.
+	 * @param flushLatency Maximum time in microseconds an operation waits for a batch to fill.
+	 */
+	public PipelinedDispatchingService(DispatchingService ds, int ringSize, int batchSize, long flushLatency) {
+		this(ds, ringSize, batchSize, flushLatency, Priority.DEFAULT_WEIGHTS);
+	}
+	
+	/**
+	 * Create the pipeline.
+	 * 
+	 * @param ds The wrapped dispatching service.
+	 * @param ringSize Number of operations of each priority class that can be pending.
+	 * @param batchSize Maximum number of operations written with a single flush.
+	 * @param flushLatency Maximum time in microseconds an operation waits for a batch to fill.
+	 * @param weights The weights of the priority classes, indexed by ordinal.
+	 */
+	public PipelinedDispatchingService(DispatchingService ds, int ringSize, int batchSize, long flushLatency, 
+																						int[] weights) {
+		this.ds = ds;
+		Priority[] priorities = Priority.values();
+		rings = new OutboundRing[priorities.length];
+		for (int i = 0; i < rings.length; i++)
+			rings[i] = new OutboundRing(ringSize);
+		this.batchSize = Math.max(1, Math.min(batchSize, rings[0].getCapacity()));
+		
+		int total = 0;
+		for (int i = 0; i < rings.length; i++)
+			total += getWeight(weights, i);
+		quotas = new int[rings.length];
+		for (int i = 0; i < rings.length; i++)
+			quotas[i] = Math.max(1, (this.batchSize * getWeight(weights, i)) / total);
+		
+		this.flushLatency = flushLatency;
+		dispatched = new Object();
+		fences = new Object();
+	}
+	
+	private static int getWeight(int[] weights, int i) {
+		return ((weights != null) && (i < weights.length)) ? Math.max(1, weights[i]) : 1;
+	}
+	
+	/**
+	 * Return the wrapped dispatching service.
+	 */
+	public DispatchingService getDispatchingService() {
+		return ds;
+	}
+	
+	/**
+	 * Return the ring of the pending operations of the given priority class.
+	 */
+	public OutboundRing getRing(Priority priority) {
+		return rings[priority.ordinal()];
+	}
+	
+	@Override
+	public void open() throws ConnectException {
+		ds.open();
+		writer = new Writer();
+		writer.start();
+	}
+	
+	/**
+	 * Dispatch the pending operations and close the wrapped service.
+	 */
+	@Override
+	public void close() {
+		if (writer != null) {
+			writer.stopWriter();
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		ds.close();
+	}
+	
+	@Override
+	public boolean isOpened() {
+		return ds.isOpened();
+	}
+	
+	@Override
+	public void subscribe(Filter filter) {
+		putOrdered(OutboundRing.SUBSCRIBE, filter);
+	}
+	
+	@Override
+	public void unsubscribe(Filter filter) {
+		putOrdered(OutboundRing.UNSUBSCRIBE, filter);
+	}
+	
+	@Override
+	public void unsubscribeAll() {
+		putOrdered(OutboundRing.UNSUBSCRIBE_ALL, null);
+	}
+	
+	/**
+	 * Add a subscription change with the fence of the operations enqueued before it. The
+	 * changes are added one at a time, so that their fences never decrease.
+	 */
+	private void putOrdered(int type, Filter filter) {
+		synchronized(fences) {
+			long[] fence = new long[rings.length];
+			for (int i = 0; i < rings.length; i++)
+				fence[i] = rings[i].getClaimed();
+			getRing(Priority.CONTROL).put(type, null, filter, null, fence);
+		}
+	}
+	
+	@Override
+	public void publish(Message msg) {
+		getRing(Priority.of(msg)).put(OutboundRing.PUBLISH, msg, null, null);
+	}
+	
+	@Override
+	public void reply(Message reply, MessageID repliableMessageID) {
+		getRing(Priority.of(reply)).put(OutboundRing.REPLY, reply, null, repliableMessageID);
+	}
+	
+	@Override
+	public Message getNextMessage() {
+		return ds.getNextMessage();
+	}
+	
+	@Override
+	public Message getNextMessage(long timeout) {
+		return ds.getNextMessage(timeout);
+	}
+	
+	@Override
+	public boolean hasMoreMessages() {
+		return ds.hasMoreMessages();
+	}
+	
+	@Override
+	public Message getNextReply() {
+		return ds.getNextReply();
+	}
+	
+	@Override
+	public Message getNextReply(long timeout) {
+		return ds.getNextReply(timeout);
+	}
+	
+	@Override
+	public Message getNextReply(MessageID id) throws TimeoutException {
+		awaitDispatched();
+		return ds.getNextReply(id);
+	}
+	
+	@Override
+	public Replies getAllReplies(MessageID id) {
+		awaitDispatched();
+		return ds.getAllReplies(id);
+	}
+	
+	@Override
+	public boolean hasMoreReplies() {
+		return ds.hasMoreReplies();
+	}
+	
+	@Override
+	public boolean hasMoreReplies(MessageID id) {
+		awaitDispatched();
+		return ds.hasMoreReplies(id);
+	}
+	
+	/**
+	 * Wait until the operations enqueued before the call have been dispatched.
+	 */
+	public void awaitDispatched() {
+		long[] last = new long[rings.length];
+		for (int i = 0; i < rings.length; i++)
+			last[i] = rings[i].getClaimed() - 1;
+		synchronized(dispatched) {
+			for (int i = 0; i < rings.length; i++) {
+				while ((rings[i].getReleased() < last[i]) && (writer != null) && writer.isAlive()) {
+					try {
+						dispatched.wait(10);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	private void dispatch(OutboundRing.Entry e) {
+		try {
+			switch (e.getType()) {
+			case OutboundRing.SUBSCRIBE:
+				ds.subscribe(e.getFilter());
+				break;
+			case OutboundRing.UNSUBSCRIBE:
+				ds.unsubscribe(e.getFilter());
+				break;
+			case OutboundRing.UNSUBSCRIBE_ALL:
+				ds.unsubscribeAll();
+				break;
+			case OutboundRing.PUBLISH:
+				ds.publish(e.getMessage());
+				break;
+			case OutboundRing.REPLY:
+				ds.reply(e.getMessage(), e.getRepliableMessageID());
+				break;
+			}
+		} catch (RuntimeException ex) {
+			logger.error("Unable to dispatch operation " + e.getType(), ex);
+		}
+	}
+	
+	/**
+	 * The single thread writing to the wrapped dispatching service.
+	 */
+	private class Writer extends Thread {
+		private volatile boolean stopped = false;
+		
+		public Writer() {
+			super("DSCore-Writer");
+			setDaemon(true);
+		}
+		
+		private int[] counts = new int[rings.length];
+		private int[] done = new int[rings.length];
+		
+		public void run() {
+			boolean batching = ds instanceof BatchingDispatchingService;
+			int control = Priority.CONTROL.ordinal();
+			while (true) {
+				int n = compose();
+				if (n == 0) {
+					if (stopped)
+						break;
+					park(Long.MAX_VALUE);
+					continue;
+				}
+				if ((n < batchSize) && (counts[control] == 0) && (flushLatency > 0) && !stopped) {
+					long deadline = System.nanoTime() + flushLatency * 1000;
+					long left;
+					while (((n = compose()) < batchSize) && (counts[control] == 0) && 
+							((left = deadline - System.nanoTime()) > 0))
+						park(left);
+				}
+				
+				if (applyFences() == 0) {
+					// The operations before a fence are still being added by their producers
+					park(OutboundRing.getMaxParkNanos());
+					continue;
+				}
+				
+				if (batching)
+					((BatchingDispatchingService)ds).beginBatch();
+				for (int r = 0; r < rings.length; r++)
+					done[r] = 0;
+				for (int i = 0; i < counts[control]; i++) {
+					OutboundRing.Entry e = rings[control].get(i);
+					if (e.getFence() != null) {
+						for (int r = 0; r < rings.length; r++) {
+							if (r == control)
+								continue;
+							for (int before = Math.min(ahead(r, e.getFence()), counts[r]); done[r] < before; done[r]++)
+								dispatch(rings[r].get(done[r]));
+						}
+					}
+					dispatch(e);
+				}
+				done[control] = counts[control];
+				for (int r = 0; r < rings.length; r++)
+					for (; done[r] < counts[r]; done[r]++)
+						dispatch(rings[r].get(done[r]));
+				if (batching)
+					((BatchingDispatchingService)ds).flushBatch();
+				
+				for (int r = 0; r < rings.length; r++)
+					rings[r].release(counts[r]);
+				synchronized(dispatched) {
+					dispatched.notifyAll();
+				}
+			}
+		}
+		
+		/**
+		 * Choose how many operations of each class are part of the next batch: first 
+		 * each class gets up to its quota, then the remaining capacity is assigned in 
+		 * priority order.
+		 * 
+		 * @return The size of the batch.
+		 */
+		private int compose() {
+			int n = 0;
+			for (int r = 0; r < rings.length; r++) {
+				counts[r] = rings[r].available(quotas[r]);
+				n += counts[r];
+			}
+			for (int r = 0; (r < rings.length) && (n < batchSize); r++) {
+				if (counts[r] < quotas[r])
+					continue;
+				int more = rings[r].available(counts[r] + batchSize - n) - counts[r];
+				counts[r] += more;
+				n += more;
+			}
+			return n;
+		}
+		
+		/**
+		 * Adjust the batch to the fences of the subscription changes: the operations before
+		 * the fence of a change in the batch are added to it, and the operations after the 
+		 * fence of the first change left out of the batch are removed from it.
+		 * 
+		 * @return The size of the batch.
+		 */
+		private int applyFences() {
+			int control = Priority.CONTROL.ordinal();
+			OutboundRing ring = rings[control];
+			for (int i = 0; i < counts[control]; i++) {
+				long[] fence = ring.get(i).getFence();
+				if (fence == null)
+					continue;
+				boolean ready = true;
+				for (int r = 0; r < rings.length; r++) {
+					int before = ahead(r, fence);
+					if ((r != control) && (before > counts[r])) {
+						counts[r] = rings[r].available(before);
+						ready = ready && (counts[r] == before);
+					}
+				}
+				if (!ready) {
+					counts[control] = i;
+					break;
+				}
+			}
+			int pending = ring.available(ring.getCapacity());
+			for (int i = counts[control]; i < pending; i++) {
+				long[] fence = ring.get(i).getFence();
+				if (fence == null)
+					continue;
+				for (int r = 0; r < rings.length; r++)
+					if (r != control)
+						counts[r] = Math.min(counts[r], ahead(r, fence));
+				break;
+			}
+			int n = 0;
+			for (int r = 0; r < rings.length; r++)
+				n += counts[r];
+			return n;
+		}
+		
+		/**
+		 * Return the number of operations of a ring, not dispatched yet, that precede a fence.
+		 */
+		private int ahead(int r, long[] fence) {
+			return (int)Math.max(0, fence[r] - (rings[r].getReleased() + 1));
+		}
+		
+		/**
+		 * Park until an operation is added to any ring or the given time elapses.
+		 */
+		private void park(long nanos) {
+			for (OutboundRing ring : rings)
+				ring.beginWait();
+			boolean idle = true;
+			for (OutboundRing ring : rings)
+				if (ring.available(1) > 0)
+					idle = false;
+			// With pending operations the writer is waiting for a batch to fill
+			if (idle || (nanos != Long.MAX_VALUE))
+				LockSupport.parkNanos(Math.min(nanos, OutboundRing.getMaxParkNanos()));
+			for (OutboundRing ring : rings)
+				ring.endWait();
+		}
+		
+		public void stopWriter() {
+			stopped = true;
+			// Not interrupted: an interrupt would close the channels of the wrapped service
+			LockSupport.unpark(this);
+		}
+	}
+}
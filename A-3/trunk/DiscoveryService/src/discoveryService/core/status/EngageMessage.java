@@ -20,7 +20,9 @@
 package discoveryService.core.status;
 
 import polimi.reds.Repliable;
+import discoveryService.broker.Indexable;
 import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
 
 /**
  * This class implements the message used by a node in the service to engage
@@ -43,8 +45,12 @@ import discoveryService.core.DSMessage;
  * @author leleplx@gmail.com (emanuele)
  *
  */
-public class EngageMessage extends DSMessage implements Repliable {
+public class EngageMessage extends DSMessage implements Repliable, Indexable {
 	private static final long serialVersionUID = 5360422068966862615L;
+	/**
+	 * Kind of the index keys of the engage messages and of their filters.
+	 */
+	public final static String INDEX_KIND = "engage";
 	private StatusFilter filter;
 	
 	public EngageMessage(StatusFilter filter) {
@@ -63,4 +69,20 @@ public class EngageMessage extends DSMessage implements Repliable {
 	public String toString() {
 		return nodeName + ": EngageMessage[" + filter.toString() + "]";
 	}
+	
+	public String getIndexKind() {
+		return INDEX_KIND;
+	}
+	
+	/**
+	 * The index key is the name of the node to engage, if the status filter requires one.
+	 */
+	public String getIndexKey() {
+		return (filter == null) ? null : filter.getStatus().getNodeName();
+	}
+	
+	@Override
+	protected Priority getDefaultPriority() {
+		return Priority.CONTROL;
+	}
 }
@@ -21,6 +21,8 @@ package discoveryService.core.status;
 
 import polimi.reds.Filter;
 import polimi.reds.Message;
+import discoveryService.broker.Indexable;
+import discoveryService.core.CoveringFilter;
 
 /**
  * Subscription filter used by a node to notify to Discovery Service that it 
@@ -33,13 +35,17 @@ import polimi.reds.Message;
  * of the method is in charge of verifying that the message is an instance
  * of {@link EngageMessage} and if so it extracts the {@link StatusFilter}
  * instance to perform an invocation of the method 
- * <code>StatusFilter.matches(Message msg). The argument passed to the method is
+ * <code>StatusFilter.matchesNode(Message msg). The argument passed to the method is
  * the instance of {@link Status} registered with the <code>EngageMessageFilter</code>.
+ * 
+ * Only the node name and the address are matched by the brokers: they do not change
+ * with the status, so the node subscribes the filter once. The predicate of the 
+ * <code>StatusFilter</code> is evaluated by the node on its current status.
  *  
  * @author leleplx@gmail.com (emanuele)
  *
  */
-public class EngageMessageFilter implements Filter {
+public class EngageMessageFilter implements CoveringFilter, Indexable {
 	private static final long serialVersionUID = -1845875821187009553L;
 	private Status status;
 	
@@ -72,10 +78,50 @@ public class EngageMessageFilter implements Filter {
 			return false;
 		else {
 			EngageMessage em = (EngageMessage)msg;
-			return em.getStatusFilter().matches(status);
+			return em.getStatusFilter().matchesNode(status);
 		}
 	}
 	
+	public String getIndexKind() {
+		return EngageMessage.INDEX_KIND;
+	}
+	
+	public String getIndexKey() {
+		return getNodeName();
+	}
+	
+	/**
+	 * Each node subscribes a single filter: a filter covers only an equal one.
+	 */
+	public boolean covers(Filter filter) {
+		return equals(filter);
+	}
+	
+	/**
+	 * Each node subscribes a single filter: it is never generalized.
+	 */
+	public CoveringFilter generalize() {
+		return this;
+	}
+	
+	private static boolean equal(String a, String b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+	
+	public int hashCode() {
+		return ("EngageMessageFilter" + getNodeName() + getAddress()).hashCode();
+	}
+	
+	/**
+	 * Two filters are equal if they are registered by the same node.
+	 */
+	public boolean equals(Object obj) {
+		if (!(obj instanceof EngageMessageFilter))
+			return false;
+		EngageMessageFilter other = (EngageMessageFilter)obj;
+		return equal(getNodeName(), other.getNodeName()) && equal(getAddress(), other.getAddress());
+	}
+	
 	public String toString() {
 		return "EngageMessageFilter[" + status.toString() + "]";
 	}
@@ -0,0 +1,179 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.status;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring buffer of the most recent values of a numeric attribute of the status of a node,
+ * with the time they were received.
+ * <p>
+ * The values are kept in arrays of longs allocated once, and the trends (moving average, 
+ * rate of change) are computed on them without allocating. Readers never lock: they read 
+ * a sequence number before and after copying the values and retry if a writer has
+ * recorded a value in the meanwhile. The values, like the sequence number, are read and
+ * written with volatile semantics (<code>AtomicLongArray</code>), so that the Java memory
+ * model does not let the reads of the values move outside of the two reads of the sequence.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class MetricHistory {
+	// The bits of the double values
+	private final AtomicLongArray values;
+	private final AtomicLongArray times;
+	private volatile int count;
+	private volatile int next;
+	// Odd while a value is being recorded
+	private volatile long sequence;
+	
+	/**
+	 * Create an empty history.
+	 * 
+	 * @param capacity Number of values kept.
+	 */
+	public MetricHistory(int capacity) {
+		values = new AtomicLongArray(Math.max(capacity, 1));
+		times = new AtomicLongArray(values.length());
+		count = 0;
+		next = 0;
+		sequence = 0;
+	}
+	
+	/**
+	 * Record a value, replacing the oldest one if the history is full.
+	 * 
+	 * @param value The value.
+	 * @param time The time it was received, in milliseconds.
+	 */
+	public synchronized void record(double value, long time) {
+		sequence++;
+		values.set(next, Double.doubleToRawLongBits(value));
+		times.set(next, time);
+		next = (next + 1) % values.length();
+		if (count < values.length())
+			count++;
+		sequence++;
+	}
+	
+	/**
+	 * Return the number of values kept.
+	 */
+	public int getCapacity() {
+		return values.length();
+	}
+	
+	/**
+	 * Return the number of values recorded, up to the capacity.
+	 */
+	public int size() {
+		while (true) {
+			long seq = sequence;
+			int size = count;
+			if (((seq & 1) == 0) && (seq == sequence))
+				return size;
+		}
+	}
+	
+	/**
+	 * Return the last value recorded.
+	 * 
+	 * @return The value or <code>NaN</code> if the history is empty.
+	 */
+	public double last() {
+		return average(1);
+	}
+	
+	/**
+	 * Return the average of the last values recorded.
+	 * 
+	 * @param samples Maximum number of values averaged.
+	 * @return The average or <code>NaN</code> if the history is empty.
+	 */
+	public double average(int samples) {
+		while (true) {
+			long seq = sequence;
+			if ((seq & 1) != 0)
+				continue;
+			int n = Math.min(samples, count);
+			int last = next;
+			double sum = 0;
+			for (int i = 1; i <= n; i++)
+				sum += value(last - i);
+			if (seq == sequence)
+				return (n > 0) ? sum / n : Double.NaN;
+		}
+	}
+	
+	/**
+	 * Return the rate of change of the values over the whole history, that is the 
+	 * difference between the last and the oldest value divided by the time elapsed.
+	 * 
+	 * @return The change per second, or <code>NaN</code> if less than two values have been 
+	 * recorded at different times.
+	 */
+	public double rate() {
+		while (true) {
+			long seq = sequence;
+			if ((seq & 1) != 0)
+				continue;
+			double rate = Double.NaN;
+			int n = count;
+			if (n >= 2) {
+				int last = next;
+				long elapsed = times.get(index(last - 1)) - times.get(index(last - n));
+				if (elapsed > 0)
+					rate = (value(last - 1) - value(last - n)) * 1000.0 / elapsed;
+			}
+			if (seq == sequence)
+				return rate;
+		}
+	}
+	
+	/**
+	 * Copy the values, from the oldest to the last one, in the given array.
+	 * 
+	 * @param dest The array receiving the values; if it is shorter than the history, 
+	 * only the last values are copied.
+	 * @return The number of values copied.
+	 */
+	public int copy(double[] dest) {
+		while (true) {
+			long seq = sequence;
+			if ((seq & 1) != 0)
+				continue;
+			int n = Math.min(dest.length, count);
+			int last = next;
+			for (int i = 0; i < n; i++)
+				dest[i] = value(last - n + i);
+			if (seq == sequence)
+				return n;
+		}
+	}
+	
+	private double value(int i) {
+		return Double.longBitsToDouble(values.get(index(i)));
+	}
+	
+	private int index(int i) {
+		return (i + values.length()) % values.length();
+	}
+}
@@ -0,0 +1,126 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.status;
+
+/**
+ * Accrual failure detector (Hayashibara et al., "The phi accrual failure detector").
+ * <p>
+ * Instead of a boolean suspected/trusted answer the detector gives a suspicion level
+ * <code>phi</code> computed from the distribution of the inter-arrival times of the 
+ * heartbeats observed so far. A value of <code>phi</code> means that the probability of
+ * being wrong when suspecting the node is about <code>10^(-phi)</code>. Since the detector 
+ * adapts to the observed arrival times, a node whose heartbeats are slow or jittery is 
+ * not suspected as fast as a node with regular heartbeats.
+ * </p>
+ * The distribution is estimated as a normal distribution over a sliding window of the
+ * last inter-arrival times. The window is seeded with the expected heartbeat interval 
+ * so that the detector gives sensible values before collecting real samples.
+ *  
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class PhiAccrualFailureDetector {
+	private long[] intervals;
+	private int count;
+	private int next;
+	private double sum;
+	private double sumOfSquares;
+	private long lastHeartbeat;
+	private double minStdDeviation;
+	private long acceptablePause;
+	
+	/**
+	 * Create a failure detector.
+	 * 
+	 * @param windowSize Number of inter-arrival times used to estimate the distribution.
+	 * @param expectedInterval Expected time in milliseconds between two heartbeats.
+	 * @param acceptablePause Time in milliseconds added to the mean of the distribution
+	 * to tolerate pauses (e.g. garbage collection) without growing the suspicion level.
+	 */
+	public PhiAccrualFailureDetector(int windowSize, long expectedInterval, long acceptablePause) {
+		intervals = new long[Math.max(windowSize, 2)];
+		count = 0;
+		next = 0;
+		sum = 0;
+		sumOfSquares = 0;
+		lastHeartbeat = -1;
+		minStdDeviation = Math.max(expectedInterval / 10.0, 1.0);
+		this.acceptablePause = acceptablePause;
+		add(expectedInterval - expectedInterval / 4);
+		add(expectedInterval + expectedInterval / 4);
+	}
+	
+	/**
+	 * Record the arrival of a heartbeat.
+	 * 
+	 * @param now Arrival time in milliseconds.
+	 */
+	public synchronized void heartbeat(long now) {
+		if (lastHeartbeat >= 0)
+			add(now - lastHeartbeat);
+		lastHeartbeat = now;
+	}
+	
+	/**
+	 * Compute the suspicion level at the given time.
+	 * 
+	 * @param now Time in milliseconds.
+	 * @return The value of phi. It is 0 if no heartbeat has been received yet.
+	 */
+	public synchronized double phi(long now) {
+		if (lastHeartbeat < 0)
+			return 0.0;
+		double mean = sum / count;
+		double variance = (sumOfSquares / count) - (mean * mean);
+		double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0.0)), minStdDeviation);
+		double elapsed = now - lastHeartbeat;
+		
+		// Logistic approximation of the cumulative distribution function of the normal distribution
+		double y = (elapsed - (mean + acceptablePause)) / stdDeviation;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (elapsed > mean + acceptablePause)
+			return -Math.log10(e / (1.0 + e));
+		else
+			return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+	
+	/**
+	 * Return the time of the last heartbeat received.
+	 * 
+	 * @return Time in milliseconds or -1 if no heartbeat has been received.
+	 */
+	public synchronized long getLastHeartbeat() {
+		return lastHeartbeat;
+	}
+	
+	private void add(long interval) {
+		if (count == intervals.length) {
+			long old = intervals[next];
+			sum -= old;
+			sumOfSquares -= (double)old * old;
+		}
+		else
+			count++;
+		intervals[next] = interval;
+		next = (next + 1) % intervals.length;
+		sum += interval;
+		sumOfSquares += (double)interval * interval;
+	}
+}
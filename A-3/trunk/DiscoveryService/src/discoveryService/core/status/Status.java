@@ -19,7 +19,14 @@
 
 package discoveryService.core.status;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import discoveryService.broker.Indexable;
 import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
+import discoveryService.core.RoutingHeader;
 
 /**
  * Provide an abstraction for the internal status of the node.
@@ -28,14 +35,35 @@ import discoveryService.core.DSMessage;
  * - address: the IP address of the node
  * - status: a reference to a generic object that can be used by the
  *           user to store other relevant information.
+ * 
+ * Every status carries also a version number that is incremented by the owner
+ * node each time it notifies a change, and the incarnation of the owner node, that
+ * is the time it was started. A restarted node counts its versions again from 0: the
+ * pair (incarnation, version) is used to decide which of two instances of the status 
+ * of the same node is the most recent one.
  *            
  * @author leleplx@gmail.com (emanuele)
  *
  */
-public class Status extends DSMessage {
+public class Status extends DSMessage implements Indexable {
 	private static final long serialVersionUID = 3675942301627310972L;
+	/**
+	 * Kind of the index keys of the status updates and of the status filters.
+	 */
+	public final static String INDEX_KIND = "status";
+	/**
+	 * Attribute of the routing header with the address of the node.
+	 */
+	public final static String ADDRESS = "address";
+	/**
+	 * Attribute of the routing header with the typed attributes of the status.
+	 */
+	public final static String ATTRIBUTES = "attributes";
 	private String address;
 	private Object status;
+	private long incarnation;
+	private long version;
+	private HashMap<String, Object> attributes;
 	
 	public Status(String nodeName, String address, Object status) {
 		this.nodeName = nodeName;
@@ -49,6 +77,19 @@ public class Status extends DSMessage {
 		status = null;
 	}
 	
+	/**
+	 * Create a copy of a status. The status object is shared, the attributes are copied.
+	 */
+	public Status(Status status) {
+		this.nodeName = status.nodeName;
+		this.address = status.address;
+		this.status = status.status;
+		this.incarnation = status.incarnation;
+		this.version = status.version;
+		if (status.attributes != null)
+			this.attributes = new HashMap<String, Object>(status.attributes);
+	}
+	
 	public void setAddress(String address) {
 		this.address = address;
 	}
@@ -65,8 +106,126 @@ public class Status extends DSMessage {
 		return status;
 	}
 	
+	public void setIncarnation(long incarnation) {
+		this.incarnation = incarnation;
+	}
+	
+	public long getIncarnation() {
+		return incarnation;
+	}
+	
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Tell whether this status is more recent than another status of the same node.
+	 * 
+	 * @param other The other status, or <code>null</code>.
+	 * @return <code>true</code> if <code>other</code> is <code>null</code>, belongs to an older
+	 * incarnation of the node or has a lower version in the same incarnation.
+	 */
+	public boolean isNewerThan(Status other) {
+		return (other == null) || isNewerThan(other.incarnation, other.version);
+	}
+	
+	/**
+	 * Tell whether this status is more recent than the given incarnation and version.
+	 */
+	public boolean isNewerThan(long incarnation, long version) {
+		if (this.incarnation != incarnation)
+			return this.incarnation > incarnation;
+		return this.version > version;
+	}
+	
+	/**
+	 * Set a numeric attribute of the status (e.g. the load of the node), that can be 
+	 * used by the {@link StatusPredicate} of a {@link StatusFilter}.
+	 * 
+	 * @param name The name of the attribute.
+	 * @param value The value.
+	 */
+	public void setAttribute(String name, double value) {
+		putAttribute(name, Double.valueOf(value));
+	}
+	
+	/**
+	 * Set a string attribute of the status (e.g. the quality of service offered by the node).
+	 * 
+	 * @param name The name of the attribute.
+	 * @param value The value; <code>null</code> to remove the attribute.
+	 */
+	public void setAttribute(String name, String value) {
+		if (value == null)
+			removeAttribute(name);
+		else
+			putAttribute(name, value);
+	}
+	
+	public void removeAttribute(String name) {
+		if (attributes != null)
+			attributes.remove(name);
+	}
+	
+	/**
+	 * Return an attribute of the status.
+	 * 
+	 * @return A <code>Double</code>, a <code>String</code> or <code>null</code> if the status 
+	 * does not have the attribute.
+	 */
+	public Object getAttribute(String name) {
+		return (attributes == null) ? null : attributes.get(name);
+	}
+	
+	/**
+	 * Return the attributes of the status, by name.
+	 */
+	public Map<String, Object> getAttributes() {
+		if (attributes == null)
+			return Collections.emptyMap();
+		return Collections.unmodifiableMap(attributes);
+	}
+	
+	private void putAttribute(String name, Object value) {
+		if (attributes == null)
+			attributes = new HashMap<String, Object>();
+		attributes.put(name, value);
+	}
+	
 	public String toString() {
-		return "Status:["+nodeName+"; " + address + "; " + status + "]";
+		return "Status:["+nodeName+"; " + address + "; " + status + ((attributes == null) ? "" : "; " + attributes) + "]";
+	}
+	
+	public String getIndexKind() {
+		return INDEX_KIND;
+	}
+	
+	/**
+	 * The index key is the name of the node.
+	 */
+	public String getIndexKey() {
+		return nodeName;
+	}
+	
+	/**
+	 * The brokers route the status on the name, the address and the attributes of the node,
+	 * without deserializing the status object.
+	 */
+	@Override
+	public RoutingHeader getRoutingHeader() {
+		RoutingHeader header = new RoutingHeader(this);
+		header.setAttribute(ADDRESS, address);
+		if ((attributes != null) && !attributes.isEmpty())
+			header.setAttribute(ATTRIBUTES, new HashMap<String, Object>(attributes));
+		return header;
 	}
 	
+	@Override
+	protected Priority getDefaultPriority() {
+		return Priority.CONTROL;
+	}
 }
@@ -19,8 +19,17 @@
 
 package discoveryService.core.status;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
 import polimi.reds.Filter;
 import polimi.reds.Message;
+import discoveryService.broker.Indexable;
+import discoveryService.core.CoveringFilter;
+import discoveryService.core.Envelope;
+import discoveryService.core.RoutingHeader;
 
 /**
  * It defines the matching criteria on the status of a node used during 
@@ -36,13 +45,25 @@ import polimi.reds.Message;
  * that receive the <code>EngageMessage</code> that will pass as argument its own
  * <code>Status<code> instance. So the method <code>StatusFilter.mataches(Message msg)</code>
  * perform its operations on the Status of the receiving node.
+ * 
+ * Besides the node name and the address, the filter can require the typed attributes
+ * of the status to satisfy a {@link StatusPredicate} (e.g. <code>load &lt; 0.7 AND qos = HIGH</code>).
+ * The brokers evaluate the predicate on the status notifications, so that a subscription
+ * with a predicate receives only the status of the nodes satisfying it. The engage messages
+ * are routed on the node name and the address only (see <code>matchesNode()</code>):
+ * the predicate is evaluated by the receiving node on its current status.
+ * 
+ * A filter can also match a group of nodes (see <code>DSCore.engageAll()</code>), so that
+ * a single subscription receives the status notifications of all of them.
  *  
  * @author leleplx@gmail.com (emanuele)
  *
  */
-public class StatusFilter implements Filter {
+public class StatusFilter implements CoveringFilter, Indexable {
 	private static final long serialVersionUID = -7392801870949341993L;
 	private Status status;
+	private StatusPredicate predicate;
+	private Set<String> nodeNames;
 	
 	public StatusFilter(String nodeName, String address, Object status) {
 		this.status = new Status();
@@ -55,6 +76,16 @@ public class StatusFilter implements Filter {
 		this.status = status;
 	}
 	
+	/**
+	 * Create a filter matching the status of any of the given nodes.
+	 * 
+	 * @param nodeNames The names of the nodes.
+	 */
+	public StatusFilter(Collection<String> nodeNames) {
+		this(null, null, null);
+		this.nodeNames = new TreeSet<String>(nodeNames);
+	}
+	
 	public void setStatus(Status status) {
 		this.status = status;
 	}
@@ -63,42 +94,151 @@ public class StatusFilter implements Filter {
 		return status;
 	}
 	
+	/**
+	 * Set the condition on the attributes of the status.
+	 * 
+	 * @param predicate The condition, e.g. <code>StatusPredicate.parse("load &lt; 0.7")</code>;
+	 * <code>null</code> to match any status.
+	 */
+	public void setPredicate(StatusPredicate predicate) {
+		this.predicate = predicate;
+	}
+	
+	public StatusPredicate getPredicate() {
+		return predicate;
+	}
+	
+	/**
+	 * Get the group of nodes matched by the filter.
+	 * 
+	 * @return The names of the nodes, or <code>null</code> if the filter is not a group one.
+	 */
+	public Set<String> getNodeNames() {
+		return nodeNames;
+	}
+	
 	@Override
 	public boolean matches(Message msg) {
+		return matches(msg, true);
+	}
+	
+	/**
+	 * Check the node name and the address of a status, ignoring the predicate.
+	 * 
+	 * @param msg The status.
+	 * @return <code>true</code> if the status belongs to a node selected by the filter.
+	 */
+	public boolean matchesNode(Message msg) {
+		return matches(msg, false);
+	}
+	
+	private boolean matches(Message msg, boolean evaluatePredicate) {
 		boolean nodeNameCondition = false;
 		boolean addressCondition = false;
-		//boolean statusCondition = false;
+		boolean statusCondition = false;
 		
-		if (!(msg instanceof Status))
+		String msgNodeName;
+		String msgAddress;
+		Map<String, ?> msgAttributes;
+		if (msg instanceof Status) {
+			msgNodeName = ((Status)msg).getNodeName();
+			msgAddress = ((Status)msg).getAddress();
+			msgAttributes = ((Status)msg).getAttributes();
+		}
+		// Brokers match the sealed status on the routing header
+		else if ((msg instanceof Envelope) && ((Envelope)msg).getHeader().isA(Status.class)) {
+			RoutingHeader header = ((Envelope)msg).getHeader();
+			msgNodeName = header.getNodeName();
+			msgAddress = (String)header.getAttribute(Status.ADDRESS);
+			msgAttributes = getAttributes(header);
+		}
+		else
 			return false;
 		
-		Status statusMsg = (Status)msg;
-		
-		if (status.getNodeName() == null)
+		if (nodeNames != null)
+			nodeNameCondition = nodeNames.contains(msgNodeName);
+		else if (status.getNodeName() == null)
 			nodeNameCondition = true;
 		else
-			nodeNameCondition = statusMsg.getNodeName().equals(status.getNodeName());
+			nodeNameCondition = status.getNodeName().equals(msgNodeName);
 		
 		if (status.getAddress() == null)
 			addressCondition = true;
 		else
-			addressCondition = statusMsg.getAddress().equals(status.getAddress());
+			addressCondition = status.getAddress().equals(msgAddress);
 		
-		/**
-		 * TODO: at the moment the match is based only on nodeName.
-		 * Extend the matching criteria allowing complex way to compare
-		 * Status.
-		 */
-		/*if (status.getStatus() == null)
+		if ((predicate == null) || !evaluatePredicate)
 			statusCondition = true;
 		else
-			statusCondition = status.getStatus().matches(statusMsg.getStatus());*/
+			statusCondition = predicate.evaluate(msgAttributes);
 		
-		return nodeNameCondition && addressCondition;	// && statusCondition;
+		return nodeNameCondition && addressCondition && statusCondition;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Map<String, ?> getAttributes(RoutingHeader header) {
+		Object attributes = header.getAttribute(Status.ATTRIBUTES);
+		return (attributes instanceof Map) ? (Map<String, ?>)attributes : null;
+	}
+	
+	public String getIndexKind() {
+		return Status.INDEX_KIND;
+	}
+	
+	public String getIndexKey() {
+		return status.getNodeName();
+	}
+	
+	/**
+	 * A filter covers another one if its node name and address are wildcards or equal
+	 * to the ones of the other filter, and its predicate is missing or the same.
+	 * A group filter covers the filters whose nodes all belong to the group.
+	 */
+	public boolean covers(Filter filter) {
+		if (!(filter instanceof StatusFilter))
+			return false;
+		StatusFilter other = (StatusFilter)filter;
+		return coversNodes(other) &&
+				((status.getAddress() == null) || status.getAddress().equals(other.status.getAddress())) &&
+				((predicate == null) || predicate.equals(other.predicate));
+	}
+	
+	private boolean coversNodes(StatusFilter other) {
+		if (nodeNames == null)
+			return (status.getNodeName() == null) || ((other.nodeNames == null) && 
+					status.getNodeName().equals(other.status.getNodeName()));
+		if (other.nodeNames != null)
+			return nodeNames.containsAll(other.nodeNames);
+		return (other.status.getNodeName() != null) && nodeNames.contains(other.status.getNodeName());
+	}
+	
+	/**
+	 * Engagements are specific to a node: the filter is never generalized.
+	 */
+	public CoveringFilter generalize() {
+		return this;
+	}
+	
+	public int hashCode() {
+		return ("StatusFilter" + status.getNodeName() + status.getAddress() + predicate + nodeNames).hashCode();
+	}
+	
+	public boolean equals(Object obj) {
+		if (!(obj instanceof StatusFilter))
+			return false;
+		StatusFilter other = (StatusFilter)obj;
+		return equal(status.getNodeName(), other.status.getNodeName()) && 
+				equal(status.getAddress(), other.status.getAddress()) && equal(predicate, other.predicate) &&
+				equal(nodeNames, other.nodeNames);
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return (a == null) ? (b == null) : a.equals(b);
 	}
 	
 	public String toString() {
-		return "StatusFilter["+status+"]";
+		return "StatusFilter["+((nodeNames == null) ? "" : nodeNames + "; ")+status+
+				((predicate == null) ? "" : "; " + predicate)+"]";
 	}
 
 }
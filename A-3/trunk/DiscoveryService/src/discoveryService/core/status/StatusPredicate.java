@@ -0,0 +1,355 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.status;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Condition on the attributes of a {@link Status}, compiled once from an expression into an
+ * evaluation tree.
+ * <p>
+ * An expression compares attributes with constants and combines the comparisons with 
+ * <code>AND</code>, <code>OR</code>, <code>NOT</code> and parentheses, e.g.
+ * <code>load &lt; 0.7 AND (qos = HIGH OR qos = 'MEDIUM')</code>. The comparison operators are 
+ * <code>=</code>, <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> and 
+ * <code>&gt;=</code>. A numeric constant is compared with numeric attributes, any other constant
+ * (a word or a quoted string) with string attributes. A comparison on an attribute that the 
+ * status does not have, or that has a different type, is false.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class StatusPredicate implements Serializable {
+	private static final long serialVersionUID = 2210474539862377713L;
+	private Node root;
+	
+	private StatusPredicate(Node root) {
+		this.root = root;
+	}
+	
+	/**
+	 * Compile an expression.
+	 * 
+	 * @param expression The expression.
+	 * @return The predicate.
+	 * @throws IllegalArgumentException If the expression is malformed.
+	 */
+	public static StatusPredicate parse(String expression) {
+		Parser parser = new Parser(expression);
+		Node root = parser.parseOr();
+		if (parser.peek() != null)
+			throw parser.error("unexpected " + parser.peek());
+		return new StatusPredicate(root);
+	}
+	
+	/**
+	 * Evaluate the predicate on the attributes of a status.
+	 * 
+	 * @param attributes The attributes, numbers or strings by name.
+	 */
+	public boolean evaluate(Map<String, ?> attributes) {
+		return root.evaluate(attributes);
+	}
+	
+	public int hashCode() {
+		return toString().hashCode();
+	}
+	
+	/**
+	 * Two predicates are equal if their expressions are the same, apart from spaces and
+	 * redundant parentheses.
+	 */
+	public boolean equals(Object obj) {
+		return (obj instanceof StatusPredicate) && toString().equals(obj.toString());
+	}
+	
+	public String toString() {
+		return root.toString();
+	}
+	
+	private static abstract class Node implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		public abstract boolean evaluate(Map<String, ?> attributes);
+	}
+	
+	private static class And extends Node {
+		private static final long serialVersionUID = 1L;
+		private Node left;
+		private Node right;
+		
+		public And(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+		
+		public boolean evaluate(Map<String, ?> attributes) {
+			return left.evaluate(attributes) && right.evaluate(attributes);
+		}
+		
+		public String toString() {
+			return "(" + left + " AND " + right + ")";
+		}
+	}
+	
+	private static class Or extends Node {
+		private static final long serialVersionUID = 1L;
+		private Node left;
+		private Node right;
+		
+		public Or(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+		
+		public boolean evaluate(Map<String, ?> attributes) {
+			return left.evaluate(attributes) || right.evaluate(attributes);
+		}
+		
+		public String toString() {
+			return "(" + left + " OR " + right + ")";
+		}
+	}
+	
+	private static class Not extends Node {
+		private static final long serialVersionUID = 1L;
+		private Node operand;
+		
+		public Not(Node operand) {
+			this.operand = operand;
+		}
+		
+		public boolean evaluate(Map<String, ?> attributes) {
+			return !operand.evaluate(attributes);
+		}
+		
+		public String toString() {
+			return "NOT " + operand;
+		}
+	}
+	
+	private static class Comparison extends Node {
+		private static final long serialVersionUID = 1L;
+		private String attribute;
+		private String operator;
+		private Object constant;
+		
+		public Comparison(String attribute, String operator, Object constant) {
+			this.attribute = attribute;
+			this.operator = operator;
+			this.constant = constant;
+		}
+		
+		public boolean evaluate(Map<String, ?> attributes) {
+			Object value = (attributes == null) ? null : attributes.get(attribute);
+			int cmp;
+			if ((constant instanceof Double) && (value instanceof Number))
+				cmp = Double.compare(((Number)value).doubleValue(), ((Double)constant).doubleValue());
+			else if ((constant instanceof String) && (value instanceof String))
+				cmp = ((String)value).compareTo((String)constant);
+			else
+				return false;
+			if (operator.equals("="))
+				return cmp == 0;
+			if (operator.equals("!="))
+				return cmp != 0;
+			if (operator.equals("<"))
+				return cmp < 0;
+			if (operator.equals("<="))
+				return cmp <= 0;
+			if (operator.equals(">"))
+				return cmp > 0;
+			return cmp >= 0;
+		}
+		
+		public String toString() {
+			String c = (constant instanceof String) ? "'" + constant + "'" : constant.toString();
+			return attribute + " " + operator + " " + c;
+		}
+	}
+	
+	/**
+	 * Recursive descent parser of the expressions.
+	 */
+	private static class Parser {
+		private String expression;
+		private ArrayList<String> tokens;
+		private ArrayList<Integer> positions;
+		private int next;
+		
+		public Parser(String expression) {
+			this.expression = expression;
+			tokens = new ArrayList<String>();
+			positions = new ArrayList<Integer>();
+			next = 0;
+			tokenize();
+		}
+		
+		public Node parseOr() {
+			Node node = parseAnd();
+			while (keyword("OR") || symbol("||"))
+				node = new Or(node, parseAnd());
+			return node;
+		}
+		
+		private Node parseAnd() {
+			Node node = parseNot();
+			while (keyword("AND") || symbol("&&"))
+				node = new And(node, parseNot());
+			return node;
+		}
+		
+		private Node parseNot() {
+			if (keyword("NOT") || symbol("!"))
+				return new Not(parseNot());
+			if (symbol("(")) {
+				Node node = parseOr();
+				if (!symbol(")"))
+					throw error("')' expected");
+				return node;
+			}
+			return parseComparison();
+		}
+		
+		private Node parseComparison() {
+			String attribute = peek();
+			if ((attribute == null) || !isWord(attribute))
+				throw error("attribute name expected");
+			next++;
+			String operator = peek();
+			if (operator == null)
+				throw error("comparison operator expected");
+			if (operator.equals("=="))
+				operator = "=";
+			else if (operator.equals("<>"))
+				operator = "!=";
+			else if (!(operator.equals("=") || operator.equals("!=") || operator.equals("<") || 
+					operator.equals("<=") || operator.equals(">") || operator.equals(">=")))
+				throw error("comparison operator expected");
+			next++;
+			String constant = peek();
+			if ((constant == null) || (!isWord(constant) && !isNumber(constant) && !isQuoted(constant)))
+				throw error("constant expected");
+			next++;
+			Object value;
+			if (isQuoted(constant))
+				value = constant.substring(1, constant.length() - 1);
+			else if (isNumber(constant))
+				value = Double.valueOf(constant);
+			else
+				value = constant;
+			return new Comparison(attribute, operator, value);
+		}
+		
+		public String peek() {
+			return (next < tokens.size()) ? tokens.get(next) : null;
+		}
+		
+		private boolean keyword(String word) {
+			if ((peek() != null) && peek().equalsIgnoreCase(word)) {
+				next++;
+				return true;
+			}
+			return false;
+		}
+		
+		private boolean symbol(String s) {
+			if (s.equals(peek())) {
+				next++;
+				return true;
+			}
+			return false;
+		}
+		
+		public IllegalArgumentException error(String message) {
+			int pos = (next < positions.size()) ? positions.get(next).intValue() : expression.length();
+			return new IllegalArgumentException("Invalid status predicate \"" + expression + "\" at " + pos + ": " + message);
+		}
+		
+		private static boolean isWord(String token) {
+			char c = token.charAt(0);
+			return (Character.isLetter(c) || (c == '_')) && !token.equalsIgnoreCase("AND") && 
+					!token.equalsIgnoreCase("OR") && !token.equalsIgnoreCase("NOT");
+		}
+		
+		private static boolean isNumber(String token) {
+			char c = token.charAt(0);
+			return Character.isDigit(c) || (c == '-') || (c == '.');
+		}
+		
+		private static boolean isQuoted(String token) {
+			return (token.charAt(0) == '\'') || (token.charAt(0) == '"');
+		}
+		
+		private void tokenize() {
+			int i = 0;
+			int length = expression.length();
+			while (i < length) {
+				char c = expression.charAt(i);
+				int start = i;
+				if (Character.isWhitespace(c)) {
+					i++;
+					continue;
+				}
+				if (Character.isLetter(c) || (c == '_')) {
+					while ((i < length) && (Character.isLetterOrDigit(expression.charAt(i)) || 
+							(expression.charAt(i) == '_') || (expression.charAt(i) == '.')))
+						i++;
+				}
+				else if (Character.isDigit(c) || (c == '.') || 
+						((c == '-') && (i + 1 < length) && (Character.isDigit(expression.charAt(i + 1)) || expression.charAt(i + 1) == '.'))) {
+					i++;
+					while ((i < length) && (Character.isDigit(expression.charAt(i)) || (expression.charAt(i) == '.') ||
+							(expression.charAt(i) == 'e') || (expression.charAt(i) == 'E') || 
+							(((expression.charAt(i) == '-') || (expression.charAt(i) == '+')) && 
+								((expression.charAt(i - 1) == 'e') || (expression.charAt(i - 1) == 'E')))))
+						i++;
+					try {
+						Double.parseDouble(expression.substring(start, i));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid status predicate \"" + expression + "\" at " + start + ": malformed number");
+					}
+				}
+				else if ((c == '\'') || (c == '"')) {
+					int end = expression.indexOf(c, i + 1);
+					if (end < 0)
+						throw new IllegalArgumentException("Invalid status predicate \"" + expression + "\" at " + start + ": unterminated string");
+					i = end + 1;
+				}
+				else if ((c == '<') || (c == '>') || (c == '!') || (c == '=')) {
+					i++;
+					if ((i < length) && ((expression.charAt(i) == '=') || ((c == '<') && (expression.charAt(i) == '>'))))
+						i++;
+				}
+				else if (((c == '&') || (c == '|')) && (i + 1 < length) && (expression.charAt(i + 1) == c))
+					i += 2;
+				else if ((c == '(') || (c == ')'))
+					i++;
+				else
+					throw new IllegalArgumentException("Invalid status predicate \"" + expression + "\" at " + start + ": unexpected '" + c + "'");
+				tokens.add(expression.substring(start, i));
+				positions.add(Integer.valueOf(start));
+			}
+		}
+	}
+}
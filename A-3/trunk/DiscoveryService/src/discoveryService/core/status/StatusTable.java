@@ -0,0 +1,206 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.status;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of the last status received from each engaged node, with the history of the
+ * recent values of its numeric attributes (see {@link MetricHistory}).
+ * <p>
+ * Reads never lock: the table is a concurrent map and the status of a node is replaced
+ * as a whole, so a reader always sees a complete status. Statuses are ordered by their
+ * version (see {@link Status#isNewerThan(Status)}): a status older than the recorded one,
+ * e.g. delivered late by another path, is ignored. <code>snapshot()</code> and
+ * <code>getNodes()</code> return copies that can be iterated while the table changes.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class StatusTable {
+	private ConcurrentHashMap<String, Entry> entries;
+	private int historySize;
+	
+	/**
+	 * Create an empty table.
+	 * 
+	 * @param historySize Number of values kept for each numeric attribute of each node;
+	 * 0 to keep only the last status.
+	 */
+	public StatusTable(int historySize) {
+		entries = new ConcurrentHashMap<String, Entry>();
+		this.historySize = historySize;
+	}
+	
+	/**
+	 * Record the status of a node, adding the node to the table if needed. A status with
+	 * the same version as the recorded one replaces it (e.g. a heartbeat), an older one
+	 * is ignored.
+	 * 
+	 * @param status The status; its node name is the key.
+	 * @return <code>true</code> if the status is newer than the recorded one, or the node was
+	 * not in the table.
+	 */
+	public boolean put(Status status) {
+		Entry entry = entries.get(status.getNodeName());
+		if (entry == null) {
+			Entry created = new Entry(status);
+			entry = entries.putIfAbsent(status.getNodeName(), created);
+			if (entry == null)
+				entry = created;
+		}
+		return entry.update(status);
+	}
+	
+	/**
+	 * Record the status of a node only if the node is in the table, with the same
+	 * version rules of <code>put()</code>.
+	 * 
+	 * @param status The status.
+	 * @return <code>true</code> if the node is in the table and the status is newer than the
+	 * recorded one.
+	 */
+	public boolean update(Status status) {
+		Entry entry = entries.get(status.getNodeName());
+		if (entry == null)
+			return false;
+		return entry.update(status);
+	}
+	
+	/**
+	 * Remove a node from the table.
+	 * 
+	 * @param nodeName The name of the node.
+	 */
+	public void remove(String nodeName) {
+		entries.remove(nodeName);
+	}
+	
+	public boolean contains(String nodeName) {
+		return entries.containsKey(nodeName);
+	}
+	
+	/**
+	 * Get the last status of a node.
+	 * 
+	 * @return The status or <code>null</code> if the node is not in the table.
+	 */
+	public Status get(String nodeName) {
+		Entry entry = entries.get(nodeName);
+		return (entry == null) ? null : entry.status;
+	}
+	
+	/**
+	 * Get the history of a numeric attribute of the status of a node. The history can be
+	 * kept by the caller: it is updated as new statuses are received.
+	 * 
+	 * @return The history or <code>null</code> if the node is not in the table, or none of its
+	 * statuses had the attribute, or histories are disabled.
+	 */
+	public MetricHistory getHistory(String nodeName, String attribute) {
+		Entry entry = entries.get(nodeName);
+		return (entry == null) ? null : entry.histories.get(attribute);
+	}
+	
+	/**
+	 * Return the names of the nodes in the table.
+	 * 
+	 * @return A sorted copy of the names.
+	 */
+	public Set<String> getNodes() {
+		return Collections.unmodifiableSet(new TreeSet<String>(entries.keySet()));
+	}
+	
+	/**
+	 * Return a copy of the table, that is the last status of each node.
+	 * <p>
+	 * The copy is weakly consistent: each status in it is complete, but the statuses of
+	 * different nodes are read one after the other, so the copy may mix statuses recorded 
+	 * before and after concurrent updates, and may miss nodes added or removed meanwhile.
+	 * It is not a picture of the whole table at a single instant.
+	 * </p>
+	 * 
+	 * @return The statuses by node name.
+	 */
+	public Map<String, Status> snapshot() {
+		Map<String, Status> copy = new HashMap<String, Status>();
+		for (Map.Entry<String, Entry> e : entries.entrySet())
+			copy.put(e.getKey(), e.getValue().status);
+		return Collections.unmodifiableMap(copy);
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * The state kept for a node.
+	 */
+	private class Entry {
+		private volatile Status status;
+		// Whether the status given to the constructor has been recorded by update()
+		private boolean recorded;
+		private ConcurrentHashMap<String, MetricHistory> histories;
+		
+		public Entry(Status status) {
+			this.status = status;
+			histories = new ConcurrentHashMap<String, MetricHistory>();
+		}
+		
+		/**
+		 * Replace the status if the new one is not older, and record its numeric attributes
+		 * if it is newer. Updates of the same node are serialized, so that an older status 
+		 * can never overwrite a newer one.
+		 * 
+		 * @return <code>true</code> if the status is newer than the recorded one.
+		 */
+		public synchronized boolean update(Status status) {
+			Status current = recorded ? this.status : null;
+			if ((current != null) && current.isNewerThan(status))
+				return false;
+			this.status = status;
+			recorded = true;
+			if (!status.isNewerThan(current))
+				return false;
+			if (historySize <= 0)
+				return true;
+			long now = System.currentTimeMillis();
+			for (Map.Entry<String, Object> attribute : status.getAttributes().entrySet()) {
+				if (!(attribute.getValue() instanceof Number))
+					continue;
+				MetricHistory history = histories.get(attribute.getKey());
+				if (history == null) {
+					MetricHistory created = new MetricHistory(historySize);
+					history = histories.putIfAbsent(attribute.getKey(), created);
+					if (history == null)
+						history = created;
+				}
+				history.record(((Number)attribute.getValue()).doubleValue(), now);
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Store of fixed layout records kept outside of the heap, so that millions of entries
+ * do not add to the work of the garbage collector.
+ * <p>
+ * Each record is identified by a string key and has a fixed number of string fields and
+ * of long fields. The records are stored in a direct buffer: the strings (key included)
+ * are replaced by their identifiers in a {@link StringTable}, so that the values repeated 
+ * by many records (e.g. node names) are stored once. The records are found by key through
+ * an open addressing hash index and are scanned with a {@link Cursor}, which reads the 
+ * fields in place; the space of the removed records is reused.
+ * </p>
+ * <p>
+ * The direct buffers are limited by the <code>-XX:MaxDirectMemorySize</code> option of the
+ * JVM. The store is not synchronized.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class OffHeapStore {
+	private final static int FREE = 0;
+	private final static int USED = 1;
+	private final static int EMPTY = 0;
+	private final static int DELETED = -1;
+	
+	private int stringFields;
+	private int longFields;
+	private int recordSize;
+	private ByteBuffer records;
+	private int capacity;
+	private int top;
+	private int size;
+	private int[] freeSlots;
+	private int freeCount;
+	// Open addressing index on the key: slot + 1, EMPTY or DELETED
+	private int[] index;
+	private int used;
+	private StringTable strings;
+	
+	/**
+	 * @param stringFields Number of string fields of each record.
+	 * @param longFields Number of long fields of each record.
+	 * @param capacity Initial number of records.
+	 */
+	public OffHeapStore(int stringFields, int longFields, int capacity) {
+		this.stringFields = stringFields;
+		this.longFields = longFields;
+		// state, key, strings, longs
+		recordSize = 8 + 4 * stringFields + 8 * longFields;
+		this.capacity = Math.max(capacity, 16);
+		records = ByteBuffer.allocateDirect(this.capacity * recordSize);
+		top = 0;
+		size = 0;
+		freeSlots = new int[16];
+		freeCount = 0;
+		index = new int[Integer.highestOneBit(this.capacity * 2 - 1) << 1];
+		used = 0;
+		strings = new StringTable(this.capacity, this.capacity * 32);
+	}
+	
+	/**
+	 * Add a record or replace the one with the same key.
+	 * 
+	 * @param key The key of the record.
+	 * @param values The string fields, possibly <code>null</code>.
+	 * @param longs The long fields.
+	 */
+	public void put(String key, String[] values, long[] longs) {
+		if ((values.length != stringFields) || (longs.length != longFields))
+			throw new IllegalArgumentException("Expected " + stringFields + " strings and " + longFields + " longs");
+		// Intern the new values before releasing the old ones, that are often the same
+		int[] ids = new int[stringFields];
+		for (int i = 0; i < stringFields; i++)
+			ids[i] = strings.intern(values[i]);
+		int slot = findSlot(key);
+		if (slot < 0)
+			slot = addSlot(key);
+		else {
+			for (int i = 0; i < stringFields; i++)
+				strings.release(records.getInt(stringAt(slot, i)));
+		}
+		for (int i = 0; i < stringFields; i++)
+			records.putInt(stringAt(slot, i), ids[i]);
+		for (int i = 0; i < longFields; i++)
+			records.putLong(longAt(slot, i), longs[i]);
+	}
+	
+	/**
+	 * Return a cursor positioned on the record with the given key.
+	 * 
+	 * @return The cursor or <code>null</code> if there is no such record.
+	 */
+	public Cursor find(String key) {
+		int slot = findSlot(key);
+		if (slot < 0)
+			return null;
+		Cursor cursor = new Cursor();
+		cursor.slot = slot;
+		return cursor;
+	}
+	
+	/**
+	 * Remove the record with the given key.
+	 * 
+	 * @return <code>true</code> if the record was in the store.
+	 */
+	public boolean remove(String key) {
+		int slot = findSlot(key);
+		if (slot < 0)
+			return false;
+		removeSlot(slot);
+		return true;
+	}
+	
+	/**
+	 * Return a cursor positioned before the first record.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Return the number of distinct strings referenced by the records.
+	 */
+	public int getStringCount() {
+		return strings.size();
+	}
+	
+	/**
+	 * Return the bytes of the direct buffers in use.
+	 */
+	public long getOffHeapBytes() {
+		return (long)top * recordSize + strings.getUsedBytes();
+	}
+	
+	private int findSlot(String key) {
+		int keyID = strings.lookup(key);
+		if (keyID == StringTable.NULL)
+			return -1;
+		int mask = index.length - 1;
+		for (int i = hash(keyID) & mask; index[i] != EMPTY; i = (i + 1) & mask) {
+			if ((index[i] != DELETED) && (records.getInt(keyAt(index[i] - 1)) == keyID))
+				return index[i] - 1;
+		}
+		return -1;
+	}
+	
+	private int addSlot(String key) {
+		int slot;
+		if (freeCount > 0)
+			slot = freeSlots[--freeCount];
+		else {
+			if (top == capacity) {
+				capacity *= 2;
+				ByteBuffer larger = ByteBuffer.allocateDirect(capacity * recordSize);
+				records.position(0);
+				records.limit(top * recordSize);
+				larger.put(records);
+				records = larger;
+			}
+			slot = top++;
+		}
+		int keyID = strings.intern(key);
+		records.putInt(slot * recordSize, USED);
+		records.putInt(keyAt(slot), keyID);
+		size++;
+		
+		if ((used + 1) * 2 > index.length)
+			rehash((size + 1) * 4 > index.length ? index.length * 2 : index.length);
+		int mask = index.length - 1;
+		int i = hash(keyID) & mask;
+		while ((index[i] != EMPTY) && (index[i] != DELETED))
+			i = (i + 1) & mask;
+		if (index[i] == EMPTY)
+			used++;
+		index[i] = slot + 1;
+		return slot;
+	}
+	
+	private void removeSlot(int slot) {
+		int keyID = records.getInt(keyAt(slot));
+		int mask = index.length - 1;
+		int i = hash(keyID) & mask;
+		while (index[i] != slot + 1)
+			i = (i + 1) & mask;
+		index[i] = DELETED;
+		for (int f = 0; f < stringFields; f++)
+			strings.release(records.getInt(stringAt(slot, f)));
+		strings.release(keyID);
+		records.putInt(slot * recordSize, FREE);
+		if (freeCount == freeSlots.length) {
+			int[] larger = new int[freeSlots.length * 2];
+			System.arraycopy(freeSlots, 0, larger, 0, freeCount);
+			freeSlots = larger;
+		}
+		freeSlots[freeCount++] = slot;
+		size--;
+	}
+	
+	private void rehash(int length) {
+		int[] old = index;
+		index = new int[length];
+		used = 0;
+		int mask = length - 1;
+		for (int entry : old) {
+			if ((entry == EMPTY) || (entry == DELETED))
+				continue;
+			int i = hash(records.getInt(keyAt(entry - 1))) & mask;
+			while (index[i] != EMPTY)
+				i = (i + 1) & mask;
+			index[i] = entry;
+			used++;
+		}
+	}
+	
+	private int keyAt(int slot) {
+		return slot * recordSize + 4;
+	}
+	
+	private int stringAt(int slot, int field) {
+		return slot * recordSize + 8 + 4 * field;
+	}
+	
+	private int longAt(int slot, int field) {
+		return slot * recordSize + 8 + 4 * stringFields + 8 * field;
+	}
+	
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * Cursor reading the fields of the records in place. A cursor stays valid while the
+	 * records are only modified through it.
+	 */
+	public class Cursor {
+		private int slot = -1;
+		
+		/**
+		 * Move to the next record.
+		 * 
+		 * @return <code>false</code> if there are no more records.
+		 */
+		public boolean next() {
+			while (++slot < top)
+				if (records.getInt(slot * recordSize) == USED)
+					return true;
+			return false;
+		}
+		
+		public String getKey() {
+			return strings.get(records.getInt(keyAt(slot)));
+		}
+		
+		public String getString(int field) {
+			return strings.get(records.getInt(stringAt(slot, field)));
+		}
+		
+		/**
+		 * Return the identifier of a string field in the {@link StringTable} of the store:
+		 * the records with the same value of the field have the same identifier.
+		 * 
+		 * @return The identifier or <code>StringTable.NULL</code>.
+		 */
+		public int getStringID(int field) {
+			return records.getInt(stringAt(slot, field));
+		}
+		
+		/**
+		 * Return the characters of a string field, read in place (see <code>StringTable.getChars()</code>).
+		 * 
+		 * @return The characters or <code>null</code>.
+		 */
+		public CharSequence getChars(int field) {
+			return strings.getChars(records.getInt(stringAt(slot, field)));
+		}
+		
+		public long getLong(int field) {
+			return records.getLong(longAt(slot, field));
+		}
+		
+		public void setLong(int field, long value) {
+			records.putLong(longAt(slot, field), value);
+		}
+		
+		/**
+		 * Remove the current record.
+		 */
+		public void remove() {
+			removeSlot(slot);
+		}
+	}
+}
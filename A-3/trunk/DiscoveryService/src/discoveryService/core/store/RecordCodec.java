@@ -0,0 +1,91 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.store;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import discoveryService.core.DSMessage;
+
+/**
+ * Converts the items of a type to and from the records of an {@link OffHeapStore}, and
+ * matches the searches directly on the records, without rebuilding the items.
+ * <p>
+ * A codec is registered for its type in {@link RecordCodecs}, usually by a static 
+ * initializer of the type itself.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface RecordCodec {
+	/**
+	 * Return the number of string fields of the records.
+	 */
+	public int getStringFields();
+	
+	/**
+	 * Return the number of long fields of the records.
+	 */
+	public int getLongFields();
+	
+	/**
+	 * Check if a publication can be stored as a record: the codec must be able to match
+	 * the searches as its template does.
+	 * 
+	 * @param item The published item.
+	 * @param template The template of the publication.
+	 */
+	public boolean accepts(DSMessage item, Filter template);
+	
+	/**
+	 * Write the fields of an item.
+	 * 
+	 * @param item The item.
+	 * @param strings The string fields to be filled.
+	 * @param longs The long fields to be filled, at least <code>getLongFields()</code>.
+	 */
+	public void encode(DSMessage item, String[] strings, long[] longs);
+	
+	/**
+	 * Rebuild the item stored in the current record of a cursor.
+	 */
+	public DSMessage decode(OffHeapStore.Cursor record);
+	
+	/**
+	 * Prepare the matching of a search against the records, once for all the records
+	 * scanned. The matcher reads the fields in place and may remember the result for each
+	 * string identifier: it is valid while the records are only removed.
+	 * 
+	 * @param query The search.
+	 * @return The matcher or <code>null</code> if the search cannot match any record.
+	 */
+	public Matcher compile(Message query);
+	
+	/**
+	 * Matches a search against the records of a store.
+	 */
+	public interface Matcher {
+		/**
+		 * Check if the item stored in the current record of a cursor matches the search, 
+		 * as the template of its publication would do.
+		 */
+		public boolean matches(OffHeapStore.Cursor record);
+	}
+}
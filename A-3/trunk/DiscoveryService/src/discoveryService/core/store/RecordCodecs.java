@@ -0,0 +1,50 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.store;
+
+import java.util.Hashtable;
+
+import discoveryService.core.DSMessage;
+
+/**
+ * Registry of the {@link RecordCodec}s of the item types.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class RecordCodecs {
+	private static Hashtable<Class<?>, RecordCodec> codecs = new Hashtable<Class<?>, RecordCodec>();
+	
+	/**
+	 * Register the codec of a type of items.
+	 */
+	public static void register(Class<? extends DSMessage> type, RecordCodec codec) {
+		codecs.put(type, codec);
+	}
+	
+	/**
+	 * Return the codec of a type of items.
+	 * 
+	 * @return The codec or <code>null</code> if none is registered for exactly that type.
+	 */
+	public static RecordCodec get(Class<?> type) {
+		return codecs.get(type);
+	}
+}
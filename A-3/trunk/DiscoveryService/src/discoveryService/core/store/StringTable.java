@@ -0,0 +1,350 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.store;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Table of interned strings stored outside of the heap.
+ * <p>
+ * Each distinct string is stored once, encoded in UTF-8, in a direct buffer and it is 
+ * identified by an integer that the records of an {@link OffHeapStore} keep in place of 
+ * the string. The strings are found through an open addressing hash index and are
+ * reference counted: the space of the strings no longer referenced is reclaimed by
+ * compacting the buffer when it exceeds the space in use. The identifiers of the strings 
+ * never change.
+ * </p>
+ * <p>
+ * The table is not synchronized.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class StringTable {
+	/**
+	 * Identifier of the <code>null</code> string.
+	 */
+	public final static int NULL = -1;
+	private final static int EMPTY = 0;
+	private final static int DELETED = -1;
+	private final static int MIN_COMPACT = 64 * 1024;
+	
+	private ByteBuffer bytes;
+	private int end;
+	private int garbage;
+	// Indexed by the string identifier
+	private int[] offsets;
+	private int[] lengths;
+	private int[] hashes;
+	private int[] refs;
+	private int count;
+	private int[] freeIDs;
+	private int freeCount;
+	// Open addressing index: identifier + 1, EMPTY or DELETED
+	private int[] index;
+	private int used;
+	
+	/**
+	 * @param capacity Initial number of strings.
+	 * @param bytes Initial size in bytes of the buffer of the strings.
+	 */
+	public StringTable(int capacity, int bytes) {
+		capacity = Math.max(capacity, 16);
+		this.bytes = ByteBuffer.allocateDirect(Math.max(bytes, 1024));
+		end = 0;
+		garbage = 0;
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		hashes = new int[capacity];
+		refs = new int[capacity];
+		count = 0;
+		freeIDs = new int[capacity];
+		freeCount = 0;
+		index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+		used = 0;
+	}
+	
+	/**
+	 * Return the identifier of a string, adding it to the table if needed, and increment
+	 * its references.
+	 * 
+	 * @param s The string, possibly <code>null</code>.
+	 * @return The identifier or <code>NULL</code>.
+	 */
+	public int intern(String s) {
+		if (s == null)
+			return NULL;
+		byte[] encoded = encode(s);
+		int hash = hash(encoded);
+		int id = find(encoded, hash);
+		if (id == NULL)
+			id = add(encoded, hash);
+		refs[id]++;
+		return id;
+	}
+	
+	/**
+	 * Return the identifier of a string without changing its references.
+	 * 
+	 * @return The identifier or <code>NULL</code> if the string is not in the table.
+	 */
+	public int lookup(String s) {
+		if (s == null)
+			return NULL;
+		byte[] encoded = encode(s);
+		return find(encoded, hash(encoded));
+	}
+	
+	/**
+	 * Decrement the references of a string, removing it when they drop to 0.
+	 */
+	public void release(int id) {
+		if ((id == NULL) || (--refs[id] > 0))
+			return;
+		int slot = slotOf(id);
+		index[slot] = DELETED;
+		garbage += lengths[id];
+		if (freeCount == freeIDs.length)
+			freeIDs = grow(freeIDs, freeIDs.length * 2);
+		freeIDs[freeCount++] = id;
+	}
+	
+	/**
+	 * Return the string with the given identifier.
+	 * 
+	 * @return The string or <code>null</code> for <code>NULL</code>.
+	 */
+	public String get(int id) {
+		if (id == NULL)
+			return null;
+		byte[] encoded = new byte[lengths[id]];
+		for (int i = 0; i < encoded.length; i++)
+			encoded[i] = bytes.get(offsets[id] + i);
+		try {
+			return new String(encoded, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Return the characters of the string with the given identifier without copying them
+	 * to the heap when the string is ASCII, e.g. to match it against a pattern. The view
+	 * is valid until a string is added to the table.
+	 * 
+	 * @return The characters or <code>null</code> for <code>NULL</code>.
+	 */
+	public CharSequence getChars(int id) {
+		if (id == NULL)
+			return null;
+		int offset = offsets[id];
+		for (int i = 0; i < lengths[id]; i++)
+			if (bytes.get(offset + i) < 0)
+				return get(id);
+		return new AsciiChars(offset, lengths[id]);
+	}
+	
+	/**
+	 * Return the number of strings in the table.
+	 */
+	public int size() {
+		return count - freeCount;
+	}
+	
+	/**
+	 * Return the number of bytes of the buffer used by the strings, including the space 
+	 * not yet reclaimed.
+	 */
+	public int getUsedBytes() {
+		return end;
+	}
+	
+	private int find(byte[] encoded, int hash) {
+		int mask = index.length - 1;
+		for (int slot = hash & mask; index[slot] != EMPTY; slot = (slot + 1) & mask) {
+			int id = index[slot] - 1;
+			if ((index[slot] != DELETED) && (hashes[id] == hash) && equalsAt(id, encoded))
+				return id;
+		}
+		return NULL;
+	}
+	
+	private int slotOf(int id) {
+		int mask = index.length - 1;
+		int slot = hashes[id] & mask;
+		while (index[slot] != id + 1)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+	
+	private boolean equalsAt(int id, byte[] encoded) {
+		if (lengths[id] != encoded.length)
+			return false;
+		int offset = offsets[id];
+		for (int i = 0; i < encoded.length; i++)
+			if (bytes.get(offset + i) != encoded[i])
+				return false;
+		return true;
+	}
+	
+	private int add(byte[] encoded, int hash) {
+		if ((garbage > MIN_COMPACT) && (garbage > end - garbage))
+			compact();
+		if (end + encoded.length > bytes.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(bytes.capacity() * 2, end + encoded.length));
+			bytes.position(0).limit(end);
+			larger.put(bytes);
+			bytes.clear();
+			bytes = larger;
+		}
+		int id;
+		if (freeCount > 0)
+			id = freeIDs[--freeCount];
+		else {
+			if (count == offsets.length) {
+				int capacity = offsets.length * 2;
+				offsets = grow(offsets, capacity);
+				lengths = grow(lengths, capacity);
+				hashes = grow(hashes, capacity);
+				refs = grow(refs, capacity);
+			}
+			id = count++;
+		}
+		for (int i = 0; i < encoded.length; i++)
+			bytes.put(end + i, encoded[i]);
+		offsets[id] = end;
+		lengths[id] = encoded.length;
+		hashes[id] = hash;
+		refs[id] = 0;
+		end += encoded.length;
+		
+		if ((used + 1) * 2 > index.length)
+			rehash((size() + 1) * 4 > index.length ? index.length * 2 : index.length);
+		int mask = index.length - 1;
+		int slot = hash & mask;
+		while ((index[slot] != EMPTY) && (index[slot] != DELETED))
+			slot = (slot + 1) & mask;
+		if (index[slot] == EMPTY)
+			used++;
+		index[slot] = id + 1;
+		return id;
+	}
+	
+	/**
+	 * Rebuild the index, dropping the deleted slots.
+	 */
+	private void rehash(int size) {
+		int[] old = index;
+		index = new int[size];
+		used = 0;
+		int mask = size - 1;
+		for (int entry : old) {
+			if ((entry == EMPTY) || (entry == DELETED))
+				continue;
+			int slot = hashes[entry - 1] & mask;
+			while (index[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			index[slot] = entry;
+			used++;
+		}
+	}
+	
+	/**
+	 * Move the strings still referenced to the beginning of the buffer.
+	 */
+	private void compact() {
+		ByteBuffer compacted = ByteBuffer.allocateDirect(bytes.capacity());
+		int position = 0;
+		for (int id = 0; id < count; id++) {
+			if (refs[id] == 0)
+				continue;
+			for (int i = 0; i < lengths[id]; i++)
+				compacted.put(position + i, bytes.get(offsets[id] + i));
+			offsets[id] = position;
+			position += lengths[id];
+		}
+		bytes = compacted;
+		end = position;
+		garbage = 0;
+		rehash(index.length);
+	}
+	
+	private static byte[] encode(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static int hash(byte[] encoded) {
+		int h = 0x9747b28c;
+		for (byte b : encoded)
+			h = (h ^ b) * 0x01000193;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+	
+	private static int[] grow(int[] array, int size) {
+		int[] larger = new int[size];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+	
+	/**
+	 * Characters of an ASCII string read in place from the buffer.
+	 */
+	private class AsciiChars implements CharSequence {
+		private int offset;
+		private int length;
+		
+		public AsciiChars(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		public int length() {
+			return length;
+		}
+		
+		public char charAt(int index) {
+			if ((index < 0) || (index >= length))
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			return (char)bytes.get(offset + index);
+		}
+		
+		public CharSequence subSequence(int start, int end) {
+			if ((start < 0) || (end > length) || (start > end))
+				throw new IndexOutOfBoundsException(start + ", " + end);
+			return new AsciiChars(offset + start, end - start);
+		}
+		
+		public String toString() {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++)
+				chars[i] = (char)bytes.get(offset + i);
+			return new String(chars);
+		}
+	}
+}
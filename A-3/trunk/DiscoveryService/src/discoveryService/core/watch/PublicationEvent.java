@@ -0,0 +1,112 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.watch;
+
+import polimi.reds.Filter;
+import discoveryService.core.DSMessage;
+
+/**
+ * Notification of a change of a publication, sent by the publishing node to the
+ * subscribers of a {@link WatchFilter} matching the published item. 
+ * The events are also the replies of a {@link WatchRequest}, to build the initial snapshot,
+ * and the updates of the replicas kept by the brokers in directory mode.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class PublicationEvent extends DSMessage {
+	private static final long serialVersionUID = 4417032851733306164L;
+	/**
+	 * The item has been published.
+	 */
+	public final static int ADDED = 0;
+	/**
+	 * The item of the publication has been replaced.
+	 */
+	public final static int CHANGED = 1;
+	/**
+	 * The publication has been withdrawn.
+	 */
+	public final static int REMOVED = 2;
+	/**
+	 * The lease of the publication has been renewed.
+	 */
+	public final static int RENEWED = 3;
+	
+	private int type;
+	private String publicationID;
+	private DSMessage item;
+	private Filter template;
+	private long version;
+	private long ttl;
+	
+	/**
+	 * @param type One of <code>ADDED</code>, <code>CHANGED</code>, <code>REMOVED</code> 
+	 * and <code>RENEWED</code>.
+	 * @param publicationID The identifier of the publication, unique in the service.
+	 * @param item The published item.
+	 * @param version Version of the item, incremented each time it is replaced.
+	 * @param ttl Time to live of the lease of the publication, 0 if it never expires.
+	 */
+	public PublicationEvent(int type, String publicationID, DSMessage item, long version, long ttl) {
+		super();
+		this.type = type;
+		this.publicationID = publicationID;
+		this.item = item;
+		this.version = version;
+		this.ttl = ttl;
+	}
+	
+	public int getType() {
+		return type;
+	}
+	
+	public String getPublicationID() {
+		return publicationID;
+	}
+	
+	public DSMessage getItem() {
+		return item;
+	}
+	
+	/**
+	 * Set the template with which the publication matches the searches.
+	 */
+	public void setTemplate(Filter template) {
+		this.template = template;
+	}
+	
+	public Filter getTemplate() {
+		return template;
+	}
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	public long getTTL() {
+		return ttl;
+	}
+	
+	public String toString() {
+		String[] types = {"ADDED", "CHANGED", "REMOVED", "RENEWED"};
+		return "PublicationEvent[" + types[type] + " " + publicationID + " v" + version + "; " + item + "]";
+	}
+}
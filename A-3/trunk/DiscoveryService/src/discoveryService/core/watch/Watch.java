@@ -0,0 +1,186 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.watch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import polimi.reds.Message;
+import discoveryService.core.DSCore;
+import discoveryService.core.DSMessage;
+
+/**
+ * Handle of a continuous query created through <code>DSCore.watch()</code>.
+ * <p>
+ * The watch keeps the view of the matching publications, built from the replies of its 
+ * {@link WatchRequest} and kept up to date by the {@link PublicationEvent}s received 
+ * through its {@link WatchFilter}. The events received before the snapshot is complete
+ * are buffered and applied after it. A leased publication that is not renewed within its 
+ * time to live (e.g. because the publisher died) is removed from the view.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class Watch {
+	private DSCore core;
+	private WatchFilter filter;
+	private WatchListener listener;
+	private HashMap<String, Entry> view;
+	private List<PublicationEvent> pending;
+	private boolean ready;
+	private volatile boolean cancelled;
+	
+	public Watch(DSCore core, WatchFilter filter, WatchListener listener) {
+		this.core = core;
+		this.filter = filter;
+		this.listener = listener;
+		view = new HashMap<String, Entry>();
+		pending = new ArrayList<PublicationEvent>();
+		ready = false;
+		cancelled = false;
+	}
+	
+	public WatchFilter getFilter() {
+		return filter;
+	}
+	
+	/**
+	 * Return the items currently matched by the watch.
+	 */
+	public synchronized List<DSMessage> getItems() {
+		ArrayList<DSMessage> items = new ArrayList<DSMessage>();
+		for (Entry e : view.values())
+			items.add(e.item);
+		return items;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Stop watching: no more events are delivered to the listener.
+	 */
+	public void cancel() {
+		core.unwatch(this);
+	}
+	
+	/**
+	 * Mark the watch as cancelled. Used by {@link DSCore}.
+	 */
+	public void markCancelled() {
+		cancelled = true;
+	}
+	
+	/**
+	 * Build the view from the replies of the watch request, notify the snapshot and 
+	 * apply the events buffered meanwhile. Used by {@link DSCore}.
+	 * 
+	 * @param replies The replies received, possibly <code>null</code>.
+	 */
+	public synchronized void snapshot(Message[] replies) {
+		if (cancelled || ready)
+			return;
+		long now = System.currentTimeMillis();
+		if (replies != null) {
+			for (Message reply : replies) {
+				if (!(reply instanceof PublicationEvent))
+					continue;
+				PublicationEvent event = (PublicationEvent)reply;
+				if (filter.matches(event))
+					view.put(event.getPublicationID(), new Entry(event, now));
+			}
+		}
+		listener.snapshot(getItems());
+		ready = true;
+		for (PublicationEvent event : pending)
+			apply(event, now);
+		pending.clear();
+	}
+	
+	/**
+	 * Apply an event received through the subscription of the watch. Used by {@link DSCore}.
+	 */
+	public synchronized void onEvent(PublicationEvent event) {
+		if (cancelled)
+			return;
+		if (!ready)
+			pending.add(event);
+		else
+			apply(event, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Remove the publications whose lease has not been renewed in time. Used by {@link DSCore}.
+	 * 
+	 * @param now The current time in milliseconds.
+	 */
+	public synchronized void expire(long now) {
+		if (cancelled || !ready)
+			return;
+		Iterator<Entry> it = view.values().iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (e.expiration <= now) {
+				it.remove();
+				listener.removed(e.item);
+			}
+		}
+	}
+	
+	private void apply(PublicationEvent event, long now) {
+		String id = event.getPublicationID();
+		if (event.getType() == PublicationEvent.REMOVED) {
+			Entry previous = view.remove(id);
+			if (previous != null)
+				listener.removed(previous.item);
+			return;
+		}
+		Entry previous = view.get(id);
+		// Ignore the events of an item older than the one in the view
+		if ((previous != null) && (previous.version > event.getVersion()))
+			return;
+		view.put(id, new Entry(event, now));
+		if (previous == null)
+			listener.added(event.getItem());
+		else if (previous.version < event.getVersion())
+			listener.changed(previous.item, event.getItem());
+	}
+	
+	public String toString() {
+		return "Watch[" + filter + "]";
+	}
+	
+	private static class Entry {
+		private DSMessage item;
+		private long version;
+		private long expiration;
+		
+		public Entry(PublicationEvent event, long now) {
+			item = event.getItem();
+			version = event.getVersion();
+			expiration = (event.getTTL() > 0) ? now + event.getTTL() : Long.MAX_VALUE;
+		}
+	}
+}
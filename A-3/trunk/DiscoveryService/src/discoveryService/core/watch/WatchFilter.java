@@ -0,0 +1,85 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.watch;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.FilterIndexFactory;
+import discoveryService.core.match.FilterIndexes;
+
+/**
+ * Subscription of a {@link Watch}: it matches the {@link PublicationEvent}s whose item
+ * is matched by the filter of the watch.
+ * Each watch has its own identifier, so that the brokers never merge the subscriptions
+ * of different watches.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class WatchFilter implements Filter {
+	private static final long serialVersionUID = -1307264861460185325L;
+	private String watchID;
+	private Filter itemFilter;
+	
+	static {
+		FilterIndexes.register(WatchFilter.class, new FilterIndexFactory() {
+			public FilterIndex createIndex() {
+				return new WatchFilterIndex();
+			}
+		});
+	}
+	
+	/**
+	 * @param watchID Identifier of the watch, unique in the service.
+	 * @param itemFilter The filter matching the items watched.
+	 */
+	public WatchFilter(String watchID, Filter itemFilter) {
+		this.watchID = watchID;
+		this.itemFilter = itemFilter;
+	}
+	
+	public String getWatchID() {
+		return watchID;
+	}
+	
+	public Filter getItemFilter() {
+		return itemFilter;
+	}
+	
+	public boolean matches(Message msg) {
+		if (!(msg instanceof PublicationEvent))
+			return false;
+		PublicationEvent event = (PublicationEvent)msg;
+		return (event.getItem() != null) && itemFilter.matches(event.getItem());
+	}
+	
+	public boolean equals(Object o) {
+		return (o instanceof WatchFilter) && watchID.equals(((WatchFilter)o).watchID);
+	}
+	
+	public int hashCode() {
+		return watchID.hashCode();
+	}
+	
+	public String toString() {
+		return "WatchFilter[" + watchID + "; " + itemFilter + "]";
+	}
+}
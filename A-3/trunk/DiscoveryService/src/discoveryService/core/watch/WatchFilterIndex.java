@@ -0,0 +1,98 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.watch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.FilterIndexes;
+
+/**
+ * Index of the {@link WatchFilter}s: the filters of the items are indexed by the index 
+ * of their own type, if any, so that a {@link PublicationEvent} is matched against all
+ * the watches at once. The filters of the items that cannot be indexed are matched one by one.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class WatchFilterIndex implements FilterIndex {
+	private HashMap<Class<?>, FilterIndex> indexes;
+	private IdentityHashMap<Filter, WatchFilter> watches;
+	private ArrayList<WatchFilter> unindexed;
+	
+	public WatchFilterIndex() {
+		indexes = new HashMap<Class<?>, FilterIndex>();
+		watches = new IdentityHashMap<Filter, WatchFilter>();
+		unindexed = new ArrayList<WatchFilter>();
+	}
+	
+	public synchronized boolean add(Filter filter) {
+		if (!(filter instanceof WatchFilter))
+			return false;
+		WatchFilter watch = (WatchFilter)filter;
+		Filter itemFilter = watch.getItemFilter();
+		if ((itemFilter == null) || watches.containsKey(itemFilter) || unindexed.contains(watch))
+			return false;
+		FilterIndex index = indexes.get(itemFilter.getClass());
+		if ((index == null) && !indexes.containsKey(itemFilter.getClass())) {
+			index = FilterIndexes.create(itemFilter.getClass());
+			indexes.put(itemFilter.getClass(), index);
+		}
+		if ((index != null) && index.add(itemFilter))
+			watches.put(itemFilter, watch);
+		else
+			unindexed.add(watch);
+		return true;
+	}
+	
+	public synchronized void remove(Filter filter) {
+		if (!(filter instanceof WatchFilter))
+			return;
+		Filter itemFilter = ((WatchFilter)filter).getItemFilter();
+		if (watches.remove(itemFilter) != null)
+			indexes.get(itemFilter.getClass()).remove(itemFilter);
+		else
+			unindexed.remove(filter);
+	}
+	
+	public synchronized Collection<Filter> matches(Message msg) {
+		ArrayList<Filter> result = new ArrayList<Filter>();
+		if (!(msg instanceof PublicationEvent) || (((PublicationEvent)msg).getItem() == null))
+			return result;
+		Message item = ((PublicationEvent)msg).getItem();
+		for (FilterIndex index : indexes.values())
+			if (index != null)
+				for (Filter itemFilter : index.matches(item))
+					result.add(watches.get(itemFilter));
+		for (WatchFilter watch : unindexed)
+			if (watch.matches(msg))
+				result.add(watch);
+		return result;
+	}
+	
+	public synchronized int size() {
+		return watches.size() + unindexed.size();
+	}
+}
@@ -0,0 +1,67 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.watch;
+
+import java.util.Collection;
+
+import discoveryService.core.DSMessage;
+
+/**
+ * This interface allow users to react to the changes of the items matched by a {@link Watch}.
+ * The listener is registered trough <code>DSCore.watch()</code>.
+ * <p>
+ * The first call is always <code>snapshot()</code>; the other methods are called in the 
+ * order in which the changes are received, never concurrently for the same watch.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface WatchListener {
+	/**
+	 * Called once with the items published when the watch has been created.
+	 * 
+	 * @param items The matching items, possibly empty.
+	 */
+	public void snapshot(Collection<DSMessage> items);
+	
+	/**
+	 * Called when a matching item is published.
+	 * 
+	 * @param item The item published.
+	 */
+	public void added(DSMessage item);
+	
+	/**
+	 * Called when the publisher of a matching item replaces it.
+	 * 
+	 * @param previous The item previously published.
+	 * @param item The new item.
+	 */
+	public void changed(DSMessage previous, DSMessage item);
+	
+	/**
+	 * Called when a matching item is withdrawn or when its lease expires because 
+	 * the publisher stopped renewing it.
+	 * 
+	 * @param item The item removed.
+	 */
+	public void removed(DSMessage item);
+}
@@ -0,0 +1,66 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.core.watch;
+
+import polimi.reds.Repliable;
+import discoveryService.broker.Indexable;
+import discoveryService.broker.Shardable;
+import discoveryService.core.DSMessage;
+
+/**
+ * Request of the initial snapshot of a {@link Watch}. The brokers route it as the 
+ * search message it wraps, so it reaches the nodes with a matching publication; each
+ * of them replies with a {@link PublicationEvent} for every matching publication.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class WatchRequest extends DSMessage implements Repliable, Shardable, Indexable {
+	private static final long serialVersionUID = 6630584913286730377L;
+	private DSMessage query;
+	
+	/**
+	 * @param query The search message matched by the templates of the publications.
+	 */
+	public WatchRequest(DSMessage query) {
+		super();
+		this.query = query;
+	}
+	
+	public DSMessage getQuery() {
+		return query;
+	}
+	
+	public String getRoutingKey() {
+		return (query instanceof Shardable) ? ((Shardable)query).getRoutingKey() : null;
+	}
+	
+	public String getIndexKind() {
+		return (query instanceof Indexable) ? ((Indexable)query).getIndexKind() : null;
+	}
+	
+	public String getIndexKey() {
+		return (query instanceof Indexable) ? ((Indexable)query).getIndexKey() : null;
+	}
+	
+	public String toString() {
+		return "WatchRequest {" + query + "}";
+	}
+}
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.net.ConnectException;
 import java.util.ArrayList;
+import java.util.Collection;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultComboBoxModel;
@@ -43,25 +44,36 @@ import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import javax.swing.border.BevelBorder;
 
+import polimi.reds.Message;
 import polimi.reds.TimeoutException;
 import discoveryService.core.DSConfiguration;
 import discoveryService.core.DSCore;
 import discoveryService.core.DSMessage;
+import discoveryService.core.Engagement;
 import discoveryService.core.MessageListener;
+import discoveryService.core.ResultCursor;
 import discoveryService.core.StatusListener;
+import discoveryService.core.SuspicionListener;
 import discoveryService.core.status.Status;
 import discoveryService.core.status.StatusFilter;
+import discoveryService.core.watch.Watch;
+import discoveryService.core.watch.WatchListener;
 import discoveryService.demo.filter.ServiceDescriptorFilter;
 import discoveryService.demo.message.AbstractTask;
+import discoveryService.demo.message.QoS;
 import discoveryService.demo.message.SearchMessage;
 import discoveryService.demo.message.ServiceDescriptor;
 import discoveryService.demo.message.TaskResult;
 
 public class Client {
+	/**
+	 * Number of descriptors shown as the result of a search: the best ones by QoS.
+	 */
+	public final static int SEARCH_RESULTS = 3;
 	private DSCore dsCore;
 	private String nodeName;
 	private MessageListener mListener;
-	private StatusListener sListener;
+	private StatusListenerImpl sListener;
 	private final ClientGui gui = new ClientGui(this);
 	
 	public Client(DSConfiguration dsc) {
@@ -87,8 +99,9 @@ public class Client {
 		dsCore = new DSCore(dsc);
 		mListener = new MessageListenerImpl();
 		sListener = new StatusListenerImpl();
-		dsCore.registerMessageListener(mListener);
+		dsCore.addMessageListener(TaskResult.class, null, mListener);
 		dsCore.registerStatusListener(sListener);
+		dsCore.registerSuspicionListener(sListener);
 	}
 	
 	public void start() throws ConnectException, InterruptedException {
@@ -103,29 +116,33 @@ public class Client {
 	public ArrayList<ServiceDescriptor> search(SearchMessage template) {
 		ArrayList<ServiceDescriptor> results = new ArrayList<ServiceDescriptor>();
 		
-		dsCore.search(template);
-		
-		try {
-			// Attende qualche secondo prima di richiedere le repliche
-			java.util.concurrent.TimeUnit.MILLISECONDS.sleep(3000);
-		} catch(InterruptedException e) {			
-		}
-		
-		while(dsCore.hasMoreReplies()) {
-			try {
-				results.add((ServiceDescriptor)dsCore.getNextReply(template.getID()));
-			} catch (TimeoutException e) {
-				System.err.println("Search in time out!");
-			}
-		}
+		// Attende le repliche per qualche secondo; le ricerche uguali in corso vengono unite
+		template.setReplyTimeout(3000);
+		for (Message reply : dsCore.searchAll(template))
+			results.add((ServiceDescriptor)reply);
 		System.out.println("Search finished");
 		return results;
 	}
 	
+	public ResultCursor searchPages(SearchMessage template, int pageSize) {
+		// Le pagine successive vengono cercate solo quando richieste;
+		// richiede che i broker siano in directory mode (directoryMode=yes)
+		template.setReplyTimeout(3000);
+		template.setLimit(pageSize);
+		return dsCore.openCursor(template);
+	}
+	
+	public Watch watch(ServiceDescriptor template, WatchListener listener) {
+		// Notifica i descriptor pubblicati, modificati e ritirati invece di ripetere la ricerca
+		ServiceDescriptorFilter sdf = new ServiceDescriptorFilter(template);
+		return dsCore.watch(sdf, new SearchMessage(sdf), listener);
+	}
+	
 	public ArrayList<TaskResult> getResult(SumTask task) {
 		ArrayList<TaskResult> results = new ArrayList<TaskResult>();
 		
 		System.out.println("in getresult");
+		// Attende finche' non arriva il risultato: il tempo di calcolo del task non e' noto
 		while (results.size() < 1) {
 			try {
 				java.util.concurrent.TimeUnit.MILLISECONDS.sleep(1000);
@@ -137,8 +154,8 @@ public class Client {
 				try {
 					results.add((TaskResult)dsCore.getNextReply(task.getID()));
 				} catch (TimeoutException e) {
-					gui.jTextAreaNotify.append("Search in time out!\n");
-					System.out.println("Search in time out!");
+					gui.jTextAreaNotify.append("Task in time out!\n");
+					System.out.println("Task in time out!");
 				}
 			}
 			System.out.println("results: " + results);
@@ -153,9 +170,25 @@ public class Client {
 		return sf;
 	}
 	
+	public StatusFilter engageAll(Collection<String> nodeNames) {
+		gui.jTextAreaNotify.append("Engaging with " + nodeNames + "...");
+		// Le richieste partono tutte insieme: si attende solo la risposta piu' lenta
+		Engagement engagement = dsCore.engageAll(nodeNames);
+		try {
+			engagement.get();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		if (engagement.getFailedNodes().isEmpty())
+			gui.jTextAreaNotify.append("success!\n");
+		else
+			gui.jTextAreaNotify.append("failed with " + engagement.getFailedNodes() + "\n");
+		return engagement.getFilter();
+	}
+	
 	public void sendTask(AbstractTask task) {
 		task.setNodeName(nodeName);
-		dsCore.getDispatchingService().publish(task);
+		dsCore.request(task);
 		//dsCore.publish(task, null);
 	}
 	
@@ -166,17 +199,25 @@ public class Client {
 	
 	private class MessageListenerImpl implements MessageListener {
 		public void notify(DSMessage msg) {
-			if (msg instanceof TaskResult) {
-				
-			}
+			// riceve solo i TaskResult
 		}
 	}
 	
-	private class StatusListenerImpl implements StatusListener {
+	private class StatusListenerImpl implements StatusListener, SuspicionListener {
 		public void notify(Status status) {
 			System.out.println(status);
 			gui.jTextAreaNotify.append(status + "\n");
 		}
+		
+		public void suspect(String nodeName, double phi) {
+			System.out.println(nodeName + " suspected (phi = " + phi + ")");
+			gui.jTextAreaNotify.append(nodeName + " suspected (phi = " + phi + ")\n");
+		}
+		
+		public void trust(String nodeName) {
+			System.out.println(nodeName + " trusted again");
+			gui.jTextAreaNotify.append(nodeName + " trusted again\n");
+		}
 	}
 	
 	public static void main(String[] args) throws IOException, InterruptedException {
@@ -269,7 +310,9 @@ public class Client {
 							else
 								template.setServiceID(jTextFieldService.getText());
 							
-							if (jTextFieldQoS.getText() == "")
+							// Un livello di QoS viene cercato come "almeno quel livello"
+							QoS.Level level = QoS.Level.parse(jTextFieldQoS.getText());
+							if ((jTextFieldQoS.getText() == "") || (level != null))
 								template.setQos(null);
 							else							
 								template.setQos(jTextFieldQoS.getText());
@@ -277,7 +320,11 @@ public class Client {
 							SwingUtilities.invokeLater(new UpdateSearchData(template));
 							
 							ServiceDescriptorFilter sdf = new ServiceDescriptorFilter(template);
+							sdf.setMinQosLevel(level);
+							// I broker ordinano i descriptor e inviano solo i migliori
 							SearchMessage sm = new SearchMessage(sdf);
+							sm.setOrderBy(QoS.Attribute.LEVEL, QoS.Attribute.LATENCY, QoS.Attribute.CAPACITY);
+							sm.setLimit(SEARCH_RESULTS);
 							ArrayList<ServiceDescriptor> results = client.search(sm);
 							synchronized(nodes) {
 								nodes = new ArrayList<ServiceDescriptor>(results);
@@ -303,11 +350,19 @@ public class Client {
 					jButtonEngage.addActionListener(new ActionListener() {
 						public void actionPerformed(ActionEvent e) {
 							ServiceDescriptor node;
+							int[] selected = jListSearchResult.getSelectedIndices();
 							
-							if (jListSearchResult.getSelectedIndex() >= 0) {
-								node = nodes.get(jListSearchResult.getSelectedIndex());
+							if (selected.length == 1) {
+								node = nodes.get(selected[0]);
 								client.engage(node.getNodeName());
 							}
+							else if (selected.length > 1) {
+								// Engagement di tutti i nodi selezionati con una sola sottoscrizione
+								ArrayList<String> names = new ArrayList<String>();
+								for (int i : selected)
+									names.add(nodes.get(i).getNodeName());
+								client.engageAll(names);
+							}
 							else 
 								JOptionPane.showMessageDialog(ClientGui.this, "You must select a node", "!!!", JOptionPane.ERROR_MESSAGE);
 						}
@@ -27,6 +27,7 @@ import discoveryService.core.DSConfiguration;
 import discoveryService.core.DSCore;
 import discoveryService.core.DSMessage;
 import discoveryService.core.MessageListener;
+import discoveryService.core.Ranking;
 import discoveryService.core.status.Status;
 import discoveryService.demo.filter.SearchMessageFilter;
 import discoveryService.demo.filter.TaskFilter;
@@ -39,7 +40,6 @@ public class Processor {
 	private DSConfiguration dsc;
 	private ServiceDescriptor sd;
 	private DSCore dsCore;
-	private MessageListener mListener;
 	private Status status;
 	
 	public Processor(DSConfiguration dsc, ServiceDescriptor sd) throws UnknownHostException, ConnectException {
@@ -47,8 +47,9 @@ public class Processor {
 		this.sd = sd;
 		//status = new  Status(dsc.getNodeName(), InetAddress.getLocalHost().getHostAddress(), new Integer(0));
 		dsCore = new DSCore(dsc);
-		mListener = new MessageListenerImpl();
-		dsCore.registerMessageListener(mListener);
+		// un listener per ogni tipo di messaggio gestito
+		dsCore.addMessageListener(SearchMessage.class, null, new SearchListener());
+		dsCore.addMessageListener(AbstractTask.class, null, new TaskListener());
 		dsCore.start();
 	}
 	
@@ -63,17 +64,20 @@ public class Processor {
 		dsCore.subscribe(new TaskFilter(dsc.getNodeName()));
 	}
 	
-	private class MessageListenerImpl implements MessageListener {
+	private class SearchListener implements MessageListener {
 		public void notify(DSMessage msg) {
-			if (msg instanceof SearchMessage) {
-				System.out.println("[" + dsc.getNodeName() + "]: received from " + msg.getNodeName() + " SearchMessage --> " + ((SearchMessage)msg).toString());
+			System.out.println("[" + dsc.getNodeName() + "]: received from " + msg.getNodeName() + " SearchMessage --> " + ((SearchMessage)msg).toString());
+			// Risponde solo se il descrittore appartiene alla pagina richiesta
+			if (Ranking.isAfterCursor((SearchMessage)msg, sd))
 				dsCore.reply(sd, msg.getID());
-			}
-			else if (msg instanceof AbstractTask) {
-				System.out.println("[" + dsc.getNodeName() + "]: received from " + msg.getNodeName() + " Task --> " + ((SumTask)msg).toString());
-				System.out.println("[" + dsc.getNodeName() + "]: starting performer thread");
-				new Thread(new Performer((AbstractTask)msg)).start();
-			}
+		}
+	}
+	
+	private class TaskListener implements MessageListener {
+		public void notify(DSMessage msg) {
+			System.out.println("[" + dsc.getNodeName() + "]: received from " + msg.getNodeName() + " Task --> " + ((AbstractTask)msg).toString());
+			System.out.println("[" + dsc.getNodeName() + "]: starting performer thread");
+			new Thread(new Performer((AbstractTask)msg)).start();
 		}
 	}
 	
@@ -111,7 +115,7 @@ public class Processor {
 		}
 	}
 	
-	// args: config_file nodeName serviceID Qos port
+	// args: config_file nodeName serviceID Qos port [latency capacity]
 	public static void main(String[] args) throws IOException {
 		DSConfiguration conf = new DSConfiguration(args[0]);
 		conf.setNodeName(args[1]);
@@ -121,6 +125,10 @@ public class Processor {
 		desc.setNodeName(conf.getNodeName());
 		desc.setServiceID(args[2]);
 		desc.setQos(args[3]);
+		if (args.length > 6) {
+			desc.setLatency(Long.valueOf(args[5]));
+			desc.setCapacity(Long.valueOf(args[6]));
+		}
 		
 		Processor p = new Processor(conf, desc);
 		p.start();
@@ -59,6 +59,8 @@ public class ProcessorPool {
 				sd.setNodeName(conf.getNodeName());
 				sd.setServiceID("processor service");
 				sd.setQos(qos[rand.nextInt(3)]);
+				sd.setLatency(Long.valueOf(10 + rand.nextInt(200)));
+				sd.setCapacity(Long.valueOf(1 + rand.nextInt(8)));
 				Processor p = new Processor(confTmp, sd);
 				p.start();
 			}
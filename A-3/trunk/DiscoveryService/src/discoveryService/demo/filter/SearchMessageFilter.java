@@ -21,13 +21,33 @@ package discoveryService.demo.filter;
 
 import polimi.reds.Filter;
 import polimi.reds.Message;
+import discoveryService.broker.Indexable;
+import discoveryService.broker.Shardable;
+import discoveryService.core.CoveringFilter;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.FilterIndexFactory;
+import discoveryService.core.match.FilterIndexes;
 import discoveryService.demo.message.SearchMessage;
 import discoveryService.demo.message.ServiceDescriptor;
 
-public class SearchMessageFilter implements Filter {
+/**
+ * Subscription made by a node for each service it publishes: it matches the searches whose
+ * template matches the descriptor of the service. A <code>null</code> attribute of the 
+ * descriptor is a wildcard matching any template on that attribute. Brokers match the
+ * subscriptions of many services at once through a {@link SearchMessageFilterIndex}.
+ */
+public class SearchMessageFilter implements CoveringFilter, Shardable, Indexable {
 	private static final long serialVersionUID = 4751645322673605758L;
 	private ServiceDescriptor mySD;
 	
+	static {
+		FilterIndexes.register(SearchMessageFilter.class, new FilterIndexFactory() {
+			public FilterIndex createIndex() {
+				return new SearchMessageFilterIndex();
+			}
+		});
+	}
+	
 	public SearchMessageFilter(ServiceDescriptor myServiceDescriptor) {
 		mySD = myServiceDescriptor;
 	}
@@ -36,8 +56,73 @@ public class SearchMessageFilter implements Filter {
 		return mySD;
 	}
 	
+	/**
+	 * The subscription is owned by the broker responsible for the service ID.
+	 */
+	public String getRoutingKey() {
+		return mySD.getServiceID();
+	}
+	
+	public String getIndexKind() {
+		return SearchMessage.INDEX_KIND;
+	}
+	
+	public String getIndexKey() {
+		return mySD.getServiceID();
+	}
+	
 	public int hashCode() {
-		return "SearchMessageFilter".concat(mySD.getNodeName().concat(mySD.getServiceID().concat(mySD.getQos()))).hashCode();
+		return ("SearchMessageFilter" + mySD.getNodeName() + mySD.getServiceID() + mySD.getQos() 
+				+ mySD.getLatency() + mySD.getCapacity()).hashCode();
+	}
+	
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SearchMessageFilter))
+			return false;
+		ServiceDescriptor sd = ((SearchMessageFilter)obj).mySD;
+		return equal(mySD.getNodeName(), sd.getNodeName()) && equal(mySD.getServiceID(), sd.getServiceID()) 
+				&& equal(mySD.getQos(), sd.getQos()) && equal(mySD.getLatency(), sd.getLatency()) 
+				&& equal(mySD.getCapacity(), sd.getCapacity());
+	}
+	
+	/**
+	 * Every attribute of the descriptor is either a wildcard or equal to the one of the 
+	 * other descriptor.
+	 */
+	public boolean covers(Filter filter) {
+		if (!(filter instanceof SearchMessageFilter))
+			return false;
+		ServiceDescriptor sd = ((SearchMessageFilter)filter).mySD;
+		return covers(mySD.getNodeName(), sd.getNodeName()) && covers(mySD.getServiceID(), sd.getServiceID()) 
+				&& covers(mySD.getQos(), sd.getQos()) && covers(mySD.getLatency(), sd.getLatency()) 
+				&& covers(mySD.getCapacity(), sd.getCapacity());
+	}
+	
+	/**
+	 * The subscriptions for the same service published by different nodes are forwarded as
+	 * a single subscription without the node name.
+	 */
+	public CoveringFilter generalize() {
+		if (mySD.getNodeName() == null)
+			return this;
+		ServiceDescriptor sd = new ServiceDescriptor();
+		sd.setServiceID(mySD.getServiceID());
+		sd.setQos(mySD.getQos());
+		sd.setLatency(mySD.getLatency());
+		sd.setCapacity(mySD.getCapacity());
+		return new SearchMessageFilter(sd);
+	}
+	
+	private static boolean covers(Object mine, Object other) {
+		return (mine == null) || mine.equals(other);
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+	
+	public String toString() {
+		return "SearchMessageFilter[" + mySD + "]";
 	}
 
 	@Override
@@ -0,0 +1,133 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.demo.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.demo.message.SearchMessage;
+
+/**
+ * Matches a {@link SearchMessage} against many {@link SearchMessageFilter}s at once: the
+ * filters are grouped by the service ID of their descriptor, so that the pattern of the
+ * search is evaluated once for each distinct service ID instead of once for each filter, 
+ * and a search for an exact service ID only looks at the filters of that service. The 
+ * whole template of the search is then checked on the filters of the matching services.
+ */
+public class SearchMessageFilterIndex implements FilterIndex {
+	private IdentityHashMap<Filter, String> ids;
+	// Filters by service ID, the filters with a null service ID match any search
+	private HashMap<String, ArrayList<SearchMessageFilter>> byServiceID;
+	private ArrayList<SearchMessageFilter> anyServiceID;
+	
+	public SearchMessageFilterIndex() {
+		ids = new IdentityHashMap<Filter, String>();
+		byServiceID = new HashMap<String, ArrayList<SearchMessageFilter>>();
+		anyServiceID = new ArrayList<SearchMessageFilter>();
+	}
+	
+	public synchronized boolean add(Filter filter) {
+		if (!(filter instanceof SearchMessageFilter) || ids.containsKey(filter) ||
+				(((SearchMessageFilter)filter).getServiceDescriptor() == null))
+			return false;
+		String serviceID = ((SearchMessageFilter)filter).getServiceDescriptor().getServiceID();
+		ids.put(filter, serviceID);
+		getBucket(serviceID, true).add((SearchMessageFilter)filter);
+		return true;
+	}
+	
+	public synchronized void remove(Filter filter) {
+		if (!ids.containsKey(filter))
+			return;
+		String serviceID = ids.remove(filter);
+		ArrayList<SearchMessageFilter> bucket = getBucket(serviceID, false);
+		for (int i = 0; i < bucket.size(); i++) {
+			if (bucket.get(i) == filter) {
+				bucket.remove(i);
+				break;
+			}
+		}
+		if ((serviceID != null) && bucket.isEmpty())
+			byServiceID.remove(serviceID);
+	}
+	
+	public synchronized Collection<Filter> matches(Message msg) {
+		ArrayList<Filter> result = new ArrayList<Filter>();
+		if (!(msg instanceof SearchMessage) || ids.isEmpty())
+			return result;
+		ServiceDescriptorFilter sdf = ((SearchMessage)msg).getServiceDescriptorFilter();
+		if (sdf == null)
+			return result;
+		String regex = (sdf.getServiceDescriptorTemplate() == null) ? null : sdf.getServiceDescriptorTemplate().getServiceID();
+		String exact = (regex == null) ? null : sdf.getExactServiceID();
+		
+		check(anyServiceID, msg, result);
+		if (exact != null) {
+			ArrayList<SearchMessageFilter> bucket = byServiceID.get(exact);
+			if (bucket != null)
+				check(bucket, msg, result);
+			return result;
+		}
+		Pattern pattern = null;
+		if (regex != null) {
+			try {
+				pattern = Pattern.compile(regex);
+			} catch (PatternSyntaxException e) {
+				return result;
+			}
+		}
+		for (Map.Entry<String, ArrayList<SearchMessageFilter>> bucket : byServiceID.entrySet())
+			if ((pattern == null) || pattern.matcher(bucket.getKey()).find())
+				check(bucket.getValue(), msg, result);
+		return result;
+	}
+	
+	public synchronized int size() {
+		return ids.size();
+	}
+	
+	private ArrayList<SearchMessageFilter> getBucket(String serviceID, boolean create) {
+		if (serviceID == null)
+			return anyServiceID;
+		ArrayList<SearchMessageFilter> bucket = byServiceID.get(serviceID);
+		if ((bucket == null) && create) {
+			bucket = new ArrayList<SearchMessageFilter>();
+			byServiceID.put(serviceID, bucket);
+		}
+		return bucket;
+	}
+	
+	/**
+	 * Check the whole template of the search on the filters of a service.
+	 */
+	private static void check(ArrayList<SearchMessageFilter> filters, Message msg, ArrayList<Filter> result) {
+		for (SearchMessageFilter filter : filters)
+			if (filter.matches(msg))
+				result.add(filter);
+	}
+}
@@ -24,11 +24,31 @@ import java.util.regex.Pattern;
 
 import polimi.reds.Filter;
 import polimi.reds.Message;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.FilterIndexFactory;
+import discoveryService.core.match.FilterIndexes;
+import discoveryService.demo.message.QoS;
 import discoveryService.demo.message.ServiceDescriptor;
 
 public class ServiceDescriptorFilter implements Filter {
 	private static final long serialVersionUID = 5838338101131219756L;
 	private ServiceDescriptor sdTemplate;
+	// Range conditions on the QoS, null if not required
+	private QoS.Level minQosLevel;
+	private Long maxLatency;
+	private Long minCapacity;
+	// Patterns compiled from the template, the same filter is matched against many descriptors
+	private transient Pattern nodeNamePattern;
+	private transient Pattern serviceIDPattern;
+	private transient Pattern qosPattern;
+	
+	static {
+		FilterIndexes.register(ServiceDescriptorFilter.class, new FilterIndexFactory() {
+			public FilterIndex createIndex() {
+				return new ServiceDescriptorFilterIndex();
+			}
+		});
+	}
 	
 	public ServiceDescriptorFilter(ServiceDescriptor template) {
 		super();
@@ -43,6 +63,86 @@ public class ServiceDescriptorFilter implements Filter {
 		return sdTemplate;
 	}
 	
+	/**
+	 * Require a QoS level at least equal to the given one, e.g. "at least MEDIUM".
+	 * 
+	 * @param level The minimum level or <code>null</code> to accept any QoS.
+	 */
+	public void setMinQosLevel(QoS.Level level) {
+		minQosLevel = level;
+	}
+	
+	public QoS.Level getMinQosLevel() {
+		return minQosLevel;
+	}
+	
+	/**
+	 * Require a latency not greater than the given one.
+	 * 
+	 * @param latency The maximum latency in milliseconds or <code>null</code> to accept any latency.
+	 */
+	public void setMaxLatency(Long latency) {
+		maxLatency = latency;
+	}
+	
+	public Long getMaxLatency() {
+		return maxLatency;
+	}
+	
+	/**
+	 * Require a capacity not lower than the given one.
+	 * 
+	 * @param capacity The minimum capacity or <code>null</code> to accept any capacity.
+	 */
+	public void setMinCapacity(Long capacity) {
+		minCapacity = capacity;
+	}
+	
+	public Long getMinCapacity() {
+		return minCapacity;
+	}
+	
+	/**
+	 * Return a pattern matching exactly the given service ID, to be used in a template.
+	 * Searches using it can be routed directly to the broker owning the service ID.
+	 */
+	public static String exactServiceID(String serviceID) {
+		return "^" + Pattern.quote(serviceID) + "$";
+	}
+	
+	/**
+	 * Return the service ID matched by the template if it is a single literal value,
+	 * i.e. a pattern anchored at both ends (<code>^...$</code>) that is quoted or does 
+	 * not contain any special character.
+	 * 
+	 * @return The service ID or <code>null</code> if the template can match many values.
+	 */
+	public String getExactServiceID() {
+		String id = sdTemplate.getServiceID();
+		if ((id == null) || !id.startsWith("^") || !id.endsWith("$") || (id.length() < 2))
+			return null;
+		String literal = id.substring(1, id.length() - 1);
+		if (literal.startsWith("\\Q") && literal.endsWith("\\E") && (literal.indexOf("\\E") == literal.length() - 2))
+			return literal.substring(2, literal.length() - 2);
+		for (int i = 0; i < literal.length(); i++)
+			if ("\\[](){}.*+?^$|".indexOf(literal.charAt(i)) >= 0)
+				return null;
+		return literal;
+	}
+	
+	/**
+	 * Return a string that is equal for the filters with the same template.
+	 */
+	public String getCanonicalForm() {
+		return canonical(sdTemplate.getNodeName()) + canonical(sdTemplate.getServiceID()) + canonical(sdTemplate.getQos())
+				+ canonical((minQosLevel == null) ? null : minQosLevel.name()) 
+				+ canonical((maxLatency == null) ? null : maxLatency.toString())
+				+ canonical((minCapacity == null) ? null : minCapacity.toString());
+	}
+	
+	private static String canonical(String attribute) {
+		return (attribute == null) ? "*;" : attribute.length() + ":" + attribute + ";";
+	}
 	
 	@Override
 	public boolean matches(Message arg0) {
@@ -55,37 +155,73 @@ public class ServiceDescriptorFilter implements Filter {
 		
 		ServiceDescriptor sd = (ServiceDescriptor)arg0;
 		// Il valore null di un attributo nel template viene considerato come la wildcard *
-		if (sdTemplate.getNodeName() == null)
+		// Anche il valore null di un attributo del descriptor (filtri generalizzati dai broker)
+		if ((sdTemplate.getNodeName() == null) || (sd.getNodeName() == null))
 			nodeNameCond = true;
 		else {
-			Pattern p = Pattern.compile(sdTemplate.getNodeName());
-			Matcher m = p.matcher(sd.getNodeName());
+			nodeNamePattern = compile(nodeNamePattern, sdTemplate.getNodeName());
+			Matcher m = nodeNamePattern.matcher(sd.getNodeName());
 			nodeNameCond = m.find();
 		}
 		
-		if (sdTemplate.getServiceID() == null)
+		if ((sdTemplate.getServiceID() == null) || (sd.getServiceID() == null))
 			serviceIDCond = true;
 		else {
-			Pattern p = Pattern.compile(sdTemplate.getServiceID());
-			Matcher m = p.matcher(sd.getServiceID());
+			serviceIDPattern = compile(serviceIDPattern, sdTemplate.getServiceID());
+			Matcher m = serviceIDPattern.matcher(sd.getServiceID());
 			serviceIDCond = m.find();
 		}
 		
-		if (sdTemplate.getQos() == null)
+		if ((sdTemplate.getQos() == null) || (sd.getQos() == null))
 			qosCond = true;
 		else {
-			Pattern p = Pattern.compile(sdTemplate.getQos());
-			Matcher m = p.matcher(sd.getQos());
+			qosPattern = compile(qosPattern, sdTemplate.getQos());
+			Matcher m = qosPattern.matcher(sd.getQos());
 			qosCond = m.find();
 		}
 		
-		return nodeNameCond && serviceIDCond && qosCond;
+		return nodeNameCond && serviceIDCond && qosCond && matchesRanges(sd);
+	}
+	
+	/**
+	 * Check the range conditions. As for the patterns, an unknown attribute of the 
+	 * descriptor satisfies any condition.
+	 */
+	boolean matchesRanges(ServiceDescriptor sd) {
+		if ((minQosLevel != null) && (sd.getQos() != null)) {
+			QoS.Level level = sd.getQosLevel();
+			if ((level == null) || (level.compareTo(minQosLevel) < 0))
+				return false;
+		}
+		if ((maxLatency != null) && (sd.getLatency() != null) && (sd.getLatency().longValue() > maxLatency.longValue()))
+			return false;
+		if ((minCapacity != null) && (sd.getCapacity() != null) && (sd.getCapacity().longValue() < minCapacity.longValue()))
+			return false;
+		return true;
+	}
+	
+	/**
+	 * Return <code>true</code> if the filter has range conditions.
+	 */
+	boolean hasRanges() {
+		return (minQosLevel != null) || (maxLatency != null) || (minCapacity != null);
+	}
+	
+	/**
+	 * Return the compiled pattern, compiling it again only if the template changed.
+	 */
+	private static Pattern compile(Pattern compiled, String regex) {
+		if ((compiled != null) && compiled.pattern().equals(regex))
+			return compiled;
+		return Pattern.compile(regex);
 	}
 	
 	public String toString() {
 		return "ServiceDescriptorFilter[ nodeName: " + sdTemplate.getNodeName() + 
 										", serviceID: " + sdTemplate.getServiceID() + 
-										", qos: " + sdTemplate.getQos() + "]";
+										", qos: " + sdTemplate.getQos() + 
+										(hasRanges() ? ", qos >= " + minQosLevel + ", latency <= " + maxLatency 
+												+ ", capacity >= " + minCapacity : "") + "]";
 	}
 
 }
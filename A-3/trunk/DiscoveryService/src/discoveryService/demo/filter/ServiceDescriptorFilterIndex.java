@@ -0,0 +1,180 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.demo.filter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.PatternSyntaxException;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import discoveryService.core.match.FilterIndex;
+import discoveryService.core.match.MultiPatternMatcher;
+import discoveryService.demo.message.ServiceDescriptor;
+
+/**
+ * Matches a {@link ServiceDescriptor} against many {@link ServiceDescriptorFilter}s at once:
+ * the patterns of each attribute of the templates are compiled in a {@link MultiPatternMatcher},
+ * and a descriptor is matched by the filters whose three attributes match. The range
+ * conditions on the QoS are then checked on those filters only.
+ * <p>
+ * Descriptors are matched concurrently, while adding or removing a filter takes the index
+ * exclusively. The identifiers of the removed filters are reused, so that the bit sets do
+ * not grow as the subscriptions are renewed.
+ * </p>
+ */
+public class ServiceDescriptorFilterIndex implements FilterIndex {
+	private IdentityHashMap<Filter, Integer> ids;
+	private HashMap<Integer, ServiceDescriptorFilter> filters;
+	private int nextID;
+	private LinkedList<Integer> freeIDs;
+	private MultiPatternMatcher nodeNames;
+	private MultiPatternMatcher serviceIDs;
+	private MultiPatternMatcher qos;
+	// Filters with a null attribute, matching any value
+	private BitSet anyNodeName;
+	private BitSet anyServiceID;
+	private BitSet anyQos;
+	private BitSet all;
+	private ReentrantReadWriteLock lock;
+	
+	public ServiceDescriptorFilterIndex() {
+		ids = new IdentityHashMap<Filter, Integer>();
+		filters = new HashMap<Integer, ServiceDescriptorFilter>();
+		nextID = 0;
+		freeIDs = new LinkedList<Integer>();
+		nodeNames = new MultiPatternMatcher();
+		serviceIDs = new MultiPatternMatcher();
+		qos = new MultiPatternMatcher();
+		anyNodeName = new BitSet();
+		anyServiceID = new BitSet();
+		anyQos = new BitSet();
+		all = new BitSet();
+		lock = new ReentrantReadWriteLock();
+	}
+	
+	public boolean add(Filter filter) {
+		if (!(filter instanceof ServiceDescriptorFilter))
+			return false;
+		ServiceDescriptor template = ((ServiceDescriptorFilter)filter).getServiceDescriptorTemplate();
+		if (template == null)
+			return false;
+		lock.writeLock().lock();
+		try {
+			if (ids.containsKey(filter))
+				return false;
+			int id = freeIDs.isEmpty() ? nextID++ : freeIDs.removeFirst();
+			try {
+				add(nodeNames, anyNodeName, id, template.getNodeName());
+				add(serviceIDs, anyServiceID, id, template.getServiceID());
+				add(qos, anyQos, id, template.getQos());
+			} catch (PatternSyntaxException e) {
+				remove(id);
+				return false;
+			}
+			ids.put(filter, id);
+			filters.put(id, (ServiceDescriptorFilter)filter);
+			all.set(id);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void remove(Filter filter) {
+		lock.writeLock().lock();
+		try {
+			Integer id = ids.remove(filter);
+			if (id == null)
+				return;
+			filters.remove(id);
+			remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public Collection<Filter> matches(Message msg) {
+		ArrayList<Filter> result = new ArrayList<Filter>();
+		if (!(msg instanceof ServiceDescriptor))
+			return result;
+		ServiceDescriptor sd = (ServiceDescriptor)msg;
+		lock.readLock().lock();
+		try {
+			if (filters.isEmpty())
+				return result;
+			BitSet matching = match(nodeNames, anyNodeName, sd.getNodeName());
+			matching.and(match(serviceIDs, anyServiceID, sd.getServiceID()));
+			matching.and(match(qos, anyQos, sd.getQos()));
+			for (int id = matching.nextSetBit(0); id >= 0; id = matching.nextSetBit(id + 1)) {
+				ServiceDescriptorFilter filter = filters.get(id);
+				if (!filter.hasRanges() || filter.matchesRanges(sd))
+					result.add(filter);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+	
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return filters.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void add(MultiPatternMatcher matcher, BitSet any, int id, String regex) {
+		if (regex == null)
+			any.set(id);
+		else
+			matcher.add(id, regex);
+	}
+	
+	private void remove(int id) {
+		nodeNames.remove(id);
+		serviceIDs.remove(id);
+		qos.remove(id);
+		anyNodeName.clear(id);
+		anyServiceID.clear(id);
+		anyQos.clear(id);
+		all.clear(id);
+		freeIDs.add(id);
+	}
+	
+	/**
+	 * A null attribute of the descriptor is matched by any filter, as in 
+	 * <code>ServiceDescriptorFilter.matches()</code>.
+	 */
+	private BitSet match(MultiPatternMatcher matcher, BitSet any, String value) {
+		if (value == null)
+			return (BitSet)all.clone();
+		BitSet matching = matcher.match(value);
+		matching.or(any);
+		return matching;
+	}
+}
@@ -21,9 +21,13 @@ package discoveryService.demo.filter;
 
 import polimi.reds.Filter;
 import polimi.reds.Message;
+import discoveryService.broker.Indexable;
+import discoveryService.core.CoveringFilter;
+import discoveryService.core.Envelope;
+import discoveryService.core.RoutingHeader;
 import discoveryService.demo.message.AbstractTask;
 
-public class TaskFilter implements Filter {
+public class TaskFilter implements CoveringFilter, Indexable {
 	private static final long serialVersionUID = -7673304404110438522L;
 	private String destNode;
 	
@@ -38,8 +42,21 @@ public class TaskFilter implements Filter {
 	public void setDestinationNode(String nodeName) {
 		destNode = nodeName;
 	}
+	
+	public String getIndexKind() {
+		return AbstractTask.INDEX_KIND;
+	}
+	
+	public String getIndexKey() {
+		return destNode;
+	}
 	@Override
 	public boolean matches(Message arg0) {
+		// Brokers match the sealed messages on the routing header
+		if (arg0 instanceof Envelope) {
+			RoutingHeader header = ((Envelope)arg0).getHeader();
+			return header.isA(AbstractTask.class) && destNode.equals(header.getDestination());
+		}
 		if (!(arg0 instanceof AbstractTask))
 			return false;
 		AbstractTask task = (AbstractTask)arg0;
@@ -49,5 +66,27 @@ public class TaskFilter implements Filter {
 			return false;
 		
 	}
+	
+	public boolean covers(Filter filter) {
+		return equals(filter);
+	}
+	
+	/**
+	 * Tasks are addressed to a single node: the filter is never generalized.
+	 */
+	public CoveringFilter generalize() {
+		return this;
+	}
+	
+	public int hashCode() {
+		return ("TaskFilter" + destNode).hashCode();
+	}
+	
+	public boolean equals(Object obj) {
+		if (!(obj instanceof TaskFilter))
+			return false;
+		String other = ((TaskFilter)obj).destNode;
+		return (destNode == null) ? (other == null) : destNode.equals(other);
+	}
 
 }
@@ -21,9 +21,12 @@ package discoveryService.demo.filter;
 
 import polimi.reds.Filter;
 import polimi.reds.Message;
+import discoveryService.broker.Indexable;
+import discoveryService.core.Envelope;
+import discoveryService.core.RoutingHeader;
 import discoveryService.demo.message.TaskResult;
 
-public class TaskResultFilter implements Filter {
+public class TaskResultFilter implements Filter, Indexable {
 	private static final long serialVersionUID = 6166633499257509103L;
 	private String destNode;
 	
@@ -39,8 +42,21 @@ public class TaskResultFilter implements Filter {
 		destNode = nodeName;
 	}
 	
+	public String getIndexKind() {
+		return TaskResult.INDEX_KIND;
+	}
+	
+	public String getIndexKey() {
+		return destNode;
+	}
+	
 	@Override
 	public boolean matches(Message arg0) {
+		// Brokers match the sealed messages on the routing header
+		if (arg0 instanceof Envelope) {
+			RoutingHeader header = ((Envelope)arg0).getHeader();
+			return header.isA(TaskResult.class) && destNode.equals(header.getDestination());
+		}
 		if (!(arg0 instanceof TaskResult))
 			return false;
 		TaskResult result = (TaskResult)arg0;
@@ -20,10 +20,17 @@
 package discoveryService.demo.message;
 
 import polimi.reds.Repliable;
+import discoveryService.broker.Indexable;
 import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
+import discoveryService.core.RoutingHeader;
 
-public abstract class AbstractTask extends DSMessage implements Repliable {
+public abstract class AbstractTask extends DSMessage implements Repliable, Indexable {
 	private static final long serialVersionUID = 1595495262590364937L;
+	/**
+	 * Kind of the index keys of the tasks and of their filters.
+	 */
+	public final static String INDEX_KIND = "task";
 	protected String destination;
 	protected TaskResult taskResult;
 	
@@ -47,4 +54,30 @@ public abstract class AbstractTask extends DSMessage implements Repliable {
 	public void setDestination(String destination) {
 		this.destination = destination;
 	}
+	
+	public String getIndexKind() {
+		return INDEX_KIND;
+	}
+	
+	/**
+	 * The index key is the destination node.
+	 */
+	public String getIndexKey() {
+		return getDestination();
+	}
+	
+	/**
+	 * The brokers route the task on its destination, without deserializing it.
+	 */
+	@Override
+	public RoutingHeader getRoutingHeader() {
+		RoutingHeader header = new RoutingHeader(this);
+		header.setDestination(destination);
+		return header;
+	}
+	
+	@Override
+	protected Priority getDefaultPriority() {
+		return Priority.BULK;
+	}
 }
@@ -0,0 +1,93 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.demo.message;
+
+/**
+ * Typed quality of service of a {@link ServiceDescriptor}: an ordered level and numeric 
+ * attributes (latency in milliseconds, capacity in tasks). The searches can require
+ * ranges of them and ask for the results ordered by them.
+ */
+public class QoS {
+	/**
+	 * Levels of quality of service, from the lowest to the highest.
+	 */
+	public enum Level {
+		LOW, MEDIUM, HIGH;
+		
+		/**
+		 * Return the level with the given name, ignoring the case.
+		 * 
+		 * @return The level or <code>null</code> if the name is not a level.
+		 */
+		public static Level parse(String name) {
+			if (name == null)
+				return null;
+			for (Level level : values())
+				if (level.name().equalsIgnoreCase(name))
+					return level;
+			return null;
+		}
+	}
+	
+	/**
+	 * Attributes the results of a search can be ordered by. Each attribute has its own
+	 * direction: higher levels, lower latencies and higher capacities come first.
+	 */
+	public enum Attribute {
+		LEVEL, LATENCY, CAPACITY
+	}
+	
+	/**
+	 * Compare two descriptors by the given attributes, the first attribute being the most
+	 * significant. The descriptors with an unknown attribute come after the ones with that
+	 * attribute.
+	 * 
+	 * @return A negative number if the first descriptor comes first.
+	 */
+	public static int compare(ServiceDescriptor a, ServiceDescriptor b, Attribute[] order) {
+		if (order == null)
+			return 0;
+		for (Attribute attribute : order) {
+			int c;
+			switch (attribute) {
+			case LEVEL:
+				Level la = a.getQosLevel(), lb = b.getQosLevel();
+				c = compare((la == null) ? null : Long.valueOf(la.ordinal()), 
+						(lb == null) ? null : Long.valueOf(lb.ordinal()), false);
+				break;
+			case LATENCY:
+				c = compare(a.getLatency(), b.getLatency(), true);
+				break;
+			default:
+				c = compare(a.getCapacity(), b.getCapacity(), false);
+			}
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+	
+	private static int compare(Long a, Long b, boolean ascending) {
+		if ((a == null) || (b == null))
+			return (a == null) ? ((b == null) ? 0 : 1) : -1;
+		int c = a.compareTo(b);
+		return ascending ? c : -c;
+	}
+}
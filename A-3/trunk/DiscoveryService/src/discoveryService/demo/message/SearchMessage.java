@@ -19,17 +19,37 @@
 
 package discoveryService.demo.message;
 
+import java.util.Arrays;
+
+import polimi.reds.Message;
 import polimi.reds.Repliable;
+import discoveryService.broker.Indexable;
+import discoveryService.broker.Shardable;
+import discoveryService.core.Coalescable;
 import discoveryService.core.DSMessage;
+import discoveryService.core.PagedQuery;
 import discoveryService.demo.filter.ServiceDescriptorFilter;
 
-public class SearchMessage extends DSMessage implements Repliable {
+public class SearchMessage extends DSMessage implements Repliable, Shardable, Indexable, Coalescable, PagedQuery {
 	private static final long serialVersionUID = 3533971069026465720L;
+	/**
+	 * Kind of the index keys of the searches and of the publications.
+	 */
+	public final static String INDEX_KIND = "service";
 	private ServiceDescriptorFilter filter;
+	// Attributes the results are ordered by, null if not ordered
+	private QoS.Attribute[] orderBy;
+	// Maximum number of results, 0 for all
+	private int limit;
+	// Last descriptor of the previous page, null for the first page
+	private ServiceDescriptor cursor;
 	
 	public SearchMessage(ServiceDescriptorFilter filter) {
 		super();
 		this.filter = filter;
+		orderBy = null;
+		limit = 0;
+		cursor = null;
 	}
 	
 	public void setServiceDescriptorFilter(ServiceDescriptorFilter filter) {
@@ -40,8 +60,100 @@ public class SearchMessage extends DSMessage implements Repliable {
 		return filter;
 	}
 	
+	/**
+	 * Ask for the results ordered by the given attributes of the QoS, the first being the 
+	 * most significant (see <code>QoS.compare()</code>).
+	 */
+	public void setOrderBy(QoS.Attribute... attributes) {
+		orderBy = ((attributes == null) || (attributes.length == 0)) ? null : attributes;
+	}
+	
+	public QoS.Attribute[] getOrderBy() {
+		return orderBy;
+	}
+	
+	/**
+	 * Ask for the best results only: the brokers answering the search send at most 
+	 * <code>limit</code> descriptors each. It is also the size of the pages read through
+	 * a {@link discoveryService.core.ResultCursor}.
+	 * 
+	 * @param limit The maximum number of results or 0 for all of them.
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+	
+	public int getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * Compare the descriptors by the attributes of <code>orderBy</code>, then by their
+	 * attributes as strings, so that the order is total.
+	 */
+	public int compare(Message a, Message b) {
+		if (!(a instanceof ServiceDescriptor) || !(b instanceof ServiceDescriptor))
+			return 0;
+		int c = QoS.compare((ServiceDescriptor)a, (ServiceDescriptor)b, orderBy);
+		return (c != 0) ? c : key((ServiceDescriptor)a).compareTo(key((ServiceDescriptor)b));
+	}
+	
+	public Message getCursor() {
+		return cursor;
+	}
+	
+	/**
+	 * Return the search of the page following the given descriptor, with the same filter,
+	 * order, page size and reply timeout.
+	 */
+	public DSMessage nextPage(Message last) {
+		SearchMessage next = new SearchMessage(filter);
+		next.orderBy = orderBy;
+		next.limit = limit;
+		next.cursor = (ServiceDescriptor)last;
+		next.setReplyTimeout(replyTimeout);
+		next.setPriority(priority);
+		return next;
+	}
+	
+	private static String key(ServiceDescriptor sd) {
+		return sd.getNodeName() + "\0" + sd.getServiceID() + "\0" + sd.getQos() + "\0" + sd.getLatency() + "\0" + sd.getCapacity();
+	}
+	
+	/**
+	 * A search for an exact service ID is routed to the broker responsible for it,
+	 * any other search is flooded.
+	 */
+	public String getRoutingKey() {
+		if ((filter == null) || (filter.getServiceDescriptorTemplate() == null))
+			return null;
+		return filter.getExactServiceID();
+	}
+	
+	public String getIndexKind() {
+		return INDEX_KIND;
+	}
+	
+	/**
+	 * The search is routed towards the brokers with publications of the exact service ID.
+	 */
+	public String getIndexKey() {
+		return getRoutingKey();
+	}
+	
+	/**
+	 * Searches with equivalent templates are coalesced.
+	 */
+	public String getCoalescingKey() {
+		if ((filter == null) || (filter.getServiceDescriptorTemplate() == null))
+			return null;
+		return INDEX_KIND + ":" + filter.getCanonicalForm() + Arrays.toString(orderBy) + limit 
+				+ ((cursor != null) ? "after:" + key(cursor) : "");
+	}
+	
 	public String toString() {
-		return "SearchMessage {" + filter + "}";
+		return "SearchMessage {" + filter + ((orderBy != null) ? " order by " + Arrays.toString(orderBy) : "")
+				+ ((limit > 0) ? " limit " + limit : "") + ((cursor != null) ? " after " + cursor : "") + "}";
 	}
 	
 }
@@ -20,16 +20,29 @@
 package discoveryService.demo.message;
 
 import discoveryService.core.DSMessage;
+import discoveryService.core.store.RecordCodecs;
 
 public class ServiceDescriptor extends DSMessage {
 	private static final long serialVersionUID = -5327453957551157713L;
+	
+	static {
+		// Let the brokers keep the replicas of the descriptors off the heap
+		RecordCodecs.register(ServiceDescriptor.class, new ServiceDescriptorCodec());
+	}
+	
 	private String serviceID;
+	// Level of the QoS (see QoS.Level) or any other value matched by regular expressions
 	private String qos;
+	// Numeric attributes of the QoS, null if unknown
+	private Long latency;
+	private Long capacity;
 	
 	public ServiceDescriptor() {
 		nodeName = null;
 		serviceID = null;
 		qos = null;
+		latency = null;
+		capacity = null;
 	}
 	
 	public void setServiceID(String serviceID) {
@@ -48,7 +61,44 @@ public class ServiceDescriptor extends DSMessage {
 		return qos;
 	}
 	
+	public void setQosLevel(QoS.Level level) {
+		qos = (level == null) ? null : level.name();
+	}
+	
+	/**
+	 * Return the level of the QoS.
+	 * 
+	 * @return The level or <code>null</code> if the QoS is not one of the levels.
+	 */
+	public QoS.Level getQosLevel() {
+		return QoS.Level.parse(qos);
+	}
+	
+	/**
+	 * @param latency Latency of the service in milliseconds, <code>null</code> if unknown.
+	 */
+	public void setLatency(Long latency) {
+		this.latency = latency;
+	}
+	
+	public Long getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * @param capacity Number of tasks the service can perform at the same time, 
+	 * <code>null</code> if unknown.
+	 */
+	public void setCapacity(Long capacity) {
+		this.capacity = capacity;
+	}
+	
+	public Long getCapacity() {
+		return capacity;
+	}
+	
 	public String toString() {
-		return "ServiceDescriptor{ nodeName: " + nodeName + ", serviceID: " + serviceID + ", qos: " + qos + "}";
+		return "ServiceDescriptor{ nodeName: " + nodeName + ", serviceID: " + serviceID + ", qos: " + qos 
+				+ ((latency != null) ? ", latency: " + latency : "") + ((capacity != null) ? ", capacity: " + capacity : "") + "}";
 	}
 }
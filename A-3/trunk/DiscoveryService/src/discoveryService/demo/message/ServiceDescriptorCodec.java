@@ -0,0 +1,195 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.demo.message;
+
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import discoveryService.core.DSMessage;
+import discoveryService.core.store.OffHeapStore;
+import discoveryService.core.store.RecordCodec;
+import discoveryService.core.store.StringTable;
+import discoveryService.demo.filter.SearchMessageFilter;
+import discoveryService.demo.filter.ServiceDescriptorFilter;
+
+/**
+ * Stores a {@link ServiceDescriptor} as a record with the node name, the service ID 
+ * and the qos, and the latency and the capacity as longs. The descriptors published with their {@link SearchMessageFilter} are 
+ * matched against the {@link SearchMessage}s as the filter would do, reading the fields in 
+ * place: each pattern is evaluated once for each distinct value of its field, and only the 
+ * matching records are decoded.
+ */
+public class ServiceDescriptorCodec implements RecordCodec {
+	private final static int NODE_NAME = 0;
+	private final static int SERVICE_ID = 1;
+	private final static int QOS = 2;
+	private final static int LATENCY = 0;
+	private final static int CAPACITY = 1;
+	// Value of an unknown attribute
+	private final static long UNKNOWN = Long.MIN_VALUE;
+	
+	public int getStringFields() {
+		return 3;
+	}
+	
+	public int getLongFields() {
+		return 2;
+	}
+	
+	public boolean accepts(DSMessage item, Filter template) {
+		if ((item.getClass() != ServiceDescriptor.class) || !(template instanceof SearchMessageFilter))
+			return false;
+		ServiceDescriptor sd = (ServiceDescriptor)item;
+		ServiceDescriptor published = ((SearchMessageFilter)template).getServiceDescriptor();
+		return equal(sd.getNodeName(), published.getNodeName()) && equal(sd.getServiceID(), published.getServiceID())
+				&& equal(sd.getQos(), published.getQos()) && equal(sd.getLatency(), published.getLatency())
+				&& equal(sd.getCapacity(), published.getCapacity());
+	}
+	
+	public void encode(DSMessage item, String[] strings, long[] longs) {
+		ServiceDescriptor sd = (ServiceDescriptor)item;
+		strings[NODE_NAME] = sd.getNodeName();
+		strings[SERVICE_ID] = sd.getServiceID();
+		strings[QOS] = sd.getQos();
+		longs[LATENCY] = (sd.getLatency() == null) ? UNKNOWN : sd.getLatency().longValue();
+		longs[CAPACITY] = (sd.getCapacity() == null) ? UNKNOWN : sd.getCapacity().longValue();
+	}
+	
+	public DSMessage decode(OffHeapStore.Cursor record) {
+		ServiceDescriptor sd = new ServiceDescriptor();
+		sd.setNodeName(record.getString(NODE_NAME));
+		sd.setServiceID(record.getString(SERVICE_ID));
+		sd.setQos(record.getString(QOS));
+		long latency = record.getLong(LATENCY), capacity = record.getLong(CAPACITY);
+		sd.setLatency((latency == UNKNOWN) ? null : Long.valueOf(latency));
+		sd.setCapacity((capacity == UNKNOWN) ? null : Long.valueOf(capacity));
+		return sd;
+	}
+	
+	public RecordCodec.Matcher compile(Message query) {
+		if (!(query instanceof SearchMessage))
+			return null;
+		ServiceDescriptorFilter filter = ((SearchMessage)query).getServiceDescriptorFilter();
+		if ((filter == null) || (filter.getServiceDescriptorTemplate() == null))
+			return null;
+		try {
+			return new SearchMatcher(filter);
+		} catch (PatternSyntaxException e) {
+			return null;
+		}
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+	
+	/**
+	 * Matches the records against the template and the range conditions of a 
+	 * {@link ServiceDescriptorFilter}. As in the filter, an unknown attribute of the 
+	 * descriptor satisfies any condition.
+	 */
+	private static class SearchMatcher implements RecordCodec.Matcher {
+		private FieldMatcher nodeName;
+		private FieldMatcher serviceID;
+		private FieldMatcher qos;
+		private QoS.Level minQosLevel;
+		private Long maxLatency;
+		private Long minCapacity;
+		// Whether each qos value satisfies the minimum level, by string identifier
+		private HashMap<Integer, Boolean> qosLevels;
+		
+		public SearchMatcher(ServiceDescriptorFilter filter) {
+			ServiceDescriptor template = filter.getServiceDescriptorTemplate();
+			nodeName = FieldMatcher.of(template.getNodeName());
+			serviceID = FieldMatcher.of(template.getServiceID());
+			qos = FieldMatcher.of(template.getQos());
+			minQosLevel = filter.getMinQosLevel();
+			maxLatency = filter.getMaxLatency();
+			minCapacity = filter.getMinCapacity();
+			qosLevels = new HashMap<Integer, Boolean>();
+		}
+		
+		public boolean matches(OffHeapStore.Cursor record) {
+			if (((serviceID != null) && !serviceID.matches(record, SERVICE_ID)) ||
+					((nodeName != null) && !nodeName.matches(record, NODE_NAME)) ||
+					((qos != null) && !qos.matches(record, QOS)))
+				return false;
+			if ((minQosLevel != null) && !matchesQosLevel(record))
+				return false;
+			long latency = record.getLong(LATENCY);
+			if ((maxLatency != null) && (latency != UNKNOWN) && (latency > maxLatency.longValue()))
+				return false;
+			long capacity = record.getLong(CAPACITY);
+			if ((minCapacity != null) && (capacity != UNKNOWN) && (capacity < minCapacity.longValue()))
+				return false;
+			return true;
+		}
+		
+		private boolean matchesQosLevel(OffHeapStore.Cursor record) {
+			int id = record.getStringID(QOS);
+			if (id == StringTable.NULL)
+				return true;
+			Boolean result = qosLevels.get(id);
+			if (result == null) {
+				// The levels are few: decoding each distinct value once is cheap
+				QoS.Level level = QoS.Level.parse(record.getString(QOS));
+				result = Boolean.valueOf((level != null) && (level.compareTo(minQosLevel) >= 0));
+				qosLevels.put(id, result);
+			}
+			return result.booleanValue();
+		}
+	}
+	
+	/**
+	 * Matches a string field against a pattern, remembering the result for each string
+	 * identifier, so that the values shared by many records are matched once.
+	 */
+	private static class FieldMatcher {
+		private Pattern pattern;
+		private HashMap<Integer, Boolean> results;
+		
+		private FieldMatcher(String regex) {
+			pattern = Pattern.compile(regex);
+			results = new HashMap<Integer, Boolean>();
+		}
+		
+		/**
+		 * @return The matcher or <code>null</code> if the template matches any value.
+		 */
+		public static FieldMatcher of(String regex) {
+			return (regex == null) ? null : new FieldMatcher(regex);
+		}
+		
+		public boolean matches(OffHeapStore.Cursor record, int field) {
+			int id = record.getStringID(field);
+			if (id == StringTable.NULL)
+				return true;
+			Boolean result = results.get(id);
+			if (result == null) {
+				result = Boolean.valueOf(pattern.matcher(record.getChars(field)).find());
+				results.put(id, result);
+			}
+			return result.booleanValue();
+		}
+	}
+}
@@ -19,10 +19,17 @@
 
 package discoveryService.demo.message;
 
+import discoveryService.broker.Indexable;
 import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
+import discoveryService.core.RoutingHeader;
 
-public class TaskResult extends DSMessage {
+public class TaskResult extends DSMessage implements Indexable {
 	private static final long serialVersionUID = -3109311544183568943L;
+	/**
+	 * Kind of the index keys of the task results and of their filters.
+	 */
+	public final static String INDEX_KIND = "taskResult";
 	private String destination;
 	private Object result;
 	
@@ -41,4 +48,30 @@ public class TaskResult extends DSMessage {
 	public String getDestination() {
 		return destination;
 	}
+	
+	public String getIndexKind() {
+		return INDEX_KIND;
+	}
+	
+	/**
+	 * The index key is the destination node.
+	 */
+	public String getIndexKey() {
+		return getDestination();
+	}
+	
+	/**
+	 * The brokers route the result on its destination, without deserializing it.
+	 */
+	@Override
+	public RoutingHeader getRoutingHeader() {
+		RoutingHeader header = new RoutingHeader(this);
+		header.setDestination(destination);
+		return header;
+	}
+	
+	@Override
+	protected Priority getDefaultPriority() {
+		return Priority.BULK;
+	}
 }
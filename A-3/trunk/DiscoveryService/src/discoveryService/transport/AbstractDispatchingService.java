@@ -0,0 +1,519 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.DispatchingService;
+import polimi.reds.Filter;
+import polimi.reds.Message;
+import polimi.reds.MessageID;
+import polimi.reds.Replies;
+import polimi.reds.Repliable;
+import polimi.reds.Reply;
+import polimi.reds.TimeoutException;
+import polimi.reds.broker.routing.Router;
+import discoveryService.core.DSMessage;
+import discoveryService.core.Priority;
+import discoveryService.core.PriorityLanes;
+import discoveryService.core.pipeline.BatchingDispatchingService;
+
+/**
+ * Base class of the {@link DispatchingService}s implemented by Discovery Service on top
+ * of its own transports.
+ * <p>
+ * It implements the queues of the received messages and replies and the subscription
+ * bookkeeping. Received messages are queued in FIFO order, unless priority weights are set:
+ * then they are queued in {@link PriorityLanes}, so that messages of a higher priority class
+ * overtake the pending bulk ones. Subclasses only have to open and close the connection to the broker and
+ * to send the data with the subjects used by the REDS router (<code>Router.SUBSCRIBE</code>, 
+ * <code>Router.PUBLISH</code>, ...). Data received from the broker must be passed to
+ * <code>received()</code>.
+ * </p>
+ * <p>
+ * A request is forgotten one reply timeout after its deadline, whether its replies have been
+ * collected or not: the replies still queued for it are dropped, and replies arriving later
+ * are discarded.
+ * </p>
+ * <p>
+ * The replies are queued for each request, so that collecting the replies of a request 
+ * does not look at the ones of the others. An arrival queue shared by all the requests 
+ * gives the order of <code>getNextReply()</code>: the replies collected by request are only
+ * marked in it, and dropped when they reach its head or when they outnumber the others.
+ * </p>
+ * <p>
+ * The data sent by a thread between <code>beginBatch()</code> and <code>flushBatch()</code> is
+ * passed to the subclass with a single call to <code>send(List, List)</code>, that subclasses 
+ * can override to write it at once.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public abstract class AbstractDispatchingService implements BatchingDispatchingService, FrameHandler {
+	/**
+	 * Default time in milliseconds during which replies to a request are waited for.
+	 */
+	public final static long DEFAULT_REPLY_TIMEOUT = 5000;
+	/**
+	 * Minimum time in milliseconds between two scans for expired requests.
+	 */
+	private final static long PURGE_INTERVAL = 1000;
+	/**
+	 * Replies already collected that the arrival queue keeps besides the pending ones.
+	 */
+	private final static int MAX_COLLECTED = 64;
+	private static Logger logger = Logger.getLogger(AbstractDispatchingService.class);
+	
+	private volatile boolean opened;
+	private HashSet<Filter> subscriptions;
+	private PriorityLanes<Message> messages;
+	// Arrival order of the replies, including the ones collected by request
+	private LinkedList<QueuedReply> replies;
+	private HashMap<MessageID, LinkedList<QueuedReply>> repliesByID;
+	private int pendingReplies;
+	private HashMap<MessageID, Long> replyDeadlines;
+	private long replyTimeout;
+	private long nextPurge;
+	private volatile Thread batchOwner;
+	private ArrayList<String> batchSubjects;
+	private ArrayList<Serializable> batchPayloads;
+	
+	public AbstractDispatchingService() {
+		opened = false;
+		subscriptions = new HashSet<Filter>();
+		messages = new PriorityLanes<Message>(null);
+		replies = new LinkedList<QueuedReply>();
+		repliesByID = new HashMap<MessageID, LinkedList<QueuedReply>>();
+		pendingReplies = 0;
+		replyDeadlines = new HashMap<MessageID, Long>();
+		replyTimeout = DEFAULT_REPLY_TIMEOUT;
+		nextPurge = 0;
+		batchOwner = null;
+		batchSubjects = new ArrayList<String>();
+		batchPayloads = new ArrayList<Serializable>();
+	}
+	
+	/**
+	 * Open the connection with the broker.
+	 */
+	protected abstract void connect() throws ConnectException;
+	
+	/**
+	 * Close the connection with the broker.
+	 */
+	protected abstract void disconnect();
+	
+	/**
+	 * Send data to the broker.
+	 * 
+	 * @param subject The subject understood by the REDS router.
+	 * @param payload The data.
+	 * @throws IOException
+	 */
+	protected abstract void send(String subject, Serializable payload) throws IOException;
+	
+	/**
+	 * Send a batch of data to the broker. The default implementation sends the data
+	 * one at a time.
+	 * 
+	 * @param subjects The subjects understood by the REDS router.
+	 * @param payloads The data, in the same order of the subjects.
+	 * @throws IOException
+	 */
+	protected void send(List<String> subjects, List<Serializable> payloads) throws IOException {
+		for (int i = 0; i < subjects.size(); i++)
+			send(subjects.get(i), payloads.get(i));
+	}
+	
+	/**
+	 * Set the time during which replies to a request are waited for when the request
+	 * does not carry its own reply timeout.
+	 * 
+	 * @param timeout Time in milliseconds.
+	 */
+	public void setReplyTimeout(long timeout) {
+		replyTimeout = timeout;
+	}
+	
+	/**
+	 * Queue the received messages by priority class. Must be called before opening the service.
+	 * 
+	 * @param weights The weights of the priority classes, indexed by ordinal; <code>null</code>
+	 * to queue the messages in FIFO order.
+	 */
+	public void setPriorityWeights(int[] weights) {
+		messages = new PriorityLanes<Message>(weights);
+	}
+	
+	@Override
+	public void open() throws ConnectException {
+		connect();
+		opened = true;
+	}
+	
+	@Override
+	public void close() {
+		opened = false;
+		disconnect();
+	}
+	
+	@Override
+	public boolean isOpened() {
+		return opened;
+	}
+	
+	@Override
+	public void beginBatch() {
+		batchOwner = Thread.currentThread();
+	}
+	
+	@Override
+	public void flushBatch() {
+		if (batchOwner != Thread.currentThread())
+			return;
+		batchOwner = null;
+		if (batchSubjects.isEmpty())
+			return;
+		try {
+			send(batchSubjects, batchPayloads);
+		} catch (IOException e) {
+			logger.error("Unable to send a batch of " + batchSubjects.size() + " operations", e);
+		} finally {
+			batchSubjects.clear();
+			batchPayloads.clear();
+		}
+	}
+	
+	@Override
+	public void subscribe(Filter filter) {
+		synchronized(subscriptions) {
+			subscriptions.add(filter);
+		}
+		sendSafely(Router.SUBSCRIBE, filter);
+	}
+	
+	@Override
+	public void unsubscribe(Filter filter) {
+		synchronized(subscriptions) {
+			subscriptions.remove(filter);
+		}
+		sendSafely(Router.UNSUBSCRIBE, filter);
+	}
+	
+	@Override
+	public void unsubscribeAll() {
+		Filter[] filters;
+		synchronized(subscriptions) {
+			filters = subscriptions.toArray(new Filter[0]);
+		}
+		for (Filter f : filters)
+			unsubscribe(f);
+	}
+	
+	@Override
+	public void publish(Message msg) {
+		if (msg instanceof Repliable) {
+			long timeout = replyTimeout;
+			if ((msg instanceof DSMessage) && (((DSMessage)msg).getReplyTimeout() > 0))
+				timeout = ((DSMessage)msg).getReplyTimeout();
+			synchronized(replies) {
+				long now = System.currentTimeMillis();
+				purgeExpiredReplies(now);
+				replyDeadlines.put(msg.getID(), now + timeout);
+			}
+		}
+		sendSafely(Router.PUBLISH, msg);
+	}
+	
+	@Override
+	public void reply(Message reply, MessageID repliableMessageID) {
+		sendSafely(Router.REPLY, new Reply(reply, repliableMessageID));
+	}
+	
+	@Override
+	public Message getNextMessage() {
+		return messages.take();
+	}
+	
+	@Override
+	public Message getNextMessage(long timeout) {
+		return messages.take(timeout);
+	}
+	
+	@Override
+	public boolean hasMoreMessages() {
+		return !messages.isEmpty();
+	}
+	
+	@Override
+	public Message getNextReply() {
+		synchronized(replies) {
+			while (pendingReplies == 0) {
+				try {
+					replies.wait();
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+			return removeFirstReply();
+		}
+	}
+	
+	@Override
+	public Message getNextReply(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized(replies) {
+			long now;
+			while ((pendingReplies == 0) && ((now = System.currentTimeMillis()) < deadline)) {
+				try {
+					replies.wait(deadline - now);
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+			if (pendingReplies == 0)
+				return null;
+			return removeFirstReply();
+		}
+	}
+	
+	@Override
+	public Message getNextReply(MessageID id) throws TimeoutException {
+		synchronized(replies) {
+			long deadline = getDeadline(id);
+			long now;
+			LinkedList<QueuedReply> list;
+			while (((list = repliesByID.get(id)) == null) && ((now = System.currentTimeMillis()) < deadline)) {
+				try {
+					replies.wait(deadline - now);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			if (list == null)
+				throw new TimeoutException();
+			QueuedReply reply = list.removeFirst();
+			if (list.isEmpty())
+				repliesByID.remove(id);
+			collected(reply);
+			return reply.payload;
+		}
+	}
+	
+	@Override
+	public Replies getAllReplies(MessageID id) {
+		synchronized(replies) {
+			long deadline = getDeadline(id);
+			long now;
+			while ((now = System.currentTimeMillis()) < deadline) {
+				try {
+					replies.wait(deadline - now);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			LinkedList<QueuedReply> list = repliesByID.remove(id);
+			replyDeadlines.remove(id);
+			ArrayList<Message> all = new ArrayList<Message>();
+			if (list != null) {
+				for (QueuedReply reply : list) {
+					all.add(reply.payload);
+					collected(reply);
+				}
+			}
+			return new Replies(id, all.toArray(new Message[0]));
+		}
+	}
+	
+	@Override
+	public boolean hasMoreReplies() {
+		synchronized(replies) {
+			return pendingReplies > 0;
+		}
+	}
+	
+	@Override
+	public boolean hasMoreReplies(MessageID id) {
+		synchronized(replies) {
+			return repliesByID.containsKey(id);
+		}
+	}
+	
+	/**
+	 * Handle the data received from the broker.
+	 */
+	public void frameReceived(String subject, Serializable payload) {
+		received(subject, payload);
+	}
+	
+	/**
+	 * Handle the data received from the broker: published messages are queued for
+	 * <code>getNextMessage()</code> and replies for <code>getNextReply()</code>.
+	 * 
+	 * @param subject The subject of the data.
+	 * @param payload The data.
+	 */
+	protected void received(String subject, Serializable payload) {
+		if (Router.PUBLISH.equals(subject) && (payload instanceof Message))
+			messages.put(Priority.of(payload), (Message)payload);
+		else if (Router.REPLY.equals(subject) && (payload instanceof Reply)) {
+			Reply reply = (Reply)payload;
+			synchronized(replies) {
+				purgeExpiredReplies(System.currentTimeMillis());
+				if (!replyDeadlines.containsKey(reply.getRepliableMessageID())) {
+					logger.debug("Late reply to " + reply.getRepliableMessageID() + " discarded");
+					return;
+				}
+				QueuedReply queued = new QueuedReply(reply.getRepliableMessageID(), reply.getPayload());
+				replies.add(queued);
+				LinkedList<QueuedReply> list = repliesByID.get(queued.id);
+				if (list == null) {
+					list = new LinkedList<QueuedReply>();
+					repliesByID.put(queued.id, list);
+				}
+				list.add(queued);
+				pendingReplies++;
+				replies.notifyAll();
+			}
+		}
+		else
+			logger.warn("Unexpected data received: " + subject);
+	}
+	
+	/**
+	 * Re-send all the active subscriptions, e.g. after the connection has been reopened.
+	 */
+	protected void resubscribe() {
+		Filter[] filters;
+		synchronized(subscriptions) {
+			filters = subscriptions.toArray(new Filter[0]);
+		}
+		for (Filter f : filters)
+			sendSafely(Router.SUBSCRIBE, f);
+	}
+	
+	private void sendSafely(String subject, Serializable payload) {
+		if (batchOwner == Thread.currentThread()) {
+			batchSubjects.add(subject);
+			batchPayloads.add(payload);
+			return;
+		}
+		try {
+			send(subject, payload);
+		} catch (IOException e) {
+			logger.error("Unable to send " + subject + ": " + payload, e);
+		}
+	}
+	
+	private long getDeadline(MessageID id) {
+		Long deadline = replyDeadlines.get(id);
+		if (deadline == null)
+			return System.currentTimeMillis() + replyTimeout;
+		return deadline.longValue();
+	}
+	
+	/**
+	 * Forget the requests whose deadline passed more than a reply timeout ago, together
+	 * with their replies not collected yet. The grace period leaves time to the threads 
+	 * woken at the deadline to collect the replies. Called holding the lock of <code>replies</code>.
+	 */
+	private void purgeExpiredReplies(long now) {
+		if (now < nextPurge)
+			return;
+		nextPurge = now + PURGE_INTERVAL;
+		HashSet<MessageID> expired = new HashSet<MessageID>();
+		Iterator<Map.Entry<MessageID, Long>> it = replyDeadlines.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<MessageID, Long> entry = it.next();
+			if (entry.getValue().longValue() + replyTimeout < now) {
+				expired.add(entry.getKey());
+				it.remove();
+			}
+		}
+		for (MessageID id : expired) {
+			LinkedList<QueuedReply> list = repliesByID.remove(id);
+			if (list != null)
+				for (QueuedReply reply : list)
+					collected(reply);
+		}
+	}
+	
+	/**
+	 * Remove the oldest pending reply. Called holding the lock of <code>replies</code> when
+	 * there is a pending reply.
+	 */
+	private Message removeFirstReply() {
+		QueuedReply reply = replies.removeFirst();
+		while (reply.collected)
+			reply = replies.removeFirst();
+		// The older replies of the same request have been collected already
+		LinkedList<QueuedReply> list = repliesByID.get(reply.id);
+		list.removeFirst();
+		if (list.isEmpty())
+			repliesByID.remove(reply.id);
+		reply.collected = true;
+		pendingReplies--;
+		return reply.payload;
+	}
+	
+	/**
+	 * Mark a reply removed from the queue of its request as collected, dropping the
+	 * collected replies from the arrival queue when they are at its head or too many.
+	 */
+	private void collected(QueuedReply reply) {
+		reply.collected = true;
+		pendingReplies--;
+		while (!replies.isEmpty() && replies.getFirst().collected)
+			replies.removeFirst();
+		if (replies.size() > 2 * pendingReplies + MAX_COLLECTED) {
+			Iterator<QueuedReply> it = replies.iterator();
+			while (it.hasNext())
+				if (it.next().collected)
+					it.remove();
+		}
+	}
+	
+	/**
+	 * A reply in the arrival queue and in the queue of its request.
+	 */
+	private static class QueuedReply {
+		private MessageID id;
+		private Message payload;
+		private boolean collected;
+		
+		public QueuedReply(MessageID id, Message payload) {
+			this.id = id;
+			this.payload = payload;
+			collected = false;
+		}
+	}
+}
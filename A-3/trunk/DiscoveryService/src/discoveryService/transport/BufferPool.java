@@ -0,0 +1,135 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct {@link ByteBuffer}s shared by the connections of a transport.
+ * Direct buffers are expensive to allocate and are not moved by the garbage collector, so
+ * they are recycled instead of being allocated for every read or frame. Buffers are kept
+ * in size classes, powers of two from {@link #MIN_BUFFER_SIZE} up to the size of the pool,
+ * so that a small frame does not hold a buffer as large as the biggest one. Requests larger 
+ * than the size of the pool are served with heap buffers that are not pooled.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class BufferPool {
+	/**
+	 * Size in bytes of the smallest size class.
+	 */
+	public final static int MIN_BUFFER_SIZE = 512;
+	private ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private AtomicInteger[] pooled;
+	private int[] classSizes;
+	private int bufferSize;
+	private int maxPooled;
+	
+	/**
+	 * Create a pool.
+	 * 
+	 * @param bufferSize Size in bytes of the largest pooled buffers.
+	 * @param maxPooled Maximum number of free buffers kept in the pool for each size class.
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(int bufferSize, int maxPooled) {
+		int classes = 1;
+		for (int size = MIN_BUFFER_SIZE; size < bufferSize; size <<= 1)
+			classes++;
+		classSizes = new int[classes];
+		for (int i = 0; i < classes - 1; i++)
+			classSizes[i] = MIN_BUFFER_SIZE << i;
+		classSizes[classes - 1] = bufferSize;
+		free = (ConcurrentLinkedQueue<ByteBuffer>[])new ConcurrentLinkedQueue<?>[classes];
+		pooled = new AtomicInteger[classes];
+		for (int i = 0; i < classes; i++) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			pooled[i] = new AtomicInteger(0);
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Get a cleared buffer of the size of the pool.
+	 * 
+	 * @return A direct buffer.
+	 */
+	public ByteBuffer acquire() {
+		return acquireClass(classSizes.length - 1);
+	}
+	
+	/**
+	 * Get a cleared buffer with at least <code>size</code> bytes.
+	 * 
+	 * @param size Number of bytes required.
+	 * @return A pooled direct buffer of the smallest size class that fits <code>size</code>,
+	 * a heap buffer if <code>size</code> is larger than the pool.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size > bufferSize)
+			return ByteBuffer.allocate(size);
+		int i = 0;
+		while (classSizes[i] < size)
+			i++;
+		return acquireClass(i);
+	}
+	
+	/**
+	 * Give back a buffer to the pool. Buffers not allocated by the pool are ignored.
+	 * 
+	 * @param buffer The buffer no longer used.
+	 */
+	public void release(ByteBuffer buffer) {
+		if ((buffer == null) || !buffer.isDirect())
+			return;
+		int i = classOf(buffer.capacity());
+		if (i < 0)
+			return;
+		if (pooled[i].incrementAndGet() > maxPooled) {
+			pooled[i].decrementAndGet();
+			return;
+		}
+		free[i].offer(buffer);
+	}
+	
+	private ByteBuffer acquireClass(int i) {
+		ByteBuffer buffer = free[i].poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(classSizes[i]);
+		pooled[i].decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+	
+	private int classOf(int capacity) {
+		for (int i = 0; i < classSizes.length; i++)
+			if (classSizes[i] == capacity)
+				return i;
+		return -1;
+	}
+}
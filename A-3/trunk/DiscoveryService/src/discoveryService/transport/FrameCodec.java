@@ -0,0 +1,128 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing of the data exchanged by the transports of Discovery Service.
+ * <p>
+ * A frame is made of a 4 bytes length followed by the body: the subject of the data 
+ * (modified UTF-8) and the payload serialized with Java serialization. Frames are written 
+ * in buffers taken from a {@link BufferPool} so that many of them can be sent with a 
+ * single gathering write.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class FrameCodec {
+	/**
+	 * Size in bytes of the length prefix.
+	 */
+	public final static int HEADER_SIZE = 4;
+	/**
+	 * Maximum size in bytes of the body of a frame.
+	 */
+	public final static int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+	
+	private BufferPool pool;
+	
+	public FrameCodec(BufferPool pool) {
+		this.pool = pool;
+	}
+	
+	public BufferPool getBufferPool() {
+		return pool;
+	}
+	
+	/**
+	 * Encode the body of a frame (subject and payload) without the length prefix.
+	 * 
+	 * @return The bytes of the body.
+	 * @throws IOException If the payload cannot be serialized.
+	 */
+	public byte[] encodeBody(String subject, Serializable payload) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(subject);
+		ObjectOutputStream objOut = new ObjectOutputStream(out);
+		objOut.writeObject(payload);
+		objOut.flush();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Encode a complete frame.
+	 * 
+	 * @return A flipped buffer ready to be written. It should be released to the
+	 * pool once written.
+	 * @throws IOException If the payload cannot be serialized.
+	 */
+	public ByteBuffer encode(String subject, Serializable payload) throws IOException {
+		byte[] body = encodeBody(subject, payload);
+		if (body.length > MAX_FRAME_SIZE)
+			throw new IOException("Frame too large: " + body.length + " bytes");
+		ByteBuffer frame = pool.acquire(HEADER_SIZE + body.length);
+		frame.putInt(body.length);
+		frame.put(body);
+		frame.flip();
+		return frame;
+	}
+	
+	/**
+	 * Decode the body of a frame reading <code>length</code> bytes from the current
+	 * position of the buffer. The position is advanced by <code>length</code>.
+	 * 
+	 * @param buffer The buffer containing the body.
+	 * @param length Length in bytes of the body.
+	 * @param handler The handler notified with the frame.
+	 * @throws IOException If the body is malformed.
+	 */
+	public void decode(ByteBuffer buffer, int length, FrameHandler handler) throws IOException {
+		byte[] body = new byte[length];
+		buffer.get(body);
+		decode(body, 0, length, handler);
+	}
+	
+	/**
+	 * Decode the body of a frame stored in an array.
+	 */
+	public void decode(byte[] body, int offset, int length, FrameHandler handler) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, length));
+		String subject = in.readUTF();
+		ObjectInputStream objIn = new ObjectInputStream(in);
+		Serializable payload;
+		try {
+			payload = (Serializable)objIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown payload class: " + e.getMessage());
+		}
+		handler.frameReceived(subject, payload);
+	}
+}
@@ -0,0 +1,38 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.Serializable;
+
+/**
+ * Receives the frames decoded by a {@link FrameReader}.
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public interface FrameHandler {
+	/**
+	 * Called for every complete frame.
+	 * 
+	 * @param subject The subject of the frame (e.g. <code>Router.PUBLISH</code>).
+	 * @param payload The deserialized payload.
+	 */
+	public void frameReceived(String subject, Serializable payload);
+}
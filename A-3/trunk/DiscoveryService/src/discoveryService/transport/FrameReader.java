@@ -0,0 +1,106 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reassembles the frames produced by {@link FrameCodec} from a stream channel.
+ * <p>
+ * Bytes are read in a buffer taken from the pool of the codec. Complete frames are 
+ * decoded in place; a partial frame is kept at the beginning of the buffer until the 
+ * rest arrives. Frames larger than the pooled buffer are collected in a dedicated heap 
+ * buffer. The reader works with both blocking and non-blocking channels.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class FrameReader {
+	private FrameCodec codec;
+	private ByteBuffer buffer;
+	private ByteBuffer largeFrame;
+	
+	public FrameReader(FrameCodec codec) {
+		this.codec = codec;
+		buffer = codec.getBufferPool().acquire();
+		largeFrame = null;
+	}
+	
+	/**
+	 * Read the bytes available on the channel and notify the complete frames.
+	 * 
+	 * @param channel The channel to read from.
+	 * @param handler The handler of the frames.
+	 * @return The number of bytes read, -1 at the end of the stream.
+	 * @throws IOException
+	 */
+	public int read(ReadableByteChannel channel, FrameHandler handler) throws IOException {
+		int n = channel.read(buffer);
+		if (n <= 0)
+			return n;
+		buffer.flip();
+		try {
+			while (true) {
+				if (largeFrame != null) {
+					int count = Math.min(buffer.remaining(), largeFrame.remaining());
+					ByteBuffer chunk = buffer.duplicate();
+					chunk.limit(chunk.position() + count);
+					largeFrame.put(chunk);
+					buffer.position(buffer.position() + count);
+					if (largeFrame.hasRemaining())
+						break;
+					largeFrame.flip();
+					ByteBuffer frame = largeFrame;
+					largeFrame = null;
+					codec.decode(frame, frame.limit(), handler);
+					continue;
+				}
+				if (buffer.remaining() < FrameCodec.HEADER_SIZE)
+					break;
+				int length = buffer.getInt(buffer.position());
+				if ((length < 0) || (length > FrameCodec.MAX_FRAME_SIZE))
+					throw new IOException("Invalid frame length: " + length);
+				if (length > buffer.capacity() - FrameCodec.HEADER_SIZE) {
+					buffer.getInt();
+					largeFrame = ByteBuffer.allocate(length);
+					continue;
+				}
+				if (buffer.remaining() < FrameCodec.HEADER_SIZE + length)
+					break;
+				buffer.getInt();
+				codec.decode(buffer, length, handler);
+			}
+		} finally {
+			buffer.compact();
+		}
+		return n;
+	}
+	
+	/**
+	 * Give back the read buffer to the pool.
+	 */
+	public void release() {
+		codec.getBufferPool().release(buffer);
+		buffer = null;
+	}
+}
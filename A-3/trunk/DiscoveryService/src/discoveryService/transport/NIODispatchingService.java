@@ -0,0 +1,166 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.NodeDescriptor;
+
+/**
+ * Dispatching service connecting a node to a broker that uses the {@link NIOTransport}.
+ * <p>
+ * The node has a single connection, so it is handled with a blocking {@link SocketChannel}
+ * and a receiver thread. Data is exchanged with the length-prefixed frames of 
+ * {@link FrameCodec}.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class NIODispatchingService extends AbstractDispatchingService {
+	private static Logger logger = Logger.getLogger(NIODispatchingService.class);
+	private String address;
+	private int port;
+	private FrameCodec codec;
+	private SocketChannel channel;
+	private Object writeLock;
+	private Receiver receiver;
+	
+	/**
+	 * Create the dispatching service.
+	 * 
+	 * @param address The address of the broker (e.g. 127.0.0.1).
+	 * @param port The port of the broker.
+	 */
+	public NIODispatchingService(String address, int port) {
+		super();
+		this.address = address;
+		this.port = port;
+		codec = new FrameCodec(new BufferPool(NIOTransport.DEFAULT_BUFFER_SIZE, 4));
+		writeLock = new Object();
+	}
+	
+	@Override
+	protected void connect() throws ConnectException {
+		try {
+			channel = SocketChannel.open(new InetSocketAddress(address, port));
+			channel.socket().setTcpNoDelay(true);
+		} catch (IOException e) {
+			throw new ConnectException("Unable to connect to " + address + ":" + port + ": " + e.getMessage());
+		}
+		try {
+			send(NIOTransport.HELLO, new NodeDescriptor());
+		} catch (IOException e) {
+			throw new ConnectException("Handshake with " + address + ":" + port + " failed: " + e.getMessage());
+		}
+		receiver = new Receiver();
+		receiver.start();
+	}
+	
+	@Override
+	protected void disconnect() {
+		if (receiver != null)
+			receiver.stopReceiver();
+		try {
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	protected void send(String subject, Serializable payload) throws IOException {
+		ByteBuffer frame = codec.encode(subject, payload);
+		try {
+			synchronized(writeLock) {
+				while (frame.hasRemaining())
+					channel.write(frame);
+			}
+		} finally {
+			codec.getBufferPool().release(frame);
+		}
+	}
+	
+	/**
+	 * Write the frames of the batch with gathering writes.
+	 */
+	@Override
+	protected void send(List<String> subjects, List<Serializable> payloads) throws IOException {
+		ByteBuffer[] frames = new ByteBuffer[subjects.size()];
+		try {
+			for (int i = 0; i < frames.length; i++)
+				frames[i] = codec.encode(subjects.get(i), payloads.get(i));
+			synchronized(writeLock) {
+				for (int first = 0; first < frames.length; first += NIOTransport.MAX_GATHER) {
+					int length = Math.min(NIOTransport.MAX_GATHER, frames.length - first);
+					while (frames[first + length - 1].hasRemaining())
+						channel.write(frames, first, length);
+				}
+			}
+		} finally {
+			for (ByteBuffer frame : frames)
+				if (frame != null)
+					codec.getBufferPool().release(frame);
+		}
+	}
+	
+	@Override
+	protected void received(String subject, Serializable payload) {
+		if (NIOTransport.HELLO.equals(subject))
+			return;
+		super.received(subject, payload);
+	}
+	
+	private class Receiver extends Thread {
+		private volatile boolean stopped = false;
+		private FrameReader reader = new FrameReader(codec);
+		
+		public Receiver() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			try {
+				while (!stopped) {
+					if (reader.read(channel, NIODispatchingService.this) < 0)
+						break;
+				}
+			} catch (IOException e) {
+				if (!stopped)
+					logger.error("Connection with " + address + ":" + port + " lost", e);
+			} finally {
+				reader.release();
+			}
+		}
+		
+		public void stopReceiver() {
+			stopped = true;
+		}
+	}
+}
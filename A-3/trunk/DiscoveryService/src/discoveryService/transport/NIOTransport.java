@@ -0,0 +1,544 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.overlay.DataListener;
+import polimi.reds.broker.overlay.LinkListener;
+import polimi.reds.broker.overlay.NotConnectedException;
+import polimi.reds.broker.overlay.Transport;
+import discoveryService.core.Priority;
+import discoveryService.core.PriorityLanes;
+
+/**
+ * Non-blocking implementation of the REDS {@link Transport} based on <code>java.nio</code> selectors.
+ * <p>
+ * Connections are served by a small fixed number of I/O threads, each owning a {@link Selector}; 
+ * accepted connections are assigned to the threads in round robin. Data is exchanged with the 
+ * length-prefixed frames of {@link FrameCodec}. Outgoing frames are queued on the connection and
+ * written by its I/O thread with gathering writes, so that a burst of frames for the same neighbor
+ * costs a single system call. Read buffers and frames come from a pool of direct buffers.
+ * </p>
+ * <p>
+ * Each connection has an outbound lane for each {@link Priority} class (see {@link TrafficPriority}),
+ * served with weighted round robin. A <code>BULK</code> frame ends the gathering write it belongs 
+ * to, so that a control frame enqueued later waits at most for the remainder of a single bulk frame.
+ * </p>
+ * <p>
+ * When a link is opened both ends send a <code>HELLO</code> frame carrying their {@link NodeDescriptor};
+ * the link is notified to the {@link LinkListener}s when the descriptor of the peer is known.
+ * Both brokers and {@link NIODispatchingService} clients can connect to the transport.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class NIOTransport implements Transport {
+	/**
+	 * Prefix of the URLs of the transport (e.g. reds-nio:127.0.0.1:1911).
+	 */
+	public final static String URL_PREFIX = "reds-nio";
+	/**
+	 * Subject of the handshake frame.
+	 */
+	public final static String HELLO = "__NIO_HELLO";
+	/**
+	 * Default size in bytes of the pooled buffers.
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Maximum number of frames written with a single gathering write.
+	 */
+	public final static int MAX_GATHER = 64;
+	/**
+	 * Time in milliseconds waited for the handshake when a link is opened.
+	 */
+	public final static int HANDSHAKE_TIMEOUT = 5000;
+	private static Logger logger = Logger.getLogger(NIOTransport.class);
+	
+	private int port;
+	private String url;
+	private NodeDescriptor myDescriptor;
+	private ServerSocketChannel server;
+	private IOLoop[] loops;
+	private int nextLoop;
+	private ConcurrentHashMap<NodeDescriptor, Connection> connections;
+	private CopyOnWriteArrayList<DataListener> dataListeners;
+	private CopyOnWriteArrayList<LinkListener> linkListeners;
+	private FrameCodec codec;
+	private int[] weights;
+	private volatile boolean running;
+	
+	/**
+	 * Create the transport.
+	 * 
+	 * @param port The port on which the transport accepts connections.
+	 * @param ioThreads Number of I/O threads.
+	 */
+	public NIOTransport(int port, int ioThreads) {
+		this(port, ioThreads, Priority.DEFAULT_WEIGHTS);
+	}
+	
+	/**
+	 * Create the transport.
+	 * 
+	 * @param port The port on which the transport accepts connections.
+	 * @param ioThreads Number of I/O threads.
+	 * @param weights The weights of the priority classes, indexed by ordinal.
+	 */
+	public NIOTransport(int port, int ioThreads, int[] weights) {
+		this.port = port;
+		this.weights = weights;
+		String address;
+		try {
+			address = InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			address = "127.0.0.1";
+		}
+		url = URL_PREFIX + ":" + address + ":" + port;
+		loops = new IOLoop[Math.max(ioThreads, 1)];
+		nextLoop = 0;
+		connections = new ConcurrentHashMap<NodeDescriptor, Connection>();
+		dataListeners = new CopyOnWriteArrayList<DataListener>();
+		linkListeners = new CopyOnWriteArrayList<LinkListener>();
+		codec = new FrameCodec(new BufferPool(DEFAULT_BUFFER_SIZE, 1024));
+		myDescriptor = new NodeDescriptor();
+		running = false;
+	}
+	
+	@Override
+	public void start() {
+		try {
+			for (int i = 0; i < loops.length; i++)
+				loops[i] = new IOLoop(i);
+			server = ServerSocketChannel.open();
+			server.configureBlocking(false);
+			server.socket().setReuseAddress(true);
+			server.socket().bind(new InetSocketAddress(port));
+			running = true;
+			loops[0].registerServer(server);
+			for (IOLoop loop : loops)
+				loop.start();
+			logger.info("NIO transport listening on " + url + " with " + loops.length + " I/O threads");
+		} catch (IOException e) {
+			logger.error("Unable to start the NIO transport on port " + port, e);
+		}
+	}
+	
+	@Override
+	public void stop() {
+		running = false;
+		for (IOLoop loop : loops) {
+			if (loop == null)
+				continue;
+			loop.wakeup();
+			try {
+				loop.join(HANDSHAKE_TIMEOUT);
+			} catch (InterruptedException e) { }
+		}
+		// The I/O threads are stopped: connections can be closed from this thread
+		for (Connection c : connections.values())
+			c.close();
+		try {
+			if (server != null)
+				server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+	
+	@Override
+	public String getURL() {
+		return url;
+	}
+	
+	@Override
+	public void setNodeDescriptor(NodeDescriptor descriptor) {
+		myDescriptor = descriptor;
+	}
+	
+	@Override
+	public NodeDescriptor openLink(String url) throws MalformedURLException, ConnectException {
+		String[] parts = url.split(":");
+		if ((parts.length != 3) || !parts[0].equals(URL_PREFIX))
+			throw new MalformedURLException("Not a " + URL_PREFIX + " URL: " + url);
+		int remotePort;
+		try {
+			remotePort = Integer.parseInt(parts[2]);
+		} catch (NumberFormatException e) {
+			throw new MalformedURLException("Invalid port in " + url);
+		}
+		
+		Connection c;
+		try {
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress(parts[1], remotePort));
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			c = new Connection(channel, nextLoop());
+			c.loop.register(c);
+			c.enqueue(codec.encode(HELLO, myDescriptor), Priority.CONTROL);
+		} catch (IOException e) {
+			throw new ConnectException("Unable to connect to " + url + ": " + e.getMessage());
+		}
+		
+		NodeDescriptor peer = c.awaitPeer(HANDSHAKE_TIMEOUT);
+		if (peer == null) {
+			c.loop.close(c);
+			throw new ConnectException("Handshake with " + url + " timed out");
+		}
+		return peer;
+	}
+	
+	@Override
+	public void closeLink(NodeDescriptor neighbor) {
+		Connection c = connections.get(neighbor);
+		if (c != null)
+			c.loop.close(c);
+	}
+	
+	@Override
+	public void send(String subject, Serializable payload, NodeDescriptor recipient, String trafficClass) 
+																	throws NotConnectedException {
+		Connection c = connections.get(recipient);
+		if (c == null)
+			throw new NotConnectedException();
+		try {
+			c.enqueue(codec.encode(subject, payload), TrafficPriority.of(subject, payload), 
+					TrafficPriority.isOrdered(subject));
+		} catch (IOException e) {
+			logger.error("Unable to encode " + subject + " for " + recipient, e);
+		}
+	}
+	
+	@Override
+	public void addDataListener(DataListener listener) {
+		dataListeners.add(listener);
+	}
+	
+	@Override
+	public void addLinkListener(LinkListener listener) {
+		linkListeners.add(listener);
+	}
+	
+	/**
+	 * Return the number of open links.
+	 */
+	public int getNumberOfLinks() {
+		return connections.size();
+	}
+	
+	private synchronized IOLoop nextLoop() {
+		IOLoop loop = loops[nextLoop];
+		nextLoop = (nextLoop + 1) % loops.length;
+		return loop;
+	}
+	
+	/**
+	 * I/O thread: it owns a selector and serves the connections registered with it.
+	 */
+	private class IOLoop extends Thread {
+		private Selector selector;
+		private ConcurrentLinkedQueue<Runnable> tasks;
+		
+		public IOLoop(int index) throws IOException {
+			super("NIOTransport-IO-" + index);
+			selector = Selector.open();
+			tasks = new ConcurrentLinkedQueue<Runnable>();
+			setDaemon(true);
+		}
+		
+		public void registerServer(final ServerSocketChannel server) {
+			execute(new Runnable() {
+				public void run() {
+					try {
+						server.register(selector, SelectionKey.OP_ACCEPT);
+					} catch (IOException e) {
+						logger.error("Unable to register the server channel", e);
+					}
+				}
+			});
+		}
+		
+		public void register(final Connection c) {
+			execute(new Runnable() {
+				public void run() {
+					try {
+						c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+						if (!c.outbound.isEmpty())
+							c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					} catch (IOException e) {
+						c.close();
+					}
+				}
+			});
+		}
+		
+		public void requestWrite(final Connection c) {
+			execute(new Runnable() {
+				public void run() {
+					if ((c.key != null) && c.key.isValid())
+						c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			});
+		}
+		
+		public void close(final Connection c) {
+			execute(new Runnable() {
+				public void run() {
+					c.close();
+				}
+			});
+		}
+		
+		public void wakeup() {
+			selector.wakeup();
+		}
+		
+		private void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+		
+		public void run() {
+			while (running) {
+				try {
+					selector.select();
+					Runnable task;
+					while ((task = tasks.poll()) != null)
+						task.run();
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							accept();
+						else {
+							Connection c = (Connection)key.attachment();
+							if (key.isReadable())
+								c.read();
+							if (key.isValid() && key.isWritable())
+								c.flush();
+						}
+					}
+				} catch (IOException e) {
+					logger.error("I/O error in " + getName(), e);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) { }
+		}
+		
+		private void accept() throws IOException {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				Connection c = new Connection(channel, nextLoop());
+				c.inbound = true;
+				c.loop.register(c);
+			}
+		}
+	}
+	
+	/**
+	 * An encoded frame waiting to be written.
+	 */
+	private static class Frame {
+		private ByteBuffer buffer;
+		private Priority priority;
+		
+		public Frame(ByteBuffer buffer, Priority priority) {
+			this.buffer = buffer;
+			this.priority = priority;
+		}
+	}
+	
+	/**
+	 * A link with a neighbor. Reads and writes are performed only by the I/O thread
+	 * of the connection, while frames can be enqueued by any thread.
+	 */
+	private class Connection implements FrameHandler {
+		private SocketChannel channel;
+		private IOLoop loop;
+		private SelectionKey key;
+		private FrameReader reader;
+		private PriorityLanes<Frame> outbound;
+		private ArrayDeque<Frame> writing;
+		private int bulkWriting;
+		private AtomicBoolean writeScheduled;
+		private volatile NodeDescriptor peer;
+		private CountDownLatch handshake;
+		private boolean inbound;
+		private AtomicBoolean closed;
+		
+		public Connection(SocketChannel channel, IOLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+			reader = new FrameReader(codec);
+			outbound = new PriorityLanes<Frame>(weights);
+			writing = new ArrayDeque<Frame>();
+			bulkWriting = 0;
+			writeScheduled = new AtomicBoolean(false);
+			handshake = new CountDownLatch(1);
+			inbound = false;
+			closed = new AtomicBoolean(false);
+		}
+		
+		public void enqueue(ByteBuffer frame, Priority priority) {
+			enqueue(frame, priority, false);
+		}
+		
+		/**
+		 * @param ordered Whether the frame must not be reordered with respect to the other classes.
+		 */
+		public void enqueue(ByteBuffer frame, Priority priority, boolean ordered) {
+			if (ordered)
+				outbound.putOrdered(priority, new Frame(frame, priority));
+			else
+				outbound.put(priority, new Frame(frame, priority));
+			if (writeScheduled.compareAndSet(false, true))
+				loop.requestWrite(this);
+		}
+		
+		public NodeDescriptor awaitPeer(long timeout) {
+			try {
+				handshake.await(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) { }
+			return peer;
+		}
+		
+		public void read() {
+			try {
+				if (reader.read(channel, this) < 0)
+					close();
+			} catch (IOException e) {
+				logger.info("Connection with " + peer + " closed: " + e.getMessage());
+				close();
+			}
+		}
+		
+		public void flush() {
+			try {
+				Frame frame;
+				while ((writing.size() < MAX_GATHER) && (bulkWriting == 0) && ((frame = outbound.poll()) != null)) {
+					writing.add(frame);
+					if (frame.priority == Priority.BULK)
+						bulkWriting++;
+				}
+				ByteBuffer[] batch = new ByteBuffer[writing.size()];
+				int i = 0;
+				for (Frame f : writing)
+					batch[i++] = f.buffer;
+				channel.write(batch);
+				while (!writing.isEmpty() && !writing.peekFirst().buffer.hasRemaining()) {
+					Frame done = writing.pollFirst();
+					if (done.priority == Priority.BULK)
+						bulkWriting--;
+					codec.getBufferPool().release(done.buffer);
+				}
+				
+				if (writing.isEmpty() && outbound.isEmpty()) {
+					key.interestOps(SelectionKey.OP_READ);
+					writeScheduled.set(false);
+					// A frame may have been enqueued after the check: keep writing
+					if (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true))
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			} catch (IOException e) {
+				logger.info("Connection with " + peer + " closed: " + e.getMessage());
+				close();
+			}
+		}
+		
+		public void frameReceived(String subject, Serializable payload) {
+			if (HELLO.equals(subject)) {
+				peer = (NodeDescriptor)payload;
+				connections.put(peer, this);
+				if (inbound) {
+					try {
+						enqueue(codec.encode(HELLO, myDescriptor), Priority.CONTROL);
+					} catch (IOException e) {
+						logger.error("Unable to answer the handshake of " + peer, e);
+					}
+				}
+				handshake.countDown();
+				for (LinkListener l : linkListeners)
+					l.notifyLinkAdded(peer);
+				return;
+			}
+			if (peer == null) {
+				logger.warn("Data received before the handshake: " + subject);
+				return;
+			}
+			for (DataListener l : dataListeners)
+				l.notifyDataArrived(subject, peer, payload);
+		}
+		
+		public void close() {
+			if (!closed.compareAndSet(false, true))
+				return;
+			try {
+				if (key != null)
+					key.cancel();
+				channel.close();
+			} catch (IOException e) { }
+			reader.release();
+			Frame frame;
+			while ((frame = writing.poll()) != null)
+				codec.getBufferPool().release(frame.buffer);
+			while ((frame = outbound.poll()) != null)
+				codec.getBufferPool().release(frame.buffer);
+			if ((peer != null) && connections.remove(peer, this))
+				for (LinkListener l : linkListeners)
+					l.notifyLinkRemoved(peer);
+		}
+	}
+}
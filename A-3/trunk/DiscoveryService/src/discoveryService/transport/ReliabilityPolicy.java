@@ -0,0 +1,97 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.Serializable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.broker.routing.Router;
+import discoveryService.core.Envelope;
+
+/**
+ * Decides which data sent by the UDP transports must be delivered reliably.
+ * <p>
+ * Everything is reliable (acknowledged, retransmitted, de-duplicated and delivered in
+ * FIFO order per peer) except the 
+ * messages published with a class registered as unreliable, or one of its subclasses, 
+ * also when sealed in an {@link Envelope}: they are sent fire-and-forget. Subscriptions, replies and the control data of the 
+ * transports are always reliable.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class ReliabilityPolicy {
+	private static Logger logger = Logger.getLogger(ReliabilityPolicy.class);
+	private CopyOnWriteArrayList<Class<?>> unreliable;
+	
+	/**
+	 * Create a policy in which all the data is reliable.
+	 */
+	public ReliabilityPolicy() {
+		unreliable = new CopyOnWriteArrayList<Class<?>>();
+	}
+	
+	/**
+	 * Create a policy in which the messages of the given classes are unreliable.
+	 * 
+	 * @param classNames Fully qualified names of the message classes. 
+	 */
+	public ReliabilityPolicy(String[] classNames) {
+		this();
+		if (classNames == null)
+			return;
+		for (String name : classNames) {
+			try {
+				setUnreliable(Class.forName(name.trim()));
+			} catch (ClassNotFoundException e) {
+				logger.warn("Unknown message class: " + name);
+			}
+		}
+	}
+	
+	/**
+	 * Send the messages of the given class (and of its subclasses) without acknowledgment.
+	 */
+	public void setUnreliable(Class<?> messageClass) {
+		unreliable.addIfAbsent(messageClass);
+	}
+	
+	/**
+	 * Check whether the given data must be delivered reliably.
+	 * 
+	 * @param subject The subject of the data.
+	 * @param payload The data.
+	 * @return <code>false</code> if the data is a published message of an unreliable class.
+	 */
+	public boolean isReliable(String subject, Serializable payload) {
+		if (!Router.PUBLISH.equals(subject) || (payload == null))
+			return true;
+		for (Class<?> c : unreliable) {
+			if (c.isInstance(payload))
+				return false;
+			if ((payload instanceof Envelope) && ((Envelope)payload).getHeader().isA(c))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,69 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.Serializable;
+
+import polimi.reds.Reply;
+import polimi.reds.broker.routing.Router;
+import discoveryService.core.Priority;
+
+/**
+ * Maps the data exchanged by the transports to its {@link Priority} class.
+ * <p>
+ * Subscriptions, handshakes and any other data that is not a message are <code>CONTROL</code>;
+ * published messages and replies have the priority of the message they carry.
+ * Subscription changes must not be reordered with respect to the messages of the other
+ * classes sent on the same link, as a broker would route them with the wrong subscriptions.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class TrafficPriority {
+	
+	private TrafficPriority() {
+	}
+	
+	/**
+	 * Return the priority of the given data.
+	 * 
+	 * @param subject The subject of the data.
+	 * @param payload The data.
+	 */
+	public static Priority of(String subject, Serializable payload) {
+		if (Router.PUBLISH.equals(subject))
+			return Priority.of(payload);
+		if (Router.REPLY.equals(subject) && (payload instanceof Reply))
+			return Priority.of(((Reply)payload).getPayload());
+		return Priority.CONTROL;
+	}
+	
+	/**
+	 * Check if the given data must keep its position with respect to the data of all 
+	 * the priority classes.
+	 * 
+	 * @param subject The subject of the data.
+	 * @return <code>true</code> for subscription changes.
+	 */
+	public static boolean isOrdered(String subject) {
+		return Router.SUBSCRIBE.equals(subject) || Router.UNSUBSCRIBE.equals(subject);
+	}
+}
@@ -0,0 +1,127 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.NodeDescriptor;
+
+/**
+ * Dispatching service connecting a node to a broker that uses the {@link UDPTransport}.
+ * <p>
+ * The node opens a link with the broker through the <code>HELLO</code>/<code>WELCOME</code>
+ * handshake of the transport and then exchanges data over an ephemeral {@link UDPEndpoint}.
+ * The {@link ReliabilityPolicy} decides which published messages are sent fire-and-forget.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class UDPDispatchingService extends AbstractDispatchingService implements UDPEndpoint.Listener {
+	private static Logger logger = Logger.getLogger(UDPDispatchingService.class);
+	private InetSocketAddress broker;
+	private ReliabilityPolicy policy;
+	private UDPEndpoint endpoint;
+	private Object handshake;
+	private boolean welcomed;
+	
+	/**
+	 * Create the dispatching service.
+	 * 
+	 * @param address The address of the broker (e.g. 127.0.0.1).
+	 * @param port The port of the broker.
+	 * @param policy The policy deciding which messages are delivered reliably.
+	 */
+	public UDPDispatchingService(String address, int port, ReliabilityPolicy policy) {
+		super();
+		broker = new InetSocketAddress(address, port);
+		this.policy = policy;
+		handshake = new Object();
+	}
+	
+	@Override
+	protected void connect() throws ConnectException {
+		endpoint = new UDPEndpoint(0, this);
+		welcomed = false;
+		try {
+			endpoint.start();
+			endpoint.send(broker, UDPTransport.HELLO, new NodeDescriptor(), true);
+		} catch (IOException e) {
+			endpoint.stop();
+			throw new ConnectException("Unable to contact " + broker + ": " + e.getMessage());
+		}
+		long deadline = System.currentTimeMillis() + UDPTransport.HANDSHAKE_TIMEOUT;
+		synchronized(handshake) {
+			long now;
+			while (!welcomed && ((now = System.currentTimeMillis()) < deadline)) {
+				try {
+					handshake.wait(deadline - now);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			if (!welcomed) {
+				endpoint.stop();
+				throw new ConnectException("Handshake with " + broker + " timed out");
+			}
+		}
+	}
+	
+	@Override
+	protected void disconnect() {
+		if (endpoint == null)
+			return;
+		try {
+			endpoint.send(broker, UDPTransport.BYE, new NodeDescriptor(), false);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		endpoint.stop();
+	}
+	
+	@Override
+	protected void send(String subject, Serializable payload) throws IOException {
+		endpoint.send(broker, subject, payload, policy.isReliable(subject, payload));
+	}
+	
+	public void received(InetSocketAddress source, String subject, Serializable payload) {
+		if (UDPTransport.WELCOME.equals(subject)) {
+			synchronized(handshake) {
+				welcomed = true;
+				handshake.notifyAll();
+			}
+			return;
+		}
+		if (UDPTransport.BYE.equals(subject)) {
+			logger.warn("The broker " + broker + " closed the link");
+			return;
+		}
+		super.received(subject, payload);
+	}
+	
+	public void unreachable(InetSocketAddress peer) {
+		logger.error("The broker " + peer + " is unreachable");
+	}
+}
@@ -0,0 +1,594 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Datagram socket shared by {@link UDPTransport} and {@link UDPDispatchingService}.
+ * <p>
+ * Data is encoded with {@link FrameCodec} and split into fragments that fit in a 
+ * datagram of at most <code>MAX_DATAGRAM_SIZE</code> bytes. Each datagram starts with
+ * a header:
+ * </p>
+ * <pre>
+ * type (1) | flags (1) | incarnation (4) | sequence (4) | stream (4) | order (4) | fragment (2) | fragments (2)
+ * </pre>
+ * <p>
+ * Reliable data is acknowledged by the receiver once all its fragments have arrived and
+ * is retransmitted with exponential back-off until the acknowledgment is received or 
+ * <code>maxAttempts</code> is reached; in the latter case the peer is reported as 
+ * unreachable. The receiver discards the duplicates of the reliable data it has already 
+ * delivered. Unreliable data is sent once and an incomplete message is dropped after
+ * <code>REASSEMBLY_TIMEOUT</code> milliseconds. The incarnation is chosen at random when 
+ * the endpoint is created so that a restarted peer is not mistaken for a duplicate.
+ * </p>
+ * <p>
+ * Reliable data is delivered in FIFO order per peer: it carries its position (order) in
+ * the stream of reliable data sent to the peer, and the receiver holds the data arriving
+ * ahead of a missing one until the gap is filled. When a peer is reported unreachable or
+ * forgotten, the reliable data still pending for it is dropped and the following data
+ * opens a new stream, so that the receiver does not wait forever for the lost data.
+ * Unreliable data is delivered as soon as it arrives and it is not ordered with respect
+ * to any other data.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class UDPEndpoint {
+	/**
+	 * Maximum size in bytes of a datagram (header included), small enough to avoid
+	 * IP fragmentation on Ethernet.
+	 */
+	public final static int MAX_DATAGRAM_SIZE = 1400;
+	/**
+	 * Size in bytes of the header of a datagram.
+	 */
+	public final static int HEADER_SIZE = 22;
+	/**
+	 * Maximum number of fragments of a message.
+	 */
+	public final static int MAX_FRAGMENTS = Short.MAX_VALUE;
+	/**
+	 * Default time in milliseconds after which unacknowledged data is retransmitted.
+	 */
+	public final static int DEFAULT_RETRANSMIT_TIMEOUT = 200;
+	/**
+	 * Default number of transmissions of reliable data before giving up.
+	 */
+	public final static int DEFAULT_MAX_ATTEMPTS = 8;
+	/**
+	 * Time in milliseconds after which an incomplete message is dropped.
+	 */
+	public final static int REASSEMBLY_TIMEOUT = 10000;
+	
+	private final static byte DATA = 1;
+	private final static byte ACK = 2;
+	private final static byte RELIABLE = 1;
+	private final static int FRAGMENT_SIZE = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+	private final static int SOCKET_BUFFER_SIZE = 1024 * 1024;
+	private static Logger logger = Logger.getLogger(UDPEndpoint.class);
+	
+	/**
+	 * Receiver of the data arriving at an endpoint.
+	 */
+	public interface Listener {
+		/**
+		 * Data has been received.
+		 * 
+		 * @param source The address of the sender.
+		 */
+		public void received(InetSocketAddress source, String subject, Serializable payload);
+		
+		/**
+		 * Reliable data sent to a peer has not been acknowledged.
+		 * 
+		 * @param peer The address of the peer.
+		 */
+		public void unreachable(InetSocketAddress peer);
+	}
+	
+	private int port;
+	private DatagramChannel channel;
+	private Listener listener;
+	private FrameCodec codec;
+	private int incarnation;
+	private AtomicInteger sequence;
+	private int lastStream;
+	private HashMap<InetSocketAddress, Stream> streams;
+	private ConcurrentHashMap<Integer, Pending> pending;
+	private HashMap<String, Reassembly> reassemblies;
+	private HashMap<InetSocketAddress, Peer> peers;
+	private int retransmitTimeout;
+	private int maxAttempts;
+	private Receiver receiver;
+	private Retransmitter retransmitter;
+	private volatile boolean running;
+	
+	/**
+	 * Create the endpoint.
+	 * 
+	 * @param port The local port (0 for an ephemeral port).
+	 * @param listener The receiver of the data.
+	 */
+	public UDPEndpoint(int port, Listener listener) {
+		this.port = port;
+		this.listener = listener;
+		codec = new FrameCodec(new BufferPool(MAX_DATAGRAM_SIZE, 0));
+		incarnation = new Random().nextInt();
+		sequence = new AtomicInteger(0);
+		lastStream = 0;
+		streams = new HashMap<InetSocketAddress, Stream>();
+		pending = new ConcurrentHashMap<Integer, Pending>();
+		reassemblies = new HashMap<String, Reassembly>();
+		peers = new HashMap<InetSocketAddress, Peer>();
+		retransmitTimeout = DEFAULT_RETRANSMIT_TIMEOUT;
+		maxAttempts = DEFAULT_MAX_ATTEMPTS;
+		running = false;
+	}
+	
+	public void setRetransmitTimeout(int timeout) {
+		retransmitTimeout = timeout;
+	}
+	
+	public void setMaxAttempts(int attempts) {
+		maxAttempts = attempts;
+	}
+	
+	/**
+	 * Bind the socket and start the receiver and retransmitter threads.
+	 * 
+	 * @throws IOException If the socket cannot be bound.
+	 */
+	public void start() throws IOException {
+		channel = DatagramChannel.open();
+		channel.socket().setReuseAddress(true);
+		channel.socket().setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+		channel.socket().setSendBufferSize(SOCKET_BUFFER_SIZE);
+		channel.socket().bind(new InetSocketAddress(port));
+		port = channel.socket().getLocalPort();
+		running = true;
+		receiver = new Receiver();
+		receiver.start();
+		retransmitter = new Retransmitter();
+		retransmitter.start();
+	}
+	
+	public void stop() {
+		running = false;
+		if (retransmitter != null)
+			retransmitter.interrupt();
+		try {
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		pending.clear();
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Return the local port of the endpoint.
+	 */
+	public int getPort() {
+		return port;
+	}
+	
+	/**
+	 * Send data to a peer.
+	 * 
+	 * @param address The address of the peer.
+	 * @param subject The subject of the data.
+	 * @param payload The data.
+	 * @param reliable Whether the data must be acknowledged and retransmitted.
+	 * @throws IOException If the data cannot be encoded or sent.
+	 */
+	public void send(InetSocketAddress address, String subject, Serializable payload, boolean reliable) 
+																		throws IOException {
+		byte[] body = codec.encodeBody(subject, payload);
+		int fragments = Math.max(1, (body.length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE);
+		if (fragments > MAX_FRAGMENTS)
+			throw new IOException("Data too large for a datagram transport: " + body.length + " bytes");
+		
+		int seq = sequence.incrementAndGet();
+		Stream stream = null;
+		int order = 0;
+		if (reliable) {
+			synchronized(streams) {
+				stream = streams.get(address);
+				if (stream == null) {
+					stream = new Stream(++lastStream);
+					streams.put(address, stream);
+				}
+				order = ++stream.next;
+			}
+		}
+		ByteBuffer[] datagrams = new ByteBuffer[fragments];
+		for (int i = 0; i < fragments; i++) {
+			int offset = i * FRAGMENT_SIZE;
+			int length = Math.min(FRAGMENT_SIZE, body.length - offset);
+			ByteBuffer datagram = ByteBuffer.allocate(HEADER_SIZE + length);
+			datagram.put(DATA);
+			datagram.put(reliable ? RELIABLE : 0);
+			datagram.putInt(incarnation);
+			datagram.putInt(seq);
+			datagram.putInt(reliable ? stream.id : 0);
+			datagram.putInt(order);
+			datagram.putShort((short)i);
+			datagram.putShort((short)fragments);
+			datagram.put(body, offset, length);
+			datagram.flip();
+			datagrams[i] = datagram;
+		}
+		if (reliable) {
+			synchronized(streams) {
+				// the stream has been reset in the meantime: its data is dropped
+				if (streams.get(address) != stream)
+					return;
+				pending.put(seq, new Pending(address, datagrams, System.currentTimeMillis() + retransmitTimeout));
+			}
+		}
+		transmit(address, datagrams);
+	}
+	
+	private void transmit(SocketAddress address, ByteBuffer[] datagrams) throws IOException {
+		for (ByteBuffer datagram : datagrams)
+			channel.send(datagram.duplicate(), address);
+	}
+	
+	private void received(InetSocketAddress source, ByteBuffer datagram) throws IOException {
+		if (datagram.remaining() < HEADER_SIZE) {
+			logger.warn("Truncated datagram from " + source);
+			return;
+		}
+		byte type = datagram.get();
+		boolean reliable = (datagram.get() & RELIABLE) != 0;
+		int senderIncarnation = datagram.getInt();
+		int seq = datagram.getInt();
+		int stream = datagram.getInt();
+		int order = datagram.getInt();
+		int fragment = datagram.getShort();
+		int fragments = datagram.getShort();
+		
+		if (type == ACK) {
+			if (senderIncarnation == incarnation)
+				pending.remove(seq);
+			return;
+		}
+		if ((type != DATA) || (fragments <= 0) || (fragment < 0) || (fragment >= fragments)) {
+			logger.warn("Malformed datagram from " + source);
+			return;
+		}
+		
+		Peer peer = getPeer(source, senderIncarnation);
+		if (reliable && !peer.isExpected(stream, order)) {
+			acknowledge(source, senderIncarnation, seq);
+			return;
+		}
+		
+		byte[] body;
+		int length;
+		if (fragments == 1) {
+			length = datagram.remaining();
+			body = new byte[length];
+			datagram.get(body);
+		}
+		else {
+			String key = source + "/" + senderIncarnation + "/" + seq;
+			Reassembly r;
+			synchronized(reassemblies) {
+				r = reassemblies.get(key);
+				if (r == null) {
+					r = new Reassembly(fragments);
+					reassemblies.put(key, r);
+				}
+				if (!r.add(fragment, datagram))
+					return;
+				reassemblies.remove(key);
+			}
+			length = r.length;
+			body = r.join();
+		}
+		
+		if (!reliable) {
+			deliver(source, body, length);
+			return;
+		}
+		acknowledge(source, senderIncarnation, seq);
+		for (byte[] ready : peer.received(stream, order, body))
+			deliver(source, ready, ready.length);
+	}
+	
+	private void deliver(final InetSocketAddress source, byte[] body, int length) {
+		try {
+			codec.decode(body, 0, length, new FrameHandler() {
+				public void frameReceived(String subject, Serializable payload) {
+					listener.received(source, subject, payload);
+				}
+			});
+		} catch (IOException e) {
+			logger.warn("Malformed data from " + source + ": " + e.getMessage());
+		}
+	}
+	
+	private void acknowledge(InetSocketAddress source, int senderIncarnation, int seq) throws IOException {
+		ByteBuffer ack = ByteBuffer.allocate(HEADER_SIZE);
+		ack.put(ACK);
+		ack.put((byte)0);
+		ack.putInt(senderIncarnation);
+		ack.putInt(seq);
+		ack.putInt(0);
+		ack.putInt(0);
+		ack.putShort((short)0);
+		ack.putShort((short)1);
+		ack.flip();
+		channel.send(ack, source);
+	}
+	
+	private Peer getPeer(InetSocketAddress address, int peerIncarnation) {
+		synchronized(peers) {
+			Peer peer = peers.get(address);
+			if ((peer == null) || (peer.incarnation != peerIncarnation)) {
+				peer = new Peer(peerIncarnation);
+				peers.put(address, peer);
+			}
+			return peer;
+		}
+	}
+	
+	/**
+	 * Forget the state kept for a peer.
+	 */
+	public void forget(InetSocketAddress address) {
+		synchronized(peers) {
+			peers.remove(address);
+		}
+		resetStream(address);
+	}
+	
+	/**
+	 * Drop the reliable data pending for a peer and open a new stream for the following data.
+	 */
+	private void resetStream(InetSocketAddress address) {
+		synchronized(streams) {
+			streams.remove(address);
+			Iterator<Pending> it = pending.values().iterator();
+			while (it.hasNext())
+				if (it.next().address.equals(address))
+					it.remove();
+		}
+	}
+	
+	/**
+	 * Reliable data waiting for the acknowledgment.
+	 */
+	private static class Pending {
+		private InetSocketAddress address;
+		private ByteBuffer[] datagrams;
+		private long deadline;
+		private int attempts;
+		
+		public Pending(InetSocketAddress address, ByteBuffer[] datagrams, long deadline) {
+			this.address = address;
+			this.datagrams = datagrams;
+			this.deadline = deadline;
+			attempts = 1;
+		}
+	}
+	
+	/**
+	 * Fragments of a message being received.
+	 */
+	private static class Reassembly {
+		private ByteBuffer[] fragments;
+		private int missing;
+		private int length;
+		private long started;
+		
+		public Reassembly(int count) {
+			fragments = new ByteBuffer[count];
+			missing = count;
+			length = 0;
+			started = System.currentTimeMillis();
+		}
+		
+		/**
+		 * @return <code>true</code> when all the fragments have arrived.
+		 */
+		public boolean add(int index, ByteBuffer datagram) {
+			if (fragments[index] == null) {
+				ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+				copy.put(datagram);
+				copy.flip();
+				fragments[index] = copy;
+				length += copy.remaining();
+				missing--;
+			}
+			return missing == 0;
+		}
+		
+		public byte[] join() {
+			byte[] body = new byte[length];
+			int offset = 0;
+			for (ByteBuffer f : fragments) {
+				int n = f.remaining();
+				f.get(body, offset, n);
+				offset += n;
+			}
+			return body;
+		}
+	}
+	
+	/**
+	 * Stream of the reliable data sent to a peer.
+	 */
+	private static class Stream {
+		private int id;
+		private int next;
+		
+		public Stream(int id) {
+			this.id = id;
+			next = 0;
+		}
+	}
+	
+	/**
+	 * Position in the stream of the reliable data received from a peer and the data 
+	 * arrived ahead of it.
+	 */
+	private static class Peer {
+		private int incarnation;
+		private int stream;
+		private int expected;
+		private TreeMap<Integer, byte[]> ahead;
+		
+		public Peer(int incarnation) {
+			this.incarnation = incarnation;
+			stream = 0;
+			expected = 1;
+			ahead = new TreeMap<Integer, byte[]>();
+		}
+		
+		/**
+		 * @return <code>false</code> if the data is a duplicate or belongs to an old stream.
+		 */
+		public synchronized boolean isExpected(int dataStream, int order) {
+			if (dataStream != stream)
+				return dataStream > stream;
+			return (order >= expected) && !ahead.containsKey(order);
+		}
+		
+		/**
+		 * Record the reliable data received.
+		 * 
+		 * @return The data that can be delivered, in order.
+		 */
+		public synchronized List<byte[]> received(int dataStream, int order, byte[] body) {
+			List<byte[]> ready = new ArrayList<byte[]>();
+			if (dataStream > stream) {
+				// the sender dropped the previous stream
+				stream = dataStream;
+				expected = 1;
+				ahead.clear();
+			}
+			if ((dataStream < stream) || (order < expected))
+				return ready;
+			ahead.put(order, body);
+			byte[] next;
+			while ((next = ahead.remove(expected)) != null) {
+				ready.add(next);
+				expected++;
+			}
+			return ready;
+		}
+	}
+	
+	private class Receiver extends Thread {
+		public Receiver() {
+			super("UDPEndpoint-Receiver-" + port);
+			setDaemon(true);
+		}
+		
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+			while (running) {
+				try {
+					buffer.clear();
+					InetSocketAddress source = (InetSocketAddress)channel.receive(buffer);
+					buffer.flip();
+					if (source != null)
+						received(source, buffer);
+				} catch (IOException e) {
+					if (running)
+						logger.error("Error receiving on port " + port, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Retransmits the unacknowledged data and drops the stale reassemblies.
+	 */
+	private class Retransmitter extends Thread {
+		public Retransmitter() {
+			super("UDPEndpoint-Retransmitter-" + port);
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (running) {
+				try {
+					sleep(Math.max(retransmitTimeout / 4, 10));
+				} catch (InterruptedException e) {
+					break;
+				}
+				long now = System.currentTimeMillis();
+				Iterator<Map.Entry<Integer, Pending>> it = pending.entrySet().iterator();
+				while (it.hasNext()) {
+					Pending p = it.next().getValue();
+					if (p.deadline > now)
+						continue;
+					if (p.attempts >= maxAttempts) {
+						it.remove();
+						resetStream(p.address);
+						logger.warn("No acknowledgment from " + p.address + " after " + p.attempts + " attempts");
+						listener.unreachable(p.address);
+						continue;
+					}
+					p.attempts++;
+					p.deadline = now + ((long)retransmitTimeout << Math.min(p.attempts - 1, 6));
+					try {
+						transmit(p.address, p.datagrams);
+					} catch (IOException e) {
+						if (running)
+							logger.error("Unable to retransmit to " + p.address, e);
+					}
+				}
+				synchronized(reassemblies) {
+					Iterator<Reassembly> r = reassemblies.values().iterator();
+					while (r.hasNext())
+						if (now - r.next().started > REASSEMBLY_TIMEOUT)
+							r.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/***
+ * * A-3 DiscoveryService
+ * * <mailto: leleplx@gmail.com>
+ * *
+ * * This library is free software; you can redistribute it and/or modify it
+ * * under the terms of the GNU Lesser General Public License as published by
+ * * the Free Software Foundation; either version 2.1 of the License, or (at
+ * * your option) any later version.
+ * *
+ * * This library is distributed in the hope that it will be useful, but
+ * * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+ * * General Public License for more details.
+ * *
+ * * You should have received a copy of the GNU Lesser General Public License
+ * * along with this library; if not, write to the Free Software Foundation,
+ * * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package discoveryService.transport;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import polimi.reds.NodeDescriptor;
+import polimi.reds.broker.overlay.DataListener;
+import polimi.reds.broker.overlay.LinkListener;
+import polimi.reds.broker.overlay.NotConnectedException;
+import polimi.reds.broker.overlay.Transport;
+
+/**
+ * Implementation of the REDS {@link Transport} on top of UDP.
+ * <p>
+ * All the links share a single {@link UDPEndpoint}, so there is no connection set-up
+ * cost and a lost datagram only delays the message it belongs to. Whether a message is
+ * acknowledged and retransmitted is decided by a {@link ReliabilityPolicy}: high-rate
+ * traffic that is superseded by the next update (e.g. {@link discoveryService.core.status.Status})
+ * can be sent fire-and-forget while tasks and replies stay reliable. Reliable data, that
+ * includes subscriptions and the other control data, is delivered in FIFO order per peer;
+ * unreliable data is not ordered.
+ * </p>
+ * <p>
+ * A link is opened by sending a <code>HELLO</code> carrying the {@link NodeDescriptor} of the 
+ * node, answered by a <code>WELCOME</code> carrying the descriptor of the peer. A link is
+ * removed when the peer sends <code>BYE</code> or does not acknowledge reliable data. 
+ * Both brokers and {@link UDPDispatchingService} clients can open links with the transport.
+ * </p>
+ * 
+ * @author leleplx@gmail.com (emanuele)
+ *
+ */
+public class UDPTransport implements Transport, UDPEndpoint.Listener {
+	/**
+	 * Prefix of the URLs of the transport (e.g. reds-udp:127.0.0.1:1911).
+	 */
+	public final static String URL_PREFIX = "reds-udp";
+	/**
+	 * Subject of the data opening a link.
+	 */
+	public final static String HELLO = "__UDP_HELLO";
+	/**
+	 * Subject of the answer to <code>HELLO</code>.
+	 */
+	public final static String WELCOME = "__UDP_WELCOME";
+	/**
+	 * Subject of the data closing a link.
+	 */
+	public final static String BYE = "__UDP_BYE";
+	/**
+	 * Time in milliseconds waited for the <code>WELCOME</code> when a link is opened.
+	 */
+	public final static int HANDSHAKE_TIMEOUT = 5000;
+	private static Logger logger = Logger.getLogger(UDPTransport.class);
+	
+	private String url;
+	private NodeDescriptor myDescriptor;
+	private UDPEndpoint endpoint;
+	private ReliabilityPolicy policy;
+	private ConcurrentHashMap<NodeDescriptor, InetSocketAddress> addresses;
+	private ConcurrentHashMap<InetSocketAddress, NodeDescriptor> neighbors;
+	private CopyOnWriteArrayList<DataListener> dataListeners;
+	private CopyOnWriteArrayList<LinkListener> linkListeners;
+	
+	/**
+	 * Create the transport.
+	 * 
+	 * @param port The port on which the transport receives the datagrams.
+	 * @param policy The policy deciding which messages are delivered reliably.
+	 */
+	public UDPTransport(int port, ReliabilityPolicy policy) {
+		String address;
+		try {
+			address = InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			address = "127.0.0.1";
+		}
+		url = URL_PREFIX + ":" + address + ":" + port;
+		this.policy = policy;
+		endpoint = new UDPEndpoint(port, this);
+		addresses = new ConcurrentHashMap<NodeDescriptor, InetSocketAddress>();
+		neighbors = new ConcurrentHashMap<InetSocketAddress, NodeDescriptor>();
+		dataListeners = new CopyOnWriteArrayList<DataListener>();
+		linkListeners = new CopyOnWriteArrayList<LinkListener>();
+		myDescriptor = new NodeDescriptor();
+	}
+	
+	/**
+	 * Return the endpoint used by the transport, e.g. to tune retransmissions.
+	 */
+	public UDPEndpoint getEndpoint() {
+		return endpoint;
+	}
+	
+	@Override
+	public void start() {
+		try {
+			endpoint.start();
+			logger.info("UDP transport listening on " + url);
+		} catch (IOException e) {
+			logger.error("Unable to start the UDP transport on " + url, e);
+		}
+	}
+	
+	@Override
+	public void stop() {
+		for (InetSocketAddress address : neighbors.keySet())
+			sendSafely(address, BYE, myDescriptor, false);
+		endpoint.stop();
+	}
+	
+	@Override
+	public boolean isRunning() {
+		return endpoint.isRunning();
+	}
+	
+	@Override
+	public String getURL() {
+		return url;
+	}
+	
+	@Override
+	public void setNodeDescriptor(NodeDescriptor descriptor) {
+		myDescriptor = descriptor;
+	}
+	
+	@Override
+	public NodeDescriptor openLink(String url) throws MalformedURLException, ConnectException {
+		String[] parts = url.split(":");
+		if ((parts.length != 3) || !parts[0].equals(URL_PREFIX))
+			throw new MalformedURLException("Not a " + URL_PREFIX + " URL: " + url);
+		InetSocketAddress address;
+		try {
+			address = new InetSocketAddress(parts[1], Integer.parseInt(parts[2]));
+		} catch (NumberFormatException e) {
+			throw new MalformedURLException("Invalid port in " + url);
+		}
+		
+		try {
+			endpoint.send(address, HELLO, myDescriptor, true);
+		} catch (IOException e) {
+			throw new ConnectException("Unable to contact " + url + ": " + e.getMessage());
+		}
+		long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+		synchronized(neighbors) {
+			long now;
+			while (!neighbors.containsKey(address) && ((now = System.currentTimeMillis()) < deadline)) {
+				try {
+					neighbors.wait(deadline - now);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+		NodeDescriptor peer = neighbors.get(address);
+		if (peer == null)
+			throw new ConnectException("Handshake with " + url + " timed out");
+		return peer;
+	}
+	
+	@Override
+	public void closeLink(NodeDescriptor neighbor) {
+		InetSocketAddress address = addresses.get(neighbor);
+		if (address == null)
+			return;
+		// The state of the peer is dropped right away: BYE is sent only once
+		sendSafely(address, BYE, myDescriptor, false);
+		removeLink(address);
+	}
+	
+	@Override
+	public void send(String subject, Serializable payload, NodeDescriptor recipient, String trafficClass) 
+																	throws NotConnectedException {
+		InetSocketAddress address = addresses.get(recipient);
+		if (address == null)
+			throw new NotConnectedException();
+		sendSafely(address, subject, payload, policy.isReliable(subject, payload));
+	}
+	
+	@Override
+	public void addDataListener(DataListener listener) {
+		dataListeners.add(listener);
+	}
+	
+	@Override
+	public void addLinkListener(LinkListener listener) {
+		linkListeners.add(listener);
+	}
+	
+	/**
+	 * Return the number of open links.
+	 */
+	public int getNumberOfLinks() {
+		return neighbors.size();
+	}
+	
+	public void received(InetSocketAddress source, String subject, Serializable payload) {
+		if (HELLO.equals(subject) || WELCOME.equals(subject)) {
+			addLink(source, (NodeDescriptor)payload);
+			if (HELLO.equals(subject))
+				sendSafely(source, WELCOME, myDescriptor, true);
+			return;
+		}
+		if (BYE.equals(subject)) {
+			removeLink(source);
+			return;
+		}
+		NodeDescriptor peer = neighbors.get(source);
+		if (peer == null) {
+			logger.warn("Data received from " + source + " without a link: " + subject);
+			return;
+		}
+		for (DataListener l : dataListeners)
+			l.notifyDataArrived(subject, peer, payload);
+	}
+	
+	public void unreachable(InetSocketAddress peer) {
+		removeLink(peer);
+	}
+	
+	private void addLink(InetSocketAddress address, NodeDescriptor peer) {
+		NodeDescriptor old;
+		synchronized(neighbors) {
+			old = neighbors.put(address, peer);
+			addresses.put(peer, address);
+			neighbors.notifyAll();
+		}
+		if (peer.equals(old))
+			return;
+		if (old != null) {
+			addresses.remove(old);
+			for (LinkListener l : linkListeners)
+				l.notifyLinkRemoved(old);
+		}
+		for (LinkListener l : linkListeners)
+			l.notifyLinkAdded(peer);
+	}
+	
+	private void removeLink(InetSocketAddress address) {
+		NodeDescriptor peer = neighbors.remove(address);
+		endpoint.forget(address);
+		if (peer == null)
+			return;
+		addresses.remove(peer, address);
+		for (LinkListener l : linkListeners)
+			l.notifyLinkRemoved(peer);
+	}
+	
+	private void sendSafely(InetSocketAddress address, String subject, Serializable payload, boolean reliable) {
+		try {
+			endpoint.send(address, subject, payload, reliable);
+		} catch (IOException e) {
+			logger.error("Unable to send " + subject + " to " + address, e);
+		}
+	}
+}